@@ -0,0 +1,40 @@
+package no.cantara.realestate.metasys.cloudconnector.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Payloads for the benchmarks, read from src/test/resources.
+ */
+final class BenchmarkResources {
+
+    private BenchmarkResources() {
+    }
+
+    static String read(String resource) {
+        try (InputStream inputStream = BenchmarkResources.class.getClassLoader().getResourceAsStream(resource)) {
+            if (inputStream == null) {
+                throw new IllegalStateException("Missing test resource: " + resource);
+            }
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read test resource: " + resource, e);
+        }
+    }
+
+    /**
+     * The SSE event in resource, repeated count times, each terminated by a blank line as on the wire.
+     */
+    static List<String> sseLines(String resource, int count) {
+        List<String> eventLines = read(resource).lines().filter(line -> !line.isEmpty()).toList();
+        List<String> lines = new ArrayList<>((eventLines.size() + 1) * count);
+        for (int i = 0; i < count; i++) {
+            lines.addAll(eventLines);
+            lines.add("");
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,79 @@
+package no.cantara.realestate.metasys.cloudconnector.benchmark;
+
+import no.cantara.realestate.metasys.cloudconnector.trends.CsvTrendsLastUpdatedService;
+import no.cantara.realestate.sensors.metasys.MetasysSensorId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Updating lastUpdatedAt for every subscribed sensor, and persisting the csv file after an ingestion cycle.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CsvTrendsLastUpdatedServiceBenchmark {
+
+    @Param({"1000", "10000"})
+    public int numberOfSensors;
+
+    private Path directory;
+    private CsvTrendsLastUpdatedService trendsLastUpdatedService;
+    private List<MetasysSensorId> sensorIds;
+    private Instant observedAt;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("jmh-trends-last-updated");
+        trendsLastUpdatedService = new CsvTrendsLastUpdatedService(directory.toString(), "trends_last_updated.csv", "trends_last_failed.csv");
+        sensorIds = new ArrayList<>(numberOfSensors);
+        for (int i = 0; i < numberOfSensors; i++) {
+            sensorIds.add(new MetasysSensorId("Sensor-" + i, "05ccd193-a3f9-5db7-9c72-" + String.format("%012d", i)));
+        }
+        observedAt = Instant.parse("2023-05-24T00:00:00Z");
+        setLastUpdatedAt();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void setLastUpdatedAt() {
+        observedAt = observedAt.plusSeconds(900);
+        for (MetasysSensorId sensorId : sensorIds) {
+            trendsLastUpdatedService.setLastUpdatedAt(sensorId, observedAt);
+        }
+    }
+
+    @Benchmark
+    public void persistLastUpdated() {
+        trendsLastUpdatedService.persistLastUpdated(sensorIds);
+    }
+}
@@ -0,0 +1,104 @@
+package no.cantara.realestate.metasys.cloudconnector.benchmark;
+
+import no.cantara.realestate.metasys.cloudconnector.observations.CompactObservation;
+import no.cantara.realestate.metasys.cloudconnector.observations.filter.DeadbandObservationFilter;
+import no.cantara.realestate.metasys.cloudconnector.observations.filter.DeadbandSettings;
+import no.cantara.realestate.metasys.cloudconnector.observations.filter.DeduplicatingObservationFilter;
+import no.cantara.realestate.metasys.cloudconnector.observations.filter.ObservationFilterChain;
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorIndex;
+import no.cantara.realestate.observations.ConfigMessage;
+import no.cantara.realestate.observations.ConfigValue;
+import no.cantara.realestate.observations.ObservationListener;
+import no.cantara.realestate.observations.ObservedValue;
+import no.cantara.realestate.sensors.metasys.MetasysSensorId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Observations through the dedup and deadband filters, as ObservedValue and as CompactObservation.
+ * Most values are within the deadband and dropped, as for slowly changing temperatures. Compare gc.alloc.rate.norm
+ * of the two with the gc profiler.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ObservationFilterChainBenchmark {
+    private static final int SENSORS = 1000;
+    private static final int OBSERVATIONS_PER_INVOCATION = 1000;
+
+    private ObservationFilterChain chain;
+    private MetasysSensorId[] sensorIds;
+    private long observedAtMillis;
+    private long distributed;
+
+    @Setup
+    public void setUp() {
+        SensorIndex sensorIndex = new SensorIndex();
+        chain = new ObservationFilterChain(new ObservationListener() {
+            @Override
+            public void observedValue(ObservedValue observedValue) {
+                distributed++;
+            }
+
+            @Override
+            public void observedConfigValue(ConfigValue configValue) {
+            }
+
+            @Override
+            public void observedConfigMessage(ConfigMessage configMessage) {
+            }
+
+            @Override
+            public Instant getWhenLastMessageObserved() {
+                return null;
+            }
+        });
+        chain.setSensorIndex(sensorIndex);
+        chain.addFilter(new DeduplicatingObservationFilter(sensorIndex, 30_000));
+        chain.addFilter(new DeadbandObservationFilter(sensorIndex, new DeadbandSettings(0.5, 0, 15 * 60 * 1000, false), Map.of(), Map.of()));
+        sensorIds = new MetasysSensorId[SENSORS];
+        for (int i = 0; i < SENSORS; i++) {
+            sensorIds[i] = new MetasysSensorId("Sensor-" + i, "objectId-" + i);
+        }
+        observedAtMillis = Instant.parse("2024-01-01T10:00:00Z").toEpochMilli();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OBSERVATIONS_PER_INVOCATION)
+    public long observedValue() {
+        for (int i = 0; i < OBSERVATIONS_PER_INVOCATION; i++) {
+            observedAtMillis += 1000;
+            // BigDecimal, as parsed by Jackson
+            chain.observedValue(new ObservedValue(sensorIds[i % SENSORS], new BigDecimal("21." + (i & 3)), Instant.ofEpochMilli(observedAtMillis)));
+        }
+        return distributed;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OBSERVATIONS_PER_INVOCATION)
+    public long compactObservation() {
+        CompactObservation observation = new CompactObservation();
+        for (int i = 0; i < OBSERVATIONS_PER_INVOCATION; i++) {
+            observedAtMillis += 1000;
+            chain.observed(observation.set(sensorIds[i % SENSORS], observedAtMillis, 21.0 + (i & 3) / 10d, (byte) 0));
+        }
+        return distributed;
+    }
+}
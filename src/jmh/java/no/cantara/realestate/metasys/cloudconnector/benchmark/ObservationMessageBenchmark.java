@@ -0,0 +1,97 @@
+package no.cantara.realestate.metasys.cloudconnector.benchmark;
+
+import no.cantara.realestate.metasys.cloudconnector.automationserver.MetasysTrendSample;
+import no.cantara.realestate.metasys.cloudconnector.automationserver.MetasysTrendSampleResult;
+import no.cantara.realestate.metasys.cloudconnector.automationserver.TrendSamplesMapper;
+import no.cantara.realestate.metasys.cloudconnector.automationserver.stream.ObservedValueNumber;
+import no.cantara.realestate.metasys.cloudconnector.observations.MetasysObservationMessage;
+import no.cantara.realestate.metasys.cloudconnector.observations.ObservationTemplate;
+import no.cantara.realestate.metasys.cloudconnector.observations.ObservationTemplates;
+import no.cantara.realestate.metasys.cloudconnector.sensors.MetasysCsvSensorImporter;
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorType;
+import no.cantara.realestate.rec.RecTags;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the ObservationMessage distributed per observation, and the SensorType lookup it does.
+ * RecTags are taken from the import CSV in src/test/resources/test-import-data. The WithTemplate benchmarks use the
+ * RecTags as resolved once per sensor by ObservationTemplates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ObservationMessageBenchmark {
+    /**
+     * Spellings of SensorType found in the import files, mapped through the switch and the contains check.
+     */
+    private static final String[] SENSOR_TYPES = {"temp", "co2", "RT", "RY", "Tilstedevarelse", "tilstedeværelse",
+            "relativeHumidity", "energy", "temp_børverdi", "unknown-type"};
+
+    private RecTags recTags;
+    private ObservationTemplates templates;
+    private MetasysTrendSample trendSample;
+    private ObservedValueNumber streamValue;
+
+    @Setup
+    public void setUp() throws URISyntaxException {
+        String importDirectory = Paths.get(getClass().getClassLoader().getResource("test-import-data").toURI()).toString();
+        recTags = MetasysCsvSensorImporter.importRecTagsFromDirectory(importDirectory, "Metasys").get(0);
+        templates = new ObservationTemplates();
+        templates.register(recTags);
+
+        MetasysTrendSampleResult trendSamples = TrendSamplesMapper.mapFromJson(BenchmarkResources.read("trend/TrendSamplesOneDay.json"));
+        trendSample = trendSamples.getItems().get(0);
+        streamValue = new ObservedValueNumber("61abb522-7173-57f6-9dc2-11e89d51ctbd", 408,
+                "tbdw-adx-01:building001-434402-OS01/BACnet IP.E433_101-OU001.R1027.-RY601");
+        streamValue.setObservedAt(Instant.parse("2023-05-24T00:15:00Z"));
+    }
+
+    @Benchmark
+    public MetasysObservationMessage buildObservationFromTrendSample() {
+        return new MetasysObservationMessage(trendSample, recTags);
+    }
+
+    @Benchmark
+    public MetasysObservationMessage buildObservationFromStreamValue() {
+        return new MetasysObservationMessage(streamValue, recTags);
+    }
+
+    @Benchmark
+    public MetasysObservationMessage buildObservationFromTrendSampleWithTemplate() {
+        ObservationTemplate template = templates.get(recTags);
+        return new MetasysObservationMessage(trendSample, template);
+    }
+
+    @Benchmark
+    public MetasysObservationMessage buildObservationFromStreamValueWithTemplate() {
+        ObservationTemplate template = templates.get(recTags);
+        return new MetasysObservationMessage(streamValue, template);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(10)
+    public void sensorTypeFrom(Blackhole blackhole) {
+        for (String sensorType : SENSOR_TYPES) {
+            blackhole.consume(SensorType.from(sensorType));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package no.cantara.realestate.metasys.cloudconnector.benchmark;
+
+import no.cantara.realestate.metasys.cloudconnector.sensors.MetasysCsvSensorImporter;
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorCatalog;
+import no.cantara.realestate.rec.RecTags;
+import no.cantara.realestate.sensors.SensorId;
+import no.cantara.realestate.sensors.metasys.MetasysSensorId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The initial import of the sensor CSV files, from the files to RecTags matched with their sensors.
+ * importWithHashJoin parses each file once and matches RecTags by id lookup. importWithLinearJoin parses sensor
+ * ids and RecTags separately, and searches the sensor list for each RecTags, as the import did before.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SensorImportBenchmark {
+    private static final String HEADER = "RecId,Tfm,MetasysObjectReference,MetasysObjectId,Name,Description,RealEstate,Building,Section,Floor,ServesRoom,PlacementRoom,SensorType,MeasurementUnit,Interval";
+
+    @Param({"10000", "50000", "100000"})
+    public int numberOfRows;
+
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("jmh-sensor-import");
+        List<String> lines = new ArrayList<>(numberOfRows + 1);
+        lines.add(HEADER);
+        for (int i = 0; i < numberOfRows; i++) {
+            String objectId = "05ccd193-a3f9-5db7-9c72-" + String.format("%012d", i);
+            lines.add("Sensor-" + i + ",+511=564.01001-RT" + i + ",," + objectId + ",RT" + i + ",RT" + i
+                    + ",511,511,,01,51101001,51101001,temp,celsius,PT15M");
+        }
+        Files.write(directory.resolve("MetasysRecImported.csv"), lines);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void importWithHashJoin(Blackhole blackhole) {
+        SensorCatalog sensorCatalog = new SensorCatalog(directory.toString(), "Metasys");
+        List<SensorCatalog.Entry> entries = sensorCatalog.reload().getAdded();
+        List<SensorId> sensorIds = new ArrayList<>(entries.size());
+        for (SensorCatalog.Entry entry : entries) {
+            sensorIds.add(entry.getSensorId());
+        }
+        SensorCatalog.joinRecTags(sensorIds, entries, (sensorId, recTags) -> blackhole.consume(recTags));
+    }
+
+    @Benchmark
+    public void importWithLinearJoin(Blackhole blackhole) {
+        List<MetasysSensorId> sensorIds = MetasysCsvSensorImporter.importSensorIdsFromDirectory(directory.toString(), "Metasys");
+        List<RecTags> recTagsList = MetasysCsvSensorImporter.importRecTagsFromDirectory(directory.toString(), "Metasys");
+        for (RecTags recTags : recTagsList) {
+            String twinId = recTags.getTwinId();
+            SensorId sensorId = sensorIds.stream()
+                    .filter(sensorId1 -> sensorId1.getId().equals(twinId))
+                    .findFirst()
+                    .orElse(null);
+            if (sensorId != null) {
+                blackhole.consume(recTags);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package no.cantara.realestate.metasys.cloudconnector.benchmark;
+
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorCatalog;
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorCsvReader;
+import no.cantara.realestate.metasys.cloudconnector.utils.CanonicalStrings;
+import no.cantara.realestate.rec.RecTags;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Heap kept by the RecTags metadata strings of 100k sensors, with and without CanonicalStrings.
+ * The counters metadataStrings and metadataBytes are the distinct String instances kept by RealEstate, Building,
+ * Section, Floor, ServesRoom, PlacementRoom, SensorType, MeasurementUnit and Interval, and their estimated size
+ * with compressed oops.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SensorMetadataMemoryBenchmark {
+    private static final String HEADER = "RecId,Tfm,MetasysObjectReference,MetasysObjectId,Name,Description,RealEstate,Building,Section,Floor,ServesRoom,PlacementRoom,SensorType,MeasurementUnit,Interval";
+    private static final String[] SENSOR_TYPES = {"temp", "co2", "humidity", "presence", "energy"};
+    private static final String[] UNITS = {"celsius", "ppm", "percent", "boolean", "kWh"};
+
+    @Param({"100000"})
+    public int numberOfRows;
+
+    @Param({"true", "false"})
+    public boolean canonicalize;
+
+    private Path file;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Retained {
+        public long metadataStrings;
+        public long metadataBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            metadataStrings = 0;
+            metadataBytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path directory = Files.createTempDirectory("jmh-sensor-metadata");
+        List<String> lines = new ArrayList<>(numberOfRows + 1);
+        lines.add(HEADER);
+        for (int i = 0; i < numberOfRows; i++) {
+            String objectId = "05ccd193-a3f9-5db7-9c72-" + String.format("%012d", i);
+            int building = 500 + i % 20;
+            String floor = String.format("%02d", (i / 20) % 10);
+            String room = building + floor + String.format("%03d", (i / 200) % 50);
+            int type = i % SENSOR_TYPES.length;
+            lines.add("Sensor-" + i + ",+" + building + "=564.01001-RT" + i + ",," + objectId + ",RT" + i + ",,EiendomA,"
+                    + building + ",," + floor + "," + room + "," + room + "," + SENSOR_TYPES[type] + "," + UNITS[type] + ",PT15M");
+        }
+        file = directory.resolve("MetasysRecImported.csv");
+        Files.write(file, lines);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(file.getParent())) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public List<SensorCatalog.Entry> readSensorMetadata(Retained retained) {
+        CanonicalStrings strings = canonicalize ? new CanonicalStrings(CanonicalStrings.DEFAULT_CAPACITY) : new CanonicalStrings(0);
+        SensorCsvReader reader = new SensorCsvReader(Math.min(Runtime.getRuntime().availableProcessors(), 8), 2000, strings);
+        List<SensorCatalog.Entry> entries = reader.read(file);
+        Set<String> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (SensorCatalog.Entry entry : entries) {
+            RecTags recTags = entry.getRecTags();
+            distinct.add(recTags.getRealEstate());
+            distinct.add(recTags.getBuilding());
+            distinct.add(recTags.getSection());
+            distinct.add(recTags.getFloor());
+            distinct.add(recTags.getServesRoom());
+            distinct.add(recTags.getPlacementRoom());
+            distinct.add(recTags.getSensorType());
+            distinct.add(recTags.getMeasurementUnit());
+            distinct.add(entry.getInterval());
+        }
+        distinct.remove(null);
+        retained.metadataStrings += distinct.size();
+        for (String value : distinct) {
+            retained.metadataBytes += stringBytes(value);
+        }
+        return entries;
+    }
+
+    /**
+     * String header and hash fields, plus the Latin-1 byte[] padded to 8 bytes
+     */
+    private static long stringBytes(String value) {
+        return 24 + ((16 + value.length() + 7) & ~7);
+    }
+}
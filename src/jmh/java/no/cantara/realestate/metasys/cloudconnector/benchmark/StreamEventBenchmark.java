@@ -0,0 +1,89 @@
+package no.cantara.realestate.metasys.cloudconnector.benchmark;
+
+import no.cantara.realestate.json.RealEstateObjectMapper;
+import no.cantara.realestate.metasys.cloudconnector.automationserver.stream.EventInputMapper;
+import no.cantara.realestate.metasys.cloudconnector.automationserver.stream.ObservedValue;
+import no.cantara.realestate.metasys.cloudconnector.automationserver.stream.ParsedObservedValue;
+import no.cantara.realestate.metasys.cloudconnector.automationserver.stream.StreamEvent;
+import no.cantara.realestate.metasys.cloudconnector.automationserver.stream.StreamEventMapper;
+import no.cantara.realestate.metasys.cloudconnector.automationserver.streampoc.ServerSentEvent;
+import no.cantara.realestate.metasys.cloudconnector.automationserver.streampoc.ServerSentEventParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The stream path, from SSE lines to ObservedValue, for a numeric and a bacnet enum presentValue.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StreamEventBenchmark {
+    private static final int EVENTS_PER_INVOCATION = 100;
+
+    @Param({"Number", "BacnetChanged"})
+    public String valueType;
+
+    private String streamDataJson;
+    private ParsedObservedValue parsedObservedValue;
+    private ServerSentEvent serverSentEvent;
+    private List<String> sseLines;
+
+    @Setup
+    public void setUp() throws Exception {
+        streamDataJson = BenchmarkResources.read("stream/StreamDataValueUpdatedIs" + valueType + ".json");
+        parsedObservedValue = RealEstateObjectMapper.getInstance().getObjectMapper().readValue(streamDataJson, ParsedObservedValue.class);
+        sseLines = BenchmarkResources.sseLines("stream/StreamValueUpdatedIs" + valueType + ".txt", EVENTS_PER_INVOCATION);
+        ServerSentEventParser parser = new ServerSentEventParser();
+        for (String line : sseLines) {
+            ServerSentEvent event = parser.parseLine(line);
+            if (event != null) {
+                serverSentEvent = event;
+                break;
+            }
+        }
+    }
+
+    @Benchmark
+    public ObservedValue streamEventMapperMapFromJson() {
+        return StreamEventMapper.mapFromJson(streamDataJson);
+    }
+
+    @Benchmark
+    public ObservedValue parsedObservedValueToObservedValue() {
+        return parsedObservedValue.toObservedValue();
+    }
+
+    @Benchmark
+    public StreamEvent eventInputMapperToStreamEvent() {
+        return EventInputMapper.toStreamEvent(serverSentEvent);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS_PER_INVOCATION)
+    public void sseLineParser(Blackhole blackhole) {
+        ServerSentEventParser parser = new ServerSentEventParser();
+        for (String line : sseLines) {
+            ServerSentEvent event = parser.parseLine(line);
+            if (event != null) {
+                blackhole.consume(event);
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package no.cantara.realestate.metasys.cloudconnector.benchmark;
+
+import no.cantara.realestate.metasys.cloudconnector.automationserver.MetasysTrendSampleResult;
+import no.cantara.realestate.metasys.cloudconnector.automationserver.TrendSamplesMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping of one page of trend samples, 96 samples covering one day at 15 minute interval.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TrendSamplesMapperBenchmark {
+
+    private String trendSamplesJson;
+
+    @Setup
+    public void setUp() {
+        trendSamplesJson = BenchmarkResources.read("trend/TrendSamplesOneDay.json");
+    }
+
+    @Benchmark
+    public MetasysTrendSampleResult mapFromJson() {
+        return TrendSamplesMapper.mapFromJson(trendSamplesJson);
+    }
+}
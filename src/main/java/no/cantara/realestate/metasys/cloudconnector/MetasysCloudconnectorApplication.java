@@ -14,12 +14,31 @@ import no.cantara.realestate.metasys.cloudconnector.automationserver.SdClientSim
 import no.cantara.realestate.metasys.cloudconnector.automationserver.stream.MetasysStreamClient;
 import no.cantara.realestate.metasys.cloudconnector.automationserver.stream.StreamListener;
 import no.cantara.realestate.metasys.cloudconnector.automationserver.streampoc.ServerSentEvent;
+import no.cantara.realestate.metasys.cloudconnector.ingestion.AdaptivePollScheduler;
+import no.cantara.realestate.metasys.cloudconnector.ingestion.BackfillScheduler;
+import no.cantara.realestate.metasys.cloudconnector.ingestion.IngestionCycleBudget;
+import no.cantara.realestate.metasys.cloudconnector.ingestion.IngestionPipeline;
 import no.cantara.realestate.metasys.cloudconnector.ingestion.MetasysTrendsIngestionService;
+import no.cantara.realestate.metasys.cloudconnector.ingestion.StreamCoverage;
 import no.cantara.realestate.metasys.cloudconnector.ingestion.StreamPocClient;
+import no.cantara.realestate.metasys.cloudconnector.metrics.BufferedMetricsDistributionClient;
 import no.cantara.realestate.metasys.cloudconnector.metrics.MetasysMetricsDistributionClient;
 import no.cantara.realestate.metasys.cloudconnector.metrics.MetricsDistributionServiceStub;
-import no.cantara.realestate.metasys.cloudconnector.sensors.MetasysCsvSensorImporter;
+import no.cantara.realestate.metasys.cloudconnector.observations.filter.AggregatingObservationFilter;
+import no.cantara.realestate.metasys.cloudconnector.observations.filter.DeadbandObservationFilter;
+import no.cantara.realestate.metasys.cloudconnector.observations.filter.DeduplicatingObservationFilter;
+import no.cantara.realestate.metasys.cloudconnector.observations.filter.FreshnessObservationFilter;
+import no.cantara.realestate.metasys.cloudconnector.observations.filter.ObservationFilterChain;
+import no.cantara.realestate.metasys.cloudconnector.observations.filter.RecentSamplesObservationFilter;
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorCatalog;
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorCatalogSnapshot;
 import no.cantara.realestate.metasys.cloudconnector.sensors.SensorFileWatcher;
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorIndex;
+import no.cantara.realestate.metasys.cloudconnector.sharding.ShardMembership;
+import no.cantara.realestate.metasys.cloudconnector.status.RecentSamplesCache;
+import no.cantara.realestate.metasys.cloudconnector.status.RecentSamplesResource;
+import no.cantara.realestate.metasys.cloudconnector.status.SensorFreshnessIndex;
+import no.cantara.realestate.metasys.cloudconnector.status.SensorFreshnessResource;
 import no.cantara.realestate.metasys.cloudconnector.status.TemporaryHealthResource;
 import no.cantara.realestate.metasys.cloudconnector.trends.CsvTrendsLastUpdatedService;
 import no.cantara.realestate.metasys.cloudconnector.trends.InMemoryTrendsLastUpdatedService;
@@ -35,11 +54,20 @@ import no.cantara.realestate.sensors.metasys.MetasysSensorId;
 import no.cantara.stingray.application.health.StingrayHealthService;
 import org.slf4j.Logger;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static no.cantara.realestate.metasys.cloudconnector.ingestion.StreamPocClient.shortenedAccessToken;
 import static org.slf4j.LoggerFactory.getLogger;
@@ -59,9 +87,20 @@ public class MetasysCloudconnectorApplication extends RealestateCloudconnectorAp
     public static final String INSTRUMENTATION_SCOPE_NAME_VALUE = "no.cantara.realestate";
     private StreamPocClient streamPocClient;
     private SensorFileWatcher sensorFileWatcher;
+    private SensorCatalog sensorCatalog;
+    private SensorCatalogSnapshot sensorCatalogSnapshot;
     private final Object sensorSubscriptionLock = new Object();
     private String importDirectory;
     private String subscriptionId;
+    private ObservationFilterChain observationFilterChain;
+    private AggregatingObservationFilter aggregatingFilter;
+    private DeadbandObservationFilter deadbandFilter;
+    private DeduplicatingObservationFilter dedupFilter;
+    private AdaptivePollScheduler adaptivePollScheduler;
+    private ShardMembership shardMembership;
+    private StreamCoverage streamCoverage;
+    private SensorFreshnessIndex sensorFreshnessIndex;
+    private List<MetasysSensorId> simulatedSensorIds = List.of();
 
 
     public MetasysCloudconnectorApplication(ApplicationProperties config) {
@@ -77,7 +116,10 @@ public class MetasysCloudconnectorApplication extends RealestateCloudconnectorAp
     protected void doInit() {
         final ObservationDistributionClient finalObservationDistributionClient = null;
         String measurementsName = config.get("measurements.name", "metasys_cloudconnector_cantara");
-        final MetasysMetricsDistributionClient metricsDistributionClient = new MetricsDistributionServiceStub(measurementsName);
+        BufferedMetricsDistributionClient bufferedMetricsClient = new BufferedMetricsDistributionClient(new MetricsDistributionServiceStub(measurementsName));
+        bufferedMetricsClient.start(config.asLong("metrics.flushIntervalSeconds", 60L));
+        final MetasysMetricsDistributionClient metricsDistributionClient = bufferedMetricsClient;
+        this.metricsDistributionClient = metricsDistributionClient;
         put(MetasysMetricsDistributionClient.class, metricsDistributionClient);
 
         enableStream = config.asBoolean("sd.stream.enabled");
@@ -85,7 +127,45 @@ public class MetasysCloudconnectorApplication extends RealestateCloudconnectorAp
 
         super.doInit();
 
-        ObservationListener observationListener = get(ObservationsRepository.class);
+        SensorIndex sensorIndex = init(SensorIndex.class, SensorIndex::new);
+        observationFilterChain = new ObservationFilterChain(get(ObservationsRepository.class));
+        observationFilterChain.setSensorIndex(sensorIndex);
+        sensorFreshnessIndex = init(SensorFreshnessIndex.class, () -> new SensorFreshnessIndex(sensorIndex));
+        observationFilterChain.addFilter(new FreshnessObservationFilter(sensorFreshnessIndex));
+        long staleAfterSeconds = config.asLong("freshness.staleAfterSeconds", 3600L);
+        initAndRegisterJaxRsWsComponent(SensorFreshnessResource.class, () -> new SensorFreshnessResource(sensorFreshnessIndex, staleAfterSeconds));
+        get(StingrayHealthService.class).registerHealthProbe("sensorFreshness-staleSensors", () -> sensorFreshnessIndex.getNumberOfStaleSensors(staleAfterSeconds));
+        if (config.asBoolean(DeduplicatingObservationFilter.ENABLED_KEY, false)) {
+            // Before aggregation and deadband, so duplicates count neither in aggregates nor as changes
+            dedupFilter = DeduplicatingObservationFilter.fromConfig(config, sensorIndex);
+            observationFilterChain.addFilter(dedupFilter);
+            get(StingrayHealthService.class).registerHealthProbe("dedupFilter-hitRatio", dedupFilter::getHitRatio);
+            get(StingrayHealthService.class).registerHealthProbe("dedupFilter-duplicatesFromStream", dedupFilter::getNumberOfDuplicatesFromStream);
+            get(StingrayHealthService.class).registerHealthProbe("dedupFilter-duplicatesFromTrend", dedupFilter::getNumberOfDuplicatesFromTrend);
+        }
+        if (config.asBoolean(RecentSamplesCache.ENABLED_KEY, false)) {
+            // After dedup and before aggregation, so each raw value is kept once
+            RecentSamplesCache recentSamplesCache = init(RecentSamplesCache.class, () -> RecentSamplesCache.fromConfig(config, sensorIndex));
+            observationFilterChain.addFilter(new RecentSamplesObservationFilter(recentSamplesCache));
+            initAndRegisterJaxRsWsComponent(RecentSamplesResource.class, () -> new RecentSamplesResource(recentSamplesCache));
+            get(StingrayHealthService.class).registerHealthProbe("recentSamples-memoryBytes", recentSamplesCache::getMemoryBytes);
+            get(StingrayHealthService.class).registerHealthProbe("recentSamples-evictedBlocks", recentSamplesCache::getNumberOfEvictedBlocks);
+        }
+        if (config.asBoolean(AggregatingObservationFilter.ENABLED_KEY, false)) {
+            aggregatingFilter = AggregatingObservationFilter.fromConfig(config, sensorIndex);
+            observationFilterChain.addFilter(aggregatingFilter);
+            aggregatingFilter.start(config.asLong("filter.aggregation.flushIntervalSeconds", 10L));
+            get(StingrayHealthService.class).registerHealthProbe("aggregatingFilter-openWindows", aggregatingFilter::getNumberOfOpenWindows);
+            get(StingrayHealthService.class).registerHealthProbe("aggregatingFilter-lateSamples", aggregatingFilter::getNumberOfLateSamples);
+        }
+        if (config.asBoolean(DeadbandObservationFilter.ENABLED_KEY, false)) {
+            deadbandFilter = DeadbandObservationFilter.fromConfig(config, sensorIndex);
+            observationFilterChain.addFilter(deadbandFilter);
+            get(StingrayHealthService.class).registerHealthProbe("deadbandFilter-suppressionRatio", deadbandFilter::getSuppressionRatio);
+            get(StingrayHealthService.class).registerHealthProbe("deadbandFilter-suppressed", deadbandFilter::getNumberOfSuppressed);
+        }
+        observationFilterChain.startMetricsReporting(metricsDistributionClient, config.asLong("filter.metrics.intervalSeconds", 60L));
+        ObservationListener observationListener = observationFilterChain;
         NotificationListener notificationListener = get(NotificationListener.class);
         notificationService = get(no.cantara.realestate.cloudconnector.notifications.NotificationService.class);
 
@@ -134,20 +214,91 @@ public class MetasysCloudconnectorApplication extends RealestateCloudconnectorAp
             trendsLastUpdatedService = init(TrendsLastUpdatedService.class, () -> new InMemoryTrendsLastUpdatedService());
         }
 
-        trendsIngestionService = new MetasysTrendsIngestionService(config, observationListener, notificationListener, sdClient, trendsLastUpdatedService, auditTrail, metricsDistributionClient);
+        MetasysTrendsIngestionService metasysTrendsIngestionService = new MetasysTrendsIngestionService(config, observationListener, notificationListener, sdClient, trendsLastUpdatedService, auditTrail, metricsDistributionClient);
+        metasysTrendsIngestionService.setSensorFreshnessIndex(sensorFreshnessIndex);
+        long adaptivePollIntervalMillis = config.asLong(AdaptivePollScheduler.CONFIG_PREFIX + ".pollIntervalMillis", 1000L);
+        if (config.asBoolean(AdaptivePollScheduler.ENABLED_KEY, false)) {
+            adaptivePollScheduler = AdaptivePollScheduler.fromConfig(config, adaptivePollIntervalMillis);
+            metasysTrendsIngestionService.setAdaptivePollScheduler(adaptivePollScheduler);
+            get(StingrayHealthService.class).registerHealthProbe("adaptivePolling-dueSensors", () -> adaptivePollScheduler.getNumberOfDueSensors(Instant.now()));
+        }
+        if (config.asBoolean(ShardMembership.ENABLED_KEY, false)) {
+            shardMembership = ShardMembership.fromConfig(config);
+            try {
+                shardMembership.start();
+            } catch (IOException e) {
+                throw new MetasysCloudConnectorException("Failed to join shard members in " + config.get(ShardMembership.CONFIG_PREFIX + ".directory", "shards"), e);
+            }
+            metasysTrendsIngestionService.setShardMembership(shardMembership);
+            get(StingrayHealthService.class).registerHealthProbe("sharding-instanceId", shardMembership::getInstanceId);
+            get(StingrayHealthService.class).registerHealthProbe("sharding-members", () -> String.valueOf(shardMembership.getMembers()));
+            get(StingrayHealthService.class).registerHealthProbe("sharding-membershipChanges", shardMembership::getMembershipChanges);
+            get(StingrayHealthService.class).registerHealthProbe("sharding-lastCycleMillis", metasysTrendsIngestionService::getLastCycleMillis);
+        }
+        if (config.asBoolean(IngestionPipeline.ENABLED_KEY, false)) {
+            IngestionPipeline<SensorId, MetasysTrendsIngestionService.FetchedTrends, MetasysTrendsIngestionService.EnrichedTrends> ingestionPipeline =
+                    IngestionPipeline.fromConfig("trendIngestionPipeline", config);
+            metasysTrendsIngestionService.setIngestionPipeline(ingestionPipeline);
+            get(StingrayHealthService.class).registerHealthProbe("ingestionPipeline-backpressureMillis", ingestionPipeline::getBackpressureMillis);
+            get(StingrayHealthService.class).registerHealthProbe("ingestionPipeline-stageFailures", ingestionPipeline::getNumberOfStageFailures);
+            get(StingrayHealthService.class).registerHealthProbe("ingestionPipeline-published", ingestionPipeline::getNumberOfPublished);
+        }
+        if (config.asBoolean(IngestionCycleBudget.ENABLED_KEY, false)) {
+            IngestionCycleBudget cycleBudget = IngestionCycleBudget.fromConfig(config);
+            metasysTrendsIngestionService.setCycleBudget(cycleBudget);
+            get(StingrayHealthService.class).registerHealthProbe("ingestionCycle-carriedOver", cycleBudget::getNumberOfCarriedOver);
+            get(StingrayHealthService.class).registerHealthProbe("ingestionCycle-overruns", cycleBudget::getNumberOfOverruns);
+            get(StingrayHealthService.class).registerHealthProbe("ingestionCycle-lastOverrunMillis", cycleBudget::getLastOverrunMillis);
+        }
+        if (config.asBoolean(BackfillScheduler.ENABLED_KEY, false)) {
+            BackfillScheduler backfillScheduler = BackfillScheduler.fromConfig(config);
+            if (readLastUpdated) {
+                Path gapsFile = Paths.get(config.get("ingestion.trendsLastUpdated.directory", "status"),
+                        config.get(BackfillScheduler.CONFIG_PREFIX + ".csvFile", "trends_backfill_gaps.csv"));
+                try {
+                    backfillScheduler.readGaps(gapsFile);
+                } catch (IOException e) {
+                    throw new MetasysCloudConnectorException("Failed to read backfill gaps from " + gapsFile.toAbsolutePath(), e);
+                }
+            }
+            metasysTrendsIngestionService.setBackfillScheduler(backfillScheduler);
+            get(StingrayHealthService.class).registerHealthProbe("backfill-sensorsBackfilling", backfillScheduler::getNumberOfSensorsBackfilling);
+            get(StingrayHealthService.class).registerHealthProbe("backfill-pendingChunks", backfillScheduler::getNumberOfPendingChunks);
+            get(StingrayHealthService.class).registerHealthProbe("backfill-samples", backfillScheduler::getNumberOfBackfilledSamples);
+            get(StingrayHealthService.class).registerHealthProbe("backfill-abandonedChunks", backfillScheduler::getNumberOfAbandonedChunks);
+        }
+        if (enableStream && config.asBoolean(StreamCoverage.ENABLED_KEY, false)) {
+            streamCoverage = StreamCoverage.fromConfig(config);
+            streamCoverage.setStreamOpen(() -> streamPocClient != null && streamPocClient.isStreamOpen());
+            metasysTrendsIngestionService.setStreamCoverage(streamCoverage);
+            get(StingrayHealthService.class).registerHealthProbe("streamCoverage-coveredSensors", streamCoverage::getNumberOfCoveredSensors);
+            get(StingrayHealthService.class).registerHealthProbe("streamCoverage-suppressedPolls", streamCoverage::getNumberOfSuppressedPolls);
+        }
+        trendsIngestionService = metasysTrendsIngestionService;
 
         // Initial import of sensors and RecTags
         importDirectory = config.get("importdata.directory");
         performInitialSensorImport(trendsIngestionService, metricsDistributionClient);
+        get(StingrayHealthService.class).registerHealthProbe("sensorImport-rows", sensorCatalog.getCsvReader()::getLastRowsRead);
+        get(StingrayHealthService.class).registerHealthProbe("sensorImport-rowsPerSecond", sensorCatalog.getCsvReader()::getLastRowsPerSecond);
 
         //Start ingestion and routing
         super.initIngestionService(trendsIngestionService);
         super.initRouter();
+        if (adaptivePollScheduler != null) {
+            long persistIntervalMillis = config.asLong(AdaptivePollScheduler.CONFIG_PREFIX + ".defaultIntervalSeconds", 600L) * 1000;
+            metasysTrendsIngestionService.startAdaptivePolling(adaptivePollIntervalMillis, persistIntervalMillis);
+        }
+        if (metasysTrendsIngestionService.getBackfillScheduler() != null) {
+            metasysTrendsIngestionService.startBackfill(Double.parseDouble(config.get(BackfillScheduler.CONFIG_PREFIX + ".maxRequestsPerSecond", "1")));
+        }
 
         //Open Stream, start subscribing to events
         if (enableStream && streamClient != null) {
             try {
                 streamPocClient = new StreamPocClient(streamClient, get(SensorIdRepository.class), get(RecRepository.class), observationListener, metricsDistributionClient, auditTrail);
+                streamPocClient.setStreamCoverage(streamCoverage);
+                streamPocClient.setSensorRegistry(metasysTrendsIngestionService.getSensorRegistry());
 
                 //Verify that token refresh is working
                 String accessToken = streamPocClient.getUserToken().getAccessToken();
@@ -216,37 +367,98 @@ public class MetasysCloudconnectorApplication extends RealestateCloudconnectorAp
         SensorIdRepository sensorIdRepository = get(SensorIdRepository.class);
         RecRepository recRepository = get(RecRepository.class);
 
-        // Import sensor IDs
-        List<MetasysSensorId> metasysSensorIds = MetasysCsvSensorImporter.importSensorIdsFromDirectory(importDirectory, "Metasys");
-        log.info("Imported {} sensor IDs from CSV files", metasysSensorIds.size());
+        // Import sensor IDs, RecTags and Interval in one parse of each file
+        sensorCatalog = new SensorCatalog(importDirectory, "Metasys");
+        if (config.asBoolean(SensorCatalogSnapshot.ENABLED_KEY, false)) {
+            // Files unchanged since the snapshot are not parsed
+            sensorCatalogSnapshot = SensorCatalogSnapshot.fromConfig(config);
+            sensorCatalog.restore(sensorCatalogSnapshot);
+        }
+        SensorCatalog.Changes imported = sensorCatalog.reload();
+        List<SensorCatalog.Entry> entries = imported.getAdded();
+        log.info("Imported {} sensors from CSV files. {}", entries.size(), imported);
+        if (imported.getFilesParsed() > 0) {
+            saveSensorCatalogSnapshot();
+        }
 
-        for (MetasysSensorId metasysSensorId : metasysSensorIds) {
-            auditTrail.logCreated(metasysSensorId.getId(), "Added to SensorIdRepository");
-            sensorIdRepository.add(metasysSensorId);
+        for (SensorCatalog.Entry entry : entries) {
+            auditTrail.logCreated(entry.getTwinId(), "Added to SensorIdRepository");
+            sensorIdRepository.add(entry.getSensorId());
+        }
+        for (MetasysSensorId simulatedSensorId : simulatedSensorIds) {
+            sensorIdRepository.add(simulatedSensorId);
+        }
+        if (!simulatedSensorIds.isEmpty()) {
+            log.info("Added {} synthetic sensors from SdClientSimulator", simulatedSensorIds.size());
         }
 
         // Subscribe to trends
         List<SensorId> sensorIds = sensorIdRepository.all();
         for (SensorId sensorId : sensorIds) {
             auditTrail.logSubscribed(sensorId.getId(), "Subscribed to TrendsIngestionService");
-            trendsIngestionService.addSubscription(sensorId);
         }
+        // One batch, so the copy-on-write registry is copied once
+        trendsIngestionService.addSubscriptions(sensorIds);
         log.info("Subscribed to trends for {} sensors", trendsIngestionService.getSubscriptionsCount());
 
-        // Import RecTags
-        List<RecTags> recTagsList = MetasysCsvSensorImporter.importRecTagsFromDirectory(importDirectory, "Metasys");
-        log.info("Imported {} RecTags from CSV files", recTagsList.size());
-
-        for (RecTags recTags : recTagsList) {
-            String twinId = recTags.getTwinId();
-            SensorId sensorId = sensorIds.stream()
-                    .filter(sensorId1 -> sensorId1.getId().equals(twinId))
-                    .findFirst()
-                    .orElse(null);
-            if (sensorId != null) {
-                recRepository.addRecTags(sensorId, recTags);
-                log.debug("Added RecTags for sensor: {}", twinId);
-            }
+        // Add RecTags, matched to the subscribed sensors by id
+        Map<String, String> intervals = SensorCatalog.intervalsOf(entries);
+        AtomicInteger recTagsAdded = new AtomicInteger();
+        SensorCatalog.joinRecTags(sensorIds, entries, (sensorId, recTags) -> {
+            recRepository.addRecTags(sensorId, recTags);
+            registerObservationFilters(recTags.getTwinId(), recTags, intervals);
+            recTagsAdded.incrementAndGet();
+            log.debug("Added RecTags for sensor: {}", recTags.getTwinId());
+        });
+        log.info("Added RecTags for {} sensors", recTagsAdded.get());
+    }
+
+    private void saveSensorCatalogSnapshot() {
+        if (sensorCatalogSnapshot == null) {
+            return;
+        }
+        try {
+            sensorCatalog.save(sensorCatalogSnapshot);
+        } catch (IOException e) {
+            log.warn("Failed to write sensor catalog snapshot {}. The sensor files are parsed on next start. Reason: {}",
+                    sensorCatalogSnapshot.getFile(), e.getMessage());
+        }
+    }
+
+    /**
+     * Clear the per-sensor state of a removed sensor, so it is not reported as stale and its old values are not
+     * compared with, if it is added again
+     */
+    private void unregisterObservationFilters(String twinId) {
+        if (sensorFreshnessIndex != null) {
+            sensorFreshnessIndex.remove(twinId);
+        }
+        if (dedupFilter != null) {
+            dedupFilter.removeSensor(twinId);
+        }
+        if (aggregatingFilter != null) {
+            aggregatingFilter.removeSensor(twinId);
+        }
+        if (deadbandFilter != null) {
+            deadbandFilter.removeSensor(twinId);
+        }
+    }
+
+    /**
+     * Let the observation filters pick per-sensor settings from the RecTags SensorType and MeasurementUnit
+     */
+    private void registerObservationFilters(String twinId, RecTags recTags, Map<String, String> intervals) {
+        if (sensorFreshnessIndex != null) {
+            sensorFreshnessIndex.registerSensor(twinId, recTags.getBuilding(), recTags.getSensorType());
+        }
+        if (aggregatingFilter != null) {
+            aggregatingFilter.registerSensor(twinId, recTags.getSensorType(), intervals.get(twinId));
+        }
+        if (deadbandFilter != null) {
+            deadbandFilter.registerSensor(twinId, recTags.getSensorType(), recTags.getMeasurementUnit());
+        }
+        if (adaptivePollScheduler != null) {
+            adaptivePollScheduler.setInterval(twinId, intervals.get(twinId));
         }
     }
 
@@ -257,6 +469,11 @@ public class MetasysCloudconnectorApplication extends RealestateCloudconnectorAp
                                         MetasysMetricsDistributionClient metricsDistributionClient) {
         try {
             long debounceSeconds = config.asLong("sensorFileWatcher.debounceSeconds", 30L);
+            // Start from the files as imported, so the first change only finds what changed
+            if (sensorCatalog == null) {
+                sensorCatalog = new SensorCatalog(importDirectory, "Metasys");
+                sensorCatalog.reload();
+            }
 
             sensorFileWatcher = new SensorFileWatcher(
                     importDirectory,
@@ -288,81 +505,107 @@ public class MetasysCloudconnectorApplication extends RealestateCloudconnectorAp
         log.info("Processing sensor file changes...");
 
         synchronized (sensorSubscriptionLock) {
-            List<MetasysSensorId> newSensors = new ArrayList<>();
-            // Get current sensor IDs for comparison
-            List<String> existingSensorIds = new ArrayList<>();
+            SensorCatalog.Changes changes;
+            try {
+                // Only files with new content are parsed
+                changes = sensorCatalog.reload();
+            } catch (Exception e) {
+                log.error("Error importing sensor IDs during file change processing", e);
+                notificationService.sendAlarm(null, "Error importing sensor IDs: " + e.getMessage());
+                return;
+            }
+            if (changes.isEmpty()) {
+                log.info("No sensors added, removed or modified. {}", changes);
+                return;
+            }
+            log.info("Sensor files changed: {}", changes);
+            saveSensorCatalogSnapshot();
+
+            Set<String> existingSensorIds = new HashSet<>();
             for (Object obj : sensorIdRepository.all()) {
                 if (obj instanceof SensorId sensorId) {
                     existingSensorIds.add(sensorId.getId());
                 }
             }
-            log.debug("Current sensor count: {}", existingSensorIds.size());
+            List<SensorId> unsubscribe = new ArrayList<>();
+            List<SensorId> subscribe = new ArrayList<>();
+            List<MetasysSensorId> subscribeStream = new ArrayList<>();
+            List<SensorCatalog.Entry> tagged = new ArrayList<>();
+            for (SensorCatalog.Entry added : changes.getAdded()) {
+                MetasysSensorId newSensor = added.getSensorId();
+                try {
+                    if (existingSensorIds.add(newSensor.getId())) {
+                        auditTrail.logCreated(newSensor.getId(), "Added to SensorIdRepository (file watcher)");
+                        sensorIdRepository.add(newSensor);
+                    }
+                    subscribe.add(newSensor);
+                    subscribeStream.add(newSensor);
+                    tagged.add(added);
+                } catch (Exception e) {
+                    log.warn("Failed to add sensor to sensorIdRepository: {}", newSensor.getId(), e);
+                    notificationService.sendAlarm(null, "Failed to add subscriptions for new sensor " + newSensor.getId() + ": " + e.getMessage());
+                }
+            }
+            for (SensorCatalog.Entry modified : changes.getModified()) {
+                SensorCatalog.Entry previous = changes.getPrevious(modified.getTwinId());
+                String metasysObjectId = modified.getSensorId().getMetasysObjectId();
+                if (previous != null && !Objects.equals(previous.getSensorId().getMetasysObjectId(), metasysObjectId)) {
+                    // Moved to another Metasys object. Poll and stream the new one instead.
+                    unsubscribe.add(previous.getSensorId());
+                    subscribe.add(modified.getSensorId());
+                    subscribeStream.add(modified.getSensorId());
+                    sensorIdRepository.add(modified.getSensorId());
+                }
+                tagged.add(modified);
+            }
+            for (SensorCatalog.Entry removed : changes.getRemoved()) {
+                // SensorIdRepository has no remove. Removed sensors are no longer polled, and their stream events are dropped.
+                unsubscribe.add(removed.getSensorId());
+                unregisterObservationFilters(removed.getTwinId());
+                log.debug("Removed sensor: {}", removed.getTwinId());
+            }
 
             try {
-                // Re-import sensor IDs from CSV files
-                List<MetasysSensorId> importedSensorIds = MetasysCsvSensorImporter.importSensorIdsFromDirectory(importDirectory, "Metasys");
-                log.info("Re-imported {} sensor IDs from CSV files", importedSensorIds.size());
-
-                // Find new sensors
-                newSensors = importedSensorIds.stream()
-                        .filter(sensorId -> !existingSensorIds.contains(sensorId.getId()))
-                        .toList();
-
-                if (newSensors.isEmpty()) {
-                    log.info("No new sensors found");
+                // One batch for trend subscriptions, and one for the stream
+                if (trendsIngestionService instanceof MetasysTrendsIngestionService metasysTrendsIngestionService) {
+                    metasysTrendsIngestionService.updateSubscriptions(unsubscribe, subscribe);
                 } else {
-                    log.info("Found {} new sensors", newSensors.size());
-
-
-                    for (MetasysSensorId newSensor : newSensors) {
-                        try {
-                            auditTrail.logCreated(newSensor.getId(), "Added to SensorIdRepository (file watcher)");
-                            // Add new sensors to SensorIdRepository
-                            sensorIdRepository.add(newSensor);
-                            log.info("Added new sensor: {}", newSensor.getId());
-                            // Subscribe to trends for new sensor
-                            trendsIngestionService.addSubscription(newSensor);
-                            // Subscribe to stream for new sensors (if stream is enabled)
-                            if (enableStream && streamPocClient != null && subscriptionId != null) {
-                                subscribeToStream(newSensors);
-                            }
-
-                        } catch (Exception e) {
-                            log.warn("Failed to add sensor to sensorIdRepository, or add trend or subscribe to stream: {}", newSensor.getId(), e);
-                            notificationService.sendAlarm(null, "Failed to add subscriptions for new sensor " + newSensor.getId() + ": " + e.getMessage());
-                        }
+                    for (SensorId sensorId : unsubscribe) {
+                        trendsIngestionService.removeSubscription(sensorId);
                     }
-
-                    // Send metrics
-                    metricsDistributionClient.sendValue("sensors.added", newSensors.size());
+                    trendsIngestionService.addSubscriptions(subscribe);
+                }
+                for (SensorId sensorId : subscribe) {
+                    auditTrail.logSubscribed(sensorId.getId(), "Subscribed to TrendsIngestionService (file watcher)");
+                }
+                if (enableStream && streamPocClient != null && subscriptionId != null && !subscribeStream.isEmpty()) {
+                    subscribeToStream(subscribeStream);
                 }
-
             } catch (Exception e) {
-                log.error("Error importing sensor IDs during file change processing", e);
-                notificationService.sendAlarm(null, "Error importing sensor IDs: " + e.getMessage());
-                // Don't throw - we want to continue with RecTags
+                log.warn("Failed to update trend or stream subscriptions. Unsubscribe: {}, subscribe: {}", unsubscribe.size(), subscribe.size(), e);
+                notificationService.sendAlarm(null, "Failed to update subscriptions for changed sensors: " + e.getMessage());
             }
 
             try {
-                // Update the RecTags for every new sensor
-                List<RecTags> recTagsList = MetasysCsvSensorImporter.importRecTagsFromDirectory(importDirectory, "Metasys");
-                log.info("Re-imported {} RecTags from CSV files", recTagsList.size());
-
-                for (MetasysSensorId newSensor : newSensors) {
-                    RecTags sensorRecTag = recTagsList.stream()
-                            .filter(recTags -> recTags.getTwinId().equals(newSensor.getId()))
-                            .findFirst()
-                            .orElse(null);
-                    if (sensorRecTag != null) {
-                        recRepository.addRecTags(newSensor, sensorRecTag);
-                        log.trace("Added new RecTags for sensor: {}", newSensor.getId());
+                // Update the RecTags for every new and modified sensor
+                Map<String, String> intervals = SensorCatalog.intervalsOf(tagged);
+                for (SensorCatalog.Entry entry : tagged) {
+                    RecTags recTags = entry.getRecTags();
+                    if (recTags != null && entry.getTwinId().equals(recTags.getTwinId())) {
+                        recRepository.addRecTags(entry.getSensorId(), recTags);
+                        registerObservationFilters(entry.getTwinId(), recTags, intervals);
+                        log.trace("Added RecTags for sensor: {}", entry.getTwinId());
                     }
                 }
-
             } catch (Exception e) {
                 log.error("Error importing RecTags during file change processing", e);
                 notificationService.sendAlarm(null, "Error importing RecTags: " + e.getMessage());
             }
+
+            // Send metrics
+            metricsDistributionClient.sendValue("sensors.added", changes.getAdded().size());
+            metricsDistributionClient.sendValue("sensors.removed", changes.getRemoved().size());
+            metricsDistributionClient.sendValue("sensors.modified", changes.getModified().size());
         }
 
         log.info("Sensor file change processing completed");
@@ -428,6 +671,23 @@ public class MetasysCloudconnectorApplication extends RealestateCloudconnectorAp
             streamPocClient.close();
         }
 
+        // Stops adaptive polling, the backfill lane and the ingestion pipeline before the filter chain
+        if (trendsIngestionService != null) {
+            trendsIngestionService.closeConnection();
+        }
+
+        if (observationFilterChain != null) {
+            observationFilterChain.stop();
+        }
+
+        if (metricsDistributionClient != null) {
+            metricsDistributionClient.closeDb();
+        }
+
+        if (shardMembership != null) {
+            shardMembership.close();
+        }
+
         // Call parent shutdown if it exists
         // super.shutdown();
 
@@ -496,7 +756,9 @@ public class MetasysCloudconnectorApplication extends RealestateCloudconnectorAp
                 throw new MetasysCloudConnectorException("Failed to logon SD Client. URL used" + apiUrl, e);
             }
         } else {
-            sdClient = new SdClientSimulator();
+            SdClientSimulator sdClientSimulator = SdClientSimulator.fromConfig(config);
+            simulatedSensorIds = sdClientSimulator.getSyntheticSensorIds();
+            sdClient = sdClientSimulator;
             log.info("Running with a simulator of SD.");
         }
         return sdClient;
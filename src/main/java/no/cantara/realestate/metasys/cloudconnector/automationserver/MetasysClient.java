@@ -21,6 +21,7 @@ import no.cantara.realestate.cloudconnector.notifications.NotificationService;
 import no.cantara.realestate.cloudconnector.notifications.SlackNotificationService;
 import no.cantara.realestate.json.RealEstateObjectMapper;
 import no.cantara.realestate.metasys.cloudconnector.MetasysCloudConnectorException;
+import no.cantara.realestate.metasys.cloudconnector.metrics.MetasysInstruments;
 import no.cantara.realestate.metasys.cloudconnector.status.TemporaryHealthResource;
 import no.cantara.realestate.observations.PresentValue;
 import no.cantara.realestate.security.InvalidTokenException;
@@ -64,7 +65,7 @@ import static org.slf4j.LoggerFactory.getLogger;
  * Singleton klient for Metasys API med automatisk token-fornyelse.
  * Thread-safe implementasjon som unngår for mange login-forespørsler.
  */
-public class MetasysClient implements BasClient {
+public class MetasysClient implements BasClient, TrendRangeClient {
     private static final Logger log = getLogger(MetasysClient.class);
     private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
     public static final String METASYS_SUBSCRIBE_HEADER = "METASYS-SUBSCRIBE";
@@ -89,6 +90,7 @@ public class MetasysClient implements BasClient {
     private boolean isHealthy = true;
     final Tracer tracer;
     final Meter meter;
+    private final MetasysInstruments instruments;
     private final RateLimiter rateLimiter;
     private final RateLimiter logonRateLimiter;
 
@@ -116,6 +118,7 @@ public class MetasysClient implements BasClient {
         this.notificationService = notificationService;
         tracer = GlobalOpenTelemetry.getTracer(INSTRUMENTATION_SCOPE_NAME_VALUE);
         meter = GlobalOpenTelemetry.getMeter(INSTRUMENTATION_SCOPE_NAME_VALUE);
+        instruments = MetasysInstruments.getInstance();
         RateLimiterConfig config = RateLimiterConfig.custom()
                 .limitForPeriod(2)                          // 1 kall per periode
                 .limitRefreshPeriod(Duration.ofMillis(200)) // periode på 500 ms
@@ -199,7 +202,7 @@ public class MetasysClient implements BasClient {
                     .timeout(REQUEST_TIMEOUT)
                     .build();
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> response = sendRequest(request, "login");
 
             int statusCode = response.statusCode();
             switch (statusCode) {
@@ -274,7 +277,7 @@ public class MetasysClient implements BasClient {
                     .timeout(REQUEST_TIMEOUT)
                     .build();
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> response = sendRequest(request, "refreshToken");
             int statusCode = response.statusCode();
 
             switch (statusCode) {
@@ -355,7 +358,7 @@ public class MetasysClient implements BasClient {
             // Token nærmer seg utløp, prøv å fornye
             authLock.lock();
             try {
-                boolean permission = logonRateLimiter.acquirePermission();
+                boolean permission = acquirePermission(logonRateLimiter);
                 if (!permission) {
                     log.debug("Rate limit exceeded for token refresh");
                 } else {
@@ -470,7 +473,7 @@ public class MetasysClient implements BasClient {
                         .timeout(REQUEST_TIMEOUT)
                         .build();
 
-                HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+                HttpResponse<String> response = sendRequest(request, "getTrendedValues");
 
                 if (response.statusCode() == 200) {
                     return response.body();
@@ -508,7 +511,7 @@ public class MetasysClient implements BasClient {
                         .timeout(REQUEST_TIMEOUT)
                         .build();
 
-                HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+                HttpResponse<String> response = sendRequest(request, "subscribeToPresentValueChanged");
 
                 if (response.statusCode() == 200 || response.statusCode() == 201) {
                     return response.body();
@@ -566,24 +569,39 @@ public class MetasysClient implements BasClient {
     @Override
     public Set<MetasysTrendSample> findTrendSamplesByDate(String objectId, int take, int skip, Instant onAndAfterDateTime)
             throws URISyntaxException, InvalidTokenException, TrendNotFoundException {
+        return findTrendSamples("findTrendSamplesByDate", objectId, take, skip, onAndAfterDateTime, null);
+    }
+
+    @Override
+    public Set<MetasysTrendSample> findTrendSamplesBetween(String objectId, Instant onAndAfterDateTime, Instant beforeDateTime)
+            throws URISyntaxException, InvalidTokenException, TrendNotFoundException {
+        return findTrendSamples("findTrendSamplesBetween", objectId, -1, -1, onAndAfterDateTime, beforeDateTime);
+    }
+
+    /**
+     * @param operationName  name of the span, request metrics and samples per response
+     * @param beforeDateTime end of the range, or null to read until now
+     */
+    private Set<MetasysTrendSample> findTrendSamples(String operationName, String objectId, int take, int skip, Instant onAndAfterDateTime, Instant beforeDateTime)
+            throws URISyntaxException, InvalidTokenException, TrendNotFoundException {
         return executeWithTokenHandling(() -> {
             if (onAndAfterDateTime == null) {
                 throw new IllegalArgumentException("onAndAfterDateTime cannot be null");
             }
 
-            Span span = tracer.spanBuilder("findTrendSamplesByDate").setSpanKind(SpanKind.CLIENT).startSpan();
+            Span span = tracer.spanBuilder(operationName).setSpanKind(SpanKind.CLIENT).startSpan();
             Attributes attributes = Attributes.of(stringKey("objectId"), objectId);
-            boolean permitted = rateLimiter.acquirePermission();
+            boolean permitted = acquirePermission(rateLimiter);
             if (!permitted) {
-                log.debug("Rate limit exceeded for findTrendSamplesByDate. objectId: {}, onAndAfterDateTime: {}",
-                        objectId, onAndAfterDateTime);
+                log.debug("Rate limit exceeded for {}. objectId: {}, onAndAfterDateTime: {}",
+                        operationName, objectId, onAndAfterDateTime);
                 throw new RealestateCloudconnectorException("Rate limit exceeded. objectId: " + objectId, StatusType.RETRY_MAY_FIX_ISSUE);
             }
 
             List<MetasysTrendSample> trendSamples = new ArrayList<>();
             try (Scope ignored = span.makeCurrent()) {
 
-                boolean permission = rateLimiter.acquirePermission();  //getPermission(Duration.ofSeconds(10));
+                boolean permission = acquirePermission(rateLimiter);  //getPermission(Duration.ofSeconds(10));
                 if (!permission) {
                     span.addEvent("RateLimitExceded-trendSamples", attributes);
                     span.end();
@@ -593,7 +611,7 @@ public class MetasysClient implements BasClient {
                 String startTime = onAndAfterDateTime.toString();
                 int page = 1;
                 int pageSize = 1000;
-                String endTime = Instant.now().plusSeconds(60).toString();
+                String endTime = beforeDateTime != null ? beforeDateTime.toString() : Instant.now().plusSeconds(60).toString();
 
                 // GET Query Parameters
                 List<NameValuePair> nvps = new ArrayList<>();
@@ -612,9 +630,9 @@ public class MetasysClient implements BasClient {
                         .GET()
                         .timeout(REQUEST_TIMEOUT)
                         .build();
-                log.trace("findTrendSamplesByDate. trendId: {}. From date: {}. To date: {}. Page: {}. PageSize: {}. Take: {}. Skip: {}",
-                        objectId, onAndAfterDateTime, endTime, page, pageSize, take, skip);
-                HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+                log.trace("{}. trendId: {}. From date: {}. To date: {}. Page: {}. PageSize: {}. Take: {}. Skip: {}",
+                        operationName, objectId, onAndAfterDateTime, endTime, page, pageSize, take, skip);
+                HttpResponse<String> response = sendRequest(request, operationName);
                 int httpCode = response.statusCode();
                 String body = response.body();
                 String reason = null;
@@ -638,6 +656,7 @@ public class MetasysClient implements BasClient {
                         if (trendSamples != null) {
                             size = (long) trendSamples.size();
                         }
+                        instruments.recordTrendSamplesPerResponse(operationName, size);
                         attributes = Attributes.of(stringKey("objectId"), objectId, longKey("trendSamples.size"), size);
                         span.addEvent("Fetched trendsamples", attributes);
                         break;
@@ -700,7 +719,7 @@ public class MetasysClient implements BasClient {
             isHealthy = true;
             updateWhenLastTrendSampleReceived();
             return new HashSet<>(trendSamples);
-        }, "findTrendSamplesByDate");
+        }, operationName);
     }
 
 
@@ -728,7 +747,7 @@ public class MetasysClient implements BasClient {
             Integer statusCode = null;
             try (Scope ignored = span.makeCurrent()) {
 
-                boolean permission = rateLimiter.acquirePermission();  //getPermission(Duration.ofSeconds(10));
+                boolean permission = acquirePermission(rateLimiter);  //getPermission(Duration.ofSeconds(10));
                 if (!permission) {
                     throw new RealestateCloudconnectorException("RateLimit exceeded - subscribePresentValueChange", StatusType.RETRY_MAY_FIX_ISSUE);
                 }
@@ -745,7 +764,7 @@ public class MetasysClient implements BasClient {
                         .GET()
                         .timeout(REQUEST_TIMEOUT)
                         .build();
-                HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+                HttpResponse<String> response = sendRequest(request, "subscribePresentValueChange");
                 statusCode = response.statusCode();
                 String body = response.body();
                 attributes = Attributes.of(stringKey("objectId"), objectId, longKey("http.status_code"), Long.valueOf(statusCode));
@@ -910,6 +929,31 @@ public class MetasysClient implements BasClient {
         }
     }
 
+    /**
+     * Sender request og registrerer varighet og statuskode i metasys.http.client.duration
+     */
+    private HttpResponse<String> sendRequest(HttpRequest request, String operation) throws IOException, InterruptedException {
+        long started = System.nanoTime();
+        int statusCode = 0;
+        try {
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            statusCode = response.statusCode();
+            return response;
+        } finally {
+            instruments.recordHttpRequest(getName(), operation, statusCode, started);
+        }
+    }
+
+    /**
+     * Venter på tillatelse fra rateLimiter og registrerer ventetiden i metasys.ratelimiter.wait.duration
+     */
+    private boolean acquirePermission(RateLimiter limiter) {
+        long started = System.nanoTime();
+        boolean permitted = limiter.acquirePermission();
+        instruments.recordRateLimiterWait(limiter.getName(), permitted, started);
+        return permitted;
+    }
+
     /**
      * Markerer API som healthy og nullstiller failure counters
      */
@@ -1,5 +1,6 @@
 package no.cantara.realestate.metasys.cloudconnector.automationserver;
 
+import no.cantara.realestate.metasys.cloudconnector.utils.CanonicalStrings;
 import no.cantara.realestate.observations.Value;
 
 import javax.json.bind.annotation.JsonbProperty;
@@ -24,13 +25,16 @@ public class MetasysValue extends Value {
 //    }
 
 
-//    public String getUnits() {
-//        return units;
-//    }
-//
-//    public void setUnits(String units) {
-//        this.units = units;
-//    }
+    public String getUnits() {
+        return units;
+    }
+
+    /**
+     * The units URL is the same for every sample of a sensor, so all samples keep one canonical instance.
+     */
+    public void setUnits(String units) {
+        this.units = CanonicalStrings.shared().canonical(units);
+    }
 
 
 
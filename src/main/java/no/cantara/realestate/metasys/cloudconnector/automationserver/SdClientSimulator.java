@@ -3,90 +3,289 @@ package no.cantara.realestate.metasys.cloudconnector.automationserver;
 import io.github.resilience4j.ratelimiter.RateLimiter;
 import io.github.resilience4j.ratelimiter.RateLimiterConfig;
 import io.github.resilience4j.ratelimiter.RateLimiterRegistry;
+import no.cantara.config.ApplicationProperties;
 import no.cantara.realestate.automationserver.BasClient;
+import no.cantara.realestate.automationserver.TrendNotFoundException;
 import no.cantara.realestate.cloudconnector.RealestateCloudconnectorException;
 import no.cantara.realestate.cloudconnector.StatusType;
+import no.cantara.realestate.metasys.cloudconnector.sensors.MetasysCsvSensorImporter;
 import no.cantara.realestate.observations.PresentValue;
 import no.cantara.realestate.security.LogonFailedException;
 import no.cantara.realestate.security.UserToken;
 import no.cantara.realestate.sensors.SensorId;
+import no.cantara.realestate.sensors.metasys.MetasysSensorId;
 import org.slf4j.Logger;
 
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.HashSet;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static no.cantara.realestate.metasys.cloudconnector.automationserver.MetasysTokenManager.REFRESH_TOKEN_BEFORE_EXPIRES_SECONDS;
 import static no.cantara.realestate.metasys.cloudconnector.utils.UrlEncoder.urlEncode;
+import static no.cantara.realestate.utils.StringUtils.hasValue;
 import static org.slf4j.LoggerFactory.getLogger;
 
-public class SdClientSimulator implements BasClient {
+/**
+ * Simulator of the Metasys REST API, for running and load testing without a Metasys server.
+ * <p>
+ * Trend samples are not stored. They are calculated when asked for, from a deterministic function of trend id and
+ * time, so memory use does not grow with the number of sensors or with time. Any trend id is answered.
+ * The sensor catalog, from the import CSV files and/or N synthetic sensors, tells which sensors to subscribe to.
+ * <p>
+ * Latency, 404 for a share of the trend ids, bursts of 500 and 429 responses are injected as configured in
+ * SdSimulatorSettings.
+ */
+public class SdClientSimulator implements BasClient, TrendRangeClient {
 
     private static final Logger log = getLogger(SdClientSimulator.class);
     private static final long USER_TOKEN_TTL_SECONDS = REFRESH_TOKEN_BEFORE_EXPIRES_SECONDS + 60;
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+    public static final String SYNTHETIC_TWIN_ID_PREFIX = "Sensor-simulated-";
     private final RateLimiter rateLimiter;
-    private Map<String, Map<Instant, MetasysTrendSample>> simulatedSDApiData = new ConcurrentHashMap();
-    boolean scheduled_simulator_started = true;
-    private final int SECONDS_BETWEEN_SCHEDULED_IMPORT_RUNS = 3;
-
-    private Set<String> simulatedTrendIds = new HashSet<>();
-    private long numberOfTrendSamplesReceived = 0;
-    private Instant whenLastTrendSampleReceived = null;
+    private final SdSimulatorSettings settings;
+    private final Clock clock;
+    private final List<MetasysSensorId> sensorIds;
+
+    private final AtomicLong numberOfTrendSamplesReceived = new AtomicLong();
+    private final AtomicLong numberOfRequests = new AtomicLong();
+    private final AtomicLong numberOfInjectedFailures = new AtomicLong();
+    private volatile Instant whenLastTrendSampleReceived = null;
     private UserToken userToken = null;
 
 
     public SdClientSimulator() {
-        log.info("SD Rest API Simulator started");
-        scheduled_simulator_started = false;
-        initializeMapAndStartSimulation();
+        this(new SdSimulatorSettings(), List.of());
+    }
+
+    public SdClientSimulator(SdSimulatorSettings settings, List<MetasysSensorId> sensorIds) {
+        this(settings, sensorIds, createRateLimiter(settings), Clock.systemUTC());
+    }
+
+    /*
+    Used for testing
+     */
+    protected SdClientSimulator(RateLimiter rateLimiter) {
+        this(new SdSimulatorSettings(), List.of(), rateLimiter, Clock.systemUTC());
+    }
+
+    /*
+    Used for testing
+     */
+    protected SdClientSimulator(SdSimulatorSettings settings, List<MetasysSensorId> sensorIds, RateLimiter rateLimiter, Clock clock) {
+        this.settings = settings;
+        this.rateLimiter = rateLimiter;
+        this.clock = clock;
+        List<MetasysSensorId> catalog = new ArrayList<>(sensorIds);
+        catalog.addAll(syntheticSensorIds(settings.getSyntheticSensors()));
+        this.sensorIds = List.copyOf(catalog);
+        log.info("SD Rest API Simulator started with {} sensors. {}", this.sensorIds.size(), settings);
+    }
+
+    /**
+     * Catalog from the import CSV files in importdata.directory, when sd.simulator.useImportCsv is true,
+     * and sd.simulator.syntheticSensors synthetic sensors.
+     */
+    public static SdClientSimulator fromConfig(ApplicationProperties config) {
+        SdSimulatorSettings settings = SdSimulatorSettings.fromConfig(config);
+        List<MetasysSensorId> sensorIds = new ArrayList<>();
+        String importDirectory = config.get("importdata.directory");
+        if (settings.isUseImportCsv() && hasValue(importDirectory)) {
+            sensorIds.addAll(MetasysCsvSensorImporter.importSensorIdsFromDirectory(importDirectory, "Metasys"));
+        }
+        return new SdClientSimulator(settings, sensorIds);
+    }
+
+    private static RateLimiter createRateLimiter(SdSimulatorSettings settings) {
+        int limitForPeriod = Math.max(1, (int) Math.ceil(settings.getRequestsPerSecond() / 5d));
         RateLimiterConfig config = RateLimiterConfig.custom()
-                .limitForPeriod(2)                          // 2 kall per periode
+                .limitForPeriod(limitForPeriod)             // requestsPerSecond / 5 kall per periode
                 .limitRefreshPeriod(Duration.ofMillis(200)) // periode på 200 ms
                 .timeoutDuration(Duration.ofSeconds(30))    // vent inntil 30 sek for tillatelse
                 .build();
 
         RateLimiterRegistry registry = RateLimiterRegistry.of(config);
-        this.rateLimiter = registry.rateLimiter("myDistributedLimiter");
+        return registry.rateLimiter("myDistributedLimiter");
     }
 
-    /*
-    Used for testing
+    /**
+     * Sensors with twinId Sensor-simulated-n and a metasysObjectId that is the same on every run.
      */
-    protected SdClientSimulator(RateLimiter rateLimiter) {
-        this.rateLimiter = rateLimiter;
+    public static List<MetasysSensorId> syntheticSensorIds(int count) {
+        List<MetasysSensorId> sensorIds = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String objectId = UUID.nameUUIDFromBytes(("simulated-" + i).getBytes(StandardCharsets.UTF_8)).toString();
+            sensorIds.add(new MetasysSensorId(SYNTHETIC_TWIN_ID_PREFIX + i, objectId));
+        }
+        return sensorIds;
+    }
+
+    /**
+     * @return sensors from the import CSV files, followed by the synthetic sensors
+     */
+    public List<MetasysSensorId> getSensorIds() {
+        return sensorIds;
+    }
+
+    /**
+     * @return the synthetic sensors, which are not found in the import CSV files
+     */
+    public List<MetasysSensorId> getSyntheticSensorIds() {
+        return sensorIds.subList(sensorIds.size() - settings.getSyntheticSensors(), sensorIds.size());
     }
 
     @Override
     public Set<MetasysTrendSample> findTrendSamplesByDate(String trendId, int take, int skip, Instant onAndAfterDateTime) throws URISyntaxException {
+        return findTrendSamples(trendId, take, skip, onAndAfterDateTime, null);
+    }
+
+    @Override
+    public Set<MetasysTrendSample> findTrendSamplesBetween(String trendId, Instant onAndAfterDateTime, Instant beforeDateTime) throws URISyntaxException {
+        return findTrendSamples(trendId, -1, -1, onAndAfterDateTime, beforeDateTime);
+    }
+
+    private Set<MetasysTrendSample> findTrendSamples(String trendId, int take, int skip, Instant onAndAfterDateTime, Instant beforeDateTime) {
         boolean permission = rateLimiter.acquirePermission();  //getPermission(Duration.ofSeconds(10));
         if (!permission) {
             throw new RealestateCloudconnectorException("RateLimit exceeded", StatusType.RETRY_MAY_FIX_ISSUE);
         }
-        String prefixedUrlEncodedTrendId = encodeAndPrefix(trendId);
-        Instant i = onAndAfterDateTime;
-        Set<MetasysTrendSample> trendSamples = new HashSet<>();
-        Map<Instant, MetasysTrendSample> trendTimeSamples = simulatedSDApiData.get(prefixedUrlEncodedTrendId);
-        int count = 0;
-        if (trendTimeSamples != null) {
-            for (Instant t : trendTimeSamples.keySet()) {
-                if (t.isAfter(i)) {
-                    trendSamples.add(trendTimeSamples.get(t));
-                    count++;
-                    if (count > take) {
-                        break;
-                    }
-                }
-            }
+        numberOfRequests.incrementAndGet();
+        simulateLatency();
+        Instant now = clock.instant();
+        injectFailures(trendId, now);
+
+        Set<MetasysTrendSample> trendSamples = generateTrendSamples(trendId, take, skip, onAndAfterDateTime, beforeDateTime, now);
+        if (!trendSamples.isEmpty()) {
+            numberOfTrendSamplesReceived.addAndGet(trendSamples.size());
+            whenLastTrendSampleReceived = now;
         }
-        log.info("findTrendSamples returned:{} trendSamples", trendSamples.size());
+        log.trace("findTrendSamples returned:{} trendSamples", trendSamples.size());
         return trendSamples;
     }
 
+    /**
+     * Samples observed on and after onAndAfterDateTime and until now, oldest first, at most maxSamplesPerResponse.
+     * Samples older than maxHistorySeconds are not returned.
+     */
+    Set<MetasysTrendSample> generateTrendSamples(String trendId, int take, int skip, Instant onAndAfterDateTime, Instant now) {
+        return generateTrendSamples(trendId, take, skip, onAndAfterDateTime, null, now);
+    }
+
+    /**
+     * Samples observed in [onAndAfterDateTime, beforeDateTime), and not after now. A sample on the boundary between
+     * two adjacent ranges is returned by the later range only.
+     */
+    Set<MetasysTrendSample> generateTrendSamples(String trendId, int take, int skip, Instant onAndAfterDateTime, Instant beforeDateTime, Instant now) {
+        Set<MetasysTrendSample> trendSamples = new LinkedHashSet<>();
+        if (trendId == null) {
+            return trendSamples;
+        }
+        long seed = seedOf(trendId);
+        long interval = settings.getSampleIntervalSeconds();
+        long offset = Math.floorMod(seed >>> 32, interval);
+        long nowSeconds = now.getEpochSecond();
+        long firstSample = Math.floorDiv(nowSeconds - settings.getMaxHistorySeconds() - offset, interval) + 1;
+        if (onAndAfterDateTime != null) {
+            firstSample = Math.max(firstSample, Math.ceilDiv(ceilSeconds(onAndAfterDateTime) - offset, interval));
+        }
+        firstSample += Math.max(0, skip);
+        long lastSample = Math.floorDiv(nowSeconds - offset, interval);
+        if (beforeDateTime != null) {
+            lastSample = Math.min(lastSample, Math.ceilDiv(ceilSeconds(beforeDateTime) - offset, interval) - 1);
+        }
+        int limit = take > 0 ? Math.min(take, settings.getMaxSamplesPerResponse()) : settings.getMaxSamplesPerResponse();
+        for (long k = firstSample; k <= lastSample && trendSamples.size() < limit; k++) {
+            long observedAt = k * interval + offset;
+            MetasysTrendSample trendSample = new MetasysTrendSample();
+            trendSample.setTrendId(trendId);
+            trendSample.setObjectId(trendId);
+            trendSample.setTimestamp(Instant.ofEpochSecond(observedAt).toString());
+            trendSample.setValue(valueAt(seed, k, observedAt));
+            trendSample.setReliable(true);
+            trendSamples.add(trendSample);
+        }
+        return trendSamples;
+    }
+
+    private static long ceilSeconds(Instant instant) {
+        return instant.getNano() > 0 ? instant.getEpochSecond() + 1 : instant.getEpochSecond();
+    }
+
+    /**
+     * Daily sine curve with base, amplitude and phase given by the trend id, and a little noise per sample.
+     */
+    static double valueAt(long seed, long sampleIndex, long epochSeconds) {
+        double base = 18 + (seed & 0xff) / 255d * 8;
+        double amplitude = 0.5 + ((seed >>> 8) & 0xff) / 255d * 3;
+        double phase = ((seed >>> 16) & 0xffff) / 65536d * 2 * Math.PI;
+        double noise = (mix(seed ^ sampleIndex) & 0x3ff) / 1023d * 0.2 - 0.1;
+        double value = base + amplitude * Math.sin(2 * Math.PI * Math.floorMod(epochSeconds, SECONDS_PER_DAY) / SECONDS_PER_DAY + phase) + noise;
+        return Math.round(value * 1000) / 1000d;
+    }
+
+    boolean isNotFound(String trendId) {
+        if (settings.getNotFoundRatio() <= 0 || trendId == null) {
+            return false;
+        }
+        return ((mix(seedOf(trendId)) >>> 40) & 0xffff) / 65536d < settings.getNotFoundRatio();
+    }
+
+    boolean isInServerErrorBurst(Instant now) {
+        long every = settings.getServerErrorBurstEverySeconds();
+        return every > 0 && settings.getServerErrorBurstSeconds() > 0
+                && Math.floorMod(now.getEpochSecond(), every) < settings.getServerErrorBurstSeconds();
+    }
+
+    private void injectFailures(String trendId, Instant now) {
+        if (isInServerErrorBurst(now)) {
+            numberOfInjectedFailures.incrementAndGet();
+            throw new MetasysApiException("Metasys Error trying to fetch trendsamples for objectId " + trendId + ". Status: 500. Reason: Simulated server error burst", 500);
+        }
+        if (settings.getRateLimitedRatio() > 0 && ThreadLocalRandom.current().nextDouble() < settings.getRateLimitedRatio()) {
+            numberOfInjectedFailures.incrementAndGet();
+            throw new MetasysApiException("Failed to fetch trendsamples for objectId " + trendId + ". Status: 429. Reason: Simulated Too Many Requests", 429);
+        }
+        if (isNotFound(trendId)) {
+            numberOfInjectedFailures.incrementAndGet();
+            throw new TrendNotFoundException("Failed to fetch trendsamples for objectId " + trendId + ". Status: 404. Reason: Simulated Not Found", trendId);
+        }
+    }
+
+    private void simulateLatency() {
+        long latency = settings.getLatencyMillis();
+        if (settings.getLatencyJitterMillis() > 0) {
+            latency += ThreadLocalRandom.current().nextLong(settings.getLatencyJitterMillis() + 1);
+        }
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static long seedOf(String trendId) {
+        return mix(trendId.hashCode());
+    }
+
+    /**
+     * SplitMix64 finalizer, spreads the bits of a hash over all 64 bits.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
 
     @Override
     public void logon() throws LogonFailedException {
@@ -114,57 +313,6 @@ public class SdClientSimulator implements BasClient {
         }
     }
 
-    private void initializeMapAndStartSimulation() {
-        simulatedTrendIds.add("208540b1-ab8a-566a-8a41-8b4cee515baf");
-        simulatedTrendIds.add("2a15fea2-a196-566b-9d69-d2abcd86a1d8");
-        simulatedTrendIds.add("42061ba5-0f0a-5892-aa28-d33b96e8bed5");
-        simulatedTrendIds.add("8413788b-b8b5-5f23-afde-b659740c74b6");
-        /*
-        log.info("Initializing TrendValue dataset");
-        for (int n = 0; n < 500; n++) {
-            simulateSensorReadings();
-        }
-        */
-        startScheduledSimulationOfTrendValues();
-    }
-
-    private void startScheduledSimulationOfTrendValues() {
-        if (!scheduled_simulator_started) {
-            scheduled_simulator_started = true;
-            ScheduledExecutorService ses = Executors.newScheduledThreadPool(1);
-            log.info("Initializing TrendValue simulator");
-
-            Runnable task1 = () -> {
-                try {
-                    simulateSensorReadings();
-                } catch (Exception e) {
-                    log.info("Exception trying to run simulated generation of trendvalues");
-                }
-            };
-
-            // init Delay = 5, repeat the task every 60 second
-            ScheduledFuture<?> scheduledFuture = ses.scheduleAtFixedRate(task1, 5, SECONDS_BETWEEN_SCHEDULED_IMPORT_RUNS, TimeUnit.SECONDS);
-        }
-    }
-
-    private void addTrendIdToSimulation(String trendId) {
-        simulatedTrendIds.add(trendId);
-    }
-
-    private void simulateSensorReadings() {
-//        log.info("starting SD Sensor simulator run");
-
-        for (String trendid : simulatedTrendIds) {
-            //  We generate trensValues for 20% for each run
-//            log.trace("Running SD Sensor simulator for: {}", trendid);
-            Integer randomValue = ThreadLocalRandom.current().nextInt(100);
-            //  We generate trensValues for 20% for each run
-            if (randomValue < 90) {
-                addSimulatedSDTrendSample(trendid);
-            }
-        }
-    }
-
     @Override
     public Integer subscribePresentValueChange(String subscriptionId, String objectId) throws LogonFailedException {
 
@@ -198,23 +346,6 @@ public class SdClientSimulator implements BasClient {
         return 202;
     }
 
-    private void addSimulatedSDTrendSample(String trendId) {
-        MetasysTrendSample ts = new MetasysTrendSample();
-        ts.setTrendId(trendId);
-        Instant ti = Instant.now();
-        ts.setTimestamp(ti.toString());
-        Integer randomValue = ThreadLocalRandom.current().nextInt(50);
-        ts.setValue(randomValue);
-        Map<Instant, MetasysTrendSample> tsMap = simulatedSDApiData.get(trendId);
-        if (tsMap == null) {
-            tsMap = new ConcurrentHashMap<>();
-        }
-        simulatedSDApiData.put(trendId.toString(), tsMap);
-        whenLastTrendSampleReceived = Instant.ofEpochMilli(System.currentTimeMillis());
-        tsMap.put(ti, ts);
-//        log.info("   - added trendSample for {} - new size: {}", trendId, tsMap.size());
-    }
-
     @Override
     public boolean isLoggedIn() {
         return true;
@@ -233,7 +364,19 @@ public class SdClientSimulator implements BasClient {
 
     @Override
     public long getNumberOfTrendSamplesReceived() {
-        return numberOfTrendSamplesReceived;
+        return numberOfTrendSamplesReceived.get();
+    }
+
+    public Instant getWhenLastTrendSampleReceived() {
+        return whenLastTrendSampleReceived;
+    }
+
+    public long getNumberOfRequests() {
+        return numberOfRequests.get();
+    }
+
+    public long getNumberOfInjectedFailures() {
+        return numberOfInjectedFailures.get();
     }
 
 
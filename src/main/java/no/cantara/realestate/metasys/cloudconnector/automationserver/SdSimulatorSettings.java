@@ -0,0 +1,190 @@
+package no.cantara.realestate.metasys.cloudconnector.automationserver;
+
+import no.cantara.config.ApplicationProperties;
+import org.slf4j.Logger;
+
+import static no.cantara.realestate.utils.StringUtils.hasValue;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Settings for the SdClientSimulator, read from sd.simulator.*
+ * <pre>
+ * sd.simulator.syntheticSensors=0          # generate N sensors in addition to the ones in the import CSV files
+ * sd.simulator.useImportCsv=true           # answer trend ids found in the import CSV files
+ * sd.simulator.sampleIntervalSeconds=300
+ * sd.simulator.maxHistorySeconds=86400     # samples older than this are never returned
+ * sd.simulator.maxSamplesPerResponse=1000
+ * sd.simulator.latencyMillis=0
+ * sd.simulator.latencyJitterMillis=0
+ * sd.simulator.notFoundRatio=0             # share of trend ids answering 404, eg. 0.01
+ * sd.simulator.serverErrorBurstEverySeconds=0
+ * sd.simulator.serverErrorBurstSeconds=0   # 500 for all requests in a burst
+ * sd.simulator.rateLimitedRatio=0          # share of requests answering 429
+ * sd.simulator.requestsPerSecond=10        # client side rate limiter
+ * </pre>
+ */
+public class SdSimulatorSettings {
+    private static final Logger log = getLogger(SdSimulatorSettings.class);
+    public static final String CONFIG_PREFIX = "sd.simulator";
+
+    private int syntheticSensors = 0;
+    private boolean useImportCsv = true;
+    private long sampleIntervalSeconds = 300;
+    private long maxHistorySeconds = 24 * 60 * 60;
+    private int maxSamplesPerResponse = 1000;
+    private long latencyMillis = 0;
+    private long latencyJitterMillis = 0;
+    private double notFoundRatio = 0;
+    private long serverErrorBurstEverySeconds = 0;
+    private long serverErrorBurstSeconds = 0;
+    private double rateLimitedRatio = 0;
+    private int requestsPerSecond = 10;
+
+    public static SdSimulatorSettings fromConfig(ApplicationProperties config) {
+        SdSimulatorSettings settings = new SdSimulatorSettings();
+        settings.syntheticSensors = (int) config.asLong(CONFIG_PREFIX + ".syntheticSensors", settings.syntheticSensors);
+        settings.useImportCsv = config.asBoolean(CONFIG_PREFIX + ".useImportCsv", settings.useImportCsv);
+        settings.sampleIntervalSeconds = Math.max(1, config.asLong(CONFIG_PREFIX + ".sampleIntervalSeconds", settings.sampleIntervalSeconds));
+        settings.maxHistorySeconds = Math.max(0, config.asLong(CONFIG_PREFIX + ".maxHistorySeconds", settings.maxHistorySeconds));
+        settings.maxSamplesPerResponse = (int) Math.max(1, config.asLong(CONFIG_PREFIX + ".maxSamplesPerResponse", settings.maxSamplesPerResponse));
+        settings.latencyMillis = Math.max(0, config.asLong(CONFIG_PREFIX + ".latencyMillis", settings.latencyMillis));
+        settings.latencyJitterMillis = Math.max(0, config.asLong(CONFIG_PREFIX + ".latencyJitterMillis", settings.latencyJitterMillis));
+        settings.notFoundRatio = ratio(config, CONFIG_PREFIX + ".notFoundRatio", settings.notFoundRatio);
+        settings.serverErrorBurstEverySeconds = Math.max(0, config.asLong(CONFIG_PREFIX + ".serverErrorBurstEverySeconds", settings.serverErrorBurstEverySeconds));
+        settings.serverErrorBurstSeconds = Math.max(0, config.asLong(CONFIG_PREFIX + ".serverErrorBurstSeconds", settings.serverErrorBurstSeconds));
+        settings.rateLimitedRatio = ratio(config, CONFIG_PREFIX + ".rateLimitedRatio", settings.rateLimitedRatio);
+        settings.requestsPerSecond = (int) Math.max(1, config.asLong(CONFIG_PREFIX + ".requestsPerSecond", settings.requestsPerSecond));
+        return settings;
+    }
+
+    private static double ratio(ApplicationProperties config, String key, double defaultValue) {
+        String value = config.get(key);
+        if (!hasValue(value)) {
+            return defaultValue;
+        }
+        try {
+            return Math.min(1d, Math.max(0d, Double.parseDouble(value.trim())));
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value for {}: {}. Using {}", key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public int getSyntheticSensors() {
+        return syntheticSensors;
+    }
+
+    public SdSimulatorSettings withSyntheticSensors(int syntheticSensors) {
+        this.syntheticSensors = Math.max(0, syntheticSensors);
+        return this;
+    }
+
+    public boolean isUseImportCsv() {
+        return useImportCsv;
+    }
+
+    public SdSimulatorSettings withUseImportCsv(boolean useImportCsv) {
+        this.useImportCsv = useImportCsv;
+        return this;
+    }
+
+    public long getSampleIntervalSeconds() {
+        return sampleIntervalSeconds;
+    }
+
+    public SdSimulatorSettings withSampleIntervalSeconds(long sampleIntervalSeconds) {
+        this.sampleIntervalSeconds = Math.max(1, sampleIntervalSeconds);
+        return this;
+    }
+
+    public long getMaxHistorySeconds() {
+        return maxHistorySeconds;
+    }
+
+    public SdSimulatorSettings withMaxHistorySeconds(long maxHistorySeconds) {
+        this.maxHistorySeconds = Math.max(0, maxHistorySeconds);
+        return this;
+    }
+
+    public int getMaxSamplesPerResponse() {
+        return maxSamplesPerResponse;
+    }
+
+    public SdSimulatorSettings withMaxSamplesPerResponse(int maxSamplesPerResponse) {
+        this.maxSamplesPerResponse = Math.max(1, maxSamplesPerResponse);
+        return this;
+    }
+
+    public long getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    public long getLatencyJitterMillis() {
+        return latencyJitterMillis;
+    }
+
+    public SdSimulatorSettings withLatency(long latencyMillis, long latencyJitterMillis) {
+        this.latencyMillis = Math.max(0, latencyMillis);
+        this.latencyJitterMillis = Math.max(0, latencyJitterMillis);
+        return this;
+    }
+
+    public double getNotFoundRatio() {
+        return notFoundRatio;
+    }
+
+    public SdSimulatorSettings withNotFoundRatio(double notFoundRatio) {
+        this.notFoundRatio = Math.min(1d, Math.max(0d, notFoundRatio));
+        return this;
+    }
+
+    public long getServerErrorBurstEverySeconds() {
+        return serverErrorBurstEverySeconds;
+    }
+
+    public long getServerErrorBurstSeconds() {
+        return serverErrorBurstSeconds;
+    }
+
+    public SdSimulatorSettings withServerErrorBursts(long everySeconds, long burstSeconds) {
+        this.serverErrorBurstEverySeconds = Math.max(0, everySeconds);
+        this.serverErrorBurstSeconds = Math.max(0, burstSeconds);
+        return this;
+    }
+
+    public double getRateLimitedRatio() {
+        return rateLimitedRatio;
+    }
+
+    public SdSimulatorSettings withRateLimitedRatio(double rateLimitedRatio) {
+        this.rateLimitedRatio = Math.min(1d, Math.max(0d, rateLimitedRatio));
+        return this;
+    }
+
+    public int getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    public SdSimulatorSettings withRequestsPerSecond(int requestsPerSecond) {
+        this.requestsPerSecond = Math.max(1, requestsPerSecond);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "SdSimulatorSettings{" +
+                "syntheticSensors=" + syntheticSensors +
+                ", useImportCsv=" + useImportCsv +
+                ", sampleIntervalSeconds=" + sampleIntervalSeconds +
+                ", maxHistorySeconds=" + maxHistorySeconds +
+                ", maxSamplesPerResponse=" + maxSamplesPerResponse +
+                ", latencyMillis=" + latencyMillis +
+                ", latencyJitterMillis=" + latencyJitterMillis +
+                ", notFoundRatio=" + notFoundRatio +
+                ", serverErrorBurstEverySeconds=" + serverErrorBurstEverySeconds +
+                ", serverErrorBurstSeconds=" + serverErrorBurstSeconds +
+                ", rateLimitedRatio=" + rateLimitedRatio +
+                ", requestsPerSecond=" + requestsPerSecond +
+                '}';
+    }
+}
@@ -0,0 +1,20 @@
+package no.cantara.realestate.metasys.cloudconnector.automationserver;
+
+import no.cantara.realestate.automationserver.TrendNotFoundException;
+import no.cantara.realestate.security.InvalidTokenException;
+
+import java.net.URISyntaxException;
+import java.time.Instant;
+import java.util.Set;
+
+/**
+ * Trend samples within a bounded time range, used by backfill. BasClient.findTrendSamplesByDate always reads until now.
+ */
+public interface TrendRangeClient {
+
+    /**
+     * @return samples observed on and after onAndAfterDateTime, and before beforeDateTime. At most one page of samples.
+     */
+    Set<MetasysTrendSample> findTrendSamplesBetween(String objectId, Instant onAndAfterDateTime, Instant beforeDateTime)
+            throws URISyntaxException, InvalidTokenException, TrendNotFoundException;
+}
@@ -1,6 +1,7 @@
 package no.cantara.realestate.metasys.cloudconnector.automationserver;
 
 import no.cantara.realestate.json.RealEstateObjectMapper;
+import no.cantara.realestate.metasys.cloudconnector.utils.CanonicalStrings;
 import org.slf4j.Logger;
 
 import static org.slf4j.LoggerFactory.getLogger;
@@ -16,7 +17,7 @@ public class TrendSamplesMapper {
                 if (objectUrl != null) {
                     int lastSlash = objectUrl.lastIndexOf("/");
                     if (lastSlash > 0) {
-                        String objectId = objectUrl.substring(lastSlash + 1);
+                        String objectId = CanonicalStrings.shared().canonical(objectUrl.substring(lastSlash + 1));
 
                         for (MetasysTrendSample sample : result.getItems()) {
                             sample.setObjectId(objectId);
@@ -21,6 +21,7 @@ import no.cantara.realestate.cloudconnector.notifications.NotificationService;
 import no.cantara.realestate.cloudconnector.notifications.SlackNotificationService;
 import no.cantara.realestate.json.RealEstateObjectMapper;
 import no.cantara.realestate.metasys.cloudconnector.MetasysCloudConnectorException;
+import no.cantara.realestate.metasys.cloudconnector.metrics.MetasysInstruments;
 import no.cantara.realestate.metasys.cloudconnector.automationserver.MetasysApiException;
 import no.cantara.realestate.metasys.cloudconnector.automationserver.MetasysTrendSample;
 import no.cantara.realestate.metasys.cloudconnector.automationserver.MetasysUserToken;
@@ -88,6 +89,7 @@ public class MetasysStreamClient implements BasClient {
     private boolean isHealthy = true;
     final Tracer tracer;
     final Meter meter;
+    private final MetasysInstruments instruments;
     private final RateLimiter rateLimiter;
     private final RateLimiter logonRateLimiter;
 
@@ -125,6 +127,7 @@ public class MetasysStreamClient implements BasClient {
         this.notificationService = notificationService;
         tracer = GlobalOpenTelemetry.getTracer(INSTRUMENTATION_SCOPE_NAME_VALUE);
         meter = GlobalOpenTelemetry.getMeter(INSTRUMENTATION_SCOPE_NAME_VALUE);
+        instruments = MetasysInstruments.getInstance();
         RateLimiterConfig config = RateLimiterConfig.custom()
                 .limitForPeriod(2)                          // 1 kall per periode
                 .limitRefreshPeriod(Duration.ofMillis(200)) // periode på 500 ms
@@ -194,7 +197,7 @@ public class MetasysStreamClient implements BasClient {
                     .timeout(REQUEST_TIMEOUT)
                     .build();
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> response = sendRequest(request, "login");
 
             int statusCode = response.statusCode();
             switch (statusCode) {
@@ -269,7 +272,7 @@ public class MetasysStreamClient implements BasClient {
                     .timeout(REQUEST_TIMEOUT)
                     .build();
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> response = sendRequest(request, "refreshToken");
             int statusCode = response.statusCode();
 
             switch (statusCode) {
@@ -359,7 +362,7 @@ public class MetasysStreamClient implements BasClient {
             // Token nærmer seg utløp, prøv å fornye
             authLock.lock();
             try {
-                boolean permission = logonRateLimiter.acquirePermission();
+                boolean permission = acquirePermission(logonRateLimiter);
                 if (!permission) {
                     log.debug("Rate limit exceeded for token refresh");
                 } else {
@@ -464,7 +467,7 @@ public class MetasysStreamClient implements BasClient {
                         .timeout(REQUEST_TIMEOUT)
                         .build();
 
-                HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+                HttpResponse<String> response = sendRequest(request, "getTrendedValues");
 
                 if (response.statusCode() == 200) {
                     return response.body();
@@ -524,7 +527,7 @@ public class MetasysStreamClient implements BasClient {
                         .timeout(REQUEST_TIMEOUT)
                         .build();
 
-                HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+                HttpResponse<String> response = sendRequest(request, "subscribeToPresentValueChanged");
 
                 if (response.statusCode() == 200 || response.statusCode() == 201) {
                     return response.body();
@@ -600,7 +603,7 @@ public class MetasysStreamClient implements BasClient {
             Integer statusCode = null;
             try (Scope ignored = span.makeCurrent()) {
 
-                boolean permission = rateLimiter.acquirePermission();  //getPermission(Duration.ofSeconds(10));
+                boolean permission = acquirePermission(rateLimiter);  //getPermission(Duration.ofSeconds(10));
                 if (!permission) {
                     throw new RealestateCloudconnectorException("RateLimit exceeded - subscribePresentValueChange", StatusType.RETRY_MAY_FIX_ISSUE);
                 }
@@ -617,7 +620,7 @@ public class MetasysStreamClient implements BasClient {
                         .GET()
                         .timeout(REQUEST_TIMEOUT)
                         .build();
-                HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+                HttpResponse<String> response = sendRequest(request, "subscribePresentValueChange");
                 statusCode = response.statusCode();
                 String body = response.body();
                 attributes = Attributes.of(stringKey("objectId"), objectId, longKey("http.status_code"), Long.valueOf(statusCode));
@@ -705,6 +708,31 @@ public class MetasysStreamClient implements BasClient {
         TemporaryHealthResource.setUnhealthy();
     }
 
+    /**
+     * Sender request og registrerer varighet og statuskode i metasys.http.client.duration
+     */
+    private HttpResponse<String> sendRequest(HttpRequest request, String operation) throws IOException, InterruptedException {
+        long started = System.nanoTime();
+        int statusCode = 0;
+        try {
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            statusCode = response.statusCode();
+            return response;
+        } finally {
+            instruments.recordHttpRequest(getName(), operation, statusCode, started);
+        }
+    }
+
+    /**
+     * Venter på tillatelse fra rateLimiter og registrerer ventetiden i metasys.ratelimiter.wait.duration
+     */
+    private boolean acquirePermission(RateLimiter limiter) {
+        long started = System.nanoTime();
+        boolean permitted = limiter.acquirePermission();
+        instruments.recordRateLimiterWait(limiter.getName(), permitted, started);
+        return permitted;
+    }
+
     /**
      * Markerer API som healthy og nullstiller failure counters
      */
@@ -1,6 +1,7 @@
 package no.cantara.realestate.metasys.cloudconnector.automationserver.stream;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import no.cantara.realestate.metasys.cloudconnector.utils.CanonicalStrings;
 import org.slf4j.Logger;
 
 import java.util.Map;
@@ -21,8 +22,10 @@ public class ParsedObservedValue {
 
     @JsonProperty("item")
     protected void unpackNameFromNestedObject(Map<String, Object> item) {
-        this.id = (String) item.get("id");
-        this.itemReference = (String) item.get("itemReference");
+        // The same sensors report again and again, keep one id and itemReference per sensor
+        CanonicalStrings strings = CanonicalStrings.shared();
+        this.id = strings.canonical((String) item.get("id"));
+        this.itemReference = strings.canonical((String) item.get("itemReference"));
         this.value = item.get("presentValue");
         log.trace("ParsedObservedValue: id={}, itemReference={}, value={}", id, itemReference, value);
     }
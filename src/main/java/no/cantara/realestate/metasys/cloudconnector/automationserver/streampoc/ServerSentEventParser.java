@@ -0,0 +1,72 @@
+package no.cantara.realestate.metasys.cloudconnector.automationserver.streampoc;
+
+import no.cantara.realestate.metasys.cloudconnector.utils.CanonicalStrings;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Parse Server-Sent Events (SSE) one line at a time.
+ * Events are separated by blank lines and consist of fields starting with "id:", "event:", "data:", or "retry:".
+ * Multiple data lines are joined with "\n".
+ */
+public class ServerSentEventParser {
+    private static final Logger log = getLogger(ServerSentEventParser.class);
+
+    private ServerSentEvent currentEvent = new ServerSentEvent();
+    private final List<String> dataLines = new ArrayList<>();
+    private boolean hasData = false;
+
+    /**
+     * @param line one line from the stream, without line terminator
+     * @return the completed event when line is the blank line ending an event, otherwise null
+     */
+    public ServerSentEvent parseLine(String line) {
+        if (line.isEmpty()) {
+            return hasData ? completeEvent() : null;
+        }
+        if (line.startsWith("id:")) {
+            currentEvent.setId(line.substring(3).trim());
+            hasData = true;
+        } else if (line.startsWith("event:")) {
+            currentEvent.setEvent(CanonicalStrings.shared().canonical(line.substring(6).trim()));
+            hasData = true;
+        } else if (line.startsWith("data:")) {
+            dataLines.add(line.substring(5).trim());
+            hasData = true;
+        } else if (line.startsWith("retry:")) {
+            try {
+                currentEvent.setRetry(Integer.parseInt(line.substring(6).trim()));
+                hasData = true;
+            } catch (NumberFormatException e) {
+                log.warn("Invalid retry value in SSE: {}", line);
+            }
+        } else {
+            log.debug("Ignoring unknown SSE line: {}", line);
+        }
+        return null;
+    }
+
+    /**
+     * Use when the stream ends without a blank line after the last event.
+     *
+     * @return the event received since the last blank line, or null if there is none
+     */
+    public ServerSentEvent finish() {
+        return hasData ? completeEvent() : null;
+    }
+
+    private ServerSentEvent completeEvent() {
+        ServerSentEvent event = currentEvent;
+        if (!dataLines.isEmpty()) {
+            event.setData(dataLines.size() == 1 ? dataLines.get(0) : String.join("\n", dataLines));
+        }
+        currentEvent = new ServerSentEvent();
+        dataLines.clear();
+        hasData = false;
+        return event;
+    }
+}
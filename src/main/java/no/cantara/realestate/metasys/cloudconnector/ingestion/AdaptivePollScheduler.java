@@ -0,0 +1,377 @@
+package no.cantara.realestate.metasys.cloudconnector.ingestion;
+
+import no.cantara.config.ApplicationProperties;
+import no.cantara.realestate.metasys.cloudconnector.observations.filter.AggregatingObservationFilter;
+import no.cantara.realestate.sensors.SensorId;
+import org.slf4j.Logger;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Decide when each sensor is polled for trend samples, instead of polling every sensor every ingestion cycle.
+ * <p>
+ * The sample interval of a sensor starts from the Interval column of the sensor CSV, or the default interval,
+ * and is learned from the observedAt of the samples returned. A sensor is due a little after its next sample is
+ * expected. Sensors without new samples, and sensors where the trend is not found, are polled less often the
+ * longer it lasts.
+ * <p>
+ * Sensors wait in a priority queue ordered by due time. First due times are spread over one interval, each sensor
+ * has a fixed offset within spreadSeconds, and no more than maxPerPoll sensors are handed out at a time.
+ * Rescheduling adds a new entry and leaves the old one in the queue, where pollDue skips it by its generation.
+ * <pre>
+ * ingestion.adaptive.enabled=false
+ * ingestion.adaptive.pollIntervalMillis=1000
+ * ingestion.adaptive.defaultIntervalSeconds=600
+ * ingestion.adaptive.minIntervalSeconds=60
+ * ingestion.adaptive.maxIntervalSeconds=86400
+ * ingestion.adaptive.delayAfterExpectedSeconds=30
+ * ingestion.adaptive.spreadSeconds=60
+ * ingestion.adaptive.maxRequestsPerSecond=5
+ * </pre>
+ */
+public class AdaptivePollScheduler {
+    private static final Logger log = getLogger(AdaptivePollScheduler.class);
+    public static final String CONFIG_PREFIX = "ingestion.adaptive";
+    public static final String ENABLED_KEY = CONFIG_PREFIX + ".enabled";
+    static final double LEARNING_RATE = 0.25;
+    // Gaps longer than this many intervals are outages, not a change of interval
+    static final int MAX_GAP_INTERVALS = 4;
+
+    private final long defaultIntervalMillis;
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private final long delayAfterExpectedMillis;
+    private final long spreadMillis;
+    private final int maxPerPoll;
+
+    // Guarded by this
+    private final Map<String, PollState> states = new HashMap<>();
+    private final PriorityQueue<Due> queue = new PriorityQueue<>(Comparator.comparingLong((Due due) -> due.dueAtMillis));
+
+    public AdaptivePollScheduler(long defaultIntervalMillis, long minIntervalMillis, long maxIntervalMillis,
+                                 long delayAfterExpectedMillis, long spreadMillis, int maxPerPoll) {
+        this.minIntervalMillis = Math.max(1000, minIntervalMillis);
+        this.maxIntervalMillis = Math.max(this.minIntervalMillis, maxIntervalMillis);
+        this.defaultIntervalMillis = clamp(defaultIntervalMillis, this.minIntervalMillis, this.maxIntervalMillis);
+        this.delayAfterExpectedMillis = Math.max(0, delayAfterExpectedMillis);
+        this.spreadMillis = Math.max(1, spreadMillis);
+        this.maxPerPoll = Math.max(1, maxPerPoll);
+    }
+
+    /**
+     * @param pollIntervalMillis how often pollDue is called, used to turn maxRequestsPerSecond into maxPerPoll
+     */
+    public static AdaptivePollScheduler fromConfig(ApplicationProperties config, long pollIntervalMillis) {
+        long defaultIntervalSeconds = config.asLong(CONFIG_PREFIX + ".defaultIntervalSeconds", 600L);
+        long minIntervalSeconds = config.asLong(CONFIG_PREFIX + ".minIntervalSeconds", 60L);
+        long maxIntervalSeconds = config.asLong(CONFIG_PREFIX + ".maxIntervalSeconds", 86400L);
+        long delayAfterExpectedSeconds = config.asLong(CONFIG_PREFIX + ".delayAfterExpectedSeconds", 30L);
+        long spreadSeconds = config.asLong(CONFIG_PREFIX + ".spreadSeconds", 60L);
+        long maxRequestsPerSecond = config.asLong(CONFIG_PREFIX + ".maxRequestsPerSecond", 5L);
+        int maxPerPoll = (int) Math.max(1, maxRequestsPerSecond * pollIntervalMillis / 1000);
+        log.info("Adaptive polling. Default interval: {} s, min: {} s, max: {} s, delay after expected: {} s, spread: {} s, max per poll: {}",
+                defaultIntervalSeconds, minIntervalSeconds, maxIntervalSeconds, delayAfterExpectedSeconds, spreadSeconds, maxPerPoll);
+        return new AdaptivePollScheduler(defaultIntervalSeconds * 1000, minIntervalSeconds * 1000, maxIntervalSeconds * 1000,
+                delayAfterExpectedSeconds * 1000, spreadSeconds * 1000, maxPerPoll);
+    }
+
+    /**
+     * Start scheduling a sensor. Registering a sensor that is already scheduled only updates the Interval.
+     *
+     * @param interval Interval column from the sensor CSV, may be null
+     */
+    public synchronized void register(SensorId sensorId, String interval, Instant now) {
+        long csvIntervalMillis = parseIntervalMillis(interval);
+        PollState state = states.get(sensorId.getId());
+        if (state != null) {
+            if (csvIntervalMillis > 0 && !state.learned) {
+                state.intervalMillis = csvIntervalMillis;
+            }
+            return;
+        }
+        state = new PollState(sensorId, csvIntervalMillis > 0 ? csvIntervalMillis : defaultIntervalMillis);
+        states.put(sensorId.getId(), state);
+        schedule(state, now.toEpochMilli() + spread(sensorId.getId(), state.intervalMillis));
+    }
+
+    /**
+     * Use the Interval column from the sensor CSV for a sensor already registered, until an interval is learned.
+     */
+    public synchronized void setInterval(String sensorId, String interval) {
+        PollState state = states.get(sensorId);
+        long csvIntervalMillis = parseIntervalMillis(interval);
+        if (state != null && csvIntervalMillis > 0 && !state.learned) {
+            state.intervalMillis = csvIntervalMillis;
+        }
+    }
+
+    public synchronized void remove(SensorId sensorId) {
+        PollState state = states.remove(sensorId.getId());
+        if (state != null) {
+            state.removed = true;
+            state.scheduled = false;
+        }
+    }
+
+    /**
+     * Take the sensors that are due, earliest first. A sensor is not handed out again until one of the
+     * record methods has been called for it.
+     */
+    public synchronized List<SensorId> pollDue(Instant now) {
+        List<SensorId> due = new ArrayList<>();
+        long nowMillis = now.toEpochMilli();
+        Due next;
+        while (due.size() < maxPerPoll && (next = peekScheduled()) != null && next.dueAtMillis <= nowMillis) {
+            queue.poll();
+            next.state.scheduled = false;
+            due.add(next.state.sensorId);
+        }
+        return due;
+    }
+
+    /**
+     * Put a sensor handed out by pollDue back, as after a failure, unless one of the record methods has scheduled it.
+     * Used when polling stopped before the sensor was done.
+     */
+    public synchronized void requeue(SensorId sensorId, Instant now) {
+        PollState state = states.get(sensorId.getId());
+        if (state != null && !state.scheduled) {
+            schedule(state, now.toEpochMilli() + Math.min(state.intervalMillis, defaultIntervalMillis) + offset(state));
+        }
+    }
+
+    /**
+     * Samples were returned. Learn the interval from the gaps between them, and be due just after the next one.
+     */
+    public synchronized void recordSamples(SensorId sensorId, Collection<Instant> observedAts, Instant now) {
+        PollState state = states.get(sensorId.getId());
+        if (state == null) {
+            return;
+        }
+        List<Long> sorted = new ArrayList<>(observedAts.size());
+        for (Instant observedAt : observedAts) {
+            if (observedAt != null) {
+                sorted.add(observedAt.toEpochMilli());
+            }
+        }
+        sorted.sort(null);
+        for (long observedAtMillis : sorted) {
+            if (state.lastObservedAtMillis > 0) {
+                learn(state, observedAtMillis - state.lastObservedAtMillis);
+            }
+            state.lastObservedAtMillis = Math.max(state.lastObservedAtMillis, observedAtMillis);
+        }
+        state.consecutiveEmpty = 0;
+        state.consecutiveNotFound = 0;
+        if (state.lastObservedAtMillis <= 0) {
+            schedule(state, now.toEpochMilli() + state.intervalMillis);
+            return;
+        }
+        long expectedAtMillis = state.lastObservedAtMillis + state.intervalMillis;
+        long dueAtMillis = expectedAtMillis + delayAfterExpectedMillis + offset(state);
+        schedule(state, Math.max(dueAtMillis, now.toEpochMilli() + minIntervalMillis));
+    }
+
+    /**
+     * The request succeeded, but there were no new samples. Back off one interval more for each empty response.
+     */
+    public synchronized void recordNoSamples(SensorId sensorId, Instant now) {
+        PollState state = states.get(sensorId.getId());
+        if (state == null) {
+            return;
+        }
+        state.consecutiveEmpty++;
+        state.consecutiveNotFound = 0;
+        long backoffMillis = clamp(state.intervalMillis * state.consecutiveEmpty, minIntervalMillis, maxIntervalMillis);
+        schedule(state, now.toEpochMilli() + backoffMillis + offset(state));
+    }
+
+    /**
+     * The trend does not exist. Double the wait for each time, up to maxInterval.
+     */
+    public synchronized void recordNotFound(SensorId sensorId, Instant now) {
+        PollState state = states.get(sensorId.getId());
+        if (state == null) {
+            return;
+        }
+        state.consecutiveNotFound = Math.min(state.consecutiveNotFound + 1, 30);
+        long backoffMillis = defaultIntervalMillis << Math.min(state.consecutiveNotFound - 1, 20);
+        schedule(state, now.toEpochMilli() + clamp(backoffMillis, minIntervalMillis, maxIntervalMillis) + offset(state));
+    }
+
+    /**
+     * The request failed for another reason. Try again at the usual rate, without learning anything.
+     */
+    public synchronized void recordFailure(SensorId sensorId, Instant now) {
+        PollState state = states.get(sensorId.getId());
+        if (state == null) {
+            return;
+        }
+        schedule(state, now.toEpochMilli() + Math.min(state.intervalMillis, defaultIntervalMillis) + offset(state));
+    }
+
+    /**
+     * Not polled now, eg. because the stream keeps the sensor up to date. Check again at the given time.
+     */
+    public synchronized void defer(SensorId sensorId, Instant until) {
+        PollState state = states.get(sensorId.getId());
+        if (state == null) {
+            return;
+        }
+        schedule(state, until.toEpochMilli() + offset(state));
+    }
+
+    private void learn(PollState state, long gapMillis) {
+        if (gapMillis <= 0) {
+            return;
+        }
+        if (!state.learned) {
+            state.intervalMillis = clamp(gapMillis, minIntervalMillis, maxIntervalMillis);
+            state.learned = true;
+        } else if (gapMillis <= state.intervalMillis * MAX_GAP_INTERVALS) {
+            long learnedMillis = state.intervalMillis + Math.round((gapMillis - state.intervalMillis) * LEARNING_RATE);
+            state.intervalMillis = clamp(learnedMillis, minIntervalMillis, maxIntervalMillis);
+        }
+    }
+
+    private void schedule(PollState state, long dueAtMillis) {
+        if (state.removed) {
+            return;
+        }
+        state.generation++;
+        state.dueAtMillis = dueAtMillis;
+        state.scheduled = true;
+        queue.add(new Due(state, dueAtMillis));
+        if (queue.size() > 2 * states.size() + 64) {
+            compact();
+        }
+    }
+
+    /**
+     * @return the earliest entry still scheduled, after dropping the stale entries ahead of it
+     */
+    private Due peekScheduled() {
+        Due next = queue.peek();
+        while (next != null && !next.isScheduled()) {
+            queue.poll();
+            next = queue.peek();
+        }
+        return next;
+    }
+
+    /**
+     * Drop stale entries due later than the head, when sensors are rescheduled faster than they fall due
+     */
+    private void compact() {
+        queue.removeIf(due -> !due.isScheduled());
+    }
+
+    private long offset(PollState state) {
+        return spread(state.sensorId.getId(), spreadMillis);
+    }
+
+    /**
+     * Fixed position of a sensor within range. Similar ids, like Sensor-1 and Sensor-2, have similar hashCodes,
+     * so the hash is mixed before it is reduced to the range.
+     */
+    static long spread(String id, long range) {
+        long hash = id.hashCode() * 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 29;
+        return Math.floorMod(hash, range);
+    }
+
+    private long parseIntervalMillis(String interval) {
+        long seconds = AggregatingObservationFilter.parseIntervalSeconds(interval);
+        return seconds > 0 ? clamp(seconds * 1000, minIntervalMillis, maxIntervalMillis) : -1;
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    public synchronized int getNumberOfSensors() {
+        return states.size();
+    }
+
+    public synchronized int getNumberOfDueSensors(Instant now) {
+        long nowMillis = now.toEpochMilli();
+        int due = 0;
+        for (Due next : queue) {
+            if (next.dueAtMillis <= nowMillis && next.isScheduled()) {
+                due++;
+            }
+        }
+        return due;
+    }
+
+    public synchronized boolean hasDueSensors(Instant now) {
+        Due next = peekScheduled();
+        return next != null && next.dueAtMillis <= now.toEpochMilli();
+    }
+
+    public int getMaxPerPoll() {
+        return maxPerPoll;
+    }
+
+    synchronized long getIntervalMillis(String sensorId) {
+        PollState state = states.get(sensorId);
+        return state == null ? -1 : state.intervalMillis;
+    }
+
+    synchronized Instant getDueAt(String sensorId) {
+        PollState state = states.get(sensorId);
+        return state == null || !state.scheduled ? null : Instant.ofEpochMilli(state.dueAtMillis);
+    }
+
+    synchronized int getNumberOfQueueEntries() {
+        return queue.size();
+    }
+
+    private static class PollState {
+        private final SensorId sensorId;
+        private long intervalMillis;
+        private boolean learned;
+        private long lastObservedAtMillis;
+        private long dueAtMillis;
+        private int consecutiveEmpty;
+        private int consecutiveNotFound;
+        private boolean removed;
+        // False from pollDue until one of the record methods is called
+        private boolean scheduled;
+        // Counted up on every schedule. Queue entries of an older generation are stale.
+        private long generation;
+
+        PollState(SensorId sensorId, long intervalMillis) {
+            this.sensorId = sensorId;
+            this.intervalMillis = intervalMillis;
+        }
+    }
+
+    /**
+     * Queue entry. Stale when the sensor was rescheduled, handed out or removed after the entry was added.
+     */
+    private static class Due {
+        private final PollState state;
+        private final long dueAtMillis;
+        private final long generation;
+
+        Due(PollState state, long dueAtMillis) {
+            this.state = state;
+            this.dueAtMillis = dueAtMillis;
+            this.generation = state.generation;
+        }
+
+        boolean isScheduled() {
+            return state.scheduled && state.generation == generation;
+        }
+    }
+}
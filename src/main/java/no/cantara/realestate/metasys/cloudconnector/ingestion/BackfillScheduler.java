@@ -0,0 +1,476 @@
+package no.cantara.realestate.metasys.cloudconnector.ingestion;
+
+import no.cantara.config.ApplicationProperties;
+import no.cantara.realestate.sensors.SensorId;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Find the gaps in the trend samples of each sensor after an outage, and hand them out in chunks to the backfill
+ * lane of MetasysTrendsIngestionService.
+ * <p>
+ * When last updated of a sensor is more than gapThresholdSeconds old, live polling reads from gapThresholdSeconds
+ * ago only, and the time from last updated until then is a gap. A gap is split into chunks of chunkSeconds, and
+ * gaps older than maxGapSeconds are cut off. Chunks of all sensors wait in one priority queue, newest first, so the
+ * latest history of every sensor is restored before older history. A chunk returning a full page of samples is
+ * split in two and fetched again.
+ * <pre>
+ * ingestion.backfill.enabled=false
+ * ingestion.backfill.gapThresholdSeconds=1800
+ * ingestion.backfill.chunkSeconds=3600
+ * ingestion.backfill.maxGapSeconds=604800
+ * ingestion.backfill.maxRequestsPerSecond=1
+ * ingestion.backfill.maxSamplesPerChunk=1000
+ * ingestion.backfill.maxAttempts=5
+ * </pre>
+ * Gaps not yet filled are written to a CSV file by persistGaps, before last updated is persisted past them. On
+ * restart, readGaps restores them, and the gaps of a sensor are queued again when it is first polled.
+ * <pre>
+ * ingestion.backfill.csvFile=trends_backfill_gaps.csv
+ * </pre>
+ */
+public class BackfillScheduler {
+    private static final Logger log = getLogger(BackfillScheduler.class);
+    public static final String CONFIG_PREFIX = "ingestion.backfill";
+    public static final String ENABLED_KEY = CONFIG_PREFIX + ".enabled";
+    // Chunks shorter than this are not split further
+    static final long MIN_CHUNK_MILLIS = 60_000;
+
+    private final long gapThresholdMillis;
+    private final long chunkMillis;
+    private final long maxGapMillis;
+    private final int maxSamplesPerChunk;
+    private final int maxAttempts;
+
+    // Guarded by this
+    private final Map<String, Progress> progress = new HashMap<>();
+    private final PriorityQueue<Chunk> queue = new PriorityQueue<>(Comparator.comparingLong((Chunk chunk) -> chunk.toMillis).reversed());
+    // Handed out by nextChunk, and not yet fetched, failed or abandoned
+    private final Set<Chunk> fetching = Collections.newSetFromMap(new IdentityHashMap<>());
+    // sensorId -> gaps read by readGaps, from and to millis, until the sensor is polled
+    private final Map<String, List<long[]>> restoredGaps = new HashMap<>();
+    private Path gapsFile;
+    private boolean gapsChanged = false;
+    private long numberOfBackfilledSamples = 0;
+    private long numberOfAbandonedChunks = 0;
+
+    public BackfillScheduler(long gapThresholdMillis, long chunkMillis, long maxGapMillis, int maxSamplesPerChunk, int maxAttempts) {
+        this.gapThresholdMillis = Math.max(MIN_CHUNK_MILLIS, gapThresholdMillis);
+        this.chunkMillis = Math.max(MIN_CHUNK_MILLIS, chunkMillis);
+        this.maxGapMillis = Math.max(this.chunkMillis, maxGapMillis);
+        this.maxSamplesPerChunk = Math.max(1, maxSamplesPerChunk);
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    public static BackfillScheduler fromConfig(ApplicationProperties config) {
+        long gapThresholdSeconds = config.asLong(CONFIG_PREFIX + ".gapThresholdSeconds", 1800L);
+        long chunkSeconds = config.asLong(CONFIG_PREFIX + ".chunkSeconds", 3600L);
+        long maxGapSeconds = config.asLong(CONFIG_PREFIX + ".maxGapSeconds", 604800L);
+        int maxSamplesPerChunk = (int) config.asLong(CONFIG_PREFIX + ".maxSamplesPerChunk", 1000L);
+        int maxAttempts = (int) config.asLong(CONFIG_PREFIX + ".maxAttempts", 5L);
+        log.info("Backfill. Gap threshold: {} s, chunk: {} s, max gap: {} s, max samples per chunk: {}, max attempts: {}",
+                gapThresholdSeconds, chunkSeconds, maxGapSeconds, maxSamplesPerChunk, maxAttempts);
+        return new BackfillScheduler(gapThresholdSeconds * 1000, chunkSeconds * 1000, maxGapSeconds * 1000, maxSamplesPerChunk, maxAttempts);
+    }
+
+    /**
+     * Where live polling of the sensor starts. When last updated is older than the gap threshold, the time from last
+     * updated until the threshold is queued for backfill, and live polling starts at the threshold.
+     * A gap already queued is not queued again.
+     *
+     * @param lastUpdatedAt null when the sensor has not been ingested before. There is no gap to fill.
+     * @return lastUpdatedAt, or the start of the live window when there is a gap
+     */
+    public synchronized Instant liveStartFor(SensorId sensorId, Instant lastUpdatedAt, Instant now) {
+        List<long[]> restored = restoredGaps.remove(sensorId.getId());
+        if (restored != null) {
+            Progress sensorProgress = progress.computeIfAbsent(sensorId.getId(), id -> new Progress(sensorId));
+            for (long[] gap : restored) {
+                queueGap(sensorProgress, gap[0], gap[1]);
+            }
+        }
+        if (lastUpdatedAt == null) {
+            return null;
+        }
+        long liveStartMillis = now.toEpochMilli() - gapThresholdMillis;
+        if (lastUpdatedAt.toEpochMilli() >= liveStartMillis) {
+            return lastUpdatedAt;
+        }
+        long gapFromMillis = Math.max(lastUpdatedAt.toEpochMilli(), liveStartMillis - maxGapMillis);
+        Progress sensorProgress = progress.computeIfAbsent(sensorId.getId(), id -> new Progress(sensorId));
+        gapFromMillis = Math.max(gapFromMillis, sensorProgress.queuedUntilMillis);
+        if (gapFromMillis < liveStartMillis) {
+            queueGap(sensorProgress, gapFromMillis, liveStartMillis);
+        }
+        return Instant.ofEpochMilli(liveStartMillis);
+    }
+
+    private void queueGap(Progress sensorProgress, long fromMillis, long toMillis) {
+        if (sensorProgress.isDone()) {
+            sensorProgress.startGap(fromMillis);
+        }
+        int chunks = 0;
+        for (long chunkFrom = fromMillis; chunkFrom < toMillis; chunkFrom += chunkMillis) {
+            queue.add(new Chunk(sensorProgress, chunkFrom, Math.min(toMillis, chunkFrom + chunkMillis)));
+            chunks++;
+        }
+        sensorProgress.chunksQueued += chunks;
+        sensorProgress.queuedUntilMillis = Math.max(sensorProgress.queuedUntilMillis, toMillis);
+        gapsChanged = true;
+        log.debug("Queued backfill of {} from {} to {} in {} chunks", sensorProgress.sensorId.getId(),
+                Instant.ofEpochMilli(fromMillis), Instant.ofEpochMilli(toMillis), chunks);
+    }
+
+    /**
+     * @return the newest chunk waiting, or null when there is nothing to backfill
+     */
+    public synchronized Chunk nextChunk() {
+        Chunk chunk = queue.poll();
+        while (chunk != null && chunk.progress.removed) {
+            chunk = queue.poll();
+        }
+        if (chunk != null) {
+            fetching.add(chunk);
+        }
+        return chunk;
+    }
+
+    /**
+     * @param samples samples fetched in the chunk
+     * @return true when the chunk is done. False when it returned a full page, and was split in two and queued again.
+     */
+    public synchronized boolean chunkFetched(Chunk chunk, int samples) {
+        fetching.remove(chunk);
+        gapsChanged = true;
+        if (samples >= maxSamplesPerChunk && chunk.toMillis - chunk.fromMillis >= 2 * MIN_CHUNK_MILLIS) {
+            long middle = chunk.fromMillis + (chunk.toMillis - chunk.fromMillis) / 2;
+            queue.add(new Chunk(chunk.progress, chunk.fromMillis, middle));
+            queue.add(new Chunk(chunk.progress, middle, chunk.toMillis));
+            chunk.progress.chunksQueued++;
+            return false;
+        }
+        chunk.progress.chunksDone++;
+        chunk.progress.samples += samples;
+        numberOfBackfilledSamples += samples;
+        return true;
+    }
+
+    /**
+     * Queue the chunk again, until maxAttempts is reached
+     */
+    public synchronized void chunkFailed(Chunk chunk, String error) {
+        fetching.remove(chunk);
+        chunk.attempts++;
+        chunk.progress.lastError = error;
+        if (chunk.attempts < maxAttempts && !chunk.progress.removed) {
+            queue.add(chunk);
+        } else {
+            abandon(chunk, error);
+        }
+    }
+
+    /**
+     * Give up the chunk, eg. when the trend is not found or the sensor is owned by another instance
+     */
+    public synchronized void abandon(Chunk chunk, String reason) {
+        fetching.remove(chunk);
+        gapsChanged = true;
+        chunk.progress.chunksAbandoned++;
+        chunk.progress.lastError = reason;
+        numberOfAbandonedChunks++;
+        log.debug("Abandoned backfill of {} from {} to {}. Reason: {}", chunk.getSensorId().getId(), chunk.getFrom(), chunk.getTo(), reason);
+    }
+
+    /**
+     * Stop backfilling a sensor no longer subscribed to
+     */
+    public synchronized void remove(SensorId sensorId) {
+        Progress removed = progress.remove(sensorId.getId());
+        if (removed != null) {
+            removed.removed = true;
+            gapsChanged = true;
+        }
+        if (restoredGaps.remove(sensorId.getId()) != null) {
+            gapsChanged = true;
+        }
+    }
+
+    /**
+     * Read the gaps persisted before a restart, and persist to the same file from now on. A missing file means no gaps.
+     */
+    public synchronized void readGaps(Path gapsFile) throws IOException {
+        this.gapsFile = gapsFile;
+        if (!Files.exists(gapsFile)) {
+            return;
+        }
+        int gaps = 0;
+        for (String line : Files.readAllLines(gapsFile, StandardCharsets.UTF_8)) {
+            String[] columns = line.split(",");
+            if (columns.length < 3 || columns[0].equals("sensorId")) {
+                continue;
+            }
+            try {
+                long fromMillis = Instant.parse(columns[1]).toEpochMilli();
+                long toMillis = Instant.parse(columns[2]).toEpochMilli();
+                restoredGaps.computeIfAbsent(columns[0], id -> new ArrayList<>()).add(new long[]{fromMillis, toMillis});
+                gaps++;
+            } catch (RuntimeException e) {
+                log.warn("Skipping backfill gap {} in {}. Reason: {}", line, gapsFile, e.getMessage());
+            }
+        }
+        for (List<long[]> sensorGaps : restoredGaps.values()) {
+            sensorGaps.sort(Comparator.comparingLong((long[] gap) -> gap[0]));
+        }
+        log.info("Read {} backfill gaps of {} sensors from {}", gaps, restoredGaps.size(), gapsFile.toAbsolutePath());
+    }
+
+    /**
+     * Write the chunks not yet filled, joined into one gap per sensor where they are adjacent. Written to a temporary
+     * file and moved in place. Does nothing when readGaps was not called, or nothing changed since the last write.
+     */
+    public synchronized void persistGaps() {
+        if (gapsFile == null || !gapsChanged) {
+            return;
+        }
+        Map<String, List<long[]>> gaps = new HashMap<>();
+        for (Map.Entry<String, List<long[]>> restored : restoredGaps.entrySet()) {
+            gaps.computeIfAbsent(restored.getKey(), id -> new ArrayList<>()).addAll(restored.getValue());
+        }
+        List<Chunk> pending = new ArrayList<>(queue);
+        pending.addAll(fetching);
+        for (Chunk chunk : pending) {
+            if (!chunk.progress.removed) {
+                gaps.computeIfAbsent(chunk.getSensorId().getId(), id -> new ArrayList<>()).add(new long[]{chunk.fromMillis, chunk.toMillis});
+            }
+        }
+        StringBuilder csv = new StringBuilder("sensorId,fromAt,toAt\n");
+        for (Map.Entry<String, List<long[]>> sensorGaps : gaps.entrySet()) {
+            List<long[]> ranges = sensorGaps.getValue();
+            ranges.sort(Comparator.comparingLong((long[] gap) -> gap[0]));
+            long[] current = null;
+            for (long[] range : ranges) {
+                if (current != null && range[0] <= current[1]) {
+                    current[1] = Math.max(current[1], range[1]);
+                    continue;
+                }
+                if (current != null) {
+                    appendGap(csv, sensorGaps.getKey(), current);
+                }
+                current = new long[]{range[0], range[1]};
+            }
+            appendGap(csv, sensorGaps.getKey(), current);
+        }
+        Path tmp = gapsFile.resolveSibling(gapsFile.getFileName() + ".tmp");
+        try {
+            Files.writeString(tmp, csv, StandardCharsets.UTF_8);
+            Files.move(tmp, gapsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            gapsChanged = false;
+        } catch (IOException e) {
+            log.error("Failed to persist backfill gaps to file: {}", gapsFile.toAbsolutePath(), e);
+        }
+    }
+
+    private static void appendGap(StringBuilder csv, String sensorId, long[] gap) {
+        csv.append(sensorId).append(',').append(Instant.ofEpochMilli(gap[0])).append(',').append(Instant.ofEpochMilli(gap[1])).append('\n');
+    }
+
+    public synchronized Progress getProgress(String sensorId) {
+        Progress sensorProgress = progress.get(sensorId);
+        return sensorProgress == null ? null : sensorProgress.copy();
+    }
+
+    /**
+     * @return progress of the sensors with chunks left to fetch
+     */
+    public synchronized List<Progress> getProgressOfSensorsBackfilling() {
+        List<Progress> backfilling = new ArrayList<>();
+        for (Progress sensorProgress : progress.values()) {
+            if (!sensorProgress.isDone()) {
+                backfilling.add(sensorProgress.copy());
+            }
+        }
+        return backfilling;
+    }
+
+    public synchronized int getNumberOfSensorsBackfilling() {
+        int count = 0;
+        for (Progress sensorProgress : progress.values()) {
+            if (!sensorProgress.isDone()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public synchronized int getNumberOfPendingChunks() {
+        return queue.size();
+    }
+
+    public synchronized long getNumberOfBackfilledSamples() {
+        return numberOfBackfilledSamples;
+    }
+
+    public synchronized long getNumberOfAbandonedChunks() {
+        return numberOfAbandonedChunks;
+    }
+
+    public long getGapThresholdMillis() {
+        return gapThresholdMillis;
+    }
+
+    /**
+     * Time range of one sensor to fetch, from inclusive, to exclusive
+     */
+    public static class Chunk {
+        private final Progress progress;
+        private final long fromMillis;
+        private final long toMillis;
+        private int attempts = 0;
+
+        private Chunk(Progress progress, long fromMillis, long toMillis) {
+            this.progress = progress;
+            this.fromMillis = fromMillis;
+            this.toMillis = toMillis;
+        }
+
+        public SensorId getSensorId() {
+            return progress.sensorId;
+        }
+
+        public Instant getFrom() {
+            return Instant.ofEpochMilli(fromMillis);
+        }
+
+        public Instant getTo() {
+            return Instant.ofEpochMilli(toMillis);
+        }
+
+        public long getFromMillis() {
+            return fromMillis;
+        }
+
+        public long getToMillis() {
+            return toMillis;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        @Override
+        public String toString() {
+            return "Chunk{" +
+                    "sensorId=" + progress.sensorId.getId() +
+                    ", from=" + getFrom() +
+                    ", to=" + getTo() +
+                    ", attempts=" + attempts +
+                    '}';
+        }
+    }
+
+    /**
+     * Backfill of one sensor, counted from the start of the oldest gap not yet filled
+     */
+    public static class Progress {
+        private final SensorId sensorId;
+        private long gapFromMillis;
+        private long queuedUntilMillis = Long.MIN_VALUE;
+        private int chunksQueued = 0;
+        private int chunksDone = 0;
+        private int chunksAbandoned = 0;
+        private long samples = 0;
+        private String lastError;
+        private boolean removed = false;
+
+        private Progress(SensorId sensorId) {
+            this.sensorId = sensorId;
+        }
+
+        private void startGap(long fromMillis) {
+            gapFromMillis = fromMillis;
+            chunksQueued = 0;
+            chunksDone = 0;
+            chunksAbandoned = 0;
+            samples = 0;
+            lastError = null;
+        }
+
+        private Progress copy() {
+            Progress copy = new Progress(sensorId);
+            copy.gapFromMillis = gapFromMillis;
+            copy.queuedUntilMillis = queuedUntilMillis;
+            copy.chunksQueued = chunksQueued;
+            copy.chunksDone = chunksDone;
+            copy.chunksAbandoned = chunksAbandoned;
+            copy.samples = samples;
+            copy.lastError = lastError;
+            return copy;
+        }
+
+        public boolean isDone() {
+            return chunksDone + chunksAbandoned >= chunksQueued;
+        }
+
+        public SensorId getSensorId() {
+            return sensorId;
+        }
+
+        public Instant getGapFrom() {
+            return Instant.ofEpochMilli(gapFromMillis);
+        }
+
+        public Instant getGapTo() {
+            return Instant.ofEpochMilli(queuedUntilMillis);
+        }
+
+        public int getChunksQueued() {
+            return chunksQueued;
+        }
+
+        public int getChunksDone() {
+            return chunksDone;
+        }
+
+        public int getChunksAbandoned() {
+            return chunksAbandoned;
+        }
+
+        public long getSamples() {
+            return samples;
+        }
+
+        public String getLastError() {
+            return lastError;
+        }
+
+        @Override
+        public String toString() {
+            return "Progress{" +
+                    "sensorId=" + sensorId.getId() +
+                    ", gapFrom=" + getGapFrom() +
+                    ", gapTo=" + getGapTo() +
+                    ", chunksDone=" + chunksDone +
+                    ", chunksAbandoned=" + chunksAbandoned +
+                    ", chunksQueued=" + chunksQueued +
+                    ", samples=" + samples +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package no.cantara.realestate.metasys.cloudconnector.ingestion;
+
+import no.cantara.config.ApplicationProperties;
+import no.cantara.realestate.sensors.SensorId;
+import org.slf4j.Logger;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Time budget and checkpoints for one round of trend ingestion over all sensors.
+ * <p>
+ * A cycle stops starting new sensors when the budget is spent. The sensors not reached are carried over, and are
+ * ingested first in the next cycle. Last updated is checkpointed every checkpointEverySensors sensors, or every
+ * checkpointEverySeconds, so a restart in the middle of a slow cycle does not lose the progress made.
+ * <pre>
+ * ingestion.cycle.enabled=false
+ * ingestion.cycle.budgetSeconds=0
+ * ingestion.cycle.checkpointEverySensors=100
+ * ingestion.cycle.checkpointEverySeconds=30
+ * </pre>
+ * A budget of 0 means no budget, and all sensors are ingested in every cycle.
+ */
+public class IngestionCycleBudget {
+    private static final Logger log = getLogger(IngestionCycleBudget.class);
+    public static final String CONFIG_PREFIX = "ingestion.cycle";
+    public static final String ENABLED_KEY = CONFIG_PREFIX + ".enabled";
+
+    private final long budgetMillis;
+    private final int checkpointEverySensors;
+    private final long checkpointIntervalMillis;
+    private final Clock clock;
+    private final Set<String> carriedOver = new LinkedHashSet<>();
+    private long numberOfOverruns = 0;
+    private long lastOverrunMillis = 0;
+    private long numberOfCheckpoints = 0;
+
+    public IngestionCycleBudget(long budgetMillis, int checkpointEverySensors, long checkpointIntervalMillis) {
+        this(budgetMillis, checkpointEverySensors, checkpointIntervalMillis, Clock.systemUTC());
+    }
+
+    IngestionCycleBudget(long budgetMillis, int checkpointEverySensors, long checkpointIntervalMillis, Clock clock) {
+        this.budgetMillis = budgetMillis;
+        this.checkpointEverySensors = checkpointEverySensors;
+        this.checkpointIntervalMillis = checkpointIntervalMillis;
+        this.clock = clock;
+    }
+
+    public static IngestionCycleBudget fromConfig(ApplicationProperties config) {
+        long budgetMillis = config.asLong(CONFIG_PREFIX + ".budgetSeconds", 0L) * 1000;
+        int checkpointEverySensors = (int) config.asLong(CONFIG_PREFIX + ".checkpointEverySensors", 100L);
+        long checkpointIntervalMillis = config.asLong(CONFIG_PREFIX + ".checkpointEverySeconds", 30L) * 1000;
+        log.info("Ingestion cycle budget {} ms. Checkpoint every {} sensors or {} ms", budgetMillis, checkpointEverySensors, checkpointIntervalMillis);
+        return new IngestionCycleBudget(budgetMillis, checkpointEverySensors, checkpointIntervalMillis);
+    }
+
+    /**
+     * Start a cycle over the sensors. Sensors carried over from the previous cycle come first.
+     */
+    public synchronized Cycle start(List<SensorId> sensors) {
+        List<SensorId> ordered = new ArrayList<>(sensors.size());
+        if (carriedOver.isEmpty()) {
+            ordered.addAll(sensors);
+        } else {
+            List<SensorId> rest = new ArrayList<>(sensors.size());
+            for (SensorId sensorId : sensors) {
+                if (carriedOver.contains(sensorId.getId())) {
+                    ordered.add(sensorId);
+                } else {
+                    rest.add(sensorId);
+                }
+            }
+            ordered.addAll(rest);
+            carriedOver.clear();
+        }
+        return new Cycle(ordered, clock.millis());
+    }
+
+    private synchronized void finish(Cycle cycle, Collection<SensorId> notReached) {
+        for (SensorId sensorId : notReached) {
+            carriedOver.add(sensorId.getId());
+        }
+        long overrunMillis = cycle.getElapsedMillis() - budgetMillis;
+        if (budgetMillis > 0 && overrunMillis > 0) {
+            numberOfOverruns++;
+            lastOverrunMillis = overrunMillis;
+        } else {
+            lastOverrunMillis = 0;
+        }
+        if (!notReached.isEmpty()) {
+            log.info("Ingestion cycle spent its budget of {} ms. Carried over {} of {} sensors to the next cycle",
+                    budgetMillis, notReached.size(), cycle.getSensors().size());
+        }
+    }
+
+    public long getBudgetMillis() {
+        return budgetMillis;
+    }
+
+    public synchronized int getNumberOfCarriedOver() {
+        return carriedOver.size();
+    }
+
+    public synchronized long getNumberOfOverruns() {
+        return numberOfOverruns;
+    }
+
+    /**
+     * @return how much the last cycle went past its budget, 0 when it did not
+     */
+    public synchronized long getLastOverrunMillis() {
+        return lastOverrunMillis;
+    }
+
+    public synchronized long getNumberOfCheckpoints() {
+        return numberOfCheckpoints;
+    }
+
+    public class Cycle {
+        private final List<SensorId> sensors;
+        private final long startedAtMillis;
+        private long lastCheckpointAtMillis;
+        private int sensorsSinceCheckpoint = 0;
+
+        private Cycle(List<SensorId> sensors, long startedAtMillis) {
+            this.sensors = sensors;
+            this.startedAtMillis = startedAtMillis;
+            this.lastCheckpointAtMillis = startedAtMillis;
+        }
+
+        /**
+         * The sensors of this cycle, carried over sensors first
+         */
+        public List<SensorId> getSensors() {
+            return sensors;
+        }
+
+        public boolean isOverBudget() {
+            return budgetMillis > 0 && getElapsedMillis() >= budgetMillis;
+        }
+
+        public long getElapsedMillis() {
+            return clock.millis() - startedAtMillis;
+        }
+
+        /**
+         * Count one more sensor done.
+         *
+         * @return true when it is time to checkpoint. The counting starts over.
+         */
+        public synchronized boolean sensorDone() {
+            sensorsSinceCheckpoint++;
+            long now = clock.millis();
+            boolean due = (checkpointEverySensors > 0 && sensorsSinceCheckpoint >= checkpointEverySensors)
+                    || (checkpointIntervalMillis > 0 && now - lastCheckpointAtMillis >= checkpointIntervalMillis);
+            if (due) {
+                sensorsSinceCheckpoint = 0;
+                lastCheckpointAtMillis = now;
+                synchronized (IngestionCycleBudget.this) {
+                    numberOfCheckpoints++;
+                }
+            }
+            return due;
+        }
+
+        /**
+         * @param notReached sensors not started because the budget was spent. These go first in the next cycle.
+         */
+        public void finish(Collection<SensorId> notReached) {
+            IngestionCycleBudget.this.finish(this, notReached);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package no.cantara.realestate.metasys.cloudconnector.ingestion;
+
+import no.cantara.config.ApplicationProperties;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Fetch, enrich and publish stages, each with its own threads, connected by bounded queues.
+ * When enrich or publish falls behind, the queue in front of it fills up and the stage before it blocks, so
+ * fetching is throttled to what downstream can take. Network, CPU and downstream I/O overlap.
+ * <p>
+ * Items of one input stay in one item through the stages, so the order of samples within a sensor is kept.
+ * The order between sensors is not. Use one publish thread when downstream expects a single caller.
+ * <p>
+ * Fetch returns null to skip an input. An exception from fetch stops the run: inputs not yet fetched are skipped,
+ * items already fetched are published, and then the exception is thrown from run. Exceptions from enrich and
+ * publish are logged and counted, and the run continues.
+ * <pre>
+ * ingestion.pipeline.enabled=false
+ * ingestion.pipeline.fetchThreads=4
+ * ingestion.pipeline.enrichThreads=2
+ * ingestion.pipeline.publishThreads=1
+ * ingestion.pipeline.queueCapacity=256
+ * </pre>
+ */
+public class IngestionPipeline<S, F, E> implements AutoCloseable {
+    private static final Logger log = getLogger(IngestionPipeline.class);
+    public static final String CONFIG_PREFIX = "ingestion.pipeline";
+    public static final String ENABLED_KEY = CONFIG_PREFIX + ".enabled";
+    private static final Object END = new Object();
+
+    private final String name;
+    private final int fetchThreads;
+    private final int enrichThreads;
+    private final int publishThreads;
+    private final BlockingQueue<Object> fetched;
+    private final BlockingQueue<Object> enriched;
+    private final ExecutorService fetchExecutor;
+    private final ExecutorService enrichExecutor;
+    private final ExecutorService publishExecutor;
+    private final AtomicLong backpressureNanos = new AtomicLong();
+    private final AtomicLong stageFailures = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+
+    public IngestionPipeline(String name, int fetchThreads, int enrichThreads, int publishThreads, int queueCapacity) {
+        this.name = name;
+        this.fetchThreads = Math.max(1, fetchThreads);
+        this.enrichThreads = Math.max(1, enrichThreads);
+        this.publishThreads = Math.max(1, publishThreads);
+        this.fetched = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.enriched = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.fetchExecutor = Executors.newFixedThreadPool(this.fetchThreads, daemonThreads(name + "-fetch"));
+        this.enrichExecutor = Executors.newFixedThreadPool(this.enrichThreads, daemonThreads(name + "-enrich"));
+        this.publishExecutor = Executors.newFixedThreadPool(this.publishThreads, daemonThreads(name + "-publish"));
+    }
+
+    public static <S, F, E> IngestionPipeline<S, F, E> fromConfig(String name, ApplicationProperties config) {
+        int fetchThreads = (int) config.asLong(CONFIG_PREFIX + ".fetchThreads", 4L);
+        int enrichThreads = (int) config.asLong(CONFIG_PREFIX + ".enrichThreads", 2L);
+        int publishThreads = (int) config.asLong(CONFIG_PREFIX + ".publishThreads", 1L);
+        int queueCapacity = (int) config.asLong(CONFIG_PREFIX + ".queueCapacity", 256L);
+        log.info("Ingestion pipeline {}. Threads fetch: {}, enrich: {}, publish: {}. Queue capacity: {}",
+                name, fetchThreads, enrichThreads, publishThreads, queueCapacity);
+        return new IngestionPipeline<>(name, fetchThreads, enrichThreads, publishThreads, queueCapacity);
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Run all inputs through the stages, and return when everything fetched has been published.
+     * One run at a time.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized void run(Collection<S> inputs, Function<S, F> fetch, Function<F, E> enrich, Consumer<E> publish) throws InterruptedException {
+        AtomicReference<RuntimeException> fetchFailure = new AtomicReference<>();
+        List<Future<?>> enrichWorkers = new ArrayList<>();
+        List<Future<?>> publishWorkers = new ArrayList<>();
+        List<Future<?>> fetchTasks = new ArrayList<>(inputs.size());
+        try {
+            for (int i = 0; i < enrichThreads; i++) {
+                enrichWorkers.add(enrichExecutor.submit(() -> {
+                    drain(fetched, item -> {
+                        E result = enrich.apply((F) item);
+                        if (result != null) {
+                            put(enriched, result);
+                        }
+                    });
+                    return null;
+                }));
+            }
+            for (int i = 0; i < publishThreads; i++) {
+                publishWorkers.add(publishExecutor.submit(() -> {
+                    drain(enriched, item -> {
+                        publish.accept((E) item);
+                        published.incrementAndGet();
+                    });
+                    return null;
+                }));
+            }
+            for (S input : inputs) {
+                fetchTasks.add(fetchExecutor.submit(() -> {
+                    if (fetchFailure.get() != null) {
+                        return null;
+                    }
+                    try {
+                        F result = fetch.apply(input);
+                        if (result != null) {
+                            put(fetched, result);
+                        }
+                    } catch (RuntimeException e) {
+                        fetchFailure.compareAndSet(null, e);
+                    }
+                    return null;
+                }));
+            }
+            awaitAll(fetchTasks);
+            for (int i = 0; i < enrichThreads; i++) {
+                fetched.put(END);
+            }
+            awaitAll(enrichWorkers);
+            for (int i = 0; i < publishThreads; i++) {
+                enriched.put(END);
+            }
+            awaitAll(publishWorkers);
+        } catch (InterruptedException e) {
+            cancelAll(fetchTasks);
+            cancelAll(enrichWorkers);
+            cancelAll(publishWorkers);
+            fetched.clear();
+            enriched.clear();
+            throw e;
+        }
+        if (fetchFailure.get() != null) {
+            throw fetchFailure.get();
+        }
+    }
+
+    private interface ItemHandler {
+        void handle(Object item) throws InterruptedException;
+    }
+
+    private void drain(BlockingQueue<Object> queue, ItemHandler handler) throws InterruptedException {
+        while (true) {
+            Object item = queue.take();
+            if (item == END) {
+                return;
+            }
+            try {
+                handler.handle(item);
+            } catch (RuntimeException e) {
+                stageFailures.incrementAndGet();
+                log.warn("{} failed to handle {}. Reason: {}", name, item, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Put, and count the time spent waiting for room as backpressure
+     */
+    private void put(BlockingQueue<Object> queue, Object item) throws InterruptedException {
+        if (!queue.offer(item)) {
+            long waitStarted = System.nanoTime();
+            queue.put(item);
+            backpressureNanos.addAndGet(System.nanoTime() - waitStarted);
+        }
+    }
+
+    private static void awaitAll(List<Future<?>> futures) throws InterruptedException {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                log.warn("Pipeline worker failed. Reason: {}", e.getCause() == null ? e.getMessage() : e.getCause().getMessage());
+            }
+        }
+    }
+
+    private static void cancelAll(List<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getBackpressureMillis() {
+        return backpressureNanos.get() / 1_000_000;
+    }
+
+    public long getNumberOfStageFailures() {
+        return stageFailures.get();
+    }
+
+    public long getNumberOfPublished() {
+        return published.get();
+    }
+
+    public int getFetchedQueueDepth() {
+        return fetched.size();
+    }
+
+    public int getEnrichedQueueDepth() {
+        return enriched.size();
+    }
+
+    @Override
+    public void close() {
+        fetchExecutor.shutdownNow();
+        enrichExecutor.shutdownNow();
+        publishExecutor.shutdownNow();
+    }
+}
@@ -5,7 +5,14 @@ import no.cantara.realestate.automationserver.BasClient;
 import no.cantara.realestate.automationserver.TrendNotFoundException;
 import no.cantara.realestate.cloudconnector.audit.AuditTrail;
 import no.cantara.realestate.metasys.cloudconnector.MetasysCloudConnectorException;
+import no.cantara.realestate.metasys.cloudconnector.automationserver.TrendRangeClient;
+import no.cantara.realestate.metasys.cloudconnector.metrics.MetasysInstruments;
 import no.cantara.realestate.metasys.cloudconnector.metrics.MetasysMetricsDistributionClient;
+import no.cantara.realestate.metasys.cloudconnector.observations.CompactObservation;
+import no.cantara.realestate.metasys.cloudconnector.observations.filter.ObservationFilterChain;
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorRegistry;
+import no.cantara.realestate.metasys.cloudconnector.sharding.ShardMembership;
+import no.cantara.realestate.metasys.cloudconnector.status.SensorFreshnessIndex;
 import no.cantara.realestate.metasys.cloudconnector.trends.TrendsLastUpdatedService;
 import no.cantara.realestate.observations.ObservationListener;
 import no.cantara.realestate.observations.ObservedTrendedValue;
@@ -23,8 +30,16 @@ import java.net.URISyntaxException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static no.cantara.realestate.metasys.cloudconnector.utils.MetasysConstants.auditLog;
 import static no.cantara.realestate.utils.StringUtils.hasValue;
@@ -35,6 +50,8 @@ public class MetasysTrendsIngestionService implements TrendsIngestionService {
 
     public static final String BAS_URL_KEY = "sd.api.url";
     public final String METRIC_NAME_TRENDSAMPLES_RECEIVED = "metasys_trendsamples_received";
+    public static final String METRIC_NAME_TREND_FETCH_MILLIS = "metasys_trend_fetch_millis";
+    public static final String METRIC_NAME_TREND_DISTRIBUTE_MICROS = "metasys_trend_distribute_micros";
 
     private ApplicationProperties config;
     private ObservationListener observationListener;
@@ -43,8 +60,25 @@ public class MetasysTrendsIngestionService implements TrendsIngestionService {
     private TrendsLastUpdatedService trendsLastUpdatedService;
     private final AuditTrail auditTrail;
     private final MetasysMetricsDistributionClient metricsClient;
-
-    private ArrayList<SensorId> sensorIds;
+    private final MetasysInstruments instruments = MetasysInstruments.getInstance();
+    private SensorFreshnessIndex sensorFreshnessIndex;
+    private AdaptivePollScheduler adaptivePollScheduler;
+    private ShardMembership shardMembership;
+    private IngestionPipeline<SensorId, FetchedTrends, EnrichedTrends> ingestionPipeline;
+    private IngestionCycleBudget cycleBudget;
+    private StreamCoverage streamCoverage;
+    private BackfillScheduler backfillScheduler;
+    private ScheduledExecutorService backfilling;
+    // Live ingestion rounds running. The backfill lane waits while this is above 0.
+    private final AtomicInteger liveIngestions = new AtomicInteger();
+    private volatile long lastCycleMillis = -1;
+    private ScheduledExecutorService adaptivePolling;
+    private long persistIntervalMillis;
+    private Instant lastPersistedAt;
+    private final List<MetasysSensorId> pendingUpdatedSensors = new ArrayList<>();
+    private final List<MetasysSensorId> pendingFailedSensors = new ArrayList<>();
+
+    private final SensorRegistry sensorRegistry = new SensorRegistry();
     private long numberOfMessagesImported = 0;
     private long numberOfMessagesFailed = 0;
     private boolean isInitialized = false;
@@ -64,7 +98,6 @@ public class MetasysTrendsIngestionService implements TrendsIngestionService {
     public MetasysTrendsIngestionService(ApplicationProperties config, ObservationListener observationListener,
                                          NotificationListener notificationListener, BasClient metasysApiClient,
                                          TrendsLastUpdatedService trendsLastUpdatedService, AuditTrail auditTrail, MetasysMetricsDistributionClient metricsClient) {
-        sensorIds = new ArrayList<>();
         this.config = config;
         if (config == null || observationListener == null || notificationListener == null || metasysApiClient == null || trendsLastUpdatedService == null) {
             throw new MetasysCloudConnectorException("Failed to create MetasysTrendsIngestionService. " +
@@ -98,89 +131,658 @@ public class MetasysTrendsIngestionService implements TrendsIngestionService {
 //            throw de;
 //        }
 
+        if (adaptivePollScheduler != null && adaptivePolling != null) {
+            log.debug("Adaptive polling is running. Skipping ingestTrends for all {} sensors", sensorRegistry.size());
+            return;
+        }
+        liveIngestions.incrementAndGet();
+        try {
+            ingestAllTrends();
+        } finally {
+            liveIngestions.decrementAndGet();
+        }
+    }
+
+    private void ingestAllTrends() {
+        List<SensorId> sensorIds = sensorRegistry.snapshot();
         log.info("Running ingestTrends for {} sensors", sensorIds.size());
+        long cycleStarted = System.nanoTime();
 
         List<MetasysSensorId> updatedSensors = new ArrayList<>();
         List<MetasysSensorId> failedSensors = new ArrayList<>();
 
-
+        List<SensorId> ownedSensors = new ArrayList<>();
+        boolean streamOpen = streamCoverage != null && streamCoverage.isStreamOpen();
         for (SensorId sensorId : sensorIds) {
-            String metasysObjectId = ((MetasysSensorId) sensorId).getMetasysObjectId();
-            if (metasysObjectId != null && !metasysObjectId.isEmpty()) {
-                auditLog.trace("Ingest__TrendFindSamples__{}__{}", sensorId.getClass(), sensorId.getId());
-                try {
-                    Instant lastObservedAt = trendsLastUpdatedService.getLastUpdatedAt((MetasysSensorId) sensorId);
-                    auditLog.trace("Ingest__TrendLastUpdatedAt__{}__{}__{}", sensorId.getClass(), sensorId.getId(), lastObservedAt);
-                    if (lastObservedAt == null) {
-                        lastObservedAt = getDefaultLastObservedAt();
-                        log.trace("Try import. Use default lastObservedAt for sensorId: {}, trendId: {}, from: {}", sensorId.getTwinId(), metasysObjectId, lastObservedAt);
+            if (!isOwnedByThisShard(sensorId)) {
+                continue;
+            }
+            if (streamOpen && streamCoverage.isCovered(sensorId.getId(), streamOpen)) {
+                followStream((MetasysSensorId) sensorId, updatedSensors);
+            } else {
+                ownedSensors.add(sensorId);
+            }
+        }
+        Set<String> attempted = ConcurrentHashMap.newKeySet();
+        if (cycleBudget == null) {
+            ingestTrends(ownedSensors, updatedSensors, failedSensors, attempted, null);
+        } else {
+            IngestionCycleBudget.Cycle cycle = cycleBudget.start(ownedSensors);
+            try {
+                ingestTrends(cycle.getSensors(), updatedSensors, failedSensors, attempted, cycle);
+            } finally {
+                List<SensorId> notReached = new ArrayList<>();
+                for (SensorId sensorId : cycle.getSensors()) {
+                    if (!attempted.contains(sensorId.getId())) {
+                        notReached.add(sensorId);
                     }
+                }
+                cycle.finish(notReached);
+                if (cycleBudget.getLastOverrunMillis() > 0) {
+                    instruments.recordCycleOverrun(getCycleName(), cycleBudget.getLastOverrunMillis());
+                }
+            }
+        }
 
-                    log.trace("Try import of sensorId: {}, trendId: {} from: {}", sensorId.getTwinId(), metasysObjectId, lastObservedAt);
-                    Set<? extends TrendSample> trendSamples = metasysApiClient.findTrendSamplesByDate(metasysObjectId, -1, -1, lastObservedAt);
-                    isHealthy = true;
-                    if (trendSamples != null && trendSamples.size() > 0) {
-                        updateWhenLastObservationReceived();
-                        auditTrail.logObservedTrend(sensorId.getId(), "Observed: " + trendSamples.size());
-                        auditLog.trace("Ingest__TrendSamplesFound__{}__{}__{}__{}", metasysObjectId, sensorId.getClass(), sensorId.getId(), trendSamples.size());
-                        long value = trendSamples.size();
-                        metricsClient.sendValue(METRIC_NAME_TRENDSAMPLES_RECEIVED, value);
+        checkpoint(updatedSensors, failedSensors);
+        instruments.recordIngestionCycle(getCycleName(), cycleStarted);
+        lastCycleMillis = (System.nanoTime() - cycleStarted) / 1_000_000;
+        if (shardMembership != null) {
+            log.info("Shard {} of {} ingested {} of {} sensors in {} ms", shardMembership.getInstanceId(),
+                    shardMembership.getMembers(), ownedSensors.size(), sensorIds.size(), lastCycleMillis);
+        }
+    }
+
+    /**
+     * Poll the sensors that are due according to the AdaptivePollScheduler. Last updated and last failed are
+     * persisted once every default ingestion interval, not on every poll.
+     */
+    void ingestDueTrends() {
+        Instant now = Instant.now();
+        List<SensorId> dueSensors = adaptivePollScheduler.pollDue(now);
+        if (!dueSensors.isEmpty()) {
+            long cycleStarted = System.nanoTime();
+            liveIngestions.incrementAndGet();
+            try {
+                List<SensorId> ownedSensors = new ArrayList<>();
+                boolean streamOpen = streamCoverage != null && streamCoverage.isStreamOpen();
+                for (SensorId sensorId : dueSensors) {
+                    if (!isOwnedByThisShard(sensorId)) {
+                        // Owned by another instance now, check again later
+                        adaptivePollScheduler.recordFailure(sensorId, now);
+                    } else if (streamOpen && streamCoverage.isCovered(sensorId.getId(), streamOpen)) {
+                        followStream((MetasysSensorId) sensorId, pendingUpdatedSensors);
+                        adaptivePollScheduler.defer(sensorId, streamCoverage.getCoveredUntil(sensorId.getId()));
                     } else {
-                        auditLog.trace("Ingest__TrendSamplesFound__{}__{}__{}__{}", metasysObjectId, sensorId.getClass(), sensorId.getId(), 0);
-                    }
-                    for (TrendSample trendValue : trendSamples) {
-                        ObservedValue observedValue = new ObservedTrendedValue(sensorId, trendValue.getValue());
-                        if (trendValue.getObservedAt() != null) {
-                            observedValue.setObservedAt(trendValue.getObservedAt());
-                        }
-                        auditLog.trace("Ingest__TrendObserved__{}__{}__{}__{}__{}", metasysObjectId, observedValue.getClass(), observedValue.getSensorId().getId(), observedValue.getValue(), observedValue.getObservedAt());
-                        observationListener.observedValue(observedValue);
-                        addMessagesImportedCount();
-                        trendsLastUpdatedService.setLastUpdatedAt(sensorId, trendValue.getObservedAt());
+                        ownedSensors.add(sensorId);
                     }
-                    updatedSensors.add((MetasysSensorId) sensorId);
-                } catch (TrendNotFoundException e) {
-                    addMessagesFailedCount();
-                    trendsLastUpdatedService.setLastFailedAt(sensorId, Instant.now());
-                    failedSensors.add((MetasysSensorId) sensorId);
-                    auditLog.trace("Ingest__TrendNotFound__{}__{}__{}__{}", metasysObjectId, sensorId.getClass(), sensorId.getId(), e.getMessage());
-                    log.debug("Trend not found for TrendId {} sensorId {}.", metasysObjectId, sensorId);
-                    auditTrail.logFailed(sensorId.getId(), "TrendNotFound");
-                } catch (LogonFailedException e) {
-                    addMessagesFailedCount();
-                    trendsLastUpdatedService.setLastFailedAt(sensorId, Instant.now());
-                    failedSensors.add((MetasysSensorId) sensorId);
-                    log.error("Failed to logon to Metasys API {} using username {}", apiUrl, config.get("sd.api.username", "admin"), e);
-                    throw new MetasysCloudConnectorException("Could not ingest trends for " + getName() + " Logon failed to " + apiUrl + ", using username: " + config.get("sd.api.username", "admin"), e);
-                } catch (URISyntaxException e) {
-                    addMessagesFailedCount();
-                    trendsLastUpdatedService.setLastFailedAt((MetasysSensorId) sensorId, Instant.now());
-                    failedSensors.add((MetasysSensorId) sensorId);
-                    auditLog.trace("Ingest__Failed__TrendId__{}__sensorId__{}. Reason {}", metasysObjectId, sensorId, e.getMessage());
-                } catch (MetasysCloudConnectorException dce) {
-                    addMessagesFailedCount();
-                    trendsLastUpdatedService.setLastFailedAt((MetasysSensorId) sensorId, Instant.now());
-                    failedSensors.add((MetasysSensorId) sensorId);
-                    log.debug("Failed to ingest trends for TrendId {} sensorId {}.", metasysObjectId, sensorId, dce);
-                    auditLog.trace("Ingest__TrendImportFailed__{}__{}__{}__{}", metasysObjectId, sensorId.getId(), ((MetasysSensorId) sensorId).getMetasysObjectId(), dce.getMessage());
-                } catch (Exception e) {
-                    addMessagesFailedCount();
-                    trendsLastUpdatedService.setLastFailedAt((MetasysSensorId) sensorId, Instant.now());
-                    failedSensors.add((MetasysSensorId) sensorId);
-                    log.debug("Failed to ingest trends for sensorId {}.", sensorId, e);
                 }
+                ingestTrends(ownedSensors, pendingUpdatedSensors, pendingFailedSensors, ConcurrentHashMap.newKeySet(), null);
+            } finally {
+                liveIngestions.decrementAndGet();
+                // Eg. logon failed. Sensors not recorded are handed out by pollDue again later.
+                for (SensorId sensorId : dueSensors) {
+                    adaptivePollScheduler.requeue(sensorId, now);
+                }
+            }
+            instruments.recordIngestionCycle(getCycleName() + "-adaptive", cycleStarted);
+        }
+        if (lastPersistedAt == null || now.isAfter(lastPersistedAt.plusMillis(persistIntervalMillis))) {
+            persistBackfillGaps();
+            synchronized (trendsLastUpdatedService) {
+                trendsLastUpdatedService.persistLastUpdated(pendingUpdatedSensors);
+                trendsLastUpdatedService.persistLastFailed(pendingFailedSensors);
+            }
+            pendingUpdatedSensors.clear();
+            pendingFailedSensors.clear();
+            lastPersistedAt = now;
+        }
+    }
+
+    /**
+     * Poll due sensors every pollIntervalMillis on a thread of its own, instead of all sensors on ingestTrends.
+     *
+     * @param persistIntervalMillis how often last updated and last failed are persisted
+     */
+    public synchronized void startAdaptivePolling(long pollIntervalMillis, long persistIntervalMillis) {
+        if (adaptivePollScheduler == null || adaptivePolling != null) {
+            return;
+        }
+        this.persistIntervalMillis = persistIntervalMillis;
+        adaptivePolling = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "adaptive-trend-polling");
+            thread.setDaemon(true);
+            return thread;
+        });
+        adaptivePolling.scheduleWithFixedDelay(() -> {
+            try {
+                ingestDueTrends();
+            } catch (Exception e) {
+                log.warn("Adaptive polling failed. Reason: {}", e.getMessage());
+            }
+        }, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+        log.info("Started adaptive polling of {} sensors every {} ms", adaptivePollScheduler.getNumberOfSensors(), pollIntervalMillis);
+    }
+
+    public synchronized void stopAdaptivePolling() {
+        if (adaptivePolling != null) {
+            adaptivePolling.shutdownNow();
+            adaptivePolling = null;
+        }
+    }
+
+    public void setAdaptivePollScheduler(AdaptivePollScheduler adaptivePollScheduler) {
+        this.adaptivePollScheduler = adaptivePollScheduler;
+        Instant now = Instant.now();
+        for (SensorId sensorId : sensorRegistry.snapshot()) {
+            adaptivePollScheduler.register(sensorId, null, now);
+        }
+    }
+
+    public AdaptivePollScheduler getAdaptivePollScheduler() {
+        return adaptivePollScheduler;
+    }
+
+    /**
+     * Only ingest the sensors assigned to this instance. Sensors move between instances when members come and go.
+     */
+    public void setShardMembership(ShardMembership shardMembership) {
+        this.shardMembership = shardMembership;
+    }
+
+    private boolean isOwnedByThisShard(SensorId sensorId) {
+        return shardMembership == null || shardMembership.isOwner(sensorId.getId());
+    }
+
+    /**
+     * Cycle time is reported per shard when sharding is enabled
+     */
+    private String getCycleName() {
+        return shardMembership == null ? getName() : getName() + "-" + shardMembership.getInstanceId();
+    }
+
+    public long getLastCycleMillis() {
+        return lastCycleMillis;
+    }
+
+    /**
+     * Overlap fetching, enriching and publishing of trend samples. Without a pipeline, sensors are ingested one by one.
+     */
+    public void setIngestionPipeline(IngestionPipeline<SensorId, FetchedTrends, EnrichedTrends> ingestionPipeline) {
+        this.ingestionPipeline = ingestionPipeline;
+        if (ingestionPipeline != null) {
+            instruments.registerQueueDepth(ingestionPipeline.getName() + ".fetched", ingestionPipeline::getFetchedQueueDepth);
+            instruments.registerQueueDepth(ingestionPipeline.getName() + ".enriched", ingestionPipeline::getEnrichedQueueDepth);
+        }
+    }
+
+    public IngestionPipeline<SensorId, FetchedTrends, EnrichedTrends> getIngestionPipeline() {
+        return ingestionPipeline;
+    }
+
+    /**
+     * Skip trend polling of sensors that are kept up to date by the stream
+     */
+    public void setStreamCoverage(StreamCoverage streamCoverage) {
+        this.streamCoverage = streamCoverage;
+    }
+
+    public StreamCoverage getStreamCoverage() {
+        return streamCoverage;
+    }
+
+    /**
+     * The sensor is not polled, the stream delivers its values. Move last updated along with the stream, so when
+     * polling resumes, only the samples after the last stream update are fetched.
+     */
+    private void followStream(MetasysSensorId sensorId, List<MetasysSensorId> updatedSensors) {
+        Instant lastStreamUpdate = streamCoverage.getLastStreamUpdate(sensorId.getId());
+        Instant lastUpdatedAt = getLastUpdatedAt(sensorId);
+        if (lastStreamUpdate != null && (lastUpdatedAt == null || lastStreamUpdate.isAfter(lastUpdatedAt))) {
+            setLastUpdatedAt(sensorId, lastStreamUpdate);
+            updatedSensors.add(sensorId);
+        }
+    }
+
+    /**
+     * Give each round of ingestTrends a time budget, and checkpoint last updated along the way.
+     * Without a budget, all sensors are ingested and last updated is persisted when the round is done.
+     */
+    public void setCycleBudget(IngestionCycleBudget cycleBudget) {
+        this.cycleBudget = cycleBudget;
+    }
+
+    public IngestionCycleBudget getCycleBudget() {
+        return cycleBudget;
+    }
+
+    /**
+     * Poll live from the gap threshold after an outage, and fill the gap since last updated on the backfill lane
+     */
+    public void setBackfillScheduler(BackfillScheduler backfillScheduler) {
+        this.backfillScheduler = backfillScheduler;
+    }
+
+    public BackfillScheduler getBackfillScheduler() {
+        return backfillScheduler;
+    }
+
+    /**
+     * Fetch one backfill chunk every 1000 / maxRequestsPerSecond ms, on a low priority thread of its own.
+     */
+    public synchronized void startBackfill(double maxRequestsPerSecond) {
+        if (backfillScheduler == null || backfilling != null) {
+            return;
+        }
+        long delayMillis = Math.max(1, (long) (1000 / Math.max(0.001, maxRequestsPerSecond)));
+        backfilling = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "trend-backfill");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        backfilling.scheduleWithFixedDelay(() -> {
+            try {
+                backfillNext();
+            } catch (Exception e) {
+                log.warn("Backfill failed. Reason: {}", e.getMessage());
+            }
+        }, delayMillis, delayMillis, TimeUnit.MILLISECONDS);
+        log.info("Started backfill lane, one request every {} ms", delayMillis);
+    }
+
+    public synchronized void stopBackfill() {
+        if (backfilling != null) {
+            backfilling.shutdownNow();
+            backfilling = null;
+            persistBackfillGaps();
+        }
+    }
+
+    /**
+     * Fetch and publish the newest chunk waiting. Yields to live polling: nothing is fetched while a live round is
+     * running or sensors are due for adaptive polling. Last updated is not moved, that is left to live polling.
+     *
+     * @return true when a chunk was fetched
+     */
+    boolean backfillNext() {
+        if (backfillScheduler == null || liveIngestions.get() > 0
+                || (adaptivePollScheduler != null && adaptivePollScheduler.hasDueSensors(Instant.now()))) {
+            return false;
+        }
+        BackfillScheduler.Chunk chunk = backfillScheduler.nextChunk();
+        if (chunk == null) {
+            return false;
+        }
+        SensorId sensorId = chunk.getSensorId();
+        if (!isOwnedByThisShard(sensorId)) {
+            backfillScheduler.abandon(chunk, "Owned by another instance");
+            return false;
+        }
+        String metasysObjectId = ((MetasysSensorId) sensorId).getMetasysObjectId();
+        Set<? extends TrendSample> trendSamples;
+        try {
+            trendSamples = fetchTrendSamplesBetween(metasysObjectId, chunk.getFrom(), chunk.getTo());
+        } catch (TrendNotFoundException e) {
+            backfillScheduler.abandon(chunk, "TrendNotFound");
+            return true;
+        } catch (Exception e) {
+            backfillScheduler.chunkFailed(chunk, e.getClass().getSimpleName() + ": " + e.getMessage());
+            log.debug("Failed to backfill {}. Reason: {}", chunk, e.getMessage());
+            return true;
+        }
+        if (backfillScheduler.chunkFetched(chunk, trendSamples.size())) {
+            auditLog.trace("Ingest__TrendBackfill__{}__{}__{}__{}__{}", metasysObjectId, sensorId.getId(), chunk.getFrom(), chunk.getTo(), trendSamples.size());
+            distribute(toObservedValues(new FetchedTrends(sensorId, metasysObjectId, trendSamples)), false);
+        }
+        return true;
+    }
+
+    /**
+     * Samples of the chunk only. BasClients without a range request read until now, and the rest is dropped.
+     */
+    private Set<? extends TrendSample> fetchTrendSamplesBetween(String metasysObjectId, Instant from, Instant to) throws URISyntaxException {
+        Set<? extends TrendSample> trendSamples;
+        if (metasysApiClient instanceof TrendRangeClient rangeClient) {
+            trendSamples = rangeClient.findTrendSamplesBetween(metasysObjectId, from, to);
+        } else {
+            trendSamples = metasysApiClient.findTrendSamplesByDate(metasysObjectId, -1, -1, from);
+        }
+        if (trendSamples == null) {
+            return Set.of();
+        }
+        Set<TrendSample> inChunk = new HashSet<>();
+        for (TrendSample trendSample : trendSamples) {
+            Instant observedAt = trendSample.getObservedAt();
+            if (observedAt != null && !observedAt.isBefore(from) && observedAt.isBefore(to)) {
+                inChunk.add(trendSample);
+            }
+        }
+        return inChunk;
+    }
+
+    /**
+     * Ingest the sensors one by one, or through the IngestionPipeline when one is set.
+     *
+     * @param attempted sensorIds are added when fetching starts, so the caller knows which were not tried on failure
+     * @param cycle     when not null, no new sensors are started after the budget is spent, and progress is checkpointed
+     */
+    private void ingestTrends(List<SensorId> sensors, List<MetasysSensorId> updatedSensors, List<MetasysSensorId> failedSensors,
+                              Set<String> attempted, IngestionCycleBudget.Cycle cycle) {
+        if (ingestionPipeline == null) {
+            for (SensorId sensorId : sensors) {
+                if (cycle != null && cycle.isOverBudget()) {
+                    break;
+                }
+                attempted.add(sensorId.getId());
+                ingestTrends(sensorId, updatedSensors, failedSensors);
+                if (cycle != null && cycle.sensorDone()) {
+                    checkpoint(updatedSensors, failedSensors);
+                }
+            }
+            return;
+        }
+        List<MetasysSensorId> updated = Collections.synchronizedList(new ArrayList<>());
+        List<MetasysSensorId> failed = Collections.synchronizedList(new ArrayList<>());
+        try {
+            ingestionPipeline.run(sensors, sensorId -> {
+                if (cycle != null && cycle.isOverBudget()) {
+                    return null;
+                }
+                attempted.add(sensorId.getId());
+                FetchedTrends fetched = fetchTrends(sensorId, failed);
+                if (fetched == null && cycle != null && cycle.sensorDone()) {
+                    checkpoint(updated, failed);
+                }
+                return fetched;
+            }, this::toObservedValues, enriched -> {
+                publishTrends(enriched, updated);
+                if (cycle != null && cycle.sensorDone()) {
+                    checkpoint(updated, failed);
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while ingesting trends for {} sensors", sensors.size());
+        } finally {
+            updatedSensors.addAll(updated);
+            failedSensors.addAll(failed);
+        }
+    }
+
+    /**
+     * Persist last updated and last failed of the sensors ingested so far, and start over with empty lists
+     */
+    private void checkpoint(List<MetasysSensorId> updatedSensors, List<MetasysSensorId> failedSensors) {
+        List<MetasysSensorId> updated;
+        List<MetasysSensorId> failed;
+        synchronized (updatedSensors) {
+            updated = new ArrayList<>(updatedSensors);
+            updatedSensors.clear();
+        }
+        synchronized (failedSensors) {
+            failed = new ArrayList<>(failedSensors);
+            failedSensors.clear();
+        }
+        persistBackfillGaps();
+        synchronized (trendsLastUpdatedService) {
+            trendsLastUpdatedService.persistLastUpdated(updated);
+            trendsLastUpdatedService.persistLastFailed(failed);
+        }
+    }
+
+    private void ingestTrends(SensorId sensorId, List<MetasysSensorId> updatedSensors, List<MetasysSensorId> failedSensors) {
+        FetchedTrends fetched = fetchTrends(sensorId, failedSensors);
+        if (fetched != null) {
+            publishTrends(toObservedValues(fetched), updatedSensors);
+        }
+    }
+
+    /**
+     * Fetch stage. Request the samples since last updated. Failures are recorded here.
+     *
+     * @return the samples found, or null if the request failed
+     * @throws MetasysCloudConnectorException when logon fails, and no other sensor can be fetched either
+     */
+    FetchedTrends fetchTrends(SensorId sensorId, List<MetasysSensorId> failedSensors) {
+        String metasysObjectId = ((MetasysSensorId) sensorId).getMetasysObjectId();
+        if (metasysObjectId == null || metasysObjectId.isEmpty()) {
+            auditLog.trace("Ingest__TrendIdMissing__{}__{}__{}__{}__{}", sensorId.getClass(), sensorId.getId(), ((MetasysSensorId) sensorId).getMetasysObjectId());
+            scheduleNotFound(sensorId);
+            return null;
+        }
+        auditLog.trace("Ingest__TrendFindSamples__{}__{}", sensorId.getClass(), sensorId.getId());
+        try {
+            Instant lastObservedAt = getLastUpdatedAt((MetasysSensorId) sensorId);
+            auditLog.trace("Ingest__TrendLastUpdatedAt__{}__{}__{}", sensorId.getClass(), sensorId.getId(), lastObservedAt);
+            if (backfillScheduler != null) {
+                // The gap since last updated, if any, is fetched on the backfill lane
+                lastObservedAt = backfillScheduler.liveStartFor(sensorId, lastObservedAt, Instant.now());
+            }
+            if (lastObservedAt == null) {
+                lastObservedAt = getDefaultLastObservedAt();
+                log.trace("Try import. Use default lastObservedAt for sensorId: {}, trendId: {}, from: {}", sensorId.getTwinId(), metasysObjectId, lastObservedAt);
+            }
+
+            log.trace("Try import of sensorId: {}, trendId: {} from: {}", sensorId.getTwinId(), metasysObjectId, lastObservedAt);
+            long fetchStarted = System.nanoTime();
+            Set<? extends TrendSample> trendSamples = metasysApiClient.findTrendSamplesByDate(metasysObjectId, -1, -1, lastObservedAt);
+            metricsClient.recordValue(METRIC_NAME_TREND_FETCH_MILLIS, (System.nanoTime() - fetchStarted) / 1_000_000);
+            isHealthy = true;
+            return new FetchedTrends(sensorId, metasysObjectId, trendSamples);
+        } catch (TrendNotFoundException e) {
+            addMessagesFailedCount();
+            recordFailure(sensorId, "TrendNotFound");
+            scheduleNotFound(sensorId);
+            setLastFailedAt(sensorId, failedSensors);
+            auditLog.trace("Ingest__TrendNotFound__{}__{}__{}__{}", metasysObjectId, sensorId.getClass(), sensorId.getId(), e.getMessage());
+            log.debug("Trend not found for TrendId {} sensorId {}.", metasysObjectId, sensorId);
+            auditTrail.logFailed(sensorId.getId(), "TrendNotFound");
+        } catch (LogonFailedException e) {
+            addMessagesFailedCount();
+            recordFailure(sensorId, "LogonFailed");
+            scheduleRetry(sensorId);
+            setLastFailedAt(sensorId, failedSensors);
+            log.error("Failed to logon to Metasys API {} using username {}", apiUrl, config.get("sd.api.username", "admin"), e);
+            throw new MetasysCloudConnectorException("Could not ingest trends for " + getName() + " Logon failed to " + apiUrl + ", using username: " + config.get("sd.api.username", "admin"), e);
+        } catch (URISyntaxException e) {
+            addMessagesFailedCount();
+            recordFailure(sensorId, "URISyntax: " + e.getMessage());
+            scheduleRetry(sensorId);
+            setLastFailedAt(sensorId, failedSensors);
+            auditLog.trace("Ingest__Failed__TrendId__{}__sensorId__{}. Reason {}", metasysObjectId, sensorId, e.getMessage());
+        } catch (MetasysCloudConnectorException dce) {
+            addMessagesFailedCount();
+            recordFailure(sensorId, dce.getMessage());
+            scheduleRetry(sensorId);
+            setLastFailedAt(sensorId, failedSensors);
+            log.debug("Failed to ingest trends for TrendId {} sensorId {}.", metasysObjectId, sensorId, dce);
+            auditLog.trace("Ingest__TrendImportFailed__{}__{}__{}__{}", metasysObjectId, sensorId.getId(), ((MetasysSensorId) sensorId).getMetasysObjectId(), dce.getMessage());
+        } catch (Exception e) {
+            addMessagesFailedCount();
+            recordFailure(sensorId, e.getClass().getSimpleName() + ": " + e.getMessage());
+            scheduleRetry(sensorId);
+            setLastFailedAt(sensorId, failedSensors);
+            log.debug("Failed to ingest trends for sensorId {}.", sensorId, e);
+        }
+        return null;
+    }
+
+    /**
+     * Enrich stage. Sort the samples by observedAt and take their value and time as primitives, with audit and
+     * metrics.
+     */
+    EnrichedTrends toObservedValues(FetchedTrends fetched) {
+        SensorId sensorId = fetched.sensorId;
+        String metasysObjectId = fetched.metasysObjectId;
+        Set<? extends TrendSample> trendSamples = fetched.trendSamples;
+        if (trendSamples != null && trendSamples.size() > 0) {
+            updateWhenLastObservationReceived();
+            auditTrail.logObservedTrend(sensorId.getId(), "Observed: " + trendSamples.size());
+            auditLog.trace("Ingest__TrendSamplesFound__{}__{}__{}__{}", metasysObjectId, sensorId.getClass(), sensorId.getId(), trendSamples.size());
+            long value = trendSamples.size();
+            metricsClient.sendValue(METRIC_NAME_TRENDSAMPLES_RECEIVED, value);
+        } else {
+            auditLog.trace("Ingest__TrendSamplesFound__{}__{}__{}__{}", metasysObjectId, sensorId.getClass(), sensorId.getId(), 0);
+        }
+        List<? extends TrendSample> sorted = sortedByObservedAt(trendSamples);
+        int size = sorted.size();
+        long[] observedAtMillis = new long[size];
+        double[] values = new double[size];
+        short[] flags = new short[size];
+        boolean trace = auditLog.isTraceEnabled();
+        for (int i = 0; i < size; i++) {
+            TrendSample trendValue = sorted.get(i);
+            Number value = trendValue.getValue();
+            Instant observedAt = trendValue.getObservedAt();
+            flags[i] = (short) (CompactObservation.TREND | CompactObservation.typeOf(value));
+            if (value != null) {
+                values[i] = value.doubleValue();
+            }
+            if (observedAt == null) {
+                flags[i] |= CompactObservation.NO_TIME;
             } else {
-                auditLog.trace("Ingest__TrendIdMissing__{}__{}__{}__{}__{}", sensorId.getClass(), sensorId.getId(), ((MetasysSensorId) sensorId).getMetasysObjectId());
+                observedAtMillis[i] = observedAt.toEpochMilli();
+            }
+            if (trace) {
+                auditLog.trace("Ingest__TrendObserved__{}__{}__{}__{}__{}", metasysObjectId, ObservedTrendedValue.class, sensorId.getId(), value, observedAt);
+            }
+        }
+        return new EnrichedTrends(sensorId, trendSamples, sorted, observedAtMillis, values, flags);
+    }
+
+    /**
+     * Publish stage. Pass the observations on in order, and move last updated along with them.
+     */
+    void publishTrends(EnrichedTrends enriched, List<MetasysSensorId> updatedSensors) {
+        SensorId sensorId = enriched.sensorId;
+        distribute(enriched, true);
+        updatedSensors.add((MetasysSensorId) sensorId);
+        recordSuccess(sensorId);
+        scheduleNextPoll(sensorId, enriched.trendSamples);
+    }
+
+    /**
+     * @param live false for backfilled samples, which neither move last updated nor count as observation lag, and are
+     *             flagged as BACKFILL so deadband and aggregation state is left alone
+     */
+    private void distribute(EnrichedTrends enriched, boolean live) {
+        SensorId sensorId = enriched.sensorId;
+        // Boxed into an ObservedTrendedValue only if the filter chain lets the observation through
+        ObservationFilterChain filterChain = observationListener instanceof ObservationFilterChain ? (ObservationFilterChain) observationListener : null;
+        CompactObservation observation = new CompactObservation();
+        short backfill = live ? 0 : CompactObservation.BACKFILL;
+        long distributeStarted = System.nanoTime();
+        for (int i = 0; i < enriched.size(); i++) {
+            Instant observedAt = enriched.sorted.get(i).getObservedAt();
+            if (live) {
+                instruments.recordObservationLag(MetasysInstruments.PATH_TREND, observedAt);
+            }
+            if (filterChain != null) {
+                filterChain.observed(observation.set(sensorId, enriched.observedAtMillis[i], enriched.values[i], (short) (enriched.flags[i] | backfill)));
+            } else {
+                ObservedValue observedValue = new ObservedTrendedValue(sensorId, enriched.sorted.get(i).getValue());
+                if (observedAt != null) {
+                    observedValue.setObservedAt(observedAt);
+                }
+                observationListener.observedValue(observedValue);
             }
+            addMessagesImportedCount();
+            if (live && observedAt != null) {
+                setLastUpdatedAt(sensorId, observedAt);
+            }
+        }
+        if (enriched.size() > 0) {
+            metricsClient.recordValue(METRIC_NAME_TREND_DISTRIBUTE_MICROS, (System.nanoTime() - distributeStarted) / 1_000);
+        }
+    }
+
+    /*
+     * Live polling moves last updated past the gaps queued for backfill, so the gaps are persisted first.
+     */
+    private void persistBackfillGaps() {
+        if (backfillScheduler != null) {
+            backfillScheduler.persistGaps();
+        }
+    }
+
+    /*
+     * TrendsLastUpdatedService implementations are not thread safe, and the pipeline stages use it from several threads.
+     */
+    private Instant getLastUpdatedAt(MetasysSensorId sensorId) {
+        synchronized (trendsLastUpdatedService) {
+            return trendsLastUpdatedService.getLastUpdatedAt(sensorId);
+        }
+    }
+
+    private void setLastUpdatedAt(SensorId sensorId, Instant observedAt) {
+        synchronized (trendsLastUpdatedService) {
+            trendsLastUpdatedService.setLastUpdatedAt(sensorId, observedAt);
+        }
+    }
+
+    private void setLastFailedAt(SensorId sensorId, List<MetasysSensorId> failedSensors) {
+        synchronized (trendsLastUpdatedService) {
+            trendsLastUpdatedService.setLastFailedAt((MetasysSensorId) sensorId, Instant.now());
         }
+        failedSensors.add((MetasysSensorId) sensorId);
+    }
+
+    /**
+     * Record per-sensor success and failures of trend requests in the SensorFreshnessIndex.
+     * Observations are recorded by the FreshnessObservationFilter in the ObservationFilterChain.
+     */
+    public void setSensorFreshnessIndex(SensorFreshnessIndex sensorFreshnessIndex) {
+        this.sensorFreshnessIndex = sensorFreshnessIndex;
+    }
 
+    private void recordSuccess(SensorId sensorId) {
+        if (sensorFreshnessIndex != null) {
+            sensorFreshnessIndex.recordSuccess(sensorId.getId());
+        }
+    }
 
-        trendsLastUpdatedService.persistLastUpdated(updatedSensors);
-        trendsLastUpdatedService.persistLastFailed(failedSensors);
+    private void recordFailure(SensorId sensorId, String error) {
+        if (sensorFreshnessIndex != null) {
+            sensorFreshnessIndex.recordFailure(sensorId.getId(), error);
+        }
+    }
+
+    private void scheduleNextPoll(SensorId sensorId, Set<? extends TrendSample> trendSamples) {
+        if (adaptivePollScheduler == null) {
+            return;
+        }
+        if (trendSamples == null || trendSamples.isEmpty()) {
+            adaptivePollScheduler.recordNoSamples(sensorId, Instant.now());
+        } else {
+            adaptivePollScheduler.recordSamples(sensorId, trendSamples.stream().map(TrendSample::getObservedAt).toList(), Instant.now());
+        }
+    }
 
+    private void scheduleNotFound(SensorId sensorId) {
+        if (adaptivePollScheduler != null) {
+            adaptivePollScheduler.recordNotFound(sensorId, Instant.now());
+        }
     }
 
+    private void scheduleRetry(SensorId sensorId) {
+        if (adaptivePollScheduler != null) {
+            adaptivePollScheduler.recordFailure(sensorId, Instant.now());
+        }
+    }
 
+    /**
+     * Samples are returned from the API as an unordered Set. Windowed filters and lastUpdatedAt
+     * expect the samples of a sensor in the order they were observed.
+     */
+    static List<? extends TrendSample> sortedByObservedAt(Set<? extends TrendSample> trendSamples) {
+        if (trendSamples == null) {
+            return List.of();
+        }
+        List<? extends TrendSample> sorted = new ArrayList<>(trendSamples);
+        sorted.sort(Comparator.comparing(TrendSample::getObservedAt, Comparator.nullsLast(Comparator.naturalOrder())));
+        return sorted;
+    }
 
     protected Instant getDefaultLastObservedAt() {
         return Instant.now().minus(2, ChronoUnit.HOURS);
@@ -209,7 +811,12 @@ public class MetasysTrendsIngestionService implements TrendsIngestionService {
 
     @Override
     public void openConnection(ObservationListener observationListener, NotificationListener notificationListener) {
-        this.observationListener = observationListener;
+        if (this.observationListener instanceof ObservationFilterChain filterChain && observationListener != filterChain) {
+            // Keep filtering in front of the listener given on openConnection
+            filterChain.setDelegate(observationListener);
+        } else {
+            this.observationListener = observationListener;
+        }
         this.notificationListener = notificationListener;
         if (!isInitialized) {
             throw new RuntimeException("Not initialized. Please call initialize() first.");
@@ -218,39 +825,94 @@ public class MetasysTrendsIngestionService implements TrendsIngestionService {
 
     @Override
     public void closeConnection() {
+        stopAdaptivePolling();
+        stopBackfill();
+        if (ingestionPipeline != null) {
+            ingestionPipeline.close();
+        }
         //Do nothing for now. metasysApiClient = null;
     }
 
     @Override
     public void addSubscriptions(List<SensorId> list) {
-        if (sensorIds == null) {
-            sensorIds = new ArrayList<>();
+        List<SensorId> added = sensorRegistry.addAll(list);
+        if (adaptivePollScheduler != null) {
+            Instant now = Instant.now();
+            for (SensorId sensorId : added) {
+                adaptivePollScheduler.register(sensorId, null, now);
+            }
         }
-        sensorIds.addAll(list);
     }
 
     @Override
     public void addSubscription(SensorId sensorId) {
-        if (sensorIds == null) {
-            sensorIds = new ArrayList<>();
+        if (sensorRegistry.add(sensorId) && adaptivePollScheduler != null) {
+            adaptivePollScheduler.register(sensorId, null, Instant.now());
         }
-        sensorIds.add(sensorId);
     }
 
     @Override
     public void removeSubscription(SensorId sensorId) {
-        if (sensorIds != null) {
-            sensorIds.remove(sensorId);
+        sensorRegistry.remove(sensorId);
+        if (adaptivePollScheduler != null) {
+            adaptivePollScheduler.remove(sensorId);
+        }
+        if (backfillScheduler != null) {
+            backfillScheduler.remove(sensorId);
+        }
+    }
+
+    /**
+     * Remove many sensors at once, eg. when a sensor file is reloaded
+     */
+    public void removeSubscriptions(List<SensorId> list) {
+        List<SensorId> removed = sensorRegistry.removeAll(list);
+        if (adaptivePollScheduler != null) {
+            for (SensorId sensorId : removed) {
+                adaptivePollScheduler.remove(sensorId);
+            }
+        }
+        if (backfillScheduler != null) {
+            for (SensorId sensorId : removed) {
+                backfillScheduler.remove(sensorId);
+            }
+        }
+    }
+
+    /**
+     * Apply a reload of the sensor files in one change. Sensors in both lists are replaced.
+     */
+    public void updateSubscriptions(List<SensorId> removed, List<SensorId> added) {
+        sensorRegistry.update(removed, added);
+        if (backfillScheduler != null) {
+            Set<String> addedIds = new HashSet<>();
+            for (SensorId sensorId : added) {
+                addedIds.add(sensorId.getId());
+            }
+            for (SensorId sensorId : removed) {
+                if (!addedIds.contains(sensorId.getId())) {
+                    backfillScheduler.remove(sensorId);
+                }
+            }
+        }
+        if (adaptivePollScheduler != null) {
+            Instant now = Instant.now();
+            for (SensorId sensorId : removed) {
+                adaptivePollScheduler.remove(sensorId);
+            }
+            for (SensorId sensorId : added) {
+                adaptivePollScheduler.register(sensorId, null, now);
+            }
         }
     }
 
     @Override
     public long getSubscriptionsCount() {
-        if (sensorIds != null) {
-            return sensorIds.size();
-        } else {
-            return 0;
-        }
+        return sensorRegistry.size();
+    }
+
+    public SensorRegistry getSensorRegistry() {
+        return sensorRegistry;
     }
 
     @Override
@@ -297,4 +959,40 @@ public class MetasysTrendsIngestionService implements TrendsIngestionService {
     protected void setWhenLastObservationReceivedAt(Instant lastObservationReceievedAt) {
         this.lastObservationReceievedAt = lastObservationReceievedAt;
     }
+
+    public static class FetchedTrends {
+        final SensorId sensorId;
+        final String metasysObjectId;
+        final Set<? extends TrendSample> trendSamples;
+
+        FetchedTrends(SensorId sensorId, String metasysObjectId, Set<? extends TrendSample> trendSamples) {
+            this.sensorId = sensorId;
+            this.metasysObjectId = metasysObjectId;
+            this.trendSamples = trendSamples;
+        }
+    }
+
+    public static class EnrichedTrends {
+        final SensorId sensorId;
+        final Set<? extends TrendSample> trendSamples;
+        // Samples by observedAt, with value, time and CompactObservation flags of each at the same index
+        final List<? extends TrendSample> sorted;
+        final long[] observedAtMillis;
+        final double[] values;
+        final short[] flags;
+
+        EnrichedTrends(SensorId sensorId, Set<? extends TrendSample> trendSamples, List<? extends TrendSample> sorted,
+                       long[] observedAtMillis, double[] values, short[] flags) {
+            this.sensorId = sensorId;
+            this.trendSamples = trendSamples;
+            this.sorted = sorted;
+            this.observedAtMillis = observedAtMillis;
+            this.values = values;
+            this.flags = flags;
+        }
+
+        int size() {
+            return values.length;
+        }
+    }
 }
@@ -0,0 +1,118 @@
+package no.cantara.realestate.metasys.cloudconnector.ingestion;
+
+import no.cantara.config.ApplicationProperties;
+import org.slf4j.Logger;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Which sensors are kept up to date by the Metasys stream, so trend polling of them can be skipped.
+ * <p>
+ * A sensor is covered while the stream is open and the sensor has had a stream update within freshWindowSeconds.
+ * When the stream goes quiet for a sensor, or the stream is closed, the sensor is polled as before, from the time
+ * of its last stream update, so the gap is backfilled from the trend log.
+ * <pre>
+ * sd.stream.hybrid.enabled=false
+ * sd.stream.hybrid.freshWindowSeconds=900
+ * </pre>
+ */
+public class StreamCoverage {
+    private static final Logger log = getLogger(StreamCoverage.class);
+    public static final String CONFIG_PREFIX = "sd.stream.hybrid";
+    public static final String ENABLED_KEY = CONFIG_PREFIX + ".enabled";
+
+    private final long freshWindowMillis;
+    private final Clock clock;
+    private final Map<String, Long> lastStreamUpdateMillis = new ConcurrentHashMap<>();
+    private final AtomicLong suppressedPolls = new AtomicLong();
+    private BooleanSupplier streamOpen = () -> false;
+
+    public StreamCoverage(long freshWindowMillis) {
+        this(freshWindowMillis, Clock.systemUTC());
+    }
+
+    StreamCoverage(long freshWindowMillis, Clock clock) {
+        this.freshWindowMillis = freshWindowMillis;
+        this.clock = clock;
+    }
+
+    public static StreamCoverage fromConfig(ApplicationProperties config) {
+        long freshWindowMillis = config.asLong(CONFIG_PREFIX + ".freshWindowSeconds", 900L) * 1000;
+        log.info("Hybrid stream and trend polling. Sensors with stream updates within {} ms are not polled", freshWindowMillis);
+        return new StreamCoverage(freshWindowMillis);
+    }
+
+    /**
+     * The stream client is created after the trend ingestion, so the state of the stream is looked up when needed.
+     */
+    public void setStreamOpen(BooleanSupplier streamOpen) {
+        this.streamOpen = streamOpen;
+    }
+
+    public boolean isStreamOpen() {
+        return streamOpen.getAsBoolean();
+    }
+
+    public void recordStreamUpdate(String sensorId, Instant observedAt) {
+        recordStreamUpdate(sensorId, observedAt == null ? clock.millis() : observedAt.toEpochMilli());
+    }
+
+    public void recordStreamUpdate(String sensorId, long observedAtMillis) {
+        lastStreamUpdateMillis.merge(sensorId, observedAtMillis, Math::max);
+    }
+
+    /**
+     * Call isStreamOpen once per cycle, and pass it on here for each sensor.
+     *
+     * @return true when the sensor need not be polled now. Counted as a suppressed poll.
+     */
+    public boolean isCovered(String sensorId, boolean streamOpen) {
+        if (!streamOpen) {
+            return false;
+        }
+        Long lastUpdateMillis = lastStreamUpdateMillis.get(sensorId);
+        if (lastUpdateMillis == null || clock.millis() - lastUpdateMillis >= freshWindowMillis) {
+            return false;
+        }
+        suppressedPolls.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return when the sensor is no longer covered unless a new stream update arrives, null if it never had one
+     */
+    public Instant getCoveredUntil(String sensorId) {
+        Long lastUpdateMillis = lastStreamUpdateMillis.get(sensorId);
+        return lastUpdateMillis == null ? null : Instant.ofEpochMilli(lastUpdateMillis + freshWindowMillis);
+    }
+
+    public Instant getLastStreamUpdate(String sensorId) {
+        Long lastUpdateMillis = lastStreamUpdateMillis.get(sensorId);
+        return lastUpdateMillis == null ? null : Instant.ofEpochMilli(lastUpdateMillis);
+    }
+
+    public int getNumberOfCoveredSensors() {
+        if (!isStreamOpen()) {
+            return 0;
+        }
+        long freshAfterMillis = clock.millis() - freshWindowMillis;
+        int covered = 0;
+        for (long lastUpdateMillis : lastStreamUpdateMillis.values()) {
+            if (lastUpdateMillis > freshAfterMillis) {
+                covered++;
+            }
+        }
+        return covered;
+    }
+
+    public long getNumberOfSuppressedPolls() {
+        return suppressedPolls.get();
+    }
+}
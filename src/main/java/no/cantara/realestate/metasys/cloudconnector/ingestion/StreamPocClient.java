@@ -10,7 +10,12 @@ import no.cantara.realestate.metasys.cloudconnector.MetasysCloudconnectorApplica
 import no.cantara.realestate.metasys.cloudconnector.automationserver.MetasysClient;
 import no.cantara.realestate.metasys.cloudconnector.automationserver.stream.*;
 import no.cantara.realestate.metasys.cloudconnector.automationserver.streampoc.ServerSentEvent;
+import no.cantara.realestate.metasys.cloudconnector.automationserver.streampoc.ServerSentEventParser;
+import no.cantara.realestate.metasys.cloudconnector.metrics.MetasysInstruments;
 import no.cantara.realestate.metasys.cloudconnector.metrics.MetasysMetricsDistributionClient;
+import no.cantara.realestate.metasys.cloudconnector.observations.CompactObservation;
+import no.cantara.realestate.metasys.cloudconnector.observations.filter.ObservationFilterChain;
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorRegistry;
 import no.cantara.realestate.observations.ConfigMessage;
 import no.cantara.realestate.observations.ConfigValue;
 import no.cantara.realestate.observations.ObservationListener;
@@ -33,7 +38,6 @@ import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicReference;
@@ -74,6 +78,9 @@ public class StreamPocClient implements StreamListener {
     private boolean reconnectOnError = true;
     private StreamListener streamListener = null;
     private final ObservationListener observationListener;
+    private final MetasysInstruments instruments = MetasysInstruments.getInstance();
+    private StreamCoverage streamCoverage;
+    private SensorRegistry sensorRegistry;
 
 
     public StreamPocClient() {
@@ -89,6 +96,7 @@ public class StreamPocClient implements StreamListener {
                 .connectTimeout(REQUEST_TIMEOUT)
                 .build();
         sdUri = metasysStreamClient.getApiUri();
+        instruments.registerQueueDepth("stream.eventQueue", eventQueue::size);
         observationListener = initializeStubObservationListener();
         this.metricsClient = null;
         this.auditTrail = null;
@@ -105,6 +113,7 @@ public class StreamPocClient implements StreamListener {
                 .connectTimeout(REQUEST_TIMEOUT)
                 .build();
         this.sdUri = metasysStreamClient.getApiUri();
+        instruments.registerQueueDepth("stream.eventQueue", eventQueue::size);
         this.observationListener = observationListener;
         this.metricsClient = metricsClient;
         this.auditTrail = auditTrail;
@@ -415,9 +424,7 @@ public class StreamPocClient implements StreamListener {
      */
     private void processEventStream(BufferedReader reader) throws IOException {
         String line;
-        ServerSentEvent currentEvent = new ServerSentEvent();
-        List<String> dataLines = new ArrayList<>();
-        boolean hasData = false;
+        ServerSentEventParser parser = new ServerSentEventParser();
 
         while ((line = reader.readLine()) != null) {
             // Check if thread is interrupted (due to shutdown)
@@ -432,110 +439,23 @@ public class StreamPocClient implements StreamListener {
             log.trace("Received SSE line: {}", line);
 
             // Empty line indicates the end of an event
-            if (line.isEmpty()) {
-                if (hasData) {
-                    // Complete the current event
-                    if (!dataLines.isEmpty()) {
-                        currentEvent.setData(String.join("\n", dataLines));
-                    }
-
-                    log.trace("Mapped to SSE event: {}", currentEvent);
-
-                    // If we have a StreamListener, call onEvent
-                    if (streamListener != null) {
-                        try {
-                            StreamEvent streamEvent = EventInputMapper.toStreamEvent(currentEvent);
-                            if (streamEvent != null && streamEvent instanceof MetasysObservedValueEvent) {
-                                streamListener.onEvent(streamEvent);
-                            }
-                        } catch (Exception e) {
-                            log.error("Error in StreamListener.onEvent", e);
-                        }
-                    }
-
-                    // For backward compatibility, also add to queue if needed
-                    try {
-                        eventQueue.put(currentEvent);
-
-                        // Set the subscriptionId from the first open event
-                        if (currentEvent.getEvent() != null &&
-                                currentEvent.getEvent().equals("hello") &&
-                                subscriptionId == null) {
-                            subscriptionId = currentEvent.getData();
-                            log.info("Stream opened with subscriptionId: {}", subscriptionId);
-                        }
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        log.info("Stream thread interrupted while queuing event (shutdown). Exiting gracefully.");
-                        if (closingStreamReason.get() == null) {
-                            closingStreamReason.set("GRACEFUL_SHUTDOWN");
-                        }
-                        return;
-                    }
+            ServerSentEvent currentEvent = parser.parseLine(line);
+            if (currentEvent != null) {
+                log.trace("Mapped to SSE event: {}", currentEvent);
+                if (!handleEvent(currentEvent)) {
+                    return;
                 }
-
-                // Reset for the next event
-                currentEvent = new ServerSentEvent();
-                dataLines.clear();
-                hasData = false;
-                continue;
-            }
-
-            // Process the field
-            if (line.startsWith("id:")) {
-                currentEvent.setId(line.substring(3).trim());
-                lastKnownEventId = currentEvent.getId();
-                hasData = true;
-            } else if (line.startsWith("event:")) {
-                currentEvent.setEvent(line.substring(6).trim());
-                hasData = true;
-            } else if (line.startsWith("data:")) {
-                dataLines.add(line.substring(5).trim());
-                hasData = true;
-            } else if (line.startsWith("retry:")) {
-                try {
-                    currentEvent.setRetry(Integer.parseInt(line.substring(6).trim()));
-                    hasData = true;
-                } catch (NumberFormatException e) {
-                    log.warn("Invalid retry value in SSE: {}", line);
-                }
-            } else {
-                log.debug("Ignoring unknown SSE line: {}", line);
             }
         }
 
         // Handle any final event (in case the stream ends without an empty line)
-        if (hasData) {
-            if (!dataLines.isEmpty()) {
-                currentEvent.setData(String.join("\n", dataLines));
-            }
-
-            log.trace("Mapped final SSE event: {}", currentEvent);
-
-            // If we have a StreamListener, call onEvent
-            if (streamListener != null) {
-                try {
-                    StreamEvent streamEvent = EventInputMapper.toStreamEvent(currentEvent);
-                    if (streamEvent != null && streamEvent instanceof MetasysObservedValueEvent) {
-                        streamListener.onEvent(streamEvent);
-                    }
-                } catch (Exception e) {
-                    log.error("Error in StreamListener.onEvent for final event", e);
-                }
-            }
-
-            // For backward compatibility, also add to queue if needed
-            try {
-                eventQueue.put(currentEvent);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                log.info("Stream thread interrupted while queuing final event (shutdown). Exiting gracefully.");
-                if (closingStreamReason.get() == null) {
-                    closingStreamReason.set("GRACEFUL_SHUTDOWN");
-                }
+        ServerSentEvent finalEvent = parser.finish();
+        if (finalEvent != null) {
+            log.trace("Mapped final SSE event: {}", finalEvent);
+            if (!handleEvent(finalEvent)) {
                 return;
             }
-            log.warn("Stream ended without empty line. Last event: {}", currentEvent);
+            log.warn("Stream ended without empty line. Last event: {}", finalEvent);
             if (closingStreamReason.get() == null) {
                 closingStreamReason.set(STREAM_ENDED_WITHOUT_EMPTY_LINE + " This could be network-error, or server closing the connection. Please reconnect with LastKnownEventId.");
             }
@@ -547,6 +467,51 @@ public class StreamPocClient implements StreamListener {
         }
     }
 
+    /**
+     * Pass a complete event to the StreamListener and the eventQueue.
+     *
+     * @return false if the thread was interrupted, and the stream should not be read any further
+     */
+    private boolean handleEvent(ServerSentEvent currentEvent) {
+        if (currentEvent.getId() != null) {
+            lastKnownEventId = currentEvent.getId();
+        }
+
+        // If we have a StreamListener, call onEvent
+        if (streamListener != null) {
+            try {
+                StreamEvent streamEvent = EventInputMapper.toStreamEvent(currentEvent);
+                instruments.streamEventReceived(currentEvent.getEvent());
+                if (streamEvent != null && streamEvent instanceof MetasysObservedValueEvent) {
+                    streamListener.onEvent(streamEvent);
+                }
+            } catch (Exception e) {
+                log.error("Error in StreamListener.onEvent", e);
+            }
+        }
+
+        // For backward compatibility, also add to queue if needed
+        try {
+            eventQueue.put(currentEvent);
+
+            // Set the subscriptionId from the first open event
+            if (currentEvent.getEvent() != null &&
+                    currentEvent.getEvent().equals("hello") &&
+                    subscriptionId == null) {
+                subscriptionId = currentEvent.getData();
+                log.info("Stream opened with subscriptionId: {}", subscriptionId);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.info("Stream thread interrupted while queuing event (shutdown). Exiting gracefully.");
+            if (closingStreamReason.get() == null) {
+                closingStreamReason.set("GRACEFUL_SHUTDOWN");
+            }
+            return false;
+        }
+        return true;
+    }
+
     @Override
     public void onEvent(StreamEvent event) {
         log.trace("StreamListener received event: {}", event);
@@ -556,24 +521,44 @@ public class StreamPocClient implements StreamListener {
             ObservedValue metasysObservedValue = observedValueEvent.getObservedValue();
             final String metricKey = "metasys_stream_observation_received";
             String metasysObjectId = observedValueEvent.getObservedValue().getId();
-            List<SensorId> sensorIds = sensorIdRepository.find(MetasysSensorId.METASYS_OBJECT_ID, metasysObjectId);
+            List<SensorId> sensorIds = sensorRegistry != null
+                    ? sensorRegistry.findByMetasysObjectId(metasysObjectId)
+                    : sensorIdRepository.find(MetasysSensorId.METASYS_OBJECT_ID, metasysObjectId);
             if (sensorIds == null || sensorIds.isEmpty()) {
                 log.trace("No SensorId found for MetasysObjectId: {} from stream event {}", metasysObjectId, observedValueEvent);
                 return;
             }else {
                 String twinId = sensorIds.get(0).getTwinId();
                 auditTrail.logObservedStream(twinId, "StreamListener received event for MetasysObjectId: " + metasysObjectId);
-                no.cantara.realestate.observations.ObservedValue realestateObservedValue = null;
+                double value;
+                short flags;
+                if (metasysObservedValue instanceof ObservedValueNumber) {
+                    Number number = (Number) metasysObservedValue.getValue();
+                    value = number == null ? Double.NaN : number.doubleValue();
+                    flags = CompactObservation.typeOf(number);
+                } else if (metasysObservedValue instanceof ObservedValueBoolean && metasysObservedValue.getValue() != null) {
+                    value = (Boolean) metasysObservedValue.getValue() ? 1 : 0;
+                    flags = CompactObservation.BOOLEAN;
+                } else {
+                    return;
+                }
+                // Boxed into an ObservedValue only if the filter chain lets the observation through
+                ObservationFilterChain filterChain = observationListener instanceof ObservationFilterChain ? (ObservationFilterChain) observationListener : null;
+                CompactObservation observation = new CompactObservation();
+                // One lag sample per stream event, however many sensors share the Metasys object
+                instruments.recordObservationLag(MetasysInstruments.PATH_STREAM, metasysObservedValue.getObservedAt() != null
+                        ? metasysObservedValue.getObservedAt() : event.getObservedAt());
                 for (SensorId sensorId : sensorIds) {
-                    if (metasysObservedValue instanceof ObservedValueNumber) {
-                        realestateObservedValue = new no.cantara.realestate.observations.ObservedValue(sensorId, (Number) metasysObservedValue.getValue(), Instant.now());
-                    } else if (metasysObservedValue instanceof ObservedValueBoolean) {
-                        Number value = (Boolean) metasysObservedValue.getValue() ? 1 : 0;
-                        realestateObservedValue = new no.cantara.realestate.observations.ObservedValue(sensorId, value, Instant.now());
+                    long observedAtMillis = System.currentTimeMillis();
+                    observation.set(sensorId, observedAtMillis, value, flags);
+                    metricsClient.sendValue(METRIC_NAME_STREAMVALUE_RECEIVED, 1);
+                    if (filterChain != null) {
+                        filterChain.observed(observation);
+                    } else {
+                        observationListener.observedValue(observation.toObservedValue());
                     }
-                    if (realestateObservedValue != null) {
-                        metricsClient.sendValue(METRIC_NAME_STREAMVALUE_RECEIVED, 1);
-                        observationListener.observedValue(realestateObservedValue);
+                    if (streamCoverage != null) {
+                        streamCoverage.recordStreamUpdate(sensorId.getId(), observedAtMillis);
                     }
                 }
             }
@@ -586,6 +571,21 @@ public class StreamPocClient implements StreamListener {
         log.info("StreamListener connection closed: {}", closeInfo);
     }
 
+    /**
+     * Record stream updates per sensor, so trend polling of these sensors can be skipped
+     */
+    public void setStreamCoverage(StreamCoverage streamCoverage) {
+        this.streamCoverage = streamCoverage;
+    }
+
+    /**
+     * Look up the sensors of a stream event in the subscribed sensors. Events for sensors removed from the
+     * registry are dropped, while the Metasys subscription lasts until the stream is opened again.
+     */
+    public void setSensorRegistry(SensorRegistry sensorRegistry) {
+        this.sensorRegistry = sensorRegistry;
+    }
+
     public boolean isStreamOpen() {
         boolean isOpen = streamListenerThread != null && streamListenerThread.isAlive();
         log.debug("Stream is open: {}", isOpen);
@@ -0,0 +1,198 @@
+package no.cantara.realestate.metasys.cloudconnector.metrics;
+
+import no.cantara.realestate.observations.TrendSample;
+import no.cantara.realestate.rec.RecTags;
+import org.slf4j.Logger;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Keeps metrics in memory and sends aggregated values to the delegate on a fixed interval, from a background thread.
+ * This keeps the telemetry SDK off the ingestion hot path.
+ * <ul>
+ *     <li>sendValue and populate are counters. The sum since last flush is sent.</li>
+ *     <li>sendDoubleValue and sendMetrics are gauges. The last value since last flush is sent.</li>
+ *     <li>recordValue is a histogram. Count, mean, p50, p95, p99 and max since last flush are sent as
+ *     metricName_count, metricName_mean, metricName_p50 etc.</li>
+ * </ul>
+ */
+public class BufferedMetricsDistributionClient implements MetasysMetricsDistributionClient {
+    private static final Logger log = getLogger(BufferedMetricsDistributionClient.class);
+
+    private final MetasysMetricsDistributionClient delegate;
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private final Map<String, MetricHistogram> histograms = new ConcurrentHashMap<>();
+    private ScheduledExecutorService flushScheduler;
+
+    public BufferedMetricsDistributionClient(MetasysMetricsDistributionClient delegate) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate can not be null");
+        }
+        this.delegate = delegate;
+    }
+
+    public synchronized void start(long flushIntervalSeconds) {
+        if (flushScheduler != null || flushIntervalSeconds <= 0) {
+            return;
+        }
+        flushScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "BufferedMetricsDistributionClient-Flush");
+            t.setDaemon(true);
+            return t;
+        });
+        flushScheduler.scheduleAtFixedRate(this::flushMetrics, flushIntervalSeconds, flushIntervalSeconds, TimeUnit.SECONDS);
+        log.info("Sending buffered metrics every {} seconds", flushIntervalSeconds);
+    }
+
+    public synchronized void stop() {
+        if (flushScheduler != null) {
+            flushScheduler.shutdownNow();
+            flushScheduler = null;
+        }
+        flushMetrics();
+    }
+
+    @Override
+    public void sendMetrics(Metric metric) {
+        if (metric == null || metric.getValue() == null) {
+            return;
+        }
+        sendDoubleValue(metric.getMeasurementName(), metric.getValue().doubleValue());
+    }
+
+    @Override
+    public void openDb() {
+        delegate.openDb();
+    }
+
+    @Override
+    public void flush() {
+        flushMetrics();
+        delegate.flush();
+    }
+
+    @Override
+    public void closeDb() {
+        stop();
+        delegate.closeDb();
+    }
+
+    @Override
+    public void populate(Set<TrendSample> trendSamples, RecTags recTags) {
+        populate(trendSamples, recTags, "metasys_trendsamples_received");
+    }
+
+    @Override
+    public void populate(Set<TrendSample> trendSamples, RecTags recTags, String metricName) {
+        sendValue(metricName, trendSamples == null ? 0 : trendSamples.size());
+    }
+
+    @Override
+    public void sendValue(String metricName, long value) {
+        if (metricName == null || metricName.isEmpty()) {
+            return;
+        }
+        LongAdder counter = counters.get(metricName);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(metricName, name -> new LongAdder());
+        }
+        counter.add(value);
+    }
+
+    @Override
+    public void sendDoubleValue(String metricName, double value) {
+        if (metricName == null || metricName.isEmpty()) {
+            return;
+        }
+        Gauge gauge = gauges.get(metricName);
+        if (gauge == null) {
+            gauge = gauges.computeIfAbsent(metricName, name -> new Gauge());
+        }
+        gauge.set(value);
+    }
+
+    /**
+     * Record one value, eg. a latency in milliseconds, into the histogram for metricName.
+     */
+    @Override
+    public void recordValue(String metricName, long value) {
+        if (metricName == null || metricName.isEmpty()) {
+            return;
+        }
+        MetricHistogram histogram = histograms.get(metricName);
+        if (histogram == null) {
+            histogram = histograms.computeIfAbsent(metricName, name -> new MetricHistogram());
+        }
+        histogram.record(value);
+    }
+
+    /**
+     * Send everything accumulated since last flush to the delegate.
+     */
+    public void flushMetrics() {
+        try {
+            counters.forEach((metricName, counter) -> {
+                long value = counter.sumThenReset();
+                if (value != 0) {
+                    delegate.sendValue(metricName, value);
+                }
+            });
+            gauges.forEach((metricName, gauge) -> {
+                if (gauge.isUpdated()) {
+                    delegate.sendDoubleValue(metricName, gauge.takeValue());
+                }
+            });
+            for (String metricName : histograms.keySet()) {
+                if (histograms.get(metricName).getCount() == 0) {
+                    continue;
+                }
+                // Swap in an empty histogram rather than resetting the one recorders may be writing to.
+                // A value recorded by a thread that looked up the old histogram just before the swap may be missed.
+                MetricHistogram histogram = histograms.replace(metricName, new MetricHistogram());
+                MetricHistogram.Snapshot snapshot = histogram.snapshot();
+                if (snapshot.getCount() > 0) {
+                    delegate.sendValue(metricName + "_count", snapshot.getCount());
+                    delegate.sendDoubleValue(metricName + "_mean", snapshot.getMean());
+                    delegate.sendValue(metricName + "_p50", snapshot.getPercentile(50));
+                    delegate.sendValue(metricName + "_p95", snapshot.getPercentile(95));
+                    delegate.sendValue(metricName + "_p99", snapshot.getPercentile(99));
+                    delegate.sendValue(metricName + "_max", snapshot.getMax());
+                }
+            }
+        } catch (Exception e) {
+            log.debug("Failed to send buffered metrics. Reason: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Last value set, and whether it has been set since it was last taken.
+     */
+    static class Gauge {
+        private final AtomicLong bits = new AtomicLong();
+        private volatile boolean updated = false;
+
+        void set(double value) {
+            bits.set(Double.doubleToRawLongBits(value));
+            updated = true;
+        }
+
+        boolean isUpdated() {
+            return updated;
+        }
+
+        double takeValue() {
+            updated = false;
+            return Double.longBitsToDouble(bits.get());
+        }
+    }
+}
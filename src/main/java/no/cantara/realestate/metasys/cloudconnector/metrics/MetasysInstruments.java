@@ -0,0 +1,176 @@
+package no.cantara.realestate.metasys.cloudconnector.metrics;
+
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.DoubleHistogram;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.api.metrics.Meter;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import static io.opentelemetry.api.common.AttributeKey.booleanKey;
+import static io.opentelemetry.api.common.AttributeKey.longKey;
+import static io.opentelemetry.api.common.AttributeKey.stringKey;
+import static no.cantara.realestate.metasys.cloudconnector.MetasysCloudconnectorApplication.INSTRUMENTATION_SCOPE_NAME_VALUE;
+
+/**
+ * OpenTelemetry instruments for the Metasys clients and the ingestion paths.
+ * <ul>
+ *     <li>metasys.http.client.duration - latency per operation and http.status_code, status 0 when no response</li>
+ *     <li>metasys.trend.samples.per.response - trend samples returned per findTrendSamplesByDate</li>
+ *     <li>metasys.ingestion.cycle.duration - duration of one ingestTrends round</li>
+ *     <li>metasys.ratelimiter.wait.duration - time spent waiting for a rate limiter permission</li>
+ *     <li>metasys.stream.events - stream events received, per event type</li>
+ *     <li>metasys.observation.lag - observedAt until the observation is handed to the ObservationListener, per path</li>
+ *     <li>metasys.queue.depth - size of the registered queues</li>
+ * </ul>
+ */
+public class MetasysInstruments {
+    public static final AttributeKey<String> OPERATION = stringKey("operation");
+    public static final AttributeKey<Long> HTTP_STATUS_CODE = longKey("http.status_code");
+    public static final AttributeKey<String> CLIENT = stringKey("client");
+    public static final AttributeKey<String> PATH = stringKey("path");
+    public static final AttributeKey<String> LIMITER = stringKey("limiter");
+    public static final AttributeKey<Boolean> PERMITTED = booleanKey("permitted");
+    public static final AttributeKey<String> EVENT_TYPE = stringKey("event.type");
+    public static final AttributeKey<String> QUEUE = stringKey("queue");
+    public static final AttributeKey<String> SERVICE = stringKey("service");
+
+    public static final String PATH_STREAM = "stream";
+    public static final String PATH_TREND = "trend";
+    private static final Attributes STREAM_PATH_ATTRIBUTES = Attributes.of(PATH, PATH_STREAM);
+    private static final Attributes TREND_PATH_ATTRIBUTES = Attributes.of(PATH, PATH_TREND);
+    private static final List<Double> LATENCY_BUCKETS_MS = List.of(5d, 10d, 25d, 50d, 100d, 250d, 500d, 1000d, 2500d, 5000d, 10000d, 30000d);
+    private static final List<Double> LAG_BUCKETS_MS = List.of(100d, 500d, 1000d, 5000d, 15000d, 60000d, 300000d, 900000d, 3600000d, 14400000d);
+
+    private static MetasysInstruments instance;
+
+    private final DoubleHistogram httpDuration;
+    private final LongHistogram trendSamplesPerResponse;
+    private final DoubleHistogram ingestionCycleDuration;
+    private final DoubleHistogram ingestionCycleOverrun;
+    private final DoubleHistogram rateLimiterWait;
+    private final LongCounter streamEvents;
+    private final DoubleHistogram observationLag;
+    private final Map<String, LongSupplier> queues = new ConcurrentHashMap<>();
+    private final Map<String, Attributes> eventTypeAttributes = new ConcurrentHashMap<>();
+
+    public MetasysInstruments(Meter meter) {
+        httpDuration = meter.histogramBuilder("metasys.http.client.duration")
+                .setDescription("Duration of http requests to Metasys")
+                .setUnit("ms")
+                .setExplicitBucketBoundariesAdvice(LATENCY_BUCKETS_MS)
+                .build();
+        trendSamplesPerResponse = meter.histogramBuilder("metasys.trend.samples.per.response")
+                .setDescription("Trend samples returned per request")
+                .ofLongs()
+                .build();
+        ingestionCycleDuration = meter.histogramBuilder("metasys.ingestion.cycle.duration")
+                .setDescription("Duration of one trend ingestion cycle over all subscribed sensors")
+                .setUnit("ms")
+                .build();
+        ingestionCycleOverrun = meter.histogramBuilder("metasys.ingestion.cycle.overrun")
+                .setDescription("Time a trend ingestion cycle went past its budget")
+                .setUnit("ms")
+                .setExplicitBucketBoundariesAdvice(LATENCY_BUCKETS_MS)
+                .build();
+        rateLimiterWait = meter.histogramBuilder("metasys.ratelimiter.wait.duration")
+                .setDescription("Time spent waiting for rate limiter permission")
+                .setUnit("ms")
+                .setExplicitBucketBoundariesAdvice(LATENCY_BUCKETS_MS)
+                .build();
+        streamEvents = meter.counterBuilder("metasys.stream.events")
+                .setDescription("Events received on the Metasys stream")
+                .build();
+        observationLag = meter.histogramBuilder("metasys.observation.lag")
+                .setDescription("Time from observedAt until the observation is handed to the ObservationListener")
+                .setUnit("ms")
+                .setExplicitBucketBoundariesAdvice(LAG_BUCKETS_MS)
+                .build();
+        meter.gaugeBuilder("metasys.queue.depth")
+                .setDescription("Number of elements waiting in a queue")
+                .ofLongs()
+                .buildWithCallback(measurement -> queues.forEach((queue, depth) ->
+                        measurement.record(depth.getAsLong(), Attributes.of(QUEUE, queue))));
+    }
+
+    public static synchronized MetasysInstruments getInstance() {
+        if (instance == null) {
+            instance = new MetasysInstruments(GlobalOpenTelemetry.getMeter(INSTRUMENTATION_SCOPE_NAME_VALUE));
+        }
+        return instance;
+    }
+
+    /**
+     * @param client       eg. MetasysClient
+     * @param operation    eg. findTrendSamplesByDate
+     * @param statusCode   http status code, 0 when no response was received
+     * @param startedNanos System.nanoTime() when the request was sent
+     */
+    public void recordHttpRequest(String client, String operation, int statusCode, long startedNanos) {
+        httpDuration.record(millisSince(startedNanos),
+                Attributes.of(CLIENT, client, OPERATION, operation, HTTP_STATUS_CODE, (long) statusCode));
+    }
+
+    public void recordTrendSamplesPerResponse(String operation, long trendSamples) {
+        trendSamplesPerResponse.record(trendSamples, Attributes.of(OPERATION, operation));
+    }
+
+    public void recordIngestionCycle(String service, long startedNanos) {
+        ingestionCycleDuration.record(millisSince(startedNanos), Attributes.of(SERVICE, service));
+    }
+
+    public void recordCycleOverrun(String service, long overrunMillis) {
+        ingestionCycleOverrun.record(overrunMillis, Attributes.of(SERVICE, service));
+    }
+
+    public void recordRateLimiterWait(String limiter, boolean permitted, long startedNanos) {
+        rateLimiterWait.record(millisSince(startedNanos), Attributes.of(LIMITER, limiter, PERMITTED, permitted));
+    }
+
+    public void streamEventReceived(String eventType) {
+        String type = eventType == null ? "unknown" : eventType;
+        Attributes attributes = eventTypeAttributes.get(type);
+        if (attributes == null) {
+            attributes = eventTypeAttributes.computeIfAbsent(type, t -> Attributes.of(EVENT_TYPE, t));
+        }
+        streamEvents.add(1, attributes);
+    }
+
+    /**
+     * Record the lag from observedAt until now, when the observation is handed to the ObservationListener.
+     *
+     * @param path       PATH_STREAM or PATH_TREND
+     * @param observedAt when the value was observed, nothing is recorded if null
+     */
+    public void recordObservationLag(String path, Instant observedAt) {
+        if (observedAt == null) {
+            return;
+        }
+        long lagMillis = System.currentTimeMillis() - observedAt.toEpochMilli();
+        Attributes attributes = PATH_STREAM.equals(path) ? STREAM_PATH_ATTRIBUTES
+                : PATH_TREND.equals(path) ? TREND_PATH_ATTRIBUTES : Attributes.of(PATH, path);
+        observationLag.record(Math.max(0, lagMillis), attributes);
+    }
+
+    /**
+     * Report the depth of a queue as metasys.queue.depth{queue=name}. Registering the same name again replaces it.
+     */
+    public void registerQueueDepth(String queue, LongSupplier depth) {
+        queues.put(queue, depth);
+    }
+
+    public void unregisterQueueDepth(String queue) {
+        queues.remove(queue);
+    }
+
+    static double millisSince(long startedNanos) {
+        return (System.nanoTime() - startedNanos) / 1_000_000d;
+    }
+}
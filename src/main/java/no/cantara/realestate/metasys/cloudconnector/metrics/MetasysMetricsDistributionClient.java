@@ -21,4 +21,10 @@ public interface MetasysMetricsDistributionClient {
 
     void sendValue(String metricName, long value);
     void sendDoubleValue(String metricName, double value);
+
+    /**
+     * Record one value, eg. a latency in milliseconds, into a histogram. Clients without histograms ignore it.
+     */
+    default void recordValue(String metricName, long value) {
+    }
 }
@@ -0,0 +1,193 @@
+package no.cantara.realestate.metasys.cloudconnector.observations;
+
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorIndex;
+import no.cantara.realestate.observations.ObservedTrendedValue;
+import no.cantara.realestate.observations.ObservedValue;
+import no.cantara.realestate.sensors.SensorId;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+/**
+ * One observation as primitives: SensorIndex slot, epoch millis, double value and flags.
+ * <p>
+ * The trend and stream paths fill one instance per thread and pass it through the ObservationFilterChain. An
+ * ObservedValue is built by toObservedValue() only when a stage or the listener after the chain needs one, so an
+ * observation dropped by dedup or deadband allocates nothing. The instance is overwritten by the next
+ * observation, so keep the ObservedValue, never the CompactObservation.
+ * The Number type of the value is kept in the flags, so it is boxed as the type it arrived as.
+ */
+public final class CompactObservation {
+    /** From the trend log, boxed as ObservedTrendedValue */
+    public static final short TREND = 1;
+    /** Value is 1 for true and 0 for false, boxed as Integer */
+    public static final short BOOLEAN = 2;
+    public static final short NO_VALUE = 4;
+    /** No observedAt, now is used */
+    public static final short NO_TIME = 8;
+    /** Value was parsed as Float, boxed as Float */
+    public static final short SINGLE_PRECISION = 16;
+    /** Backfilled after an outage, older than the samples already distributed */
+    public static final short BACKFILL = 32;
+    /** Value was a BigDecimal, boxed as BigDecimal */
+    public static final short DECIMAL = 64;
+    /** Value was an Integer or Long, boxed as Integer when it fits, else Long */
+    public static final short INTEGER = 128;
+
+    private SensorId sensorId;
+    private SensorIndex sensorIndex;
+    private int sensorSlot = -1;
+    private long observedAtMillis;
+    private double value;
+    private short flags;
+    private ObservedValue boxed;
+
+    /**
+     * Overwrite this instance with the next observation
+     */
+    public CompactObservation set(SensorId sensorId, long observedAtMillis, double value, short flags) {
+        this.sensorId = sensorId;
+        this.sensorIndex = null;
+        this.sensorSlot = -1;
+        this.observedAtMillis = observedAtMillis;
+        this.value = value;
+        this.flags = flags;
+        this.boxed = null;
+        return this;
+    }
+
+    public CompactObservation set(SensorId sensorId, Instant observedAt, Number value, short flags) {
+        flags |= typeOf(value);
+        if (observedAt == null) {
+            flags |= NO_TIME;
+        }
+        return set(sensorId, observedAt == null ? 0L : observedAt.toEpochMilli(), value == null ? Double.NaN : value.doubleValue(), flags);
+    }
+
+    /**
+     * @return the flag for the Number type of value, NO_VALUE for null, 0 for Double and other types
+     */
+    public static short typeOf(Number value) {
+        if (value == null) {
+            return NO_VALUE;
+        } else if (value instanceof BigDecimal) {
+            return DECIMAL;
+        } else if (value instanceof Float) {
+            return SINGLE_PRECISION;
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return INTEGER;
+        }
+        return 0;
+    }
+
+    /**
+     * Look up the slot once, so the stages using the same SensorIndex do not look it up again.
+     */
+    public void resolveSlot(SensorIndex index) {
+        if (sensorIndex != index && sensorId != null) {
+            sensorSlot = index.slotOf(sensorId.getId());
+            sensorIndex = index;
+        }
+    }
+
+    /**
+     * @return slot of the sensor in index, -1 if there is no sensorId
+     */
+    public int slotIn(SensorIndex index) {
+        if (sensorIndex == index) {
+            return sensorSlot;
+        }
+        return sensorId == null ? -1 : index.slotOf(sensorId.getId());
+    }
+
+    public SensorId getSensorId() {
+        return sensorId;
+    }
+
+    public long getObservedAtMillis() {
+        return observedAtMillis;
+    }
+
+    /**
+     * @return observedAt, or now when there is none
+     */
+    public long getObservedAtOrNowMillis() {
+        return (flags & NO_TIME) != 0 ? System.currentTimeMillis() : observedAtMillis;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    public short getFlags() {
+        return flags;
+    }
+
+    public boolean hasValue() {
+        return (flags & NO_VALUE) == 0;
+    }
+
+    public boolean isTrend() {
+        return (flags & TREND) != 0;
+    }
+
+    public boolean isBoolean() {
+        return (flags & BOOLEAN) != 0;
+    }
+
+    public boolean isSinglePrecision() {
+        return (flags & SINGLE_PRECISION) != 0;
+    }
+
+    public boolean isBackfill() {
+        return (flags & BACKFILL) != 0;
+    }
+
+    /**
+     * Box the observation for the library API. Built once per observation.
+     */
+    public ObservedValue toObservedValue() {
+        if (boxed == null) {
+            Number number = null;
+            if (hasValue() && (flags & BOOLEAN) != 0) {
+                number = value != 0 ? 1 : 0;
+            } else if (hasValue() && isSinglePrecision()) {
+                number = (float) value;
+            } else if (hasValue() && (flags & DECIMAL) != 0) {
+                // Double.toString gives back the digits of the original BigDecimal, so rounding downstream still applies
+                number = BigDecimal.valueOf(value);
+            } else if (hasValue() && (flags & INTEGER) != 0) {
+                long longValue = (long) value;
+                if (longValue == (int) longValue) {
+                    number = (int) longValue;
+                } else {
+                    number = longValue;
+                }
+            } else if (hasValue()) {
+                number = value;
+            }
+            ObservedValue observedValue;
+            if (isTrend()) {
+                observedValue = new ObservedTrendedValue(sensorId, number);
+                if ((flags & NO_TIME) == 0) {
+                    observedValue.setObservedAt(Instant.ofEpochMilli(observedAtMillis));
+                }
+            } else {
+                observedValue = new ObservedValue(sensorId, number, Instant.ofEpochMilli(getObservedAtOrNowMillis()));
+            }
+            boxed = observedValue;
+        }
+        return boxed;
+    }
+
+    @Override
+    public String toString() {
+        return "CompactObservation{" +
+                "sensorId=" + (sensorId == null ? null : sensorId.getId()) +
+                ", sensorSlot=" + sensorSlot +
+                ", observedAtMillis=" + observedAtMillis +
+                ", value=" + value +
+                ", flags=" + flags +
+                '}';
+    }
+}
@@ -2,8 +2,6 @@ package no.cantara.realestate.metasys.cloudconnector.observations;
 
 import no.cantara.realestate.metasys.cloudconnector.automationserver.MetasysTrendSample;
 import no.cantara.realestate.metasys.cloudconnector.automationserver.stream.ObservedValueNumber;
-import no.cantara.realestate.metasys.cloudconnector.sensors.MeasurementUnit;
-import no.cantara.realestate.metasys.cloudconnector.sensors.SensorType;
 import no.cantara.realestate.observations.ObservationMessage;
 import no.cantara.realestate.rec.RecTags;
 
@@ -16,56 +14,47 @@ public class MetasysObservationMessage extends ObservationMessage {
 
     private final MetasysTrendSample trendSample;
     private final RecTags recTags;
+    private final ObservationTemplate template;
 
     private final ObservedValueNumber observedValue;
 
     public MetasysObservationMessage(MetasysTrendSample trendSample, RecTags recTags) {
+        this(trendSample, ObservationTemplate.from(recTags));
+    }
+
+    public MetasysObservationMessage(ObservedValueNumber observedValue, RecTags recTags) {
+        this(observedValue, ObservationTemplate.from(recTags));
+    }
+
+    /**
+     * Use a template from ObservationTemplates, so the RecTags of the sensor are not resolved per observation
+     */
+    public MetasysObservationMessage(MetasysTrendSample trendSample, ObservationTemplate template) {
         this.trendSample = trendSample;
-        this.recTags = recTags;
+        this.template = template;
+        this.recTags = template.getRecTags();
         observedValue = null;
         buildObservation();
     }
 
-    public MetasysObservationMessage(ObservedValueNumber observedValue, RecTags recTags) {
+    public MetasysObservationMessage(ObservedValueNumber observedValue, ObservationTemplate template) {
         this.observedValue = observedValue;
-        this.recTags = recTags;
+        this.template = template;
+        this.recTags = template.getRecTags();
         trendSample = null;
         buildObservation();
     }
 
     protected void buildObservation() {
-            setSensorId(recTags.getTwinId());
-        if (recTags.getTfm() != null) {
-            setTfm(recTags.getTfm());
-        }
-        setRealEstate(recTags.getRealEstate());
-        setBuilding(recTags.getBuilding());
-        setFloor(recTags.getFloor());
-        setSection(recTags.getSection());
-        setServesRoom(recTags.getServesRoom());
-        setPlacementRoom(recTags.getPlacementRoom());
-        setSensorType(recTags.getSensorType());
-        setClimateZone(recTags.getClimateZone());
-        setElectricityZone(recTags.getElectricityZone());
-        if (recTags.getSensorType() != null) {
-            SensorType sensorType = SensorType.from(recTags.getSensorType());
-            MeasurementUnit measurementUnit = MeasurementUnit.mapFromSensorType(sensorType);
-            setMeasurementUnit(measurementUnit.name());
-        }
+        template.applyTo(this);
 
         Number value = null;
         Instant observedAt = null;
         if (trendSample != null) {
-            value = trendSample.getValue();
-            if (value instanceof BigDecimal) {
-                value = ((BigDecimal) value).setScale(2, RoundingMode.CEILING);
-            }
+            value = round(trendSample.getValue());
             observedAt = trendSample.getObservedAt();
         } else if (observedValue != null) {
-            value = observedValue.getValue();
-            if (value instanceof BigDecimal) {
-                value = ((BigDecimal) value).setScale(2, RoundingMode.CEILING);
-            }
+            value = round(observedValue.getValue());
             observedAt = observedValue.getObservedAt();
         }
         setObservationTime(observedAt);
@@ -74,6 +63,16 @@ public class MetasysObservationMessage extends ObservationMessage {
         setReceivedAt(receivedAt);
     }
 
+    /**
+     * BigDecimal values are rounded up to 2 decimals. Values that already have 2 decimals are kept as they are.
+     */
+    static Number round(Number value) {
+        if (value instanceof BigDecimal decimal && decimal.scale() != 2) {
+            return decimal.setScale(2, RoundingMode.CEILING);
+        }
+        return value;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
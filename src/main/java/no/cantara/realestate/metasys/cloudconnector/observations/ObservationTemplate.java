@@ -0,0 +1,91 @@
+package no.cantara.realestate.metasys.cloudconnector.observations;
+
+import no.cantara.realestate.metasys.cloudconnector.sensors.MeasurementUnit;
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorType;
+import no.cantara.realestate.observations.ObservationMessage;
+import no.cantara.realestate.rec.RecTags;
+
+/**
+ * The fields of an ObservationMessage taken from the RecTags of one sensor, resolved once.
+ * <p>
+ * SensorType and MeasurementUnit are mapped when the template is built, so building a message is a copy of these
+ * fields, and the value and time of the observation.
+ */
+public final class ObservationTemplate {
+    private final RecTags recTags;
+    private final String sensorId;
+    private final String tfm;
+    private final String realEstate;
+    private final String building;
+    private final String floor;
+    private final String section;
+    private final String servesRoom;
+    private final String placementRoom;
+    private final String sensorType;
+    private final String climateZone;
+    private final String electricityZone;
+    private final String measurementUnit;
+
+    private ObservationTemplate(RecTags recTags) {
+        this.recTags = recTags;
+        sensorId = recTags.getTwinId();
+        tfm = recTags.getTfm();
+        realEstate = recTags.getRealEstate();
+        building = recTags.getBuilding();
+        floor = recTags.getFloor();
+        section = recTags.getSection();
+        servesRoom = recTags.getServesRoom();
+        placementRoom = recTags.getPlacementRoom();
+        sensorType = recTags.getSensorType();
+        climateZone = recTags.getClimateZone();
+        electricityZone = recTags.getElectricityZone();
+        measurementUnit = sensorType == null ? null : MeasurementUnit.mapFromSensorType(SensorType.from(sensorType)).name();
+    }
+
+    public static ObservationTemplate from(RecTags recTags) {
+        return new ObservationTemplate(recTags);
+    }
+
+    void applyTo(ObservationMessage message) {
+        message.setSensorId(sensorId);
+        if (tfm != null) {
+            message.setTfm(tfm);
+        }
+        message.setRealEstate(realEstate);
+        message.setBuilding(building);
+        message.setFloor(floor);
+        message.setSection(section);
+        message.setServesRoom(servesRoom);
+        message.setPlacementRoom(placementRoom);
+        message.setSensorType(sensorType);
+        message.setClimateZone(climateZone);
+        message.setElectricityZone(electricityZone);
+        if (measurementUnit != null) {
+            message.setMeasurementUnit(measurementUnit);
+        }
+    }
+
+    /**
+     * @return the RecTags the template was built from
+     */
+    public RecTags getRecTags() {
+        return recTags;
+    }
+
+    public String getSensorId() {
+        return sensorId;
+    }
+
+    public String getMeasurementUnit() {
+        return measurementUnit;
+    }
+
+    @Override
+    public String toString() {
+        return "ObservationTemplate{" +
+                "sensorId='" + sensorId + '\'' +
+                ", sensorType='" + sensorType + '\'' +
+                ", measurementUnit='" + measurementUnit + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,48 @@
+package no.cantara.realestate.metasys.cloudconnector.observations;
+
+import no.cantara.realestate.rec.RecTags;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ObservationTemplate per sensorId.
+ * <p>
+ * Register the RecTags at import and on each reload of the sensor files. A lookup with RecTags other than the ones
+ * registered, eg. RecTags replaced by a reload not registered here, builds the template again.
+ */
+public class ObservationTemplates {
+    private final Map<String, ObservationTemplate> templates = new ConcurrentHashMap<>();
+
+    public ObservationTemplate register(RecTags recTags) {
+        ObservationTemplate template = ObservationTemplate.from(recTags);
+        if (template.getSensorId() != null) {
+            templates.put(template.getSensorId(), template);
+        }
+        return template;
+    }
+
+    /**
+     * @return the template of the RecTags, built now if it was not registered
+     */
+    public ObservationTemplate get(RecTags recTags) {
+        String sensorId = recTags.getTwinId();
+        ObservationTemplate template = sensorId == null ? null : templates.get(sensorId);
+        if (template == null || template.getRecTags() != recTags) {
+            template = register(recTags);
+        }
+        return template;
+    }
+
+    public ObservationTemplate find(String sensorId) {
+        return templates.get(sensorId);
+    }
+
+    public void remove(String sensorId) {
+        templates.remove(sensorId);
+    }
+
+    public int size() {
+        return templates.size();
+    }
+}
@@ -0,0 +1,104 @@
+package no.cantara.realestate.metasys.cloudconnector.observations.filter;
+
+import no.cantara.realestate.observations.ObservedValue;
+import no.cantara.realestate.sensors.SensorId;
+
+import java.time.Instant;
+
+/**
+ * One aggregated window of samples for a sensor. The value is the configured AggregationFunction,
+ * observedAt is the end of the window. Min, max, average, last and count are kept for consumers that need them.
+ */
+public class AggregatedObservedValue extends ObservedValue {
+    private final AggregationFunction function;
+    private final Instant windowStart;
+    private final Instant windowEnd;
+    private final double min;
+    private final double max;
+    private final double sum;
+    private final double last;
+    private final int count;
+
+    public AggregatedObservedValue(SensorId sensorId, AggregationFunction function, Instant windowStart, Instant windowEnd,
+                                   double min, double max, double sum, double last, int count) {
+        super(sensorId, valueOf(function, min, max, sum, last, count), windowEnd);
+        this.function = function;
+        this.windowStart = windowStart;
+        this.windowEnd = windowEnd;
+        this.min = min;
+        this.max = max;
+        this.sum = sum;
+        this.last = last;
+        this.count = count;
+    }
+
+    static Number valueOf(AggregationFunction function, double min, double max, double sum, double last, int count) {
+        switch (function) {
+            case min:
+                return min;
+            case max:
+                return max;
+            case sum:
+                return sum;
+            case last:
+                return last;
+            case count:
+                return count;
+            case avg:
+            default:
+                return count == 0 ? 0d : sum / count;
+        }
+    }
+
+    public AggregationFunction getFunction() {
+        return function;
+    }
+
+    public Instant getWindowStart() {
+        return windowStart;
+    }
+
+    public Instant getWindowEnd() {
+        return windowEnd;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public double getAverage() {
+        return count == 0 ? 0d : sum / count;
+    }
+
+    public double getLast() {
+        return last;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "AggregatedObservedValue{" +
+                "sensorId=" + getSensorId() +
+                ", function=" + function +
+                ", value=" + getValue() +
+                ", windowStart=" + windowStart +
+                ", windowEnd=" + windowEnd +
+                ", min=" + min +
+                ", max=" + max +
+                ", avg=" + getAverage() +
+                ", last=" + last +
+                ", count=" + count +
+                '}';
+    }
+}
@@ -0,0 +1,483 @@
+package no.cantara.realestate.metasys.cloudconnector.observations.filter;
+
+import no.cantara.config.ApplicationProperties;
+import no.cantara.realestate.metasys.cloudconnector.metrics.MetasysMetricsDistributionClient;
+import no.cantara.realestate.metasys.cloudconnector.observations.CompactObservation;
+import no.cantara.realestate.metasys.cloudconnector.sensors.MeasurementUnit;
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorIndex;
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorType;
+import no.cantara.realestate.observations.ObservationListener;
+import no.cantara.realestate.observations.ObservedValue;
+import no.cantara.realestate.sensors.SensorId;
+import org.slf4j.Logger;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static no.cantara.realestate.utils.StringUtils.hasValue;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Aggregates samples per sensor into fixed windows, eg. 1 or 15 minutes, aligned to the epoch.
+ * Raw samples for an aggregated sensor are held back. One AggregatedObservedValue is passed on to the rest of the
+ * chain when the window closes, that is when a sample for a later window arrives, or when the window has ended
+ * more than graceSeconds ago.
+ * <pre>
+ * filter.aggregation.enabled=true
+ * filter.aggregation.function=avg
+ * filter.aggregation.windowSeconds=0
+ * filter.aggregation.sensorType.energy.windowSeconds=900
+ * filter.aggregation.sensorType.energy.function=last
+ * filter.aggregation.useCsvInterval=false
+ * </pre>
+ * Window length is taken from SensorType, then the default. With useCsvInterval the Interval column of the sensor CSV
+ * is used first, when set. Window 0 means samples are passed on unchanged.
+ * True/false sensors, and boolean observations, are never aggregated.
+ * Samples older than a closed window are passed on unchanged, and counted as late.
+ * Backfilled samples are passed on unchanged, and do not open or close windows.
+ */
+public class AggregatingObservationFilter implements ObservationFilter {
+    private static final Logger log = getLogger(AggregatingObservationFilter.class);
+
+    public static final String CONFIG_PREFIX = "filter.aggregation";
+    public static final String ENABLED_KEY = CONFIG_PREFIX + ".enabled";
+    public static final String METRIC_NAME_SAMPLES_IN = "metasys_aggregation_samples_in";
+    public static final String METRIC_NAME_AGGREGATES_OUT = "metasys_aggregation_aggregates_out";
+    public static final String METRIC_NAME_LATE_SAMPLES = "metasys_aggregation_late_samples";
+    private static final long NOT_RESOLVED = -1;
+
+    private final SensorIndex sensorIndex;
+    private final long defaultWindowMillis;
+    private final AggregationFunction defaultFunction;
+    private final Map<SensorType, Long> windowMillisBySensorType;
+    private final Map<SensorType, AggregationFunction> functionBySensorType;
+    private final long graceMillis;
+    private final boolean useCsvInterval;
+    private volatile ObservationListener downstream;
+    private ScheduledExecutorService flushScheduler;
+
+    // Per sensor window state, indexed by slot in sensorIndex. Guarded by this.
+    private long[] windowMillis = new long[0];
+    private byte[] functions = new byte[0];
+    private long[] windowStarts = new long[0];
+    private long[] closedUntil = new long[0];
+    private int[] counts = new int[0];
+    private double[] mins = new double[0];
+    private double[] maxs = new double[0];
+    private double[] sums = new double[0];
+    private double[] lasts = new double[0];
+    private SensorId[] sensorIds = new SensorId[0];
+
+    private final LongAdder samplesIn = new LongAdder();
+    private final LongAdder aggregatesOut = new LongAdder();
+    private final LongAdder lateSamples = new LongAdder();
+    private long lastReportedSamplesIn = 0;
+    private long lastReportedAggregatesOut = 0;
+    private long lastReportedLateSamples = 0;
+
+    public AggregatingObservationFilter(SensorIndex sensorIndex, long defaultWindowMillis, AggregationFunction defaultFunction,
+                                        Map<SensorType, Long> windowMillisBySensorType,
+                                        Map<SensorType, AggregationFunction> functionBySensorType,
+                                        long graceMillis, boolean useCsvInterval) {
+        this.sensorIndex = sensorIndex;
+        this.defaultWindowMillis = Math.max(0, defaultWindowMillis);
+        this.defaultFunction = defaultFunction != null ? defaultFunction : AggregationFunction.avg;
+        this.windowMillisBySensorType = new EnumMap<>(SensorType.class);
+        if (windowMillisBySensorType != null) {
+            this.windowMillisBySensorType.putAll(windowMillisBySensorType);
+        }
+        this.functionBySensorType = new EnumMap<>(SensorType.class);
+        if (functionBySensorType != null) {
+            this.functionBySensorType.putAll(functionBySensorType);
+        }
+        this.graceMillis = Math.max(0, graceMillis);
+        this.useCsvInterval = useCsvInterval;
+    }
+
+    public static AggregatingObservationFilter fromConfig(ApplicationProperties config, SensorIndex sensorIndex) {
+        long defaultWindowMillis = config.asLong(CONFIG_PREFIX + ".windowSeconds", 0L) * 1000;
+        AggregationFunction defaultFunction = AggregationFunction.from(config.get(CONFIG_PREFIX + ".function"), AggregationFunction.avg);
+        Map<SensorType, Long> windowBySensorType = new EnumMap<>(SensorType.class);
+        Map<SensorType, AggregationFunction> functionBySensorType = new EnumMap<>(SensorType.class);
+        for (SensorType sensorType : SensorType.values()) {
+            String prefix = CONFIG_PREFIX + ".sensorType." + sensorType.name();
+            long windowSeconds = parseIntervalSeconds(config.get(prefix + ".windowSeconds"));
+            if (windowSeconds >= 0) {
+                windowBySensorType.put(sensorType, windowSeconds * 1000);
+            }
+            String function = config.get(prefix + ".function");
+            if (hasValue(function)) {
+                functionBySensorType.put(sensorType, AggregationFunction.from(function, defaultFunction));
+            }
+        }
+        long graceMillis = config.asLong(CONFIG_PREFIX + ".graceSeconds", 60L) * 1000;
+        boolean useCsvInterval = config.asBoolean(CONFIG_PREFIX + ".useCsvInterval", false);
+        log.info("Aggregation filter. Default window: {} ms, function: {}, by SensorType: {} {}, grace: {} ms, useCsvInterval: {}",
+                defaultWindowMillis, defaultFunction, windowBySensorType, functionBySensorType, graceMillis, useCsvInterval);
+        return new AggregatingObservationFilter(sensorIndex, defaultWindowMillis, defaultFunction, windowBySensorType,
+                functionBySensorType, graceMillis, useCsvInterval);
+    }
+
+    /**
+     * Parse the Interval column of the sensor CSV, or a windowSeconds property.
+     * Accepts seconds ("900"), a number with unit ("30s", "15m", "15min", "1h") or ISO-8601 ("PT15M").
+     *
+     * @return interval in seconds, or -1 if the value is missing or not understood
+     */
+    public static long parseIntervalSeconds(String interval) {
+        if (!hasValue(interval) || interval.isBlank()) {
+            return -1;
+        }
+        String value = interval.trim().toLowerCase();
+        try {
+            if (value.startsWith("p")) {
+                return Duration.parse(value.toUpperCase()).getSeconds();
+            }
+            long multiplier = 1;
+            if (value.endsWith("min")) {
+                multiplier = 60;
+                value = value.substring(0, value.length() - 3);
+            } else if (value.endsWith("m")) {
+                multiplier = 60;
+                value = value.substring(0, value.length() - 1);
+            } else if (value.endsWith("h")) {
+                multiplier = 3600;
+                value = value.substring(0, value.length() - 1);
+            } else if (value.endsWith("s")) {
+                value = value.substring(0, value.length() - 1);
+            }
+            long seconds = Long.parseLong(value.trim()) * multiplier;
+            return seconds < 0 ? -1 : seconds;
+        } catch (NumberFormatException | DateTimeParseException e) {
+            log.debug("Unable to parse interval [{}]", interval);
+            return -1;
+        }
+    }
+
+    /**
+     * Resolve window and function for a sensor.
+     *
+     * @param sensorId   twinId of the sensor
+     * @param sensorType SensorType from RecTags, may be null
+     * @param interval   Interval column from the sensor CSV, may be null
+     */
+    public void registerSensor(String sensorId, String sensorType, String interval) {
+        int slot = sensorIndex.slotOf(sensorId);
+        if (slot < 0) {
+            return;
+        }
+        SensorType type = SensorType.from(sensorType);
+        long window = NOT_RESOLVED;
+        long intervalSeconds = useCsvInterval ? parseIntervalSeconds(interval) : -1;
+        if (MeasurementUnit.mapFromSensorType(type) == MeasurementUnit.truefalse) {
+            // An average or sum of on/off states is not a state
+            window = 0;
+        } else if (intervalSeconds >= 0) {
+            window = intervalSeconds * 1000;
+        } else if (windowMillisBySensorType.containsKey(type)) {
+            window = windowMillisBySensorType.get(type);
+        }
+        AggregationFunction function = functionBySensorType.getOrDefault(type, defaultFunction);
+        AggregatedObservedValue closed = null;
+        synchronized (this) {
+            ensureCapacity(slot);
+            long resolvedWindow = window == NOT_RESOLVED ? defaultWindowMillis : window;
+            if (counts[slot] > 0 && resolvedWindow != windowMillisOf(slot)) {
+                closed = closeWindow(slot);
+            }
+            windowMillis[slot] = resolvedWindow;
+            functions[slot] = (byte) function.ordinal();
+        }
+        emit(closed);
+        log.trace("Aggregation for sensorId: {}, sensorType: {}, interval: {} is window: {} ms, function: {}", sensorId, type, interval,
+                window == NOT_RESOLVED ? defaultWindowMillis : window, function);
+    }
+
+    /**
+     * Forget the window and function of a sensor no longer subscribed to. An open window is closed and passed on
+     * first. The SensorIndex slot is never reused, so the sensor starts over if it is registered again.
+     */
+    public void removeSensor(String sensorId) {
+        int slot = sensorIndex.find(sensorId);
+        if (slot < 0) {
+            return;
+        }
+        AggregatedObservedValue closed = null;
+        synchronized (this) {
+            if (slot >= counts.length) {
+                return;
+            }
+            if (counts[slot] > 0) {
+                closed = closeWindow(slot);
+            }
+            windowMillis[slot] = NOT_RESOLVED;
+            functions[slot] = -1;
+            windowStarts[slot] = 0;
+            closedUntil[slot] = Long.MIN_VALUE;
+        }
+        emit(closed);
+    }
+
+    @Override
+    public void attach(ObservationListener downstream) {
+        this.downstream = downstream;
+    }
+
+    @Override
+    public boolean accept(ObservedValue observedValue) {
+        if (observedValue == null || observedValue.getSensorId() == null || observedValue.getValue() == null) {
+            return true;
+        }
+        // Sensors never seen by the SensorIndex are passed on, and get no slot here
+        int slot = sensorIndex.find(observedValue.getSensorId().getId());
+        if (slot < 0) {
+            return true;
+        }
+        // ObservedValue holds a Number. Boolean stream values reach this path as 0/1 only for sensors registered with
+        // a truefalse SensorType, which have window 0 and are passed on unchanged, as on the compact path.
+        Instant observedAt = observedValue.getObservedAt();
+        long observedAtMillis = observedAt != null ? observedAt.toEpochMilli() : System.currentTimeMillis();
+        return accept(observedValue.getSensorId(), slot, observedValue.getValue().doubleValue(), observedAtMillis);
+    }
+
+    @Override
+    public boolean accept(CompactObservation observation) {
+        if (observation.getSensorId() == null || !observation.hasValue() || observation.isBackfill() || observation.isBoolean()) {
+            return true;
+        }
+        return accept(observation.getSensorId(), observation.slotIn(sensorIndex), observation.getValue(), observation.getObservedAtOrNowMillis());
+    }
+
+    private boolean accept(SensorId sensorId, int slot, double value, long observedAtMillis) {
+        if (slot < 0) {
+            return true;
+        }
+        AggregatedObservedValue closed = null;
+        boolean passRaw = false;
+        synchronized (this) {
+            ensureCapacity(slot);
+            long window = windowMillisOf(slot);
+            if (window <= 0) {
+                return true;
+            }
+            samplesIn.increment();
+            long windowStart = observedAtMillis - Math.floorMod(observedAtMillis, window);
+            if (counts[slot] > 0 && windowStart == windowStarts[slot]) {
+                add(slot, value);
+            } else if (counts[slot] > 0 && windowStart > windowStarts[slot]) {
+                closed = closeWindow(slot);
+                open(slot, windowStart, sensorId, value);
+            } else if (observedAtMillis < closedUntil[slot] || counts[slot] > 0) {
+                lateSamples.increment();
+                passRaw = true;
+            } else {
+                open(slot, windowStart, sensorId, value);
+            }
+        }
+        emit(closed);
+        return passRaw;
+    }
+
+    /**
+     * Close every window that ended more than graceSeconds before now.
+     *
+     * @return number of aggregates passed on
+     */
+    public int flush(Instant now) {
+        long nowMillis = now.toEpochMilli();
+        List<AggregatedObservedValue> closed = new ArrayList<>();
+        synchronized (this) {
+            for (int slot = 0; slot < counts.length; slot++) {
+                if (counts[slot] > 0 && windowStarts[slot] + windowMillisOf(slot) + graceMillis <= nowMillis) {
+                    closed.add(closeWindow(slot));
+                }
+            }
+        }
+        closed.forEach(this::emit);
+        return closed.size();
+    }
+
+    /**
+     * Close all open windows, regardless of time.
+     */
+    public int flushAll() {
+        List<AggregatedObservedValue> closed = new ArrayList<>();
+        synchronized (this) {
+            for (int slot = 0; slot < counts.length; slot++) {
+                if (counts[slot] > 0) {
+                    closed.add(closeWindow(slot));
+                }
+            }
+        }
+        closed.forEach(this::emit);
+        return closed.size();
+    }
+
+    public synchronized void start(long flushIntervalSeconds) {
+        if (flushScheduler != null || flushIntervalSeconds <= 0) {
+            return;
+        }
+        flushScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "AggregatingObservationFilter-Flush");
+            t.setDaemon(true);
+            return t;
+        });
+        flushScheduler.scheduleAtFixedRate(() -> {
+            try {
+                flush(Instant.now());
+            } catch (Exception e) {
+                log.warn("Failed to flush aggregation windows. Reason: {}", e.getMessage());
+            }
+        }, flushIntervalSeconds, flushIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (flushScheduler != null) {
+                flushScheduler.shutdownNow();
+                flushScheduler = null;
+            }
+        }
+        int flushed = flushAll();
+        log.info("Closed AggregatingObservationFilter. Flushed {} open windows", flushed);
+    }
+
+    private long windowMillisOf(int slot) {
+        long window = windowMillis[slot];
+        return window == NOT_RESOLVED ? defaultWindowMillis : window;
+    }
+
+    private AggregationFunction functionOf(int slot) {
+        byte function = functions[slot];
+        return function < 0 ? defaultFunction : AggregationFunction.values()[function];
+    }
+
+    private void open(int slot, long windowStart, SensorId sensorId, double value) {
+        windowStarts[slot] = windowStart;
+        sensorIds[slot] = sensorId;
+        counts[slot] = 1;
+        mins[slot] = value;
+        maxs[slot] = value;
+        sums[slot] = value;
+        lasts[slot] = value;
+    }
+
+    private void add(int slot, double value) {
+        counts[slot]++;
+        if (value < mins[slot]) {
+            mins[slot] = value;
+        }
+        if (value > maxs[slot]) {
+            maxs[slot] = value;
+        }
+        sums[slot] += value;
+        lasts[slot] = value;
+    }
+
+    private AggregatedObservedValue closeWindow(int slot) {
+        long windowEnd = windowStarts[slot] + windowMillisOf(slot);
+        AggregatedObservedValue aggregate = new AggregatedObservedValue(sensorIds[slot], functionOf(slot),
+                Instant.ofEpochMilli(windowStarts[slot]), Instant.ofEpochMilli(windowEnd),
+                mins[slot], maxs[slot], sums[slot], lasts[slot], counts[slot]);
+        counts[slot] = 0;
+        sensorIds[slot] = null;
+        closedUntil[slot] = Math.max(closedUntil[slot], windowEnd);
+        return aggregate;
+    }
+
+    private void emit(AggregatedObservedValue aggregate) {
+        if (aggregate == null) {
+            return;
+        }
+        aggregatesOut.increment();
+        ObservationListener listener = downstream;
+        if (listener != null) {
+            listener.observedValue(aggregate);
+        } else {
+            log.debug("No downstream listener attached. Dropping aggregate {}", aggregate);
+        }
+    }
+
+    private void ensureCapacity(int slot) {
+        if (slot < counts.length) {
+            return;
+        }
+        int oldLength = counts.length;
+        int newLength = Math.max(slot + 1, Math.max(64, oldLength * 2));
+        windowMillis = Arrays.copyOf(windowMillis, newLength);
+        Arrays.fill(windowMillis, oldLength, newLength, NOT_RESOLVED);
+        functions = Arrays.copyOf(functions, newLength);
+        Arrays.fill(functions, oldLength, newLength, (byte) -1);
+        windowStarts = Arrays.copyOf(windowStarts, newLength);
+        closedUntil = Arrays.copyOf(closedUntil, newLength);
+        Arrays.fill(closedUntil, oldLength, newLength, Long.MIN_VALUE);
+        counts = Arrays.copyOf(counts, newLength);
+        mins = Arrays.copyOf(mins, newLength);
+        maxs = Arrays.copyOf(maxs, newLength);
+        sums = Arrays.copyOf(sums, newLength);
+        lasts = Arrays.copyOf(lasts, newLength);
+        sensorIds = Arrays.copyOf(sensorIds, newLength);
+    }
+
+    @Override
+    public String getName() {
+        return "AggregatingObservationFilter";
+    }
+
+    public long getNumberOfSamplesIn() {
+        return samplesIn.sum();
+    }
+
+    public long getNumberOfAggregatesOut() {
+        return aggregatesOut.sum();
+    }
+
+    public long getNumberOfLateSamples() {
+        return lateSamples.sum();
+    }
+
+    public synchronized int getNumberOfOpenWindows() {
+        int open = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    @Override
+    public synchronized void reportMetrics(MetasysMetricsDistributionClient metricsClient) {
+        long in = getNumberOfSamplesIn();
+        long out = getNumberOfAggregatesOut();
+        long late = getNumberOfLateSamples();
+        metricsClient.sendValue(METRIC_NAME_SAMPLES_IN, in - lastReportedSamplesIn);
+        metricsClient.sendValue(METRIC_NAME_AGGREGATES_OUT, out - lastReportedAggregatesOut);
+        metricsClient.sendValue(METRIC_NAME_LATE_SAMPLES, late - lastReportedLateSamples);
+        lastReportedSamplesIn = in;
+        lastReportedAggregatesOut = out;
+        lastReportedLateSamples = late;
+    }
+
+    @Override
+    public String toString() {
+        return "AggregatingObservationFilter{" +
+                "defaultWindowMillis=" + defaultWindowMillis +
+                ", defaultFunction=" + defaultFunction +
+                ", samplesIn=" + getNumberOfSamplesIn() +
+                ", aggregatesOut=" + getNumberOfAggregatesOut() +
+                ", lateSamples=" + getNumberOfLateSamples() +
+                '}';
+    }
+}
@@ -0,0 +1,25 @@
+package no.cantara.realestate.metasys.cloudconnector.observations.filter;
+
+public enum AggregationFunction {
+    avg, min, max, last, sum, count;
+
+    public static AggregationFunction from(String function, AggregationFunction defaultFunction) {
+        if (function == null || function.isBlank()) {
+            return defaultFunction;
+        }
+        for (AggregationFunction aggregationFunction : AggregationFunction.values()) {
+            if (aggregationFunction.name().equalsIgnoreCase(function.trim())) {
+                return aggregationFunction;
+            }
+        }
+        switch (function.trim().toLowerCase()) {
+            case "average":
+            case "mean":
+                return avg;
+            case "latest":
+                return last;
+            default:
+                return defaultFunction;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package no.cantara.realestate.metasys.cloudconnector.observations.filter;
+
+import no.cantara.config.ApplicationProperties;
+import no.cantara.realestate.metasys.cloudconnector.metrics.MetasysMetricsDistributionClient;
+import no.cantara.realestate.metasys.cloudconnector.observations.CompactObservation;
+import no.cantara.realestate.metasys.cloudconnector.sensors.MeasurementUnit;
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorIndex;
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorType;
+import no.cantara.realestate.observations.ObservedValue;
+import org.slf4j.Logger;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Change-of-value filter. Suppresses observations that are within the deadband of the last distributed value
+ * for the same sensor, unless the sensor has been silent for longer than maxSilence (heartbeat).
+ * Deadband is configured per SensorType and MeasurementUnit, with a default for the rest:
+ * <pre>
+ * filter.deadband.enabled=true
+ * filter.deadband.absolute=0
+ * filter.deadband.maxSilenceSeconds=900
+ * filter.deadband.sensorType.temp.absolute=0.1
+ * filter.deadband.sensorType.co2.percent=2
+ * filter.deadband.measurementUnit.truefalse.onChangeOnly=true
+ * </pre>
+ * State per sensor is kept in primitive arrays indexed by the SensorIndex slot, in chunks of CHUNK_SIZE sensors
+ * that are never copied. Each slot is guarded by one of LOCK_STRIPES locks in its chunk, so observations of
+ * different sensors do not contend. Sensors that are not registered are passed through.
+ * Backfilled observations are passed through without touching the state, as they are older than the last passed value.
+ */
+public class DeadbandObservationFilter implements ObservationFilter {
+    private static final Logger log = getLogger(DeadbandObservationFilter.class);
+
+    public static final String CONFIG_PREFIX = "filter.deadband";
+    public static final String ENABLED_KEY = CONFIG_PREFIX + ".enabled";
+    public static final String METRIC_NAME_SUPPRESSED = "metasys_deadband_suppressed";
+    public static final String METRIC_NAME_SUPPRESSION_RATIO = "metasys_deadband_suppression_ratio";
+    public static final long DEFAULT_MAX_SILENCE_SECONDS = 15 * 60;
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int LOCK_STRIPES = 64;
+
+    private final SensorIndex sensorIndex;
+    private final DeadbandSettings defaultSettings;
+    private final Map<SensorType, DeadbandSettings> settingsBySensorType;
+    private final Map<MeasurementUnit, DeadbandSettings> settingsByMeasurementUnit;
+
+    // Per sensor state, indexed by slot in sensorIndex. Grown under this.
+    private volatile Chunk[] chunks = new Chunk[0];
+
+    private final LongAdder[] passedBySensorType;
+    private final LongAdder[] suppressedBySensorType;
+    // Guarded by this
+    private long lastReportedPassed = 0;
+    private long lastReportedSuppressed = 0;
+    private final long[] lastReportedPassedBySensorType;
+    private final long[] lastReportedSuppressedBySensorType;
+
+    public DeadbandObservationFilter(SensorIndex sensorIndex, DeadbandSettings defaultSettings,
+                                     Map<SensorType, DeadbandSettings> settingsBySensorType,
+                                     Map<MeasurementUnit, DeadbandSettings> settingsByMeasurementUnit) {
+        this.sensorIndex = sensorIndex;
+        this.defaultSettings = defaultSettings;
+        this.settingsBySensorType = new EnumMap<>(SensorType.class);
+        if (settingsBySensorType != null) {
+            this.settingsBySensorType.putAll(settingsBySensorType);
+        }
+        this.settingsByMeasurementUnit = new EnumMap<>(MeasurementUnit.class);
+        if (settingsByMeasurementUnit != null) {
+            this.settingsByMeasurementUnit.putAll(settingsByMeasurementUnit);
+        }
+        if (!this.settingsByMeasurementUnit.containsKey(MeasurementUnit.truefalse)) {
+            // True/false sensors are distributed on change only, unless configured otherwise
+            this.settingsByMeasurementUnit.put(MeasurementUnit.truefalse, defaultSettings.withOnChangeOnly(true));
+        }
+        passedBySensorType = new LongAdder[SensorType.values().length];
+        suppressedBySensorType = new LongAdder[SensorType.values().length];
+        for (int i = 0; i < passedBySensorType.length; i++) {
+            passedBySensorType[i] = new LongAdder();
+            suppressedBySensorType[i] = new LongAdder();
+        }
+        lastReportedPassedBySensorType = new long[passedBySensorType.length];
+        lastReportedSuppressedBySensorType = new long[suppressedBySensorType.length];
+    }
+
+    public static DeadbandObservationFilter fromConfig(ApplicationProperties config, SensorIndex sensorIndex) {
+        DeadbandSettings builtIn = new DeadbandSettings(0, 0, DEFAULT_MAX_SILENCE_SECONDS * 1000, false);
+        DeadbandSettings defaultSettings = DeadbandSettings.fromConfig(config, CONFIG_PREFIX, builtIn);
+        if (defaultSettings == null) {
+            defaultSettings = builtIn;
+        }
+        Map<SensorType, DeadbandSettings> bySensorType = new EnumMap<>(SensorType.class);
+        for (SensorType sensorType : SensorType.values()) {
+            DeadbandSettings settings = DeadbandSettings.fromConfig(config, CONFIG_PREFIX + ".sensorType." + sensorType.name(), defaultSettings);
+            if (settings != null) {
+                bySensorType.put(sensorType, settings);
+            }
+        }
+        Map<MeasurementUnit, DeadbandSettings> byMeasurementUnit = new EnumMap<>(MeasurementUnit.class);
+        for (MeasurementUnit measurementUnit : MeasurementUnit.values()) {
+            DeadbandSettings settings = DeadbandSettings.fromConfig(config, CONFIG_PREFIX + ".measurementUnit." + measurementUnit.name(), defaultSettings);
+            if (settings != null) {
+                byMeasurementUnit.put(measurementUnit, settings);
+            }
+        }
+        log.info("Deadband filter. Default: {}, by SensorType: {}, by MeasurementUnit: {}", defaultSettings, bySensorType, byMeasurementUnit);
+        return new DeadbandObservationFilter(sensorIndex, defaultSettings, bySensorType, byMeasurementUnit);
+    }
+
+    /**
+     * Resolve the deadband of a sensor from its RecTags SensorType and MeasurementUnit.
+     * Sensors that are never registered are passed through unfiltered.
+     *
+     * @param sensorId        twinId of the sensor
+     * @param sensorType      SensorType from RecTags, may be null
+     * @param measurementUnit MeasurementUnit from RecTags, may be null
+     */
+    public void registerSensor(String sensorId, String sensorType, String measurementUnit) {
+        int slot = sensorIndex.slotOf(sensorId);
+        if (slot < 0) {
+            return;
+        }
+        SensorType type = SensorType.from(sensorType);
+        MeasurementUnit unit = findMeasurementUnit(measurementUnit, type);
+        DeadbandSettings resolved = settingsBySensorType.get(type);
+        if (resolved == null) {
+            resolved = settingsByMeasurementUnit.get(unit);
+        }
+        if (resolved == null) {
+            resolved = defaultSettings;
+        }
+        Chunk chunk = chunkFor(slot);
+        int i = slot & CHUNK_MASK;
+        synchronized (chunk.lockFor(i)) {
+            chunk.sensorTypes[i] = (byte) type.ordinal();
+            chunk.settings.set(i, resolved);
+        }
+        log.trace("Deadband for sensorId: {}, sensorType: {}, measurementUnit: {} is {}", sensorId, type, unit, resolved);
+    }
+
+    /**
+     * Forget the settings and last value of a sensor no longer subscribed to. It is passed through unfiltered until
+     * registered again. The SensorIndex slot is never reused, so registering the sensor again takes the same slot.
+     */
+    public void removeSensor(String sensorId) {
+        int slot = sensorIndex.find(sensorId);
+        Chunk[] current = chunks;
+        if (slot < 0 || slot >>> CHUNK_BITS >= current.length) {
+            return;
+        }
+        Chunk chunk = current[slot >>> CHUNK_BITS];
+        int i = slot & CHUNK_MASK;
+        synchronized (chunk.lockFor(i)) {
+            chunk.settings.set(i, null);
+            chunk.sensorTypes[i] = 0;
+            chunk.lastValues[i] = 0;
+            chunk.lastPassedAt[i] = 0;
+            chunk.hasLastValue[i] = false;
+        }
+    }
+
+    static MeasurementUnit findMeasurementUnit(String measurementUnit, SensorType sensorType) {
+        if (measurementUnit != null) {
+            for (MeasurementUnit unit : MeasurementUnit.values()) {
+                if (unit.name().equalsIgnoreCase(measurementUnit.trim())) {
+                    return unit;
+                }
+            }
+        }
+        return MeasurementUnit.mapFromSensorType(sensorType);
+    }
+
+    @Override
+    public boolean accept(ObservedValue observedValue) {
+        if (observedValue == null || observedValue.getSensorId() == null || observedValue.getValue() == null) {
+            return true;
+        }
+        int slot = sensorIndex.find(observedValue.getSensorId().getId());
+        Instant observedAt = observedValue.getObservedAt();
+        long observedAtMillis = observedAt != null ? observedAt.toEpochMilli() : System.currentTimeMillis();
+        return accept(slot, observedValue.getValue().doubleValue(), observedAtMillis);
+    }
+
+    @Override
+    public boolean accept(CompactObservation observation) {
+        if (observation.getSensorId() == null || !observation.hasValue() || observation.isBackfill()) {
+            return true;
+        }
+        return accept(observation.slotIn(sensorIndex), observation.getValue(), observation.getObservedAtOrNowMillis());
+    }
+
+    private boolean accept(int slot, double value, long observedAtMillis) {
+        Chunk[] current = chunks;
+        if (slot < 0 || slot >>> CHUNK_BITS >= current.length) {
+            return true;
+        }
+        Chunk chunk = current[slot >>> CHUNK_BITS];
+        int i = slot & CHUNK_MASK;
+        DeadbandSettings sensorSettings = chunk.settings.get(i);
+        if (sensorSettings == null) {
+            return true;
+        }
+        boolean pass;
+        int sensorTypeOrdinal;
+        synchronized (chunk.lockFor(i)) {
+            sensorTypeOrdinal = chunk.sensorTypes[i];
+            if (!chunk.hasLastValue[i]) {
+                pass = true;
+            } else {
+                pass = sensorSettings.isSignificant(chunk.lastValues[i], value, observedAtMillis - chunk.lastPassedAt[i]);
+            }
+            if (pass) {
+                chunk.lastValues[i] = value;
+                chunk.hasLastValue[i] = true;
+                if (observedAtMillis > chunk.lastPassedAt[i]) {
+                    chunk.lastPassedAt[i] = observedAtMillis;
+                }
+            }
+        }
+        if (pass) {
+            passedBySensorType[sensorTypeOrdinal].increment();
+        } else {
+            suppressedBySensorType[sensorTypeOrdinal].increment();
+        }
+        return pass;
+    }
+
+    private Chunk chunkFor(int slot) {
+        Chunk[] current = chunks;
+        int chunkIndex = slot >>> CHUNK_BITS;
+        if (chunkIndex < current.length) {
+            return current[chunkIndex];
+        }
+        synchronized (this) {
+            current = chunks;
+            if (chunkIndex >= current.length) {
+                Chunk[] grown = Arrays.copyOf(current, chunkIndex + 1);
+                for (int c = current.length; c < grown.length; c++) {
+                    grown[c] = new Chunk();
+                }
+                chunks = grown;
+                current = grown;
+            }
+            return current[chunkIndex];
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "DeadbandObservationFilter";
+    }
+
+    public long getNumberOfPassed() {
+        return sum(passedBySensorType);
+    }
+
+    public long getNumberOfSuppressed() {
+        return sum(suppressedBySensorType);
+    }
+
+    /**
+     * @return share of observations suppressed since start, 0.0 - 1.0
+     */
+    public double getSuppressionRatio() {
+        return ratio(getNumberOfSuppressed(), getNumberOfPassed());
+    }
+
+    public double getSuppressionRatio(SensorType sensorType) {
+        int i = sensorType.ordinal();
+        return ratio(suppressedBySensorType[i].sum(), passedBySensorType[i].sum());
+    }
+
+    @Override
+    public synchronized void reportMetrics(MetasysMetricsDistributionClient metricsClient) {
+        long passed = getNumberOfPassed();
+        long suppressed = getNumberOfSuppressed();
+        long passedSinceLast = passed - lastReportedPassed;
+        long suppressedSinceLast = suppressed - lastReportedSuppressed;
+        lastReportedPassed = passed;
+        lastReportedSuppressed = suppressed;
+        metricsClient.sendValue(METRIC_NAME_SUPPRESSED, suppressedSinceLast);
+        if (passedSinceLast + suppressedSinceLast > 0) {
+            metricsClient.sendDoubleValue(METRIC_NAME_SUPPRESSION_RATIO, ratio(suppressedSinceLast, passedSinceLast));
+        }
+        for (SensorType sensorType : SensorType.values()) {
+            int i = sensorType.ordinal();
+            long typeSuppressedTotal = suppressedBySensorType[i].sum();
+            long typePassedTotal = passedBySensorType[i].sum();
+            long typeSuppressed = typeSuppressedTotal - lastReportedSuppressedBySensorType[i];
+            long typePassed = typePassedTotal - lastReportedPassedBySensorType[i];
+            lastReportedSuppressedBySensorType[i] = typeSuppressedTotal;
+            lastReportedPassedBySensorType[i] = typePassedTotal;
+            if (typeSuppressed + typePassed > 0) {
+                metricsClient.sendDoubleValue(METRIC_NAME_SUPPRESSION_RATIO + "_" + sensorType.name(), ratio(typeSuppressed, typePassed));
+            }
+        }
+    }
+
+    private static long sum(LongAdder[] counters) {
+        long sum = 0;
+        for (LongAdder counter : counters) {
+            sum += counter.sum();
+        }
+        return sum;
+    }
+
+    private static double ratio(long suppressed, long passed) {
+        long total = suppressed + passed;
+        if (total == 0) {
+            return 0d;
+        }
+        return (double) suppressed / total;
+    }
+
+    private static class Chunk {
+        final AtomicReferenceArray<DeadbandSettings> settings = new AtomicReferenceArray<>(CHUNK_SIZE);
+        final Object[] locks = new Object[LOCK_STRIPES];
+        // Guarded by lockFor(i)
+        final byte[] sensorTypes = new byte[CHUNK_SIZE];
+        final double[] lastValues = new double[CHUNK_SIZE];
+        final long[] lastPassedAt = new long[CHUNK_SIZE];
+        final boolean[] hasLastValue = new boolean[CHUNK_SIZE];
+
+        Chunk() {
+            for (int i = 0; i < locks.length; i++) {
+                locks[i] = new Object();
+            }
+        }
+
+        Object lockFor(int i) {
+            return locks[i & (LOCK_STRIPES - 1)];
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DeadbandObservationFilter{" +
+                "defaultSettings=" + defaultSettings +
+                ", passed=" + getNumberOfPassed() +
+                ", suppressed=" + getNumberOfSuppressed() +
+                '}';
+    }
+}
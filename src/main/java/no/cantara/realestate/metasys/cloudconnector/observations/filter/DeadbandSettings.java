@@ -0,0 +1,126 @@
+package no.cantara.realestate.metasys.cloudconnector.observations.filter;
+
+import no.cantara.config.ApplicationProperties;
+import org.slf4j.Logger;
+
+import static no.cantara.realestate.utils.StringUtils.hasValue;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Deadband for one SensorType or MeasurementUnit.
+ * A new value is significant when it differs from the last distributed value by more than
+ * max(absolute, percent of last value), or when maxSilence has elapsed since the last distributed value.
+ * With onChangeOnly, any change is significant. This is used for true/false sensors.
+ */
+public class DeadbandSettings {
+    private static final Logger log = getLogger(DeadbandSettings.class);
+
+    public static final String ABSOLUTE = "absolute";
+    public static final String PERCENT = "percent";
+    public static final String MAX_SILENCE_SECONDS = "maxSilenceSeconds";
+    public static final String ON_CHANGE_ONLY = "onChangeOnly";
+
+    private final double absolute;
+    private final double percent;
+    private final long maxSilenceMillis;
+    private final boolean onChangeOnly;
+
+    public DeadbandSettings(double absolute, double percent, long maxSilenceMillis, boolean onChangeOnly) {
+        this.absolute = Math.max(0, absolute);
+        this.percent = Math.max(0, percent);
+        this.maxSilenceMillis = Math.max(0, maxSilenceMillis);
+        this.onChangeOnly = onChangeOnly;
+    }
+
+    /**
+     * Read settings from config, eg. filter.deadband.sensorType.temp.absolute=0.1
+     * Properties not found in config are taken from the fallback.
+     *
+     * @param config   application properties
+     * @param prefix   eg. filter.deadband.sensorType.temp
+     * @param fallback settings used for properties that are not set
+     * @return settings, or null when no property is set for this prefix
+     */
+    public static DeadbandSettings fromConfig(ApplicationProperties config, String prefix, DeadbandSettings fallback) {
+        String absoluteValue = config.get(prefix + "." + ABSOLUTE);
+        String percentValue = config.get(prefix + "." + PERCENT);
+        String maxSilenceValue = config.get(prefix + "." + MAX_SILENCE_SECONDS);
+        String onChangeOnlyValue = config.get(prefix + "." + ON_CHANGE_ONLY);
+        if (!hasValue(absoluteValue) && !hasValue(percentValue) && !hasValue(maxSilenceValue) && !hasValue(onChangeOnlyValue)) {
+            return null;
+        }
+        double absolute = parseDouble(prefix + "." + ABSOLUTE, absoluteValue, fallback.absolute);
+        double percent = parseDouble(prefix + "." + PERCENT, percentValue, fallback.percent);
+        long maxSilenceMillis = hasValue(maxSilenceValue)
+                ? (long) (parseDouble(prefix + "." + MAX_SILENCE_SECONDS, maxSilenceValue, fallback.maxSilenceMillis / 1000d) * 1000)
+                : fallback.maxSilenceMillis;
+        boolean onChangeOnly = hasValue(onChangeOnlyValue) ? Boolean.parseBoolean(onChangeOnlyValue.trim()) : fallback.onChangeOnly;
+        return new DeadbandSettings(absolute, percent, maxSilenceMillis, onChangeOnly);
+    }
+
+    private static double parseDouble(String key, String value, double defaultValue) {
+        if (!hasValue(value)) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid number [{}] for property {}. Using {}", value, key, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param lastValue      last value passed on for the sensor
+     * @param value          new value
+     * @param elapsedMillis  time since the last value was passed on
+     * @return true if the new value should be passed on
+     */
+    public boolean isSignificant(double lastValue, double value, long elapsedMillis) {
+        if (maxSilenceMillis > 0 && elapsedMillis >= maxSilenceMillis) {
+            return true;
+        }
+        if (Double.compare(lastValue, value) == 0) {
+            return false;
+        }
+        if (onChangeOnly) {
+            return true;
+        }
+        double delta = Math.abs(value - lastValue);
+        if (Double.isNaN(delta)) {
+            return true;
+        }
+        double threshold = Math.max(absolute, percent / 100d * Math.abs(lastValue));
+        return delta > threshold;
+    }
+
+    public DeadbandSettings withOnChangeOnly(boolean onChangeOnly) {
+        return new DeadbandSettings(absolute, percent, maxSilenceMillis, onChangeOnly);
+    }
+
+    public double getAbsolute() {
+        return absolute;
+    }
+
+    public double getPercent() {
+        return percent;
+    }
+
+    public long getMaxSilenceMillis() {
+        return maxSilenceMillis;
+    }
+
+    public boolean isOnChangeOnly() {
+        return onChangeOnly;
+    }
+
+    @Override
+    public String toString() {
+        return "DeadbandSettings{" +
+                "absolute=" + absolute +
+                ", percent=" + percent +
+                ", maxSilenceMillis=" + maxSilenceMillis +
+                ", onChangeOnly=" + onChangeOnly +
+                '}';
+    }
+}
@@ -0,0 +1,304 @@
+package no.cantara.realestate.metasys.cloudconnector.observations.filter;
+
+import no.cantara.config.ApplicationProperties;
+import no.cantara.realestate.metasys.cloudconnector.metrics.MetasysMetricsDistributionClient;
+import no.cantara.realestate.metasys.cloudconnector.observations.CompactObservation;
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorIndex;
+import no.cantara.realestate.observations.ObservedTrendedValue;
+import no.cantara.realestate.observations.ObservedValue;
+import org.slf4j.Logger;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Drops an observation when the same value was distributed for the same sensor at about the same time.
+ * <p>
+ * The stream timestamps a value when it is received, the trend log when it was sampled, so the same value may
+ * arrive on both paths a few seconds apart, and the trend log may deliver it a whole poll interval later. Overlapping
+ * trend requests also return the sample at the start time again. A value is a duplicate when a value distributed
+ * for the sensor within the last windowSeconds has the same value, and an observedAt within toleranceSeconds.
+ * <pre>
+ * filter.dedup.enabled=false
+ * filter.dedup.toleranceSeconds=30
+ * filter.dedup.windowSeconds=900
+ * </pre>
+ * windowSeconds should be at least the trend poll interval. Values are compared exactly as doubles, so small changes
+ * on large meters are not duplicates. When one of the two values was parsed as Float, they are compared as floats.
+ * Each sensor remembers the values distributed within the window, so the memory grows with the rate of the sensor,
+ * up to MAX_RECENT_PER_SENSOR values. Backfilled observations are passed through, and not remembered.
+ */
+public class DeduplicatingObservationFilter implements ObservationFilter {
+    private static final Logger log = getLogger(DeduplicatingObservationFilter.class);
+
+    public static final String CONFIG_PREFIX = "filter.dedup";
+    public static final String ENABLED_KEY = CONFIG_PREFIX + ".enabled";
+    public static final String METRIC_NAME_DUPLICATES = "metasys_dedup_duplicates";
+    public static final String METRIC_NAME_HIT_RATIO = "metasys_dedup_hit_ratio";
+    public static final long DEFAULT_WINDOW_SECONDS = 15 * 60;
+    static final int MAX_RECENT_PER_SENSOR = 256;
+    private static final int INITIAL_RECENT_PER_SENSOR = 4;
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final SensorIndex sensorIndex;
+    private final long toleranceMillis;
+    private final long windowMillis;
+
+    // Recent values per sensor, indexed by slot in sensorIndex. Grown under this.
+    private volatile AtomicReferenceArray<Recent>[] chunks = newChunks(0);
+
+    private final LongAdder passed = new LongAdder();
+    private final LongAdder duplicatesFromStream = new LongAdder();
+    private final LongAdder duplicatesFromTrend = new LongAdder();
+    private long lastReportedPassed = 0;
+    private long lastReportedDuplicates = 0;
+
+    public DeduplicatingObservationFilter(SensorIndex sensorIndex, long toleranceMillis) {
+        this(sensorIndex, toleranceMillis, DEFAULT_WINDOW_SECONDS * 1000);
+    }
+
+    public DeduplicatingObservationFilter(SensorIndex sensorIndex, long toleranceMillis, long windowMillis) {
+        this.sensorIndex = sensorIndex;
+        this.toleranceMillis = toleranceMillis;
+        this.windowMillis = Math.max(windowMillis, toleranceMillis);
+    }
+
+    public static DeduplicatingObservationFilter fromConfig(ApplicationProperties config, SensorIndex sensorIndex) {
+        long toleranceMillis = config.asLong(CONFIG_PREFIX + ".toleranceSeconds", 30L) * 1000;
+        long windowMillis = config.asLong(CONFIG_PREFIX + ".windowSeconds", DEFAULT_WINDOW_SECONDS) * 1000;
+        log.info("Deduplicating filter. Same value within {} ms is a duplicate, values are remembered for {} ms", toleranceMillis, windowMillis);
+        return new DeduplicatingObservationFilter(sensorIndex, toleranceMillis, windowMillis);
+    }
+
+    @Override
+    public boolean accept(ObservedValue observedValue) {
+        if (observedValue == null || observedValue.getSensorId() == null || observedValue.getValue() == null) {
+            return true;
+        }
+        int slot = sensorIndex.slotOf(observedValue.getSensorId().getId());
+        Instant observedAt = observedValue.getObservedAt();
+        long observedAtMillis = observedAt != null ? observedAt.toEpochMilli() : System.currentTimeMillis();
+        return accept(slot, observedValue.getValue().doubleValue(), observedValue.getValue() instanceof Float, observedAtMillis,
+                observedValue instanceof ObservedTrendedValue);
+    }
+
+    @Override
+    public boolean accept(CompactObservation observation) {
+        if (observation.getSensorId() == null || !observation.hasValue() || observation.isBackfill()) {
+            return true;
+        }
+        return accept(observation.slotIn(sensorIndex), observation.getValue(), observation.isSinglePrecision(),
+                observation.getObservedAtOrNowMillis(), observation.isTrend());
+    }
+
+    private boolean accept(int slot, double value, boolean singlePrecision, long observedAtMillis, boolean fromTrend) {
+        if (slot < 0) {
+            return true;
+        }
+        long valueBits = Double.doubleToLongBits(value);
+        boolean duplicate;
+        Recent recent = recentFor(slot);
+        synchronized (recent) {
+            duplicate = recent.contains(valueBits, singlePrecision, observedAtMillis, toleranceMillis, windowMillis);
+            if (!duplicate) {
+                recent.add(valueBits, singlePrecision, observedAtMillis, windowMillis);
+            }
+        }
+        if (!duplicate) {
+            passed.increment();
+        } else if (fromTrend) {
+            duplicatesFromTrend.increment();
+        } else {
+            duplicatesFromStream.increment();
+        }
+        return !duplicate;
+    }
+
+    /**
+     * Forget the recent values of a sensor no longer subscribed to. The SensorIndex slot is never reused, so the
+     * sensor starts over with no recent values if it is added again.
+     */
+    public void removeSensor(String sensorId) {
+        int slot = sensorIndex.find(sensorId);
+        if (slot < 0) {
+            return;
+        }
+        synchronized (this) {
+            AtomicReferenceArray<Recent>[] current = chunks;
+            if (slot >>> CHUNK_BITS < current.length) {
+                current[slot >>> CHUNK_BITS].set(slot & CHUNK_MASK, null);
+            }
+        }
+    }
+
+    private static boolean sameValue(long bits, boolean singlePrecision, long otherBits, boolean otherSinglePrecision) {
+        if (bits == otherBits) {
+            return true;
+        }
+        if (singlePrecision || otherSinglePrecision) {
+            return (float) Double.longBitsToDouble(bits) == (float) Double.longBitsToDouble(otherBits);
+        }
+        return false;
+    }
+
+    private Recent recentFor(int slot) {
+        AtomicReferenceArray<Recent>[] current = chunks;
+        int chunkIndex = slot >>> CHUNK_BITS;
+        if (chunkIndex < current.length) {
+            Recent recent = current[chunkIndex].get(slot & CHUNK_MASK);
+            if (recent != null) {
+                return recent;
+            }
+        }
+        synchronized (this) {
+            current = chunks;
+            if (chunkIndex >= current.length) {
+                AtomicReferenceArray<Recent>[] grown = Arrays.copyOf(current, chunkIndex + 1);
+                for (int c = current.length; c < grown.length; c++) {
+                    grown[c] = new AtomicReferenceArray<>(CHUNK_SIZE);
+                }
+                chunks = grown;
+                current = grown;
+            }
+            AtomicReferenceArray<Recent> chunk = current[chunkIndex];
+            Recent recent = chunk.get(slot & CHUNK_MASK);
+            if (recent == null) {
+                recent = new Recent();
+                chunk.set(slot & CHUNK_MASK, recent);
+            }
+            return recent;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AtomicReferenceArray<Recent>[] newChunks(int length) {
+        return (AtomicReferenceArray<Recent>[]) new AtomicReferenceArray[length];
+    }
+
+    /**
+     * Values distributed for one sensor within the window, in no particular order. Guarded by itself.
+     */
+    private static final class Recent {
+        private long[] observedAt = new long[INITIAL_RECENT_PER_SENSOR];
+        private long[] valueBits = new long[INITIAL_RECENT_PER_SENSOR];
+        private boolean[] singlePrecision = new boolean[INITIAL_RECENT_PER_SENSOR];
+        private int count = 0;
+        private long latestObservedAt = Long.MIN_VALUE;
+
+        boolean contains(long bits, boolean sp, long observedAtMillis, long toleranceMillis, long windowMillis) {
+            long expiredBefore = latestObservedAt - windowMillis;
+            for (int i = 0; i < count; i++) {
+                if (observedAt[i] >= expiredBefore && sameValue(valueBits[i], singlePrecision[i], bits, sp)
+                        && Math.abs(observedAtMillis - observedAt[i]) <= toleranceMillis) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void add(long bits, boolean sp, long observedAtMillis, long windowMillis) {
+            if (observedAtMillis > latestObservedAt) {
+                latestObservedAt = observedAtMillis;
+            }
+            long expiredBefore = latestObservedAt - windowMillis;
+            if (observedAtMillis < expiredBefore) {
+                return;
+            }
+            int position = count;
+            if (count == observedAt.length) {
+                int oldest = 0;
+                for (int i = 1; i < count; i++) {
+                    if (observedAt[i] < observedAt[oldest]) {
+                        oldest = i;
+                    }
+                }
+                if (observedAt[oldest] < expiredBefore || count >= MAX_RECENT_PER_SENSOR) {
+                    position = oldest;
+                } else {
+                    int newLength = Math.min(count * 2, MAX_RECENT_PER_SENSOR);
+                    observedAt = Arrays.copyOf(observedAt, newLength);
+                    valueBits = Arrays.copyOf(valueBits, newLength);
+                    singlePrecision = Arrays.copyOf(singlePrecision, newLength);
+                }
+            }
+            observedAt[position] = observedAtMillis;
+            valueBits[position] = bits;
+            singlePrecision[position] = sp;
+            if (position == count) {
+                count++;
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "DeduplicatingObservationFilter";
+    }
+
+    public long getNumberOfPassed() {
+        return passed.sum();
+    }
+
+    public long getNumberOfDuplicates() {
+        return duplicatesFromStream.sum() + duplicatesFromTrend.sum();
+    }
+
+    /**
+     * @return duplicates that arrived on the stream, after the value was distributed from the trend log
+     */
+    public long getNumberOfDuplicatesFromStream() {
+        return duplicatesFromStream.sum();
+    }
+
+    /**
+     * @return duplicates that arrived from the trend log, after the value was distributed from the stream or an earlier request
+     */
+    public long getNumberOfDuplicatesFromTrend() {
+        return duplicatesFromTrend.sum();
+    }
+
+    /**
+     * @return share of observations dropped as duplicates since start, 0.0 - 1.0
+     */
+    public double getHitRatio() {
+        return ratio(getNumberOfDuplicates(), getNumberOfPassed());
+    }
+
+    @Override
+    public synchronized void reportMetrics(MetasysMetricsDistributionClient metricsClient) {
+        long passedNow = getNumberOfPassed();
+        long duplicatesNow = getNumberOfDuplicates();
+        long passedSinceLast = passedNow - lastReportedPassed;
+        long duplicatesSinceLast = duplicatesNow - lastReportedDuplicates;
+        lastReportedPassed = passedNow;
+        lastReportedDuplicates = duplicatesNow;
+        metricsClient.sendValue(METRIC_NAME_DUPLICATES, duplicatesSinceLast);
+        if (passedSinceLast + duplicatesSinceLast > 0) {
+            metricsClient.sendDoubleValue(METRIC_NAME_HIT_RATIO, ratio(duplicatesSinceLast, passedSinceLast));
+        }
+    }
+
+    private static double ratio(long duplicates, long passed) {
+        long total = duplicates + passed;
+        if (total == 0) {
+            return 0d;
+        }
+        return (double) duplicates / total;
+    }
+
+    @Override
+    public String toString() {
+        return "DeduplicatingObservationFilter{" +
+                "toleranceMillis=" + toleranceMillis +
+                ", passed=" + getNumberOfPassed() +
+                ", duplicatesFromStream=" + getNumberOfDuplicatesFromStream() +
+                ", duplicatesFromTrend=" + getNumberOfDuplicatesFromTrend() +
+                '}';
+    }
+}
@@ -0,0 +1,42 @@
+package no.cantara.realestate.metasys.cloudconnector.observations.filter;
+
+import no.cantara.realestate.metasys.cloudconnector.observations.CompactObservation;
+import no.cantara.realestate.metasys.cloudconnector.status.SensorFreshnessIndex;
+import no.cantara.realestate.observations.ObservedTrendedValue;
+import no.cantara.realestate.observations.ObservedValue;
+
+/**
+ * Records every observation in the SensorFreshnessIndex and passes it on. Added first in the chain, so
+ * observations held back by later stages still count as received.
+ */
+public class FreshnessObservationFilter implements ObservationFilter {
+
+    private final SensorFreshnessIndex freshnessIndex;
+
+    public FreshnessObservationFilter(SensorFreshnessIndex freshnessIndex) {
+        this.freshnessIndex = freshnessIndex;
+    }
+
+    @Override
+    public boolean accept(ObservedValue observedValue) {
+        if (observedValue.getSensorId() != null) {
+            int source = observedValue instanceof ObservedTrendedValue ? SensorFreshnessIndex.SOURCE_TREND : SensorFreshnessIndex.SOURCE_STREAM;
+            freshnessIndex.recordObserved(observedValue.getSensorId().getId(), observedValue.getObservedAt(), source);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean accept(CompactObservation observation) {
+        if (observation.getSensorId() != null) {
+            int source = observation.isTrend() ? SensorFreshnessIndex.SOURCE_TREND : SensorFreshnessIndex.SOURCE_STREAM;
+            freshnessIndex.recordObserved(observation.getSensorId().getId(), observation.getObservedAtOrNowMillis(), source);
+        }
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return "FreshnessObservationFilter";
+    }
+}
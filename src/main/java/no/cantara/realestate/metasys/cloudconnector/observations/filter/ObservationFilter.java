@@ -0,0 +1,50 @@
+package no.cantara.realestate.metasys.cloudconnector.observations.filter;
+
+import no.cantara.realestate.metasys.cloudconnector.metrics.MetasysMetricsDistributionClient;
+import no.cantara.realestate.metasys.cloudconnector.observations.CompactObservation;
+import no.cantara.realestate.observations.ObservationListener;
+import no.cantara.realestate.observations.ObservedValue;
+
+/**
+ * A stage in the ObservationFilterChain. Stages run in the order they are added, in front of the
+ * ObservationListener that distributes observations.
+ */
+public interface ObservationFilter {
+
+    /**
+     * @param observedValue observation from either the trend or the stream path
+     * @return true if the observation should be passed on to the next stage
+     */
+    boolean accept(ObservedValue observedValue);
+
+    /**
+     * Primitive form of accept, used when the chain receives a CompactObservation. Stages that override this
+     * let observations pass or drop without an ObservedValue being built.
+     *
+     * @param observation valid only during the call, do not keep it
+     * @return true if the observation should be passed on to the next stage
+     */
+    default boolean accept(CompactObservation observation) {
+        return accept(observation.toObservedValue());
+    }
+
+    String getName();
+
+    /**
+     * Called when the stage is added to a chain. Stages that produce observations of their own should pass
+     * them to the downstream listener, which runs the remaining stages of the chain.
+     *
+     * @param downstream the rest of the chain after this stage
+     */
+    default void attach(ObservationListener downstream) {
+    }
+
+    default void reportMetrics(MetasysMetricsDistributionClient metricsClient) {
+    }
+
+    /**
+     * Called when the chain is stopped. Stages holding back observations should pass them on here.
+     */
+    default void close() {
+    }
+}
@@ -0,0 +1,231 @@
+package no.cantara.realestate.metasys.cloudconnector.observations.filter;
+
+import no.cantara.realestate.metasys.cloudconnector.metrics.MetasysMetricsDistributionClient;
+import no.cantara.realestate.metasys.cloudconnector.observations.CompactObservation;
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorIndex;
+import no.cantara.realestate.observations.ConfigMessage;
+import no.cantara.realestate.observations.ConfigValue;
+import no.cantara.realestate.observations.ObservationListener;
+import no.cantara.realestate.observations.ObservedValue;
+import org.slf4j.Logger;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * ObservationListener placed in front of the listener that distributes observations, eg. ObservationsRepository.
+ * Both the trend and the stream path deliver observations here. Each observation runs through the filters in
+ * the order they were added, and is passed on to the delegate only if every filter accepts it.
+ * <p>
+ * Observations given as a CompactObservation are boxed into an ObservedValue only after every filter accepted
+ * them, or when a filter has no primitive accept.
+ */
+public class ObservationFilterChain implements ObservationListener {
+    private static final Logger log = getLogger(ObservationFilterChain.class);
+
+    private final List<ObservationFilter> filters = new CopyOnWriteArrayList<>();
+    private volatile ObservationListener delegate;
+    private volatile SensorIndex sensorIndex;
+    private ScheduledExecutorService metricsReporter;
+
+    public ObservationFilterChain(ObservationListener delegate) {
+        this.delegate = delegate;
+    }
+
+    public void addFilter(ObservationFilter filter) {
+        if (filter == null) {
+            return;
+        }
+        filters.add(filter);
+        final int nextStage = filters.size();
+        filter.attach(new DownstreamListener(nextStage));
+        log.info("Added ObservationFilter {} at stage {}", filter.getName(), nextStage - 1);
+    }
+
+    /**
+     * SensorIndex shared with the filters. The slot of a CompactObservation is then looked up once per chain.
+     */
+    public void setSensorIndex(SensorIndex sensorIndex) {
+        this.sensorIndex = sensorIndex;
+    }
+
+    public List<ObservationFilter> getFilters() {
+        return List.copyOf(filters);
+    }
+
+    public ObservationListener getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Replace the listener that receives the observations accepted by all filters.
+     */
+    public void setDelegate(ObservationListener delegate) {
+        if (delegate == this) {
+            throw new IllegalArgumentException("ObservationFilterChain cannot delegate to itself");
+        }
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void observedValue(ObservedValue observedValue) {
+        pass(observedValue, 0);
+    }
+
+    /**
+     * Run a primitive observation through the filters.
+     *
+     * @param observation overwritten by the caller after this returns
+     */
+    public void observed(CompactObservation observation) {
+        if (observation == null) {
+            return;
+        }
+        SensorIndex index = sensorIndex;
+        if (index != null) {
+            observation.resolveSlot(index);
+        }
+        for (int stage = 0; stage < filters.size(); stage++) {
+            ObservationFilter filter = filters.get(stage);
+            try {
+                if (!filter.accept(observation)) {
+                    return;
+                }
+            } catch (Exception e) {
+                // Fail open. Losing an observation is worse than distributing one too many.
+                log.warn("ObservationFilter {} failed on {}. Passing observation on. Reason: {}", filter.getName(), observation, e.getMessage());
+            }
+        }
+        ObservationListener listener = delegate;
+        if (listener != null) {
+            listener.observedValue(observation.toObservedValue());
+        }
+    }
+
+    void pass(ObservedValue observedValue, int fromStage) {
+        if (observedValue == null) {
+            return;
+        }
+        for (int stage = fromStage; stage < filters.size(); stage++) {
+            ObservationFilter filter = filters.get(stage);
+            try {
+                if (!filter.accept(observedValue)) {
+                    return;
+                }
+            } catch (Exception e) {
+                // Fail open. Losing an observation is worse than distributing one too many.
+                log.warn("ObservationFilter {} failed on {}. Passing observation on. Reason: {}", filter.getName(), observedValue, e.getMessage());
+            }
+        }
+        ObservationListener listener = delegate;
+        if (listener != null) {
+            listener.observedValue(observedValue);
+        }
+    }
+
+    @Override
+    public void observedConfigValue(ConfigValue configValue) {
+        ObservationListener listener = delegate;
+        if (listener != null) {
+            listener.observedConfigValue(configValue);
+        }
+    }
+
+    @Override
+    public void observedConfigMessage(ConfigMessage configMessage) {
+        ObservationListener listener = delegate;
+        if (listener != null) {
+            listener.observedConfigMessage(configMessage);
+        }
+    }
+
+    @Override
+    public Instant getWhenLastMessageObserved() {
+        ObservationListener listener = delegate;
+        return listener == null ? null : listener.getWhenLastMessageObserved();
+    }
+
+    public void reportMetrics(MetasysMetricsDistributionClient metricsClient) {
+        if (metricsClient == null) {
+            return;
+        }
+        for (ObservationFilter filter : filters) {
+            try {
+                filter.reportMetrics(metricsClient);
+            } catch (Exception e) {
+                log.debug("Failed to report metrics for ObservationFilter {}. Reason: {}", filter.getName(), e.getMessage());
+            }
+        }
+    }
+
+    public synchronized void startMetricsReporting(MetasysMetricsDistributionClient metricsClient, long intervalSeconds) {
+        if (metricsReporter != null || metricsClient == null || intervalSeconds <= 0) {
+            return;
+        }
+        metricsReporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ObservationFilterChain-Metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        metricsReporter.scheduleAtFixedRate(() -> reportMetrics(metricsClient), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop() {
+        if (metricsReporter != null) {
+            metricsReporter.shutdownNow();
+            metricsReporter = null;
+        }
+        for (ObservationFilter filter : filters) {
+            try {
+                filter.close();
+            } catch (Exception e) {
+                log.warn("Failed to close ObservationFilter {}. Reason: {}", filter.getName(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Entry point into the chain after a given stage. Handed to each filter in attach().
+     */
+    private class DownstreamListener implements ObservationListener {
+        private final int fromStage;
+
+        private DownstreamListener(int fromStage) {
+            this.fromStage = fromStage;
+        }
+
+        @Override
+        public void observedValue(ObservedValue observedValue) {
+            pass(observedValue, fromStage);
+        }
+
+        @Override
+        public void observedConfigValue(ConfigValue configValue) {
+            ObservationFilterChain.this.observedConfigValue(configValue);
+        }
+
+        @Override
+        public void observedConfigMessage(ConfigMessage configMessage) {
+            ObservationFilterChain.this.observedConfigMessage(configMessage);
+        }
+
+        @Override
+        public Instant getWhenLastMessageObserved() {
+            return ObservationFilterChain.this.getWhenLastMessageObserved();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ObservationFilterChain{" +
+                "filters=" + filters.stream().map(ObservationFilter::getName).toList() +
+                ", delegate=" + delegate +
+                '}';
+    }
+}
@@ -0,0 +1,43 @@
+package no.cantara.realestate.metasys.cloudconnector.observations.filter;
+
+import no.cantara.realestate.metasys.cloudconnector.observations.CompactObservation;
+import no.cantara.realestate.metasys.cloudconnector.status.RecentSamplesCache;
+import no.cantara.realestate.observations.ObservedValue;
+
+import java.time.Instant;
+
+/**
+ * Records every observation with a value in the RecentSamplesCache and passes it on. Added after dedup, so a value
+ * received on both paths is kept once, and before aggregation and deadband, so the raw values are kept.
+ */
+public class RecentSamplesObservationFilter implements ObservationFilter {
+
+    private final RecentSamplesCache recentSamplesCache;
+
+    public RecentSamplesObservationFilter(RecentSamplesCache recentSamplesCache) {
+        this.recentSamplesCache = recentSamplesCache;
+    }
+
+    @Override
+    public boolean accept(ObservedValue observedValue) {
+        if (observedValue.getSensorId() != null && observedValue.getValue() != null) {
+            Instant observedAt = observedValue.getObservedAt();
+            long observedAtMillis = observedAt != null ? observedAt.toEpochMilli() : System.currentTimeMillis();
+            recentSamplesCache.record(observedValue.getSensorId().getId(), observedAtMillis, observedValue.getValue().doubleValue());
+        }
+        return true;
+    }
+
+    @Override
+    public boolean accept(CompactObservation observation) {
+        if (observation.getSensorId() != null && observation.hasValue()) {
+            recentSamplesCache.record(observation.slotIn(recentSamplesCache.getSensorIndex()), observation.getObservedAtOrNowMillis(), observation.getValue());
+        }
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return "RecentSamplesObservationFilter";
+    }
+}
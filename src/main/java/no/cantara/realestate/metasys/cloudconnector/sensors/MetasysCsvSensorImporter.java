@@ -1,8 +1,5 @@
 package no.cantara.realestate.metasys.cloudconnector.sensors;
 
-import no.cantara.realestate.csv.CsvCollection;
-import no.cantara.realestate.csv.CsvReader;
-import no.cantara.realestate.metasys.cloudconnector.MetasysCloudConnectorException;
 import no.cantara.realestate.rec.RecTags;
 import no.cantara.realestate.sensors.metasys.MetasysSensorId;
 import org.slf4j.Logger;
@@ -14,97 +11,65 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Import of the Metasys sensor CSV files. Files are read with the streaming SensorCsvReader, which parses the files
+ * in parallel, one chunk of rows per task.
+ */
 public class MetasysCsvSensorImporter {
     private static final Logger log = LoggerFactory.getLogger(MetasysCsvSensorImporter.class);
 
     public static List<MetasysSensorId> importSensorIdsFromFile(Path filepath) {
-        List<MetasysSensorId> sensorIds = new ArrayList();
-        try {
-        CsvCollection collection = CsvReader.parse(filepath.toString(),true);
-        log.debug("ColumnNames: {}", collection.getColumnNames());
-
-        for(Map<String, String> record : collection.getRecords()) {
-            String twinId = record.get("DigitalTwinId");
-            if (twinId == null || twinId.isEmpty()) {
-                twinId = record.get("RecId");
-            }
-            String metasysObjectId = record.get("MetasysObjectId");
-            String metasysObjectReference = record.get("MetasysObjectReference");
-            MetasysSensorId sensorId = new MetasysSensorId(twinId, metasysObjectId, metasysObjectReference);
-            sensorIds.add(sensorId);
-        }
-        } catch (Exception e) {
-            MetasysCloudConnectorException csvParseException = new MetasysCloudConnectorException("Failed to import SensorIds from file: " + filepath, e);
-            log.warn("SensorIdsImportFailed - {}", csvParseException.getMessage(), csvParseException);
-        }
-        return sensorIds;
+        return toSensorIds(new SensorCsvReader().read(filepath));
     }
 
     public static List<MetasysSensorId> importSensorIdsFromDirectory(String directoryName, String prefix) {
-        List<MetasysSensorId> sensorIds = new ArrayList<>();
-        List<Path> files = findFilesInDirectory(directoryName, prefix);
-        for (Path file : files) {
-            log.info("Importing sensors from file: {}", file);
-            List<MetasysSensorId> collection = importSensorIdsFromFile(file);
-            sensorIds.addAll(collection);
-        }
-        return sensorIds;
+        return toSensorIds(importFromDirectory(directoryName, prefix));
     }
 
     public static List<RecTags> importRecTagsFromDirectory(String directoryName, String prefix) {
         List<RecTags> recTagsList = new ArrayList<>();
-        List<Path> files = findFilesInDirectory(directoryName, prefix);
-        for (Path file : files) {
-            log.info("Importing RecTags from file: {}", file);
-            List<RecTags> fileRecTags = importRecTagsFromFile(file);
-            recTagsList.addAll(fileRecTags);
+        int missingRecId = 0;
+        for (SensorCatalog.Entry entry : importFromDirectory(directoryName, prefix)) {
+            if (entry.getRecTags() == null) {
+                missingRecId++;
+                continue;
+            }
+            recTagsList.add(entry.getRecTags());
+        }
+        if (missingRecId > 0) {
+            log.warn("RecId is missing in {} records", missingRecId);
         }
         return recTagsList;
     }
 
-    private static List<RecTags> importRecTagsFromFile(Path file) {
-        //RecId,Tfm,MetasysObjectReference,MetasysObjectId,Name,Description,RealEstate,Building,Section,Floor,ServesRoom,PlacementRoom,SensorType,MeasurementUnit,Interval
-        List<RecTags> recTagsList = new ArrayList<>();
-        try {
-        CsvCollection collection = CsvReader.parse(file.toString(), true);
-        log.debug("ColumnNames: {}", collection.getColumnNames());
-        for (Map<String, String> record : collection.getRecords()) {
-            String recId = record.get("RecId");
-            if (recId == null || recId.isEmpty()) {
-                log.warn("RecId is missing in record: {}", record);
-                continue;
-            }
-            RecTags recTags = new RecTags(recId);
-            recTags.setSensorSystem("Metasys");
-            String tfm = record.get("Tfm");
-            recTags.setTfm(tfm);
-            String name = record.get("Name");
-            recTags.setName(name);
-//            String description = record.get("Description");
-//            recTags.setDescription(description);
-            String realEstate = record.get("RealEstate");
-            recTags.setRealEstate(realEstate);
-            String building = record.get("Building");
-            recTags.setBuilding(building);
-            String section = record.get("Section");
-            recTags.setSection(section);
-            String floor = record.get("Floor");
-            recTags.setFloor(floor);
-            String servesRoom = record.get("ServesRoom");
-            recTags.setServesRoom(servesRoom);
-            String placementRoom = record.get("PlacementRoom");
-            recTags.setPlacementRoom(placementRoom);
-            String sensorType = record.get("SensorType");
-            recTags.setSensorType(sensorType);
-            String measurementUnit = record.get("MeasurementUnit");
-            recTags.setMeasurementUnit(measurementUnit);
-            recTagsList.add(recTags);
+    /**
+     * Read the Interval column of the sensor CSV files.
+     *
+     * @return map from twinId to Interval, for rows where Interval is set
+     */
+    public static Map<String, String> importIntervalsFromDirectory(String directoryName, String prefix) {
+        return SensorCatalog.intervalsOf(importFromDirectory(directoryName, prefix));
+    }
+
+    /**
+     * Read sensorId, RecTags and Interval of every row, in one parse of each file.
+     */
+    public static List<SensorCatalog.Entry> importFromDirectory(String directoryName, String prefix) {
+        List<Path> files = findFilesInDirectory(directoryName, prefix);
+        log.info("Importing sensors from {} files in {}", files.size(), directoryName);
+        List<SensorCatalog.Entry> entries = new ArrayList<>();
+        for (List<SensorCatalog.Entry> fileEntries : new SensorCsvReader().readAll(files).values()) {
+            entries.addAll(fileEntries);
         }
-        } catch (Exception e) {
-            MetasysCloudConnectorException csvParseException = new MetasysCloudConnectorException("Failed to import RecTags from file: " + file, e);
-            log.warn("RecTagsImportFailed - {}", csvParseException.getMessage(), csvParseException);
+        return entries;
+    }
+
+    private static List<MetasysSensorId> toSensorIds(List<SensorCatalog.Entry> entries) {
+        List<MetasysSensorId> sensorIds = new ArrayList<>(entries.size());
+        for (SensorCatalog.Entry entry : entries) {
+            sensorIds.add(entry.getSensorId());
         }
-     return  recTagsList;
+        return sensorIds;
     }
 
     public static List<Path> findFilesInDirectory(String directoryName, String prefix) {
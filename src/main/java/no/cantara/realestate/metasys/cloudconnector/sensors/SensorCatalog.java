@@ -0,0 +1,321 @@
+package no.cantara.realestate.metasys.cloudconnector.sensors;
+
+import no.cantara.realestate.rec.RecTags;
+import no.cantara.realestate.sensors.SensorId;
+import no.cantara.realestate.sensors.metasys.MetasysSensorId;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * The sensors of the Metasys*.csv files in the import directory, and what changed since the last reload.
+ * <p>
+ * Each file is hashed on reload, and only files with new content are parsed, once for sensorId, RecTags and
+ * Interval, by the SensorCsvReader. The rows of all files are compared with the previous reload by twinId, giving the sensors added,
+ * removed and modified. A row is modified when any column changed. When a twinId is found in several files,
+ * the file last in name order wins.
+ * <p>
+ * The parsed files may be saved to a SensorCatalogSnapshot, and restored on the next start, so unchanged files
+ * are not parsed again.
+ */
+public class SensorCatalog {
+    private static final Logger log = getLogger(SensorCatalog.class);
+
+    private final String directory;
+    private final String prefix;
+    private final SensorCsvReader csvReader;
+    private final Map<Path, FileState> files = new HashMap<>();
+    private Map<String, Entry> entries = Map.of();
+
+    public SensorCatalog(String directory, String prefix) {
+        this(directory, prefix, new SensorCsvReader());
+    }
+
+    public SensorCatalog(String directory, String prefix, SensorCsvReader csvReader) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.csvReader = csvReader;
+    }
+
+    /**
+     * Read the files again, and find the sensors added, removed and modified since the last reload.
+     * The first reload finds all sensors as added.
+     */
+    public synchronized Changes reload() {
+        List<Path> paths = new ArrayList<>(MetasysCsvSensorImporter.findFilesInDirectory(directory, prefix));
+        paths.sort(Comparator.comparing(Path::toString));
+        Map<Path, FileState> current = new HashMap<>();
+        Map<Path, String> changedFiles = new LinkedHashMap<>();
+        for (Path path : paths) {
+            String contentHash = hash(path);
+            FileState previous = files.get(path);
+            if (previous != null && previous.contentHash.equals(contentHash)) {
+                current.put(path, previous);
+            } else {
+                changedFiles.put(path, contentHash);
+            }
+        }
+        if (!changedFiles.isEmpty()) {
+            Map<Path, List<Entry>> parsed = csvReader.readAll(new ArrayList<>(changedFiles.keySet()));
+            for (Map.Entry<Path, String> changed : changedFiles.entrySet()) {
+                current.put(changed.getKey(), new FileState(changed.getValue(), parsed.get(changed.getKey())));
+            }
+        }
+        int filesParsed = changedFiles.size();
+        Map<String, Entry> merged = new LinkedHashMap<>();
+        for (Path path : paths) {
+            for (Entry entry : current.get(path).entries) {
+                merged.put(entry.getTwinId(), entry);
+            }
+        }
+
+        Changes changes = new Changes(filesParsed, paths.size() - filesParsed);
+        for (Entry entry : merged.values()) {
+            Entry previous = entries.get(entry.getTwinId());
+            if (previous == null) {
+                changes.added.add(entry);
+            } else if (previous.fingerprint != entry.fingerprint) {
+                changes.modified.add(entry);
+                changes.previous.put(entry.getTwinId(), previous);
+            }
+        }
+        for (Entry previous : entries.values()) {
+            if (!merged.containsKey(previous.getTwinId())) {
+                changes.removed.add(previous);
+            }
+        }
+        files.clear();
+        files.putAll(current);
+        entries = merged;
+        log.info("Reloaded sensor catalog. Parsed {} of {} files. Added: {}, removed: {}, modified: {}",
+                filesParsed, paths.size(), changes.added.size(), changes.removed.size(), changes.modified.size());
+        return changes;
+    }
+
+    static String hash(Path path) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(path));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (IOException | NoSuchAlgorithmException e) {
+            // Parse the file again rather than miss a change
+            log.warn("Failed to hash sensor file {}. Reason: {}", path, e.getMessage());
+            return "unreadable-" + System.nanoTime();
+        }
+    }
+
+    /**
+     * Match the RecTags of each row to the sensor with the same id as the RecTags twinId. The sensors are indexed
+     * by id once, so the match is one lookup per row.
+     */
+    public static void joinRecTags(Collection<? extends SensorId> sensorIds, Collection<Entry> entries, BiConsumer<SensorId, RecTags> onMatch) {
+        Map<String, SensorId> byId = new HashMap<>(sensorIds.size() * 4 / 3 + 1);
+        for (SensorId sensorId : sensorIds) {
+            if (sensorId.getId() != null) {
+                byId.putIfAbsent(sensorId.getId(), sensorId);
+            }
+        }
+        for (Entry entry : entries) {
+            RecTags recTags = entry.getRecTags();
+            if (recTags == null) {
+                continue;
+            }
+            SensorId sensorId = byId.get(recTags.getTwinId());
+            if (sensorId != null) {
+                onMatch.accept(sensorId, recTags);
+            }
+        }
+    }
+
+    /**
+     * @return map from twinId to Interval, for rows where Interval is set
+     */
+    public static Map<String, String> intervalsOf(Collection<Entry> entries) {
+        Map<String, String> intervals = new HashMap<>();
+        for (Entry entry : entries) {
+            if (entry.getInterval() != null) {
+                intervals.put(entry.getTwinId(), entry.getInterval());
+            }
+        }
+        return intervals;
+    }
+
+    /**
+     * Take the files of the snapshot as parsed, so the next reload only parses files whose content hash differs
+     * from the snapshot. Call before the first reload.
+     *
+     * @return the number of files in the snapshot
+     */
+    public synchronized int restore(SensorCatalogSnapshot snapshot) {
+        Map<String, FileState> snapshotFiles = snapshot.read();
+        for (Map.Entry<String, FileState> snapshotFile : snapshotFiles.entrySet()) {
+            files.putIfAbsent(Path.of(directory).resolve(snapshotFile.getKey()), snapshotFile.getValue());
+        }
+        return snapshotFiles.size();
+    }
+
+    /**
+     * Write the files of the last reload to the snapshot
+     */
+    public synchronized void save(SensorCatalogSnapshot snapshot) throws IOException {
+        Map<String, FileState> byFileName = new LinkedHashMap<>();
+        List<Path> paths = new ArrayList<>(files.keySet());
+        paths.sort(Comparator.comparing(Path::toString));
+        for (Path path : paths) {
+            byFileName.put(path.getFileName().toString(), files.get(path));
+        }
+        snapshot.write(byFileName);
+    }
+
+    public SensorCsvReader getCsvReader() {
+        return csvReader;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized Entry find(String twinId) {
+        return entries.get(twinId);
+    }
+
+    static class FileState {
+        private final String contentHash;
+        private final List<Entry> entries;
+
+        FileState(String contentHash, List<Entry> entries) {
+            this.contentHash = contentHash;
+            this.entries = entries;
+        }
+
+        String getContentHash() {
+            return contentHash;
+        }
+
+        List<Entry> getEntries() {
+            return entries;
+        }
+    }
+
+    /**
+     * One row of a sensor file
+     */
+    public static class Entry {
+        private final MetasysSensorId sensorId;
+        private final RecTags recTags;
+        private final String interval;
+        private final int fingerprint;
+
+        Entry(MetasysSensorId sensorId, RecTags recTags, String interval, int fingerprint) {
+            this.sensorId = sensorId;
+            this.recTags = recTags;
+            this.interval = interval;
+            this.fingerprint = fingerprint;
+        }
+
+        public String getTwinId() {
+            return sensorId.getId();
+        }
+
+        public MetasysSensorId getSensorId() {
+            return sensorId;
+        }
+
+        /**
+         * @return RecTags of the row, null if RecId is missing
+         */
+        public RecTags getRecTags() {
+            return recTags;
+        }
+
+        public String getInterval() {
+            return interval;
+        }
+
+        int getFingerprint() {
+            return fingerprint;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "twinId=" + getTwinId() +
+                    ", metasysObjectId=" + sensorId.getMetasysObjectId() +
+                    ", interval=" + interval +
+                    '}';
+        }
+    }
+
+    public static class Changes {
+        private final List<Entry> added = new ArrayList<>();
+        private final List<Entry> removed = new ArrayList<>();
+        private final List<Entry> modified = new ArrayList<>();
+        private final Map<String, Entry> previous = new HashMap<>();
+        private final int filesParsed;
+        private final int filesUnchanged;
+
+        private Changes(int filesParsed, int filesUnchanged) {
+            this.filesParsed = filesParsed;
+            this.filesUnchanged = filesUnchanged;
+        }
+
+        public List<Entry> getAdded() {
+            return added;
+        }
+
+        public List<Entry> getRemoved() {
+            return removed;
+        }
+
+        public List<Entry> getModified() {
+            return modified;
+        }
+
+        /**
+         * @return the row of a modified sensor before the change
+         */
+        public Entry getPrevious(String twinId) {
+            return previous.get(twinId);
+        }
+
+        public int getFilesParsed() {
+            return filesParsed;
+        }
+
+        public int getFilesUnchanged() {
+            return filesUnchanged;
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty() && modified.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "Changes{" +
+                    "added=" + added.size() +
+                    ", removed=" + removed.size() +
+                    ", modified=" + modified.size() +
+                    ", filesParsed=" + filesParsed +
+                    ", filesUnchanged=" + filesUnchanged +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package no.cantara.realestate.metasys.cloudconnector.sensors;
+
+import no.cantara.config.ApplicationProperties;
+import no.cantara.realestate.rec.RecTags;
+import no.cantara.realestate.sensors.metasys.MetasysSensorId;
+import org.slf4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Binary snapshot of the sensor catalog, so a restart with unchanged sensor files does not parse them again.
+ * <p>
+ * The snapshot has the content hash and the rows of each file. All strings are kept once in a string table, and
+ * rows refer to them by index. On startup the snapshot is memory mapped and read, and the catalog only parses the
+ * files whose content hash differs from the snapshot.
+ * <pre>
+ * sensorCatalog.snapshot.enabled=false
+ * sensorCatalog.snapshot.file=status/sensor_catalog.bin
+ * </pre>
+ */
+public class SensorCatalogSnapshot {
+    private static final Logger log = getLogger(SensorCatalogSnapshot.class);
+    public static final String CONFIG_PREFIX = "sensorCatalog.snapshot";
+    public static final String ENABLED_KEY = CONFIG_PREFIX + ".enabled";
+    static final int MAGIC = 0x4D534353;
+    static final int VERSION = 1;
+    private static final int NO_STRING = -1;
+    private static final byte HAS_REC_TAGS = 1;
+
+    private final Path file;
+
+    public SensorCatalogSnapshot(Path file) {
+        this.file = file;
+    }
+
+    public static SensorCatalogSnapshot fromConfig(ApplicationProperties config) {
+        Path file = Paths.get(config.get(CONFIG_PREFIX + ".file", "status/sensor_catalog.bin"));
+        log.info("Sensor catalog snapshot in {}", file.toAbsolutePath());
+        return new SensorCatalogSnapshot(file);
+    }
+
+    /**
+     * Written to a temporary file and moved in place, so a restart never reads a half written snapshot.
+     *
+     * @param files content hash and rows per file name
+     */
+    void write(Map<String, SensorCatalog.FileState> files) throws IOException {
+        StringTable strings = new StringTable();
+        List<int[]> encodedFiles = new ArrayList<>(files.size());
+        int numberOfEntries = 0;
+        for (Map.Entry<String, SensorCatalog.FileState> fileState : files.entrySet()) {
+            encodedFiles.add(new int[]{strings.indexOf(fileState.getKey()), strings.indexOf(fileState.getValue().getContentHash())});
+            for (SensorCatalog.Entry entry : fileState.getValue().getEntries()) {
+                strings.addAll(entry);
+                numberOfEntries++;
+            }
+        }
+
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(strings.values.size());
+            for (String value : strings.values) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.writeInt(files.size());
+            int fileIndex = 0;
+            for (SensorCatalog.FileState fileState : files.values()) {
+                int[] encodedFile = encodedFiles.get(fileIndex++);
+                out.writeInt(encodedFile[0]);
+                out.writeInt(encodedFile[1]);
+                out.writeInt(fileState.getEntries().size());
+                for (SensorCatalog.Entry entry : fileState.getEntries()) {
+                    writeEntry(out, entry, strings);
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Wrote sensor catalog snapshot of {} files and {} sensors, {} strings, {} bytes to {}",
+                files.size(), numberOfEntries, strings.values.size(), Files.size(file), file);
+    }
+
+    /**
+     * @return content hash and rows per file name, empty when there is no snapshot, or it can not be read
+     */
+    Map<String, SensorCatalog.FileState> read() {
+        Map<String, SensorCatalog.FileState> files = new LinkedHashMap<>();
+        if (!Files.isRegularFile(file)) {
+            log.info("No sensor catalog snapshot in {}", file);
+            return files;
+        }
+        long startedNanos = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                log.warn("Sensor catalog snapshot {} has an unknown format. The sensor files are parsed.", file);
+                return files;
+            }
+            String[] strings = new String[buffer.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            int numberOfFiles = buffer.getInt();
+            int numberOfEntries = 0;
+            for (int f = 0; f < numberOfFiles; f++) {
+                String fileName = strings[buffer.getInt()];
+                String contentHash = strings[buffer.getInt()];
+                int size = buffer.getInt();
+                List<SensorCatalog.Entry> entries = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    entries.add(readEntry(buffer, strings));
+                }
+                numberOfEntries += size;
+                files.put(fileName, new SensorCatalog.FileState(contentHash, entries));
+            }
+            log.info("Read sensor catalog snapshot of {} files and {} sensors in {} ms", numberOfFiles, numberOfEntries,
+                    (System.nanoTime() - startedNanos) / 1_000_000);
+            return files;
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            log.warn("Failed to read sensor catalog snapshot {}. The sensor files are parsed. Reason: {}", file, e.toString());
+            return new LinkedHashMap<>();
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, SensorCatalog.Entry entry, StringTable strings) throws IOException {
+        MetasysSensorId sensorId = entry.getSensorId();
+        RecTags recTags = entry.getRecTags();
+        out.writeInt(entry.getFingerprint());
+        out.writeInt(strings.indexOf(sensorId.getId()));
+        out.writeInt(strings.indexOf(sensorId.getMetasysObjectId()));
+        out.writeInt(strings.indexOf(sensorId.getIdentifier(MetasysSensorId.METASYS_OBJECT_REFERENCE)));
+        out.writeInt(strings.indexOf(entry.getInterval()));
+        out.writeByte(recTags == null ? 0 : HAS_REC_TAGS);
+        if (recTags != null) {
+            for (String value : recTagsValues(recTags)) {
+                out.writeInt(strings.indexOf(value));
+            }
+        }
+    }
+
+    private static SensorCatalog.Entry readEntry(MappedByteBuffer buffer, String[] strings) {
+        int fingerprint = buffer.getInt();
+        String twinId = string(strings, buffer.getInt());
+        String metasysObjectId = string(strings, buffer.getInt());
+        String metasysObjectReference = string(strings, buffer.getInt());
+        String interval = string(strings, buffer.getInt());
+        RecTags recTags = null;
+        if (buffer.get() == HAS_REC_TAGS) {
+            recTags = new RecTags(string(strings, buffer.getInt()));
+            recTags.setSensorSystem(string(strings, buffer.getInt()));
+            recTags.setTfm(string(strings, buffer.getInt()));
+            recTags.setName(string(strings, buffer.getInt()));
+            recTags.setRealEstate(string(strings, buffer.getInt()));
+            recTags.setBuilding(string(strings, buffer.getInt()));
+            recTags.setSection(string(strings, buffer.getInt()));
+            recTags.setFloor(string(strings, buffer.getInt()));
+            recTags.setServesRoom(string(strings, buffer.getInt()));
+            recTags.setPlacementRoom(string(strings, buffer.getInt()));
+            recTags.setSensorType(string(strings, buffer.getInt()));
+            recTags.setMeasurementUnit(string(strings, buffer.getInt()));
+        }
+        return new SensorCatalog.Entry(new MetasysSensorId(twinId, metasysObjectId, metasysObjectReference), recTags, interval, fingerprint);
+    }
+
+    /**
+     * The RecTags fields set by the import, in the order they are written
+     */
+    private static String[] recTagsValues(RecTags recTags) {
+        return new String[]{recTags.getTwinId(), recTags.getSensorSystem(), recTags.getTfm(), recTags.getName(),
+                recTags.getRealEstate(), recTags.getBuilding(), recTags.getSection(), recTags.getFloor(),
+                recTags.getServesRoom(), recTags.getPlacementRoom(), recTags.getSensorType(), recTags.getMeasurementUnit()};
+    }
+
+    private static String string(String[] strings, int index) {
+        return index == NO_STRING ? null : strings[index];
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    private static class StringTable {
+        private final List<String> values = new ArrayList<>();
+        private final Map<String, Integer> indexes = new HashMap<>();
+
+        int indexOf(String value) {
+            if (value == null) {
+                return NO_STRING;
+            }
+            Integer index = indexes.get(value);
+            if (index == null) {
+                index = values.size();
+                values.add(value);
+                indexes.put(value, index);
+            }
+            return index;
+        }
+
+        void addAll(SensorCatalog.Entry entry) {
+            indexOf(entry.getSensorId().getId());
+            indexOf(entry.getSensorId().getMetasysObjectId());
+            indexOf(entry.getSensorId().getIdentifier(MetasysSensorId.METASYS_OBJECT_REFERENCE));
+            indexOf(entry.getInterval());
+            if (entry.getRecTags() != null) {
+                for (String value : recTagsValues(entry.getRecTags())) {
+                    indexOf(value);
+                }
+            }
+        }
+    }
+}
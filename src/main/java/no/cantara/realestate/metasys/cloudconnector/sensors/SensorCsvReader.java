@@ -0,0 +1,299 @@
+package no.cantara.realestate.metasys.cloudconnector.sensors;
+
+import no.cantara.realestate.metasys.cloudconnector.MetasysCloudConnectorException;
+import no.cantara.realestate.metasys.cloudconnector.utils.CanonicalStrings;
+import no.cantara.realestate.rec.RecTags;
+import no.cantara.realestate.sensors.metasys.MetasysSensorId;
+import org.slf4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Reads the Metasys sensor CSV files row by row, and builds sensorId, RecTags and Interval from the column indexes
+ * found in the header, without a map per row.
+ * <p>
+ * Lines are handed to the parser threads in chunks of chunkRows, so a large file is parsed by several threads, and
+ * several files at once. The rows come back in file and row order. A field may be quoted with ", but can not span
+ * lines. The separator is , or ; as found in the header.
+ * <p>
+ * Columns repeated across sensors, like Building, Floor, SensorType and MeasurementUnit, are canonicalized, so
+ * 100k sensors in one building keep one "Building" string, not 100k copies.
+ */
+public class SensorCsvReader {
+    private static final Logger log = getLogger(SensorCsvReader.class);
+    static final int DEFAULT_CHUNK_ROWS = 2000;
+
+    private final int parallelism;
+    private final int chunkRows;
+    private final CanonicalStrings strings;
+    private volatile long lastRowsRead = 0;
+    private volatile long lastRowsPerSecond = 0;
+
+    public SensorCsvReader() {
+        this(Math.min(Runtime.getRuntime().availableProcessors(), 8), DEFAULT_CHUNK_ROWS);
+    }
+
+    public SensorCsvReader(int parallelism, int chunkRows) {
+        this(parallelism, chunkRows, CanonicalStrings.shared());
+    }
+
+    public SensorCsvReader(int parallelism, int chunkRows, CanonicalStrings strings) {
+        this.parallelism = Math.max(1, parallelism);
+        this.chunkRows = Math.max(1, chunkRows);
+        this.strings = strings;
+    }
+
+    public List<SensorCatalog.Entry> read(Path file) {
+        return readAll(List.of(file)).get(file);
+    }
+
+    /**
+     * Read the files in parallel. A file that can not be read gives no rows, and a warning.
+     *
+     * @return the rows of each file, in the order of the files
+     */
+    public Map<Path, List<SensorCatalog.Entry>> readAll(List<Path> files) {
+        Map<Path, List<SensorCatalog.Entry>> result = new LinkedHashMap<>();
+        if (files.isEmpty()) {
+            return result;
+        }
+        long startedNanos = System.nanoTime();
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "SensorCsvReader-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        long rows = 0;
+        try {
+            Map<Path, List<Future<List<SensorCatalog.Entry>>>> chunksPerFile = new LinkedHashMap<>();
+            for (Path file : files) {
+                chunksPerFile.put(file, submitChunks(file, executor));
+            }
+            for (Map.Entry<Path, List<Future<List<SensorCatalog.Entry>>>> fileChunks : chunksPerFile.entrySet()) {
+                List<SensorCatalog.Entry> entries = new ArrayList<>();
+                try {
+                    for (Future<List<SensorCatalog.Entry>> chunk : fileChunks.getValue()) {
+                        entries.addAll(chunk.get());
+                    }
+                } catch (ExecutionException e) {
+                    MetasysCloudConnectorException csvParseException = new MetasysCloudConnectorException("Failed to import sensors from file: " + fileChunks.getKey(), e.getCause());
+                    log.warn("SensorCsvImportFailed - {}", csvParseException.getMessage(), csvParseException);
+                    entries = new ArrayList<>();
+                }
+                rows += entries.size();
+                result.put(fileChunks.getKey(), entries);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MetasysCloudConnectorException("Interrupted while importing sensors from " + files.size() + " files", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        long elapsedMillis = Math.max(1, (System.nanoTime() - startedNanos) / 1_000_000);
+        lastRowsRead = rows;
+        lastRowsPerSecond = rows * 1000 / elapsedMillis;
+        log.info("Read {} sensor rows from {} files in {} ms, {} rows/s", rows, files.size(), elapsedMillis, lastRowsPerSecond);
+        return result;
+    }
+
+    private List<Future<List<SensorCatalog.Entry>>> submitChunks(Path file, ExecutorService executor) {
+        List<Future<List<SensorCatalog.Entry>>> chunks = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String headerLine = reader.readLine();
+            if (headerLine == null) {
+                return chunks;
+            }
+            if (headerLine.startsWith("\uFEFF")) {
+                headerLine = headerLine.substring(1);
+            }
+            char separator = headerLine.indexOf(',') < 0 && headerLine.indexOf(';') >= 0 ? ';' : ',';
+            Columns columns = new Columns(split(headerLine, separator), strings);
+            List<String> lines = new ArrayList<>(chunkRows);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                lines.add(line);
+                if (lines.size() == chunkRows) {
+                    chunks.add(submitChunk(lines, columns, separator, executor));
+                    lines = new ArrayList<>(chunkRows);
+                }
+            }
+            if (!lines.isEmpty()) {
+                chunks.add(submitChunk(lines, columns, separator, executor));
+            }
+        } catch (IOException e) {
+            // Drop the chunks read so far, the file is imported as a whole or not at all
+            for (Future<List<SensorCatalog.Entry>> chunk : chunks) {
+                chunk.cancel(true);
+            }
+            MetasysCloudConnectorException csvParseException = new MetasysCloudConnectorException("Failed to import sensors from file: " + file, e);
+            log.warn("SensorCsvImportFailed - {}", csvParseException.getMessage(), csvParseException);
+            return new ArrayList<>();
+        }
+        return chunks;
+    }
+
+    private static Future<List<SensorCatalog.Entry>> submitChunk(List<String> lines, Columns columns, char separator, ExecutorService executor) {
+        return executor.submit(() -> {
+            List<SensorCatalog.Entry> entries = new ArrayList<>(lines.size());
+            for (String line : lines) {
+                SensorCatalog.Entry entry = columns.toEntry(split(line, separator), line);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+            return entries;
+        });
+    }
+
+    /**
+     * Split one line into fields. A quoted field may contain the separator, and "" for a quote.
+     */
+    static String[] split(String line, char separator) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == separator) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
+
+    public long getLastRowsRead() {
+        return lastRowsRead;
+    }
+
+    /**
+     * @return rows per second of the last read, 0 before the first read
+     */
+    public long getLastRowsPerSecond() {
+        return lastRowsPerSecond;
+    }
+
+    /**
+     * Index of each known column in the header, -1 when the file does not have it
+     */
+    private static final class Columns {
+        //RecId,Tfm,MetasysObjectReference,MetasysObjectId,Name,Description,RealEstate,Building,Section,Floor,ServesRoom,PlacementRoom,SensorType,MeasurementUnit,Interval
+        private final int digitalTwinId;
+        private final int recId;
+        private final int metasysObjectId;
+        private final int metasysObjectReference;
+        private final int tfm;
+        private final int name;
+        private final int realEstate;
+        private final int building;
+        private final int section;
+        private final int floor;
+        private final int servesRoom;
+        private final int placementRoom;
+        private final int sensorType;
+        private final int measurementUnit;
+        private final int interval;
+        private final CanonicalStrings strings;
+
+        private Columns(String[] header, CanonicalStrings strings) {
+            this.strings = strings;
+            Map<String, Integer> indexes = new HashMap<>();
+            for (int i = 0; i < header.length; i++) {
+                indexes.putIfAbsent(header[i].trim(), i);
+            }
+            digitalTwinId = indexes.getOrDefault("DigitalTwinId", -1);
+            recId = indexes.getOrDefault("RecId", -1);
+            metasysObjectId = indexes.getOrDefault("MetasysObjectId", -1);
+            metasysObjectReference = indexes.getOrDefault("MetasysObjectReference", -1);
+            tfm = indexes.getOrDefault("Tfm", -1);
+            name = indexes.getOrDefault("Name", -1);
+            realEstate = indexes.getOrDefault("RealEstate", -1);
+            building = indexes.getOrDefault("Building", -1);
+            section = indexes.getOrDefault("Section", -1);
+            floor = indexes.getOrDefault("Floor", -1);
+            servesRoom = indexes.getOrDefault("ServesRoom", -1);
+            placementRoom = indexes.getOrDefault("PlacementRoom", -1);
+            sensorType = indexes.getOrDefault("SensorType", -1);
+            measurementUnit = indexes.getOrDefault("MeasurementUnit", -1);
+            interval = indexes.getOrDefault("Interval", -1);
+        }
+
+        /**
+         * @return the row, or null when both DigitalTwinId and RecId are empty
+         */
+        private SensorCatalog.Entry toEntry(String[] fields, String line) {
+            String rec = field(fields, recId);
+            String twinId = field(fields, digitalTwinId);
+            if (twinId == null || twinId.isEmpty()) {
+                twinId = rec;
+            }
+            if (twinId == null || twinId.isEmpty()) {
+                return null;
+            }
+            MetasysSensorId sensorId = new MetasysSensorId(twinId, field(fields, metasysObjectId), field(fields, metasysObjectReference));
+            RecTags recTags = null;
+            if (rec != null && !rec.isEmpty()) {
+                recTags = new RecTags(rec);
+                recTags.setSensorSystem("Metasys");
+                recTags.setTfm(field(fields, tfm));
+                recTags.setName(field(fields, name));
+                recTags.setRealEstate(strings.canonical(field(fields, realEstate)));
+                recTags.setBuilding(strings.canonical(field(fields, building)));
+                recTags.setSection(strings.canonical(field(fields, section)));
+                recTags.setFloor(strings.canonical(field(fields, floor)));
+                recTags.setServesRoom(strings.canonical(field(fields, servesRoom)));
+                recTags.setPlacementRoom(strings.canonical(field(fields, placementRoom)));
+                recTags.setSensorType(strings.canonical(field(fields, sensorType)));
+                recTags.setMeasurementUnit(strings.canonical(field(fields, measurementUnit)));
+            }
+            String intervalValue = field(fields, interval);
+            if (intervalValue != null) {
+                intervalValue = intervalValue.isBlank() ? null : strings.canonical(intervalValue.trim());
+            }
+            return new SensorCatalog.Entry(sensorId, recTags, intervalValue, line.hashCode());
+        }
+
+        private static String field(String[] fields, int index) {
+            if (index < 0) {
+                return null;
+            }
+            return index < fields.length ? fields[index] : "";
+        }
+    }
+}
@@ -72,7 +72,8 @@ public class SensorFileWatcher implements Runnable {
         watchService = FileSystems.getDefault().newWatchService();
         directoryPath.register(watchService,
                 StandardWatchEventKinds.ENTRY_CREATE,
-                StandardWatchEventKinds.ENTRY_MODIFY);
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
 
         running.set(true);
         watcherThread = new Thread(this, "SensorFileWatcher-" + directoryPath.getFileName());
@@ -0,0 +1,71 @@
+package no.cantara.realestate.metasys.cloudconnector.sensors;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns a dense int slot to every sensorId seen. Per-sensor state can then be kept in primitive arrays
+ * indexed by slot, instead of one object per sensor in a map.
+ * Slots are never reused, so a slot stays valid for the lifetime of the index.
+ */
+public class SensorIndex {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final ConcurrentHashMap<String, Integer> slots = new ConcurrentHashMap<>();
+    private volatile String[] sensorIds = new String[INITIAL_CAPACITY];
+    private volatile int size = 0;
+
+    /**
+     * Find the slot of a sensorId, assigning a new slot if the sensorId is unknown.
+     *
+     * @param sensorId the twinId of the sensor
+     * @return slot for the sensorId, or -1 if sensorId is null
+     */
+    public int slotOf(String sensorId) {
+        if (sensorId == null) {
+            return -1;
+        }
+        Integer slot = slots.get(sensorId);
+        if (slot != null) {
+            return slot;
+        }
+        synchronized (this) {
+            slot = slots.get(sensorId);
+            if (slot == null) {
+                slot = size;
+                if (slot >= sensorIds.length) {
+                    sensorIds = Arrays.copyOf(sensorIds, sensorIds.length * 2);
+                }
+                sensorIds[slot] = sensorId;
+                size = slot + 1;
+                slots.put(sensorId, slot);
+            }
+            return slot;
+        }
+    }
+
+    /**
+     * Find the slot of a sensorId without assigning a new one.
+     *
+     * @param sensorId the twinId of the sensor
+     * @return slot for the sensorId, or -1 if sensorId is not known
+     */
+    public int find(String sensorId) {
+        if (sensorId == null) {
+            return -1;
+        }
+        Integer slot = slots.get(sensorId);
+        return slot == null ? -1 : slot;
+    }
+
+    public String sensorIdAt(int slot) {
+        if (slot < 0 || slot >= size) {
+            return null;
+        }
+        return sensorIds[slot];
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,169 @@
+package no.cantara.realestate.metasys.cloudconnector.sensors;
+
+import no.cantara.realestate.sensors.SensorId;
+import no.cantara.realestate.sensors.metasys.MetasysSensorId;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The subscribed sensors, indexed by sensorId and by metasysObjectId.
+ * <p>
+ * Changes are copy-on-write. Each add or remove builds a new snapshot, and readers iterate the snapshot they got
+ * without locking, while a catalog reload replaces it. Add and remove a batch at once, so a reload of many sensors
+ * copies the registry once, not once per sensor. A sensorId is registered only once.
+ */
+public class SensorRegistry {
+
+    private volatile Snapshot snapshot = new Snapshot(List.of(), Map.of(), Map.of());
+
+    /**
+     * @return true if the sensor was added, false if the sensorId was already registered
+     */
+    public boolean add(SensorId sensorId) {
+        return sensorId != null && !addAll(List.of(sensorId)).isEmpty();
+    }
+
+    /**
+     * Add all sensors not already registered, in one change.
+     *
+     * @return the sensors added
+     */
+    public synchronized List<SensorId> addAll(Collection<? extends SensorId> sensorIds) {
+        Snapshot current = snapshot;
+        List<SensorId> added = new ArrayList<>();
+        Set<String> addedIds = new HashSet<>();
+        for (SensorId sensorId : sensorIds) {
+            if (sensorId != null && sensorId.getId() != null && !current.bySensorId.containsKey(sensorId.getId())
+                    && addedIds.add(sensorId.getId())) {
+                added.add(sensorId);
+            }
+        }
+        if (added.isEmpty()) {
+            return List.of();
+        }
+        List<SensorId> sensors = new ArrayList<>(current.sensors.size() + added.size());
+        sensors.addAll(current.sensors);
+        sensors.addAll(added);
+        snapshot = Snapshot.of(sensors);
+        return added;
+    }
+
+    /**
+     * @return true if the sensor was registered
+     */
+    public boolean remove(SensorId sensorId) {
+        return sensorId != null && !removeAll(List.of(sensorId)).isEmpty();
+    }
+
+    /**
+     * Remove the sensors with the same sensorIds, in one change.
+     *
+     * @return the sensors removed
+     */
+    public synchronized List<SensorId> removeAll(Collection<? extends SensorId> sensorIds) {
+        Snapshot current = snapshot;
+        Set<String> toRemove = new HashSet<>();
+        for (SensorId sensorId : sensorIds) {
+            if (sensorId != null && current.bySensorId.containsKey(sensorId.getId())) {
+                toRemove.add(sensorId.getId());
+            }
+        }
+        if (toRemove.isEmpty()) {
+            return List.of();
+        }
+        List<SensorId> sensors = new ArrayList<>(current.sensors.size() - toRemove.size());
+        List<SensorId> removed = new ArrayList<>(toRemove.size());
+        for (SensorId sensorId : current.sensors) {
+            if (toRemove.contains(sensorId.getId())) {
+                removed.add(sensorId);
+            } else {
+                sensors.add(sensorId);
+            }
+        }
+        snapshot = Snapshot.of(sensors);
+        return removed;
+    }
+
+    /**
+     * Remove and add in one change, eg. a sensor whose metasysObjectId changed is removed and added again.
+     * Readers see either the registry before, or after both.
+     */
+    public synchronized void update(Collection<? extends SensorId> toRemove, Collection<? extends SensorId> toAdd) {
+        Set<String> removeIds = new HashSet<>();
+        for (SensorId sensorId : toRemove) {
+            if (sensorId != null) {
+                removeIds.add(sensorId.getId());
+            }
+        }
+        List<SensorId> sensors = new ArrayList<>(snapshot.sensors.size() + toAdd.size());
+        Set<String> ids = new HashSet<>();
+        for (SensorId sensorId : snapshot.sensors) {
+            if (!removeIds.contains(sensorId.getId())) {
+                sensors.add(sensorId);
+                ids.add(sensorId.getId());
+            }
+        }
+        for (SensorId sensorId : toAdd) {
+            if (sensorId != null && sensorId.getId() != null && ids.add(sensorId.getId())) {
+                sensors.add(sensorId);
+            }
+        }
+        snapshot = Snapshot.of(sensors);
+    }
+
+    /**
+     * @return the registered sensors in the order they were added. Not changed by later adds and removes.
+     */
+    public List<SensorId> snapshot() {
+        return snapshot.sensors;
+    }
+
+    public boolean contains(String sensorId) {
+        return snapshot.bySensorId.containsKey(sensorId);
+    }
+
+    public SensorId findBySensorId(String sensorId) {
+        return snapshot.bySensorId.get(sensorId);
+    }
+
+    public List<SensorId> findByMetasysObjectId(String metasysObjectId) {
+        List<SensorId> sensors = snapshot.byMetasysObjectId.get(metasysObjectId);
+        return sensors == null ? List.of() : Collections.unmodifiableList(sensors);
+    }
+
+    public int size() {
+        return snapshot.sensors.size();
+    }
+
+    private static class Snapshot {
+        private final List<SensorId> sensors;
+        private final Map<String, SensorId> bySensorId;
+        private final Map<String, List<SensorId>> byMetasysObjectId;
+
+        private Snapshot(List<SensorId> sensors, Map<String, SensorId> bySensorId, Map<String, List<SensorId>> byMetasysObjectId) {
+            this.sensors = sensors;
+            this.bySensorId = bySensorId;
+            this.byMetasysObjectId = byMetasysObjectId;
+        }
+
+        static Snapshot of(List<SensorId> sensors) {
+            Map<String, SensorId> bySensorId = new HashMap<>(sensors.size() * 4 / 3 + 1);
+            Map<String, List<SensorId>> byMetasysObjectId = new HashMap<>(sensors.size() * 4 / 3 + 1);
+            for (SensorId sensorId : sensors) {
+                bySensorId.put(sensorId.getId(), sensorId);
+                if (sensorId instanceof MetasysSensorId metasysSensorId && metasysSensorId.getMetasysObjectId() != null) {
+                    // Several twins may share one Metasys object
+                    byMetasysObjectId.computeIfAbsent(metasysSensorId.getMetasysObjectId(), id -> new ArrayList<>(1)).add(sensorId);
+                }
+            }
+            return new Snapshot(Collections.unmodifiableList(sensors), bySensorId, byMetasysObjectId);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package no.cantara.realestate.metasys.cloudconnector.sharding;
+
+import java.util.Collection;
+
+/**
+ * Rendezvous (highest random weight) hashing. Each key is owned by the member with the highest weight for that key.
+ * When a member leaves, only the keys it owned move, and they spread evenly over the remaining members.
+ */
+public final class RendezvousHash {
+
+    private RendezvousHash() {
+    }
+
+    /**
+     * @return the member owning key, or null when there are no members
+     */
+    public static String owner(String key, Collection<String> members) {
+        String owner = null;
+        long highest = 0;
+        for (String member : members) {
+            long weight = weight(key, member);
+            if (owner == null || Long.compareUnsigned(weight, highest) > 0
+                    || (weight == highest && member.compareTo(owner) < 0)) {
+                owner = member;
+                highest = weight;
+            }
+        }
+        return owner;
+    }
+
+    /**
+     * FNV-1a over member and key, with a murmur3 finalizer so similar ids give unrelated weights.
+     */
+    static long weight(String key, String member) {
+        long hash = 0xcbf29ce484222325L;
+        hash = fnv(hash, member);
+        hash = (hash ^ '/') * 0x100000001b3L;
+        hash = fnv(hash, key);
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long fnv(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,207 @@
+package no.cantara.realestate.metasys.cloudconnector.sharding;
+
+import no.cantara.config.ApplicationProperties;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Membership of agent instances sharing the sensors of one Metasys server. Each instance keeps a lease file,
+ * instanceId.lease in a shared directory, holding the time it was last renewed. Instances with a lease renewed
+ * within leaseTimeout are members. Sensors are assigned to members by RendezvousHash on the sensorId, so when an
+ * instance disappears its sensors move to the others within one lease timeout.
+ * <pre>
+ * sharding.enabled=false
+ * sharding.directory=shards
+ * sharding.instanceId=
+ * sharding.heartbeatSeconds=10
+ * sharding.leaseTimeoutSeconds=35
+ * </pre>
+ * instanceId defaults to hostname-pid.
+ */
+public class ShardMembership implements AutoCloseable {
+    private static final Logger log = getLogger(ShardMembership.class);
+    public static final String CONFIG_PREFIX = "sharding";
+    public static final String ENABLED_KEY = CONFIG_PREFIX + ".enabled";
+    static final String LEASE_SUFFIX = ".lease";
+
+    private final Path directory;
+    private final String instanceId;
+    private final long heartbeatMillis;
+    private final long leaseTimeoutMillis;
+    private final Clock clock;
+    private final List<Consumer<Set<String>>> membershipListeners = new CopyOnWriteArrayList<>();
+    private volatile Set<String> members;
+    private volatile long membershipChanges = 0;
+    private ScheduledExecutorService heartbeat;
+
+    public ShardMembership(Path directory, String instanceId, long heartbeatMillis, long leaseTimeoutMillis, Clock clock) {
+        if (instanceId == null || instanceId.isBlank() || instanceId.contains("/") || instanceId.contains("\\")) {
+            throw new IllegalArgumentException("instanceId must be a valid file name. Was: " + instanceId);
+        }
+        this.directory = directory;
+        this.instanceId = instanceId;
+        this.heartbeatMillis = heartbeatMillis;
+        this.leaseTimeoutMillis = Math.max(leaseTimeoutMillis, 2 * heartbeatMillis);
+        this.clock = clock;
+        this.members = Set.of(instanceId);
+    }
+
+    public static ShardMembership fromConfig(ApplicationProperties config) {
+        Path directory = Paths.get(config.get(CONFIG_PREFIX + ".directory", "shards"));
+        String instanceId = config.get(CONFIG_PREFIX + ".instanceId", "");
+        if (instanceId == null || instanceId.isBlank()) {
+            instanceId = defaultInstanceId();
+        }
+        long heartbeatSeconds = config.asLong(CONFIG_PREFIX + ".heartbeatSeconds", 10L);
+        long leaseTimeoutSeconds = config.asLong(CONFIG_PREFIX + ".leaseTimeoutSeconds", 35L);
+        log.info("Sharding. Directory: {}, instanceId: {}, heartbeat: {} s, lease timeout: {} s",
+                directory.toAbsolutePath(), instanceId, heartbeatSeconds, leaseTimeoutSeconds);
+        return new ShardMembership(directory, instanceId, heartbeatSeconds * 1000, leaseTimeoutSeconds * 1000, Clock.systemUTC());
+    }
+
+    static String defaultInstanceId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "localhost";
+        }
+        return host.replaceAll("[^A-Za-z0-9._-]", "_") + "-" + ProcessHandle.current().pid();
+    }
+
+    /**
+     * Write the lease, read the other leases, and keep doing so every heartbeat.
+     */
+    public synchronized void start() throws IOException {
+        if (heartbeat != null) {
+            return;
+        }
+        Files.createDirectories(directory);
+        renewLease();
+        refreshMembers();
+        heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ShardMembership-Heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat.scheduleWithFixedDelay(this::heartbeat, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void heartbeat() {
+        try {
+            renewLease();
+        } catch (IOException e) {
+            log.warn("Failed to renew lease {} in {}. Reason: {}", instanceId, directory, e.getMessage());
+        }
+        try {
+            refreshMembers();
+        } catch (IOException e) {
+            log.warn("Failed to read leases in {}. Keeping members {}. Reason: {}", directory, members, e.getMessage());
+        }
+    }
+
+    /**
+     * Written to a temporary file and moved in place, so other instances never read a half written lease.
+     */
+    void renewLease() throws IOException {
+        Path lease = directory.resolve(instanceId + LEASE_SUFFIX);
+        Path tmp = directory.resolve(instanceId + LEASE_SUFFIX + ".tmp");
+        Files.writeString(tmp, Long.toString(clock.millis()), StandardCharsets.UTF_8);
+        Files.move(tmp, lease, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    void refreshMembers() throws IOException {
+        long now = clock.millis();
+        Set<String> live = new TreeSet<>();
+        live.add(instanceId);
+        try (DirectoryStream<Path> leases = Files.newDirectoryStream(directory, "*" + LEASE_SUFFIX)) {
+            for (Path lease : leases) {
+                String fileName = lease.getFileName().toString();
+                String member = fileName.substring(0, fileName.length() - LEASE_SUFFIX.length());
+                long renewedAt = readRenewedAt(lease);
+                if (renewedAt > 0 && now - renewedAt <= leaseTimeoutMillis) {
+                    live.add(member);
+                }
+            }
+        }
+        if (!live.equals(members)) {
+            log.info("Shard members changed from {} to {}", members, live);
+            members = Set.copyOf(live);
+            membershipChanges++;
+            for (Consumer<Set<String>> listener : membershipListeners) {
+                listener.accept(members);
+            }
+        }
+    }
+
+    private long readRenewedAt(Path lease) {
+        try {
+            return Long.parseLong(Files.readString(lease, StandardCharsets.UTF_8).trim());
+        } catch (IOException | NumberFormatException e) {
+            log.debug("Unable to read lease {}. Reason: {}", lease, e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * @return true when this instance should ingest the sensor
+     */
+    public boolean isOwner(String sensorId) {
+        return instanceId.equals(RendezvousHash.owner(sensorId, members));
+    }
+
+    public void addMembershipListener(Consumer<Set<String>> listener) {
+        membershipListeners.add(listener);
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    public Set<String> getMembers() {
+        return members;
+    }
+
+    public int getNumberOfMembers() {
+        return members.size();
+    }
+
+    public long getMembershipChanges() {
+        return membershipChanges;
+    }
+
+    /**
+     * Stop renewing, and remove the lease so the other instances take over at their next heartbeat.
+     */
+    @Override
+    public synchronized void close() {
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+            heartbeat = null;
+        }
+        try {
+            Files.deleteIfExists(directory.resolve(instanceId + LEASE_SUFFIX));
+        } catch (IOException e) {
+            log.warn("Failed to remove lease {} in {}. Reason: {}", instanceId, directory, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package no.cantara.realestate.metasys.cloudconnector.status;
+
+import java.util.Arrays;
+
+/**
+ * Up to capacity samples of one sensor, compressed as in Gorilla: timestamps as delta-of-delta and values as XOR
+ * with the previous value. Timestamps and values are written to separate bit streams.
+ * <p>
+ * Samples are kept in the order they were added. Timestamps may go backwards, as when a trend sample arrives after
+ * a stream value, at the cost of a few more bits. Not thread safe.
+ */
+final class CompressedSampleBlock {
+    // Object headers, fields and the two array headers
+    static final int OVERHEAD_BYTES = 96;
+    private static final int INITIAL_WORDS = 4;
+
+    private final int capacity;
+    private final BitStream times = new BitStream();
+    private final BitStream values = new BitStream();
+    private int count = 0;
+    private long minObservedAt = Long.MAX_VALUE;
+    private long maxObservedAt = Long.MIN_VALUE;
+
+    private long previousTime;
+    private long previousDelta;
+    private long previousValueBits;
+    private int previousLeading = -1;
+    private int previousTrailing;
+
+    CompressedSampleBlock(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return bytes the block grew by
+     */
+    long add(long observedAtMillis, double value) {
+        long bytesBefore = bytes();
+        long valueBits = Double.doubleToRawLongBits(value);
+        if (count == 0) {
+            times.write(observedAtMillis, 64);
+            values.write(valueBits, 64);
+        } else {
+            long delta = observedAtMillis - previousTime;
+            writeDeltaOfDelta(delta - previousDelta);
+            previousDelta = delta;
+            writeXor(valueBits ^ previousValueBits);
+        }
+        previousTime = observedAtMillis;
+        previousValueBits = valueBits;
+        minObservedAt = Math.min(minObservedAt, observedAtMillis);
+        maxObservedAt = Math.max(maxObservedAt, observedAtMillis);
+        count++;
+        return bytes() - bytesBefore;
+    }
+
+    private void writeDeltaOfDelta(long deltaOfDelta) {
+        if (deltaOfDelta == 0) {
+            times.write(0, 1);
+        } else if (fits(deltaOfDelta, 7)) {
+            times.write(0b10, 2);
+            times.write(deltaOfDelta, 7);
+        } else if (fits(deltaOfDelta, 12)) {
+            times.write(0b110, 3);
+            times.write(deltaOfDelta, 12);
+        } else if (fits(deltaOfDelta, 20)) {
+            times.write(0b1110, 4);
+            times.write(deltaOfDelta, 20);
+        } else if (fits(deltaOfDelta, 32)) {
+            times.write(0b11110, 5);
+            times.write(deltaOfDelta, 32);
+        } else {
+            times.write(0b11111, 5);
+            times.write(deltaOfDelta, 64);
+        }
+    }
+
+    private static boolean fits(long value, int bits) {
+        long limit = 1L << (bits - 1);
+        return value >= -limit && value < limit;
+    }
+
+    private void writeXor(long xor) {
+        if (xor == 0) {
+            values.write(0, 1);
+            return;
+        }
+        int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        int trailing = Long.numberOfTrailingZeros(xor);
+        if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+            // Meaningful bits fit in the window of the previous value
+            values.write(0b10, 2);
+            values.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+        } else {
+            int meaningful = 64 - leading - trailing;
+            values.write(0b11, 2);
+            values.write(leading, 5);
+            values.write(meaningful - 1, 6);
+            values.write(xor >>> trailing, meaningful);
+            previousLeading = leading;
+            previousTrailing = trailing;
+        }
+    }
+
+    /**
+     * Decode the samples in the order they were added
+     */
+    void forEach(RecentSamplesCache.SampleConsumer consumer) {
+        BitReader timeReader = new BitReader(times.words);
+        BitReader valueReader = new BitReader(values.words);
+        long time = 0;
+        long delta = 0;
+        long valueBits = 0;
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0) {
+                time = timeReader.read(64);
+                valueBits = valueReader.read(64);
+            } else {
+                delta += readDeltaOfDelta(timeReader);
+                time += delta;
+                if (valueReader.read(1) == 1) {
+                    if (valueReader.read(1) == 1) {
+                        leading = (int) valueReader.read(5);
+                        int meaningful = (int) valueReader.read(6) + 1;
+                        trailing = 64 - leading - meaningful;
+                    }
+                    valueBits ^= valueReader.read(64 - leading - trailing) << trailing;
+                }
+            }
+            consumer.accept(time, Double.longBitsToDouble(valueBits));
+        }
+    }
+
+    private static long readDeltaOfDelta(BitReader reader) {
+        int bits;
+        if (reader.read(1) == 0) {
+            return 0;
+        } else if (reader.read(1) == 0) {
+            bits = 7;
+        } else if (reader.read(1) == 0) {
+            bits = 12;
+        } else if (reader.read(1) == 0) {
+            bits = 20;
+        } else if (reader.read(1) == 0) {
+            bits = 32;
+        } else {
+            bits = 64;
+        }
+        long value = reader.read(bits);
+        // Sign extend
+        return bits == 64 ? value : (value << (64 - bits)) >> (64 - bits);
+    }
+
+    /**
+     * Drop the unused end of the bit streams, when no more samples will be added
+     */
+    long trim() {
+        long bytesBefore = bytes();
+        times.trim();
+        values.trim();
+        return bytes() - bytesBefore;
+    }
+
+    boolean isFull() {
+        return count >= capacity;
+    }
+
+    int size() {
+        return count;
+    }
+
+    long getMinObservedAt() {
+        return minObservedAt;
+    }
+
+    long getMaxObservedAt() {
+        return maxObservedAt;
+    }
+
+    long bytes() {
+        return OVERHEAD_BYTES + 8L * (times.words.length + values.words.length);
+    }
+
+    /**
+     * Bits written from the most significant bit of each word
+     */
+    private static final class BitStream {
+        private long[] words = new long[INITIAL_WORDS];
+        private int bits = 0;
+
+        void write(long value, int n) {
+            int needed = (bits + n + 63) >>> 6;
+            if (needed > words.length) {
+                words = Arrays.copyOf(words, Math.max(needed, words.length * 2));
+            }
+            if (n < 64) {
+                value &= (1L << n) - 1;
+            }
+            int word = bits >>> 6;
+            int free = 64 - (bits & 63);
+            if (n <= free) {
+                words[word] |= value << (free - n);
+            } else {
+                int rest = n - free;
+                words[word] |= value >>> rest;
+                words[word + 1] |= value << (64 - rest);
+            }
+            bits += n;
+        }
+
+        void trim() {
+            int used = (bits + 63) >>> 6;
+            if (used < words.length) {
+                words = Arrays.copyOf(words, used);
+            }
+        }
+    }
+
+    private static final class BitReader {
+        private final long[] words;
+        private int position = 0;
+
+        BitReader(long[] words) {
+            this.words = words;
+        }
+
+        long read(int n) {
+            int word = position >>> 6;
+            int free = 64 - (position & 63);
+            long result;
+            if (n <= free) {
+                result = words[word] >>> (free - n);
+            } else {
+                int rest = n - free;
+                result = (words[word] << rest) | (words[word + 1] >>> (64 - rest));
+            }
+            position += n;
+            return n == 64 ? result : result & ((1L << n) - 1);
+        }
+    }
+}
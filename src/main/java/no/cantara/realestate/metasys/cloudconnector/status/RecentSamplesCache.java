@@ -0,0 +1,285 @@
+package no.cantara.realestate.metasys.cloudconnector.status;
+
+import no.cantara.config.ApplicationProperties;
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorIndex;
+import org.slf4j.Logger;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * The last samples of each sensor, from both the trend and the stream path, to answer what a sensor reported
+ * recently.
+ * <pre>
+ * recentSamples.enabled=false
+ * recentSamples.samplesPerBlock=128
+ * recentSamples.maxBlocksPerSensor=8
+ * recentSamples.retentionSeconds=86400
+ * recentSamples.memoryBudgetMegabytes=64
+ * </pre>
+ * Samples are kept in CompressedSampleBlocks of samplesPerBlock, a sensor keeping at most maxBlocksPerSensor blocks
+ * and none older than retentionSeconds. When the blocks of all sensors take more than the memory budget, the oldest
+ * block of the next sensor in turn is dropped, so busy sensors may keep fewer samples than the limits allow.
+ */
+public class RecentSamplesCache {
+    private static final Logger log = getLogger(RecentSamplesCache.class);
+
+    public static final String CONFIG_PREFIX = "recentSamples";
+    public static final String ENABLED_KEY = CONFIG_PREFIX + ".enabled";
+
+    private final SensorIndex sensorIndex;
+    private final int samplesPerBlock;
+    private final int maxBlocksPerSensor;
+    private final long retentionMillis;
+    private final long memoryBudgetBytes;
+
+    // Indexed by SensorIndex slot. Grown under this.
+    private volatile SensorSamples[] sensors = new SensorSamples[0];
+    private final AtomicLong bytes = new AtomicLong();
+    private final LongAdder evictedBlocks = new LongAdder();
+    private int evictionCursor = 0;
+
+    @FunctionalInterface
+    public interface SampleConsumer {
+        void accept(long observedAtMillis, double value);
+    }
+
+    public RecentSamplesCache(SensorIndex sensorIndex, int samplesPerBlock, int maxBlocksPerSensor, long retentionMillis, long memoryBudgetBytes) {
+        this.sensorIndex = sensorIndex;
+        this.samplesPerBlock = Math.max(2, samplesPerBlock);
+        this.maxBlocksPerSensor = Math.max(1, maxBlocksPerSensor);
+        this.retentionMillis = retentionMillis;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+    }
+
+    public static RecentSamplesCache fromConfig(ApplicationProperties config, SensorIndex sensorIndex) {
+        int samplesPerBlock = (int) config.asLong(CONFIG_PREFIX + ".samplesPerBlock", 128L);
+        int maxBlocksPerSensor = (int) config.asLong(CONFIG_PREFIX + ".maxBlocksPerSensor", 8L);
+        long retentionMillis = config.asLong(CONFIG_PREFIX + ".retentionSeconds", 86400L) * 1000;
+        long memoryBudgetBytes = config.asLong(CONFIG_PREFIX + ".memoryBudgetMegabytes", 64L) * 1024 * 1024;
+        log.info("Recent samples cache. {} samples per block, {} blocks per sensor, retention {} ms, memory budget {} bytes",
+                samplesPerBlock, maxBlocksPerSensor, retentionMillis, memoryBudgetBytes);
+        return new RecentSamplesCache(sensorIndex, samplesPerBlock, maxBlocksPerSensor, retentionMillis, memoryBudgetBytes);
+    }
+
+    public SensorIndex getSensorIndex() {
+        return sensorIndex;
+    }
+
+    public void record(String twinId, long observedAtMillis, double value) {
+        record(sensorIndex.slotOf(twinId), observedAtMillis, value);
+    }
+
+    /**
+     * @param slot of the sensor in getSensorIndex()
+     */
+    public void record(int slot, long observedAtMillis, double value) {
+        if (slot < 0) {
+            return;
+        }
+        SensorSamples samples = sensorAt(slot);
+        if (samples == null) {
+            samples = addSensor(slot);
+        }
+        long grown;
+        synchronized (samples) {
+            grown = samples.add(observedAtMillis, value);
+        }
+        if (bytes.addAndGet(grown) > memoryBudgetBytes) {
+            evict();
+        }
+    }
+
+    /**
+     * @return the sample with the latest observedAt, or null if the sensor has none
+     */
+    public Sample latest(String twinId) {
+        SensorSamples samples = sensorAt(sensorIndex.find(twinId));
+        if (samples == null) {
+            return null;
+        }
+        synchronized (samples) {
+            return samples.hasLatest ? new Sample(samples.latestObservedAt, samples.latestValue) : null;
+        }
+    }
+
+    /**
+     * @return samples observed from, inclusive, to, exclusive, by observedAt
+     */
+    public List<Sample> range(String twinId, Instant from, Instant to) {
+        SensorSamples samples = sensorAt(sensorIndex.find(twinId));
+        List<Sample> result = new ArrayList<>();
+        if (samples == null) {
+            return result;
+        }
+        long fromMillis = from.toEpochMilli();
+        long toMillis = to.toEpochMilli();
+        synchronized (samples) {
+            for (CompressedSampleBlock block : samples.blocks) {
+                if (block.getMaxObservedAt() < fromMillis || block.getMinObservedAt() >= toMillis) {
+                    continue;
+                }
+                block.forEach((observedAtMillis, value) -> {
+                    if (observedAtMillis >= fromMillis && observedAtMillis < toMillis) {
+                        result.add(new Sample(observedAtMillis, value));
+                    }
+                });
+            }
+        }
+        result.sort(Comparator.comparingLong(Sample::getObservedAtMillis));
+        return result;
+    }
+
+    private SensorSamples sensorAt(int slot) {
+        SensorSamples[] current = sensors;
+        return slot >= 0 && slot < current.length ? current[slot] : null;
+    }
+
+    private synchronized SensorSamples addSensor(int slot) {
+        SensorSamples[] current = sensors;
+        if (slot >= current.length) {
+            current = Arrays.copyOf(current, Math.max(slot + 1, Math.max(64, current.length * 2)));
+        }
+        if (current[slot] == null) {
+            current[slot] = new SensorSamples();
+        }
+        sensors = current;
+        return current[slot];
+    }
+
+    /**
+     * Drop the oldest block of one sensor after the other until the cache is within the memory budget
+     */
+    private synchronized void evict() {
+        SensorSamples[] current = sensors;
+        int visitedWithoutEviction = 0;
+        while (bytes.get() > memoryBudgetBytes && visitedWithoutEviction < current.length) {
+            evictionCursor = evictionCursor >= current.length - 1 ? 0 : evictionCursor + 1;
+            SensorSamples samples = current[evictionCursor];
+            long freed = 0;
+            if (samples != null) {
+                synchronized (samples) {
+                    freed = samples.dropOldest();
+                }
+            }
+            if (freed > 0) {
+                bytes.addAndGet(-freed);
+                evictedBlocks.increment();
+                visitedWithoutEviction = 0;
+            } else {
+                visitedWithoutEviction++;
+            }
+        }
+    }
+
+    public long getMemoryBytes() {
+        return bytes.get();
+    }
+
+    public long getMemoryBudgetBytes() {
+        return memoryBudgetBytes;
+    }
+
+    public long getNumberOfEvictedBlocks() {
+        return evictedBlocks.sum();
+    }
+
+    public long getNumberOfSamples() {
+        long count = 0;
+        for (SensorSamples samples : sensors) {
+            if (samples != null) {
+                synchronized (samples) {
+                    for (CompressedSampleBlock block : samples.blocks) {
+                        count += block.size();
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Blocks of one sensor, oldest first. The last block is the one written to. Guarded by the instance.
+     */
+    private final class SensorSamples {
+        private final ArrayDeque<CompressedSampleBlock> blocks = new ArrayDeque<>();
+        private boolean hasLatest = false;
+        private long latestObservedAt;
+        private double latestValue;
+
+        /**
+         * @return bytes added, less bytes dropped
+         */
+        long add(long observedAtMillis, double value) {
+            long grown = 0;
+            CompressedSampleBlock open = blocks.peekLast();
+            if (open == null || open.isFull()) {
+                if (open != null) {
+                    grown += open.trim();
+                }
+                open = new CompressedSampleBlock(samplesPerBlock);
+                blocks.addLast(open);
+                grown += CompressedSampleBlock.OVERHEAD_BYTES;
+            }
+            grown += open.add(observedAtMillis, value);
+            if (!hasLatest || observedAtMillis >= latestObservedAt) {
+                hasLatest = true;
+                latestObservedAt = observedAtMillis;
+                latestValue = value;
+            }
+            long oldestKept = latestObservedAt - retentionMillis;
+            while (blocks.size() > maxBlocksPerSensor || (blocks.size() > 1 && blocks.peekFirst().getMaxObservedAt() < oldestKept)) {
+                grown -= blocks.removeFirst().bytes();
+            }
+            return grown;
+        }
+
+        /**
+         * @return bytes freed, 0 if only the block written to is left
+         */
+        long dropOldest() {
+            if (blocks.size() <= 1) {
+                return 0;
+            }
+            return blocks.removeFirst().bytes();
+        }
+    }
+
+    public static class Sample {
+        private final long observedAtMillis;
+        private final double value;
+
+        public Sample(long observedAtMillis, double value) {
+            this.observedAtMillis = observedAtMillis;
+            this.value = value;
+        }
+
+        public long getObservedAtMillis() {
+            return observedAtMillis;
+        }
+
+        public Instant getObservedAt() {
+            return Instant.ofEpochMilli(observedAtMillis);
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return "Sample{" +
+                    "observedAt=" + getObservedAt() +
+                    ", value=" + value +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package no.cantara.realestate.metasys.cloudconnector.status;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import no.cantara.realestate.json.RealEstateObjectMapper;
+import no.cantara.stingray.security.application.StingrayAction;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recent samples of a sensor, from the RecentSamplesCache.
+ * <pre>
+ * GET /samples/{twinId}/latest
+ * GET /samples/{twinId}?from=2024-01-01T10:00:00Z&amp;to=2024-01-01T11:00:00Z
+ * </pre>
+ * from and to are ISO-8601 instants. Without them the last hour is returned.
+ */
+@Path("/samples")
+public class RecentSamplesResource {
+    public static final Duration DEFAULT_RANGE = Duration.ofHours(1);
+
+    private final RecentSamplesCache recentSamplesCache;
+
+    public RecentSamplesResource(RecentSamplesCache recentSamplesCache) {
+        this.recentSamplesCache = recentSamplesCache;
+    }
+
+    @GET
+    @Path("/{twinId}/latest")
+    @Produces(MediaType.APPLICATION_JSON)
+    @StingrayAction("samples")
+    public Response getLatest(@PathParam("twinId") String twinId) {
+        RecentSamplesCache.Sample sample = recentSamplesCache.latest(twinId);
+        if (sample == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        Map<String, Object> body = asMap(sample);
+        body.put("twinId", twinId);
+        return json(body);
+    }
+
+    @GET
+    @Path("/{twinId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    @StingrayAction("samples")
+    public Response getRange(@PathParam("twinId") String twinId,
+                             @QueryParam("from") String from,
+                             @QueryParam("to") String to) {
+        Instant toInstant;
+        Instant fromInstant;
+        try {
+            toInstant = to == null ? Instant.now() : Instant.parse(to);
+            fromInstant = from == null ? toInstant.minus(DEFAULT_RANGE) : Instant.parse(from);
+        } catch (DateTimeParseException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("from and to must be ISO-8601 instants, eg. 2024-01-01T10:00:00Z").type(MediaType.TEXT_PLAIN_TYPE).build();
+        }
+        if (!fromInstant.isBefore(toInstant)) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("from must be before to").type(MediaType.TEXT_PLAIN_TYPE).build();
+        }
+        List<RecentSamplesCache.Sample> samples = recentSamplesCache.range(twinId, fromInstant, toInstant);
+
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("twinId", twinId);
+        body.put("from", fromInstant.toString());
+        body.put("to", toInstant.toString());
+        body.put("count", samples.size());
+        body.put("samples", samples.stream().map(RecentSamplesResource::asMap).toList());
+        return json(body);
+    }
+
+    static Map<String, Object> asMap(RecentSamplesCache.Sample sample) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("observedAt", sample.getObservedAt().toString());
+        map.put("value", sample.getValue());
+        return map;
+    }
+
+    private Response json(Object body) {
+        try {
+            String json = RealEstateObjectMapper.getInstance().getObjectMapper().writeValueAsString(body);
+            return Response.ok(json, MediaType.APPLICATION_JSON_TYPE).build();
+        } catch (JsonProcessingException e) {
+            return Response.serverError().entity("Failed to write samples as json. Reason: " + e.getMessage()).type(MediaType.TEXT_PLAIN_TYPE).build();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package no.cantara.realestate.metasys.cloudconnector.status;
+
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorType;
+
+import java.time.Instant;
+
+/**
+ * Snapshot of the freshness of one sensor, read from the SensorFreshnessIndex.
+ */
+public class SensorFreshness {
+    private final String twinId;
+    private final String building;
+    private final SensorType sensorType;
+    private final long lastObservedAtMillis;
+    private final int lastSource;
+    private final long lastFailedAtMillis;
+    private final String lastError;
+    private final int consecutiveFailures;
+
+    SensorFreshness(String twinId, String building, SensorType sensorType, long lastObservedAtMillis, int lastSource,
+                    long lastFailedAtMillis, String lastError, int consecutiveFailures) {
+        this.twinId = twinId;
+        this.building = building;
+        this.sensorType = sensorType;
+        this.lastObservedAtMillis = lastObservedAtMillis;
+        this.lastSource = lastSource;
+        this.lastFailedAtMillis = lastFailedAtMillis;
+        this.lastError = lastError;
+        this.consecutiveFailures = consecutiveFailures;
+    }
+
+    public String getTwinId() {
+        return twinId;
+    }
+
+    public String getBuilding() {
+        return building;
+    }
+
+    public SensorType getSensorType() {
+        return sensorType;
+    }
+
+    public Instant getLastObservedAt() {
+        return lastObservedAtMillis == 0 ? null : Instant.ofEpochMilli(lastObservedAtMillis);
+    }
+
+    /**
+     * @return stream, trend or null when never observed
+     */
+    public String getLastSource() {
+        switch (lastSource) {
+            case SensorFreshnessIndex.SOURCE_STREAM:
+                return "stream";
+            case SensorFreshnessIndex.SOURCE_TREND:
+                return "trend";
+            default:
+                return null;
+        }
+    }
+
+    public Instant getLastFailedAt() {
+        return lastFailedAtMillis == 0 ? null : Instant.ofEpochMilli(lastFailedAtMillis);
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    boolean isStale(long staleBeforeMillis) {
+        return lastObservedAtMillis == 0 || lastObservedAtMillis < staleBeforeMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "SensorFreshness{" +
+                "twinId='" + twinId + '\'' +
+                ", building='" + building + '\'' +
+                ", sensorType=" + sensorType +
+                ", lastObservedAt=" + getLastObservedAt() +
+                ", lastSource=" + getLastSource() +
+                ", lastFailedAt=" + getLastFailedAt() +
+                ", lastError='" + lastError + '\'' +
+                ", consecutiveFailures=" + consecutiveFailures +
+                '}';
+    }
+}
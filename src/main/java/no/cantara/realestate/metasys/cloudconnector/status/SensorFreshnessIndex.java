@@ -0,0 +1,309 @@
+package no.cantara.realestate.metasys.cloudconnector.status;
+
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorIndex;
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorType;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+/**
+ * Freshness per sensor: when the last observation was seen, from which path, the last error and the number of
+ * consecutive failures. State is kept in atomic arrays indexed by the SensorIndex slot, in chunks of CHUNK_SIZE
+ * sensors. Recording on the stream and trend paths takes no locks; only adding a new chunk is synchronized.
+ */
+public class SensorFreshnessIndex {
+    public static final int SOURCE_NONE = 0;
+    public static final int SOURCE_STREAM = 1;
+    public static final int SOURCE_TREND = 2;
+    public static final String UNKNOWN_BUILDING = "unknown";
+
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final SensorIndex sensorIndex;
+    private volatile Chunk[] chunks = new Chunk[0];
+
+    public SensorFreshnessIndex(SensorIndex sensorIndex) {
+        this.sensorIndex = sensorIndex;
+    }
+
+    /**
+     * Add building and SensorType of a sensor, used for filtering and grouping of stale sensors.
+     * Sensors are also known when an observation or a failure is recorded for them.
+     */
+    public void registerSensor(String twinId, String building, String sensorType) {
+        int slot = sensorIndex.slotOf(twinId);
+        if (slot < 0) {
+            return;
+        }
+        Chunk chunk = chunkFor(slot);
+        chunk.buildings.set(slot & CHUNK_MASK, building == null || building.isBlank() ? UNKNOWN_BUILDING : building);
+        chunk.sensorTypes.set(slot & CHUNK_MASK, SensorType.from(sensorType));
+        chunk.registered.set(slot & CHUNK_MASK, 1);
+    }
+
+    /**
+     * @param twinId     sensor the observation is for
+     * @param observedAt when the value was observed, now if null
+     * @param source     SOURCE_STREAM or SOURCE_TREND
+     */
+    public void recordObserved(String twinId, Instant observedAt, int source) {
+        recordObserved(twinId, observedAt == null ? System.currentTimeMillis() : observedAt.toEpochMilli(), source);
+    }
+
+    public void recordObserved(String twinId, long observedAtMillis, int source) {
+        int slot = sensorIndex.slotOf(twinId);
+        if (slot < 0) {
+            return;
+        }
+        Chunk chunk = chunkFor(slot);
+        int i = slot & CHUNK_MASK;
+        chunk.lastObservedAt.accumulateAndGet(i, observedAtMillis, Math::max);
+        chunk.lastSource.set(i, source);
+        chunk.registered.set(i, 1);
+    }
+
+    /**
+     * A trend request for the sensor succeeded, even if no new samples were found.
+     */
+    public void recordSuccess(String twinId) {
+        int slot = sensorIndex.find(twinId);
+        if (slot < 0 || slot >= capacity()) {
+            return;
+        }
+        chunks[slot >>> CHUNK_BITS].consecutiveFailures.set(slot & CHUNK_MASK, 0);
+    }
+
+    public void recordFailure(String twinId, String error) {
+        int slot = sensorIndex.slotOf(twinId);
+        if (slot < 0) {
+            return;
+        }
+        Chunk chunk = chunkFor(slot);
+        int i = slot & CHUNK_MASK;
+        chunk.consecutiveFailures.incrementAndGet(i);
+        chunk.lastFailedAt.set(i, System.currentTimeMillis());
+        chunk.lastErrors.set(i, error);
+        chunk.registered.set(i, 1);
+    }
+
+    /**
+     * Forget a sensor no longer subscribed to, so it is neither counted nor listed as stale. The SensorIndex slot is
+     * never reused. The sensor is known again when it is registered, or an observation or failure is recorded for it.
+     */
+    public void remove(String twinId) {
+        int slot = sensorIndex.find(twinId);
+        if (slot < 0 || slot >= capacity()) {
+            return;
+        }
+        Chunk chunk = chunks[slot >>> CHUNK_BITS];
+        int i = slot & CHUNK_MASK;
+        chunk.registered.set(i, 0);
+        chunk.lastObservedAt.set(i, 0);
+        chunk.lastSource.set(i, SOURCE_NONE);
+        chunk.lastFailedAt.set(i, 0);
+        chunk.consecutiveFailures.set(i, 0);
+        chunk.lastErrors.set(i, null);
+        chunk.buildings.set(i, null);
+        chunk.sensorTypes.set(i, null);
+    }
+
+    public SensorFreshness getFreshness(String twinId) {
+        int slot = sensorIndex.find(twinId);
+        if (slot < 0 || slot >= capacity()) {
+            return null;
+        }
+        return freshnessAt(slot);
+    }
+
+    /**
+     * Sensors matching the query, sorted by slot. Page numbers start at 0.
+     */
+    public List<SensorFreshness> find(Query query, Instant now, int page, int pageSize) {
+        List<SensorFreshness> result = new ArrayList<>(Math.max(0, pageSize));
+        if (page < 0 || pageSize <= 0) {
+            return result;
+        }
+        long skip = (long) page * pageSize;
+        Predicate<SensorFreshness> matches = query.matcher(now);
+        int size = Math.min(sensorIndex.size(), capacity());
+        for (int slot = 0; slot < size && result.size() < pageSize; slot++) {
+            SensorFreshness freshness = freshnessAt(slot);
+            if (freshness != null && matches.test(freshness)) {
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    result.add(freshness);
+                }
+            }
+        }
+        return result;
+    }
+
+    public StaleCounts countStale(Query query, Instant now) {
+        StaleCounts counts = new StaleCounts();
+        long staleBefore = query.staleBefore(now);
+        Predicate<SensorFreshness> matches = query.withStaleOnly(false).matcher(now);
+        int size = Math.min(sensorIndex.size(), capacity());
+        for (int slot = 0; slot < size; slot++) {
+            SensorFreshness freshness = freshnessAt(slot);
+            if (freshness != null && matches.test(freshness)) {
+                counts.add(freshness, freshness.isStale(staleBefore));
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Number of sensors not observed within staleAfterSeconds. Suitable as a health probe.
+     */
+    public long getNumberOfStaleSensors(long staleAfterSeconds) {
+        return countStale(new Query(staleAfterSeconds, null, null, false), Instant.now()).getStale();
+    }
+
+    public int getNumberOfSensors() {
+        int count = 0;
+        int size = Math.min(sensorIndex.size(), capacity());
+        for (int slot = 0; slot < size; slot++) {
+            if (chunks[slot >>> CHUNK_BITS].registered.get(slot & CHUNK_MASK) != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    SensorFreshness freshnessAt(int slot) {
+        Chunk chunk = chunks[slot >>> CHUNK_BITS];
+        int i = slot & CHUNK_MASK;
+        if (chunk.registered.get(i) == 0) {
+            return null;
+        }
+        SensorType sensorType = chunk.sensorTypes.get(i);
+        String building = chunk.buildings.get(i);
+        return new SensorFreshness(sensorIndex.sensorIdAt(slot),
+                building == null ? UNKNOWN_BUILDING : building,
+                sensorType == null ? SensorType.unknown : sensorType,
+                chunk.lastObservedAt.get(i), chunk.lastSource.get(i),
+                chunk.lastFailedAt.get(i), chunk.lastErrors.get(i), chunk.consecutiveFailures.get(i));
+    }
+
+    private int capacity() {
+        return chunks.length << CHUNK_BITS;
+    }
+
+    private Chunk chunkFor(int slot) {
+        Chunk[] current = chunks;
+        int chunkIndex = slot >>> CHUNK_BITS;
+        if (chunkIndex < current.length) {
+            return current[chunkIndex];
+        }
+        synchronized (this) {
+            current = chunks;
+            if (chunkIndex >= current.length) {
+                Chunk[] grown = Arrays.copyOf(current, chunkIndex + 1);
+                for (int c = current.length; c < grown.length; c++) {
+                    grown[c] = new Chunk();
+                }
+                chunks = grown;
+                current = grown;
+            }
+            return current[chunkIndex];
+        }
+    }
+
+    private static class Chunk {
+        final AtomicIntegerArray registered = new AtomicIntegerArray(CHUNK_SIZE);
+        final AtomicLongArray lastObservedAt = new AtomicLongArray(CHUNK_SIZE);
+        final AtomicIntegerArray lastSource = new AtomicIntegerArray(CHUNK_SIZE);
+        final AtomicLongArray lastFailedAt = new AtomicLongArray(CHUNK_SIZE);
+        final AtomicIntegerArray consecutiveFailures = new AtomicIntegerArray(CHUNK_SIZE);
+        final AtomicReferenceArray<String> lastErrors = new AtomicReferenceArray<>(CHUNK_SIZE);
+        final AtomicReferenceArray<String> buildings = new AtomicReferenceArray<>(CHUNK_SIZE);
+        final AtomicReferenceArray<SensorType> sensorTypes = new AtomicReferenceArray<>(CHUNK_SIZE);
+    }
+
+    /**
+     * Filter on building and SensorType, both optional. A sensor is stale when it has not been observed
+     * within staleAfterSeconds, or never.
+     */
+    public static class Query {
+        private final long staleAfterSeconds;
+        private final String building;
+        private final SensorType sensorType;
+        private final boolean staleOnly;
+
+        public Query(long staleAfterSeconds, String building, String sensorType, boolean staleOnly) {
+            this.staleAfterSeconds = staleAfterSeconds;
+            this.building = building == null || building.isBlank() ? null : building;
+            this.sensorType = sensorType == null || sensorType.isBlank() ? null : SensorType.from(sensorType);
+            this.staleOnly = staleOnly;
+        }
+
+        private Query(Query query, boolean staleOnly) {
+            this.staleAfterSeconds = query.staleAfterSeconds;
+            this.building = query.building;
+            this.sensorType = query.sensorType;
+            this.staleOnly = staleOnly;
+        }
+
+        Query withStaleOnly(boolean staleOnly) {
+            return new Query(this, staleOnly);
+        }
+
+        long staleBefore(Instant now) {
+            return now.toEpochMilli() - staleAfterSeconds * 1000L;
+        }
+
+        Predicate<SensorFreshness> matcher(Instant now) {
+            long staleBefore = staleBefore(now);
+            return freshness -> (building == null || building.equalsIgnoreCase(freshness.getBuilding()))
+                    && (sensorType == null || sensorType == freshness.getSensorType())
+                    && (!staleOnly || freshness.isStale(staleBefore));
+        }
+
+        public long getStaleAfterSeconds() {
+            return staleAfterSeconds;
+        }
+    }
+
+    public static class StaleCounts {
+        private long total = 0;
+        private long stale = 0;
+        private final Map<String, Long> staleByBuilding = new TreeMap<>();
+        private final Map<String, Long> staleBySensorType = new TreeMap<>();
+
+        void add(SensorFreshness freshness, boolean isStale) {
+            total++;
+            if (isStale) {
+                stale++;
+                staleByBuilding.merge(freshness.getBuilding(), 1L, Long::sum);
+                staleBySensorType.merge(freshness.getSensorType().name(), 1L, Long::sum);
+            }
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public long getStale() {
+            return stale;
+        }
+
+        public Map<String, Long> getStaleByBuilding() {
+            return staleByBuilding;
+        }
+
+        public Map<String, Long> getStaleBySensorType() {
+            return staleBySensorType;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package no.cantara.realestate.metasys.cloudconnector.status;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import no.cantara.realestate.json.RealEstateObjectMapper;
+import no.cantara.stingray.security.application.StingrayAction;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Freshness per sensor, to find sensors that no longer deliver observations.
+ * <pre>
+ * GET /freshness?page=0&amp;pageSize=100&amp;staleAfterSeconds=3600&amp;building=B1&amp;sensorType=temp&amp;staleOnly=true
+ * GET /freshness/{twinId}
+ * </pre>
+ * The list response includes the number of stale sensors per building and per SensorType, for the same
+ * building and sensorType filter.
+ */
+@Path("/freshness")
+public class SensorFreshnessResource {
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    private final SensorFreshnessIndex freshnessIndex;
+    private final long defaultStaleAfterSeconds;
+
+    public SensorFreshnessResource(SensorFreshnessIndex freshnessIndex, long defaultStaleAfterSeconds) {
+        this.freshnessIndex = freshnessIndex;
+        this.defaultStaleAfterSeconds = defaultStaleAfterSeconds;
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @StingrayAction("freshness")
+    public Response findSensors(@QueryParam("page") @DefaultValue("0") int page,
+                                @QueryParam("pageSize") @DefaultValue("100") int pageSize,
+                                @QueryParam("staleAfterSeconds") Long staleAfterSeconds,
+                                @QueryParam("building") String building,
+                                @QueryParam("sensorType") String sensorType,
+                                @QueryParam("staleOnly") @DefaultValue("false") boolean staleOnly) {
+        if (page < 0 || pageSize <= 0) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("page must be 0 or more and pageSize above 0").type(MediaType.TEXT_PLAIN_TYPE).build();
+        }
+        int limitedPageSize = Math.min(pageSize, MAX_PAGE_SIZE);
+        long staleAfter = staleAfterSeconds == null ? defaultStaleAfterSeconds : staleAfterSeconds;
+        SensorFreshnessIndex.Query query = new SensorFreshnessIndex.Query(staleAfter, building, sensorType, staleOnly);
+        Instant now = Instant.now();
+        List<SensorFreshness> sensors = freshnessIndex.find(query, now, page, limitedPageSize);
+        SensorFreshnessIndex.StaleCounts staleCounts = freshnessIndex.countStale(query, now);
+
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("page", page);
+        body.put("pageSize", limitedPageSize);
+        body.put("staleAfterSeconds", staleAfter);
+        body.put("total", staleCounts.getTotal());
+        body.put("stale", staleCounts.getStale());
+        body.put("staleByBuilding", staleCounts.getStaleByBuilding());
+        body.put("staleBySensorType", staleCounts.getStaleBySensorType());
+        body.put("sensors", sensors.stream().map(SensorFreshnessResource::asMap).toList());
+        return json(body);
+    }
+
+    @GET
+    @Path("/{twinId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    @StingrayAction("freshness")
+    public Response getSensor(@PathParam("twinId") String twinId) {
+        SensorFreshness freshness = freshnessIndex.getFreshness(twinId);
+        if (freshness == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return json(asMap(freshness));
+    }
+
+    static Map<String, Object> asMap(SensorFreshness freshness) {
+        Map<String, Object> sensor = new LinkedHashMap<>();
+        sensor.put("twinId", freshness.getTwinId());
+        sensor.put("building", freshness.getBuilding());
+        sensor.put("sensorType", freshness.getSensorType().name());
+        sensor.put("lastObservedAt", asString(freshness.getLastObservedAt()));
+        sensor.put("lastSource", freshness.getLastSource());
+        sensor.put("lastFailedAt", asString(freshness.getLastFailedAt()));
+        sensor.put("lastError", freshness.getLastError());
+        sensor.put("consecutiveFailures", freshness.getConsecutiveFailures());
+        return sensor;
+    }
+
+    private static String asString(Instant instant) {
+        return instant == null ? null : instant.toString();
+    }
+
+    private Response json(Object body) {
+        try {
+            String json = RealEstateObjectMapper.getInstance().getObjectMapper().writeValueAsString(body);
+            return Response.ok(json, MediaType.APPLICATION_JSON_TYPE).build();
+        } catch (JsonProcessingException e) {
+            return Response.serverError().entity("Failed to write freshness as json. Reason: " + e.getMessage()).type(MediaType.TEXT_PLAIN_TYPE).build();
+        }
+    }
+}
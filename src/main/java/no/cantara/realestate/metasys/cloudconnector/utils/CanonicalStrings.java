@@ -0,0 +1,78 @@
+package no.cantara.realestate.metasys.cloudconnector.utils;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded table of canonical strings, so repeated metadata like Building, SensorType or the units URL of trend
+ * samples share one instance instead of one copy per row or sample.
+ * <p>
+ * The table is direct mapped: each string has one slot given by its hash, and a new string replaces the one in its
+ * slot. Memory is fixed by the capacity, and a lookup is one array read and an equals. Strings are immutable, so
+ * the slots are read and written without locking. Strings longer than MAX_LENGTH are not kept.
+ */
+public final class CanonicalStrings {
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+    static final int MAX_LENGTH = 256;
+    private static final CanonicalStrings SHARED = new CanonicalStrings(DEFAULT_CAPACITY);
+
+    private final String[] table;
+    private final int mask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity rounded up to a power of two. 0 keeps no strings.
+     */
+    public CanonicalStrings(int capacity) {
+        int size = capacity <= 0 ? 0 : Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        table = new String[size];
+        mask = size - 1;
+    }
+
+    /**
+     * The table used by the CSV import, the trend samples mapper and the stream parser
+     */
+    public static CanonicalStrings shared() {
+        return SHARED;
+    }
+
+    /**
+     * @return an equal string seen before, or value when it is new
+     */
+    public String canonical(String value) {
+        if (value == null || table.length == 0 || value.length() > MAX_LENGTH) {
+            return value;
+        }
+        int hash = value.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        String existing = table[slot];
+        if (existing != null && existing.hashCode() == hash && existing.equals(value)) {
+            hits.increment();
+            return existing;
+        }
+        table[slot] = value;
+        misses.increment();
+        return value;
+    }
+
+    public int getCapacity() {
+        return table.length;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "CanonicalStrings{" +
+                "capacity=" + table.length +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                '}';
+    }
+}
@@ -0,0 +1,430 @@
+package no.cantara.realestate.metasys.cloudconnector.automationserver;
+
+import io.github.resilience4j.ratelimiter.RateLimiter;
+import io.github.resilience4j.ratelimiter.RateLimiterConfig;
+import io.undertow.Handlers;
+import io.undertow.Undertow;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.RoutingHandler;
+import io.undertow.server.handlers.BlockingHandler;
+import io.undertow.util.Headers;
+import no.cantara.realestate.automationserver.TrendNotFoundException;
+import no.cantara.realestate.cloudconnector.RealestateCloudconnectorException;
+import no.cantara.realestate.sensors.metasys.MetasysSensorId;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Stand-in for the Metasys REST API v4, for end-to-end throughput tests of the agent.
+ * <p>
+ * Unlike the MockServer simulators there are no expectations to set up. Every trend id is answered, with samples
+ * from SdClientSimulator. The stream emits object.values.update events at a configured rate, round-robin over the
+ * subscribed objects, or over N synthetic objects when nothing is subscribed.
+ * <pre>
+ * POST /api/v4/login
+ * GET  /api/v4/refreshToken
+ * GET  /api/v4/objects/{objectId}/trendedAttributes/presentValue/samples?startTime=..&page=..&pageSize=..
+ * GET  /api/v4/objects/{objectId}/attributes/presentValue   (METASYS-SUBSCRIBE header subscribes to the stream)
+ * GET  /api/v4/stream                                        (hello, heartbeat and object.values.update)
+ * </pre>
+ * Outages are simulated with failAllRequestsWith and dropStreams.
+ */
+public class MetasysApiStandInServer implements AutoCloseable {
+    private static final Logger log = getLogger(MetasysApiStandInServer.class);
+    public static final String API_PATH = "/api/v4";
+    private static final long TOKEN_TTL_SECONDS = 1800;
+    private static final long STREAM_TICK_MILLIS = 100;
+
+    private final int requestedPort;
+    private SdSimulatorSettings settings = new SdSimulatorSettings().withRequestsPerSecond(10_000);
+    private int numberOfObjects = 100;
+    private double eventsPerSecond = 10;
+    private long heartbeatSeconds = 30;
+    private long maxStreamSeconds = 0;
+
+    private final Set<String> subscribedObjectIds = ConcurrentHashMap.newKeySet();
+    private final Set<String> openStreams = ConcurrentHashMap.newKeySet();
+    private final AtomicLong numberOfLogins = new AtomicLong();
+    private final AtomicLong numberOfRequests = new AtomicLong();
+    private final AtomicLong numberOfTrendSamplesServed = new AtomicLong();
+    private final AtomicLong numberOfStreamsOpened = new AtomicLong();
+    private final AtomicLong numberOfEventsSent = new AtomicLong();
+    private final AtomicInteger streamGeneration = new AtomicInteger();
+    private volatile int forcedStatusCode = 0;
+    private List<String> syntheticObjectIds = List.of();
+    private SdClientSimulator trendSamples;
+    private Undertow server;
+    private volatile boolean running = false;
+    private int port;
+
+    /**
+     * @param port port to listen on, 0 to pick a free port
+     */
+    public MetasysApiStandInServer(int port) {
+        this.requestedPort = port;
+    }
+
+    public MetasysApiStandInServer() {
+        this(0);
+    }
+
+    /**
+     * Trend samples, latency and injected 404, 500 and 429 responses. requestsPerSecond is the server side limit,
+     * exceeding it answers 429.
+     */
+    public MetasysApiStandInServer withSettings(SdSimulatorSettings settings) {
+        this.settings = settings;
+        return this;
+    }
+
+    public MetasysApiStandInServer withObjects(int numberOfObjects) {
+        this.numberOfObjects = Math.max(1, numberOfObjects);
+        return this;
+    }
+
+    public MetasysApiStandInServer withEventsPerSecond(double eventsPerSecond) {
+        this.eventsPerSecond = Math.max(0, eventsPerSecond);
+        return this;
+    }
+
+    public MetasysApiStandInServer withHeartbeatSeconds(long heartbeatSeconds) {
+        this.heartbeatSeconds = Math.max(1, heartbeatSeconds);
+        return this;
+    }
+
+    /**
+     * Close the stream from the server side after this many seconds, 0 to keep it open.
+     */
+    public MetasysApiStandInServer withMaxStreamSeconds(long maxStreamSeconds) {
+        this.maxStreamSeconds = Math.max(0, maxStreamSeconds);
+        return this;
+    }
+
+    public MetasysApiStandInServer start() {
+        syntheticObjectIds = SdClientSimulator.syntheticSensorIds(numberOfObjects).stream()
+                .map(MetasysSensorId::getMetasysObjectId)
+                .toList();
+        RateLimiter serverLimiter = RateLimiter.of("metasysApiStandIn", RateLimiterConfig.custom()
+                .limitForPeriod(settings.getRequestsPerSecond())
+                .limitRefreshPeriod(Duration.ofSeconds(1))
+                .timeoutDuration(Duration.ZERO)
+                .build());
+        trendSamples = new SdClientSimulator(settings, List.of(), serverLimiter, Clock.systemUTC());
+
+        RoutingHandler routes = Handlers.routing()
+                .post(API_PATH + "/login", this::login)
+                .get(API_PATH + "/refreshToken", this::login)
+                .get(API_PATH + "/objects/{objectId}/trendedAttributes/presentValue/samples", this::trendSamples)
+                .get(API_PATH + "/objects/{objectId}/attributes/presentValue", this::presentValue)
+                .get(API_PATH + "/stream", this::stream)
+                .setFallbackHandler(exchange -> exchange.setStatusCode(404));
+        server = Undertow.builder()
+                .addHttpListener(requestedPort, "localhost")
+                .setWorkerThreads(Math.max(16, Runtime.getRuntime().availableProcessors() * 8))
+                .setHandler(new BlockingHandler(routes))
+                .build();
+        running = true;
+        server.start();
+        port = ((InetSocketAddress) server.getListenerInfo().get(0).getAddress()).getPort();
+        log.info("MetasysApiStandInServer started on port {}. Objects: {}, eventsPerSecond: {}, {}",
+                port, numberOfObjects, eventsPerSecond, settings);
+        return this;
+    }
+
+    public void stop() {
+        running = false;
+        if (server != null) {
+            server.stop();
+            server = null;
+            log.info("MetasysApiStandInServer stopped. {}", this);
+        }
+    }
+
+    @Override
+    public void close() {
+        stop();
+    }
+
+    /**
+     * Answer every request with this status code, until clearFaults is called. Open streams are not affected.
+     */
+    public void failAllRequestsWith(int statusCode) {
+        forcedStatusCode = statusCode;
+    }
+
+    public void clearFaults() {
+        forcedStatusCode = 0;
+    }
+
+    /**
+     * Close all open streams from the server side.
+     */
+    public void dropStreams() {
+        streamGeneration.incrementAndGet();
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return base url to use as sd.api.url
+     */
+    public String getApiUrl() {
+        return "http://localhost:" + port + API_PATH + "/";
+    }
+
+    void login(HttpServerExchange exchange) throws IOException {
+        numberOfRequests.incrementAndGet();
+        if (isFailing(exchange)) {
+            return;
+        }
+        numberOfLogins.incrementAndGet();
+        exchange.getInputStream().readAllBytes();
+        String accessToken = "stand-in-" + UUID.randomUUID();
+        Instant expires = Instant.now().plusSeconds(TOKEN_TTL_SECONDS);
+        sendJson(exchange, 200, "{\"accessToken\":\"" + accessToken + "\",\"expires\":\"" + expires + "\"}");
+    }
+
+    void trendSamples(HttpServerExchange exchange) {
+        numberOfRequests.incrementAndGet();
+        if (isFailing(exchange) || !isAuthorized(exchange)) {
+            return;
+        }
+        String objectId = queryParam(exchange, "objectId", null);
+        Instant startTime = Instant.parse(queryParam(exchange, "startTime", Instant.now().minusSeconds(3600).toString()));
+        int page = Math.max(1, Integer.parseInt(queryParam(exchange, "page", "1")));
+        int pageSize = Math.max(1, Integer.parseInt(queryParam(exchange, "pageSize", "1000")));
+        try {
+            Set<MetasysTrendSample> samples = trendSamples.findTrendSamplesByDate(objectId, pageSize, (page - 1) * pageSize, startTime);
+            numberOfTrendSamplesServed.addAndGet(samples.size());
+            StringBuilder json = new StringBuilder(128 + samples.size() * 160);
+            json.append("{\"total\":").append((long) (page - 1) * pageSize + samples.size());
+            json.append(",\"next\":");
+            if (samples.size() == pageSize) {
+                json.append('"').append(getApiUrl()).append("objects/").append(objectId)
+                        .append("/trendedAttributes/presentValue/samples?page=").append(page + 1).append('"');
+            } else {
+                json.append("null");
+            }
+            json.append(",\"previous\":null,\"items\":[");
+            boolean first = true;
+            for (MetasysTrendSample sample : samples) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                json.append("{\"value\":{\"value\":").append(sample.getValue())
+                        .append(",\"units\":\"https://metasysserver/api/v4/enumSets/507/members/19\"},\"timestamp\":\"")
+                        .append(sample.getObservedAt()).append("\",\"isReliable\":true}");
+            }
+            json.append("],\"attribute\":\"attributeEnumSet.presentValue\"}");
+            sendJson(exchange, 200, json.toString());
+        } catch (TrendNotFoundException e) {
+            sendJson(exchange, 404, "{\"message\":\"Not Found\"}");
+        } catch (MetasysApiException e) {
+            sendJson(exchange, e.getStatusCode() > 0 ? e.getStatusCode() : 500, "{\"message\":\"" + e.getMessage() + "\"}");
+        } catch (RealestateCloudconnectorException e) {
+            sendJson(exchange, 429, "{\"message\":\"Too Many Requests\"}");
+        } catch (Exception e) {
+            sendJson(exchange, 500, "{\"message\":\"" + e.getMessage() + "\"}");
+        }
+    }
+
+    void presentValue(HttpServerExchange exchange) {
+        numberOfRequests.incrementAndGet();
+        if (isFailing(exchange) || !isAuthorized(exchange)) {
+            return;
+        }
+        String objectId = queryParam(exchange, "objectId", null);
+        if (exchange.getRequestHeaders().contains(MetasysClient.METASYS_SUBSCRIBE_HEADER)) {
+            subscribedObjectIds.add(objectId);
+            sendJson(exchange, 202, "{}");
+        } else {
+            sendJson(exchange, 200, "{\"item\":{\"presentValue\":" + valueOf(objectId.hashCode()) + ",\"id\":\"" + objectId + "\"}}");
+        }
+    }
+
+    void stream(HttpServerExchange exchange) {
+        numberOfRequests.incrementAndGet();
+        if (isFailing(exchange) || !isAuthorized(exchange)) {
+            return;
+        }
+        String subscriptionId = UUID.randomUUID().toString();
+        int generation = streamGeneration.get();
+        numberOfStreamsOpened.incrementAndGet();
+        openStreams.add(subscriptionId);
+        exchange.setPersistent(false);
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/event-stream");
+        exchange.getResponseHeaders().put(Headers.CACHE_CONTROL, "no-cache");
+        long eventNo = 0;
+        long eventsSent = 0;
+        int nextObject = 0;
+        long startedAt = System.currentTimeMillis();
+        long nextHeartbeatAt = startedAt + heartbeatSeconds * 1000;
+        try (OutputStream out = exchange.getOutputStream()) {
+            write(out, "id:" + subscriptionId + ":" + eventNo++ + "\nevent:hello\ndata:" + subscriptionId + "\n\n");
+            while (running && generation == streamGeneration.get()) {
+                long now = System.currentTimeMillis();
+                if (maxStreamSeconds > 0 && now - startedAt >= maxStreamSeconds * 1000) {
+                    log.debug("Closing stream {} after {} seconds", subscriptionId, maxStreamSeconds);
+                    break;
+                }
+                StringBuilder events = new StringBuilder();
+                if (now >= nextHeartbeatAt) {
+                    events.append("id:").append(subscriptionId).append(':').append(eventNo++)
+                            .append("\nevent:object.values.heartbeat\ndata:").append(Instant.now()).append("\n\n");
+                    nextHeartbeatAt = now + heartbeatSeconds * 1000;
+                }
+                List<String> objectIds = subscribedObjectIds.isEmpty() ? syntheticObjectIds : List.copyOf(subscribedObjectIds);
+                long eventsDue = (long) ((now - startedAt) / 1000d * eventsPerSecond);
+                for (; eventsSent < eventsDue; eventsSent++) {
+                    String objectId = objectIds.get(nextObject++ % objectIds.size());
+                    events.append("id:").append(subscriptionId).append(':').append(eventNo)
+                            .append("\nevent:object.values.update\ndata:{\"item\":{\"presentValue\":")
+                            .append(valueOf(eventNo)).append(",\"id\":\"").append(objectId)
+                            .append("\",\"itemReference\":\"stand-in:").append(objectId)
+                            .append("\"},\"condition\":{\"presentValue\":{\"reliability\":\"reliabilityEnumSet.reliable\",\"priority\":\"writePriorityEnumSet.priorityDefault\"}}}\n\n");
+                    eventNo++;
+                    numberOfEventsSent.incrementAndGet();
+                }
+                if (!events.isEmpty()) {
+                    write(out, events.toString());
+                }
+                Thread.sleep(STREAM_TICK_MILLIS);
+            }
+        } catch (IOException e) {
+            log.debug("Stream {} closed by client. Reason: {}", subscriptionId, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            openStreams.remove(subscriptionId);
+        }
+    }
+
+    private static void write(OutputStream out, String events) throws IOException {
+        out.write(events.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static double valueOf(long seed) {
+        return 20 + Math.floorMod(seed, 100) / 10d;
+    }
+
+    private boolean isFailing(HttpServerExchange exchange) {
+        int statusCode = forcedStatusCode;
+        if (statusCode > 0) {
+            sendJson(exchange, statusCode, "{\"message\":\"Simulated outage\"}");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Samples the stand-in has available for objectId, observed after the first and until the second instant.
+     */
+    public Set<MetasysTrendSample> availableTrendSamples(String objectId, Instant after, Instant until) {
+        return trendSamples.generateTrendSamples(objectId, -1, 0, after, until);
+    }
+
+    private boolean isAuthorized(HttpServerExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst(Headers.AUTHORIZATION);
+        if (authorization == null || !authorization.startsWith("Bearer ")) {
+            sendJson(exchange, 401, "{\"message\":\"Unauthorized\"}");
+            return false;
+        }
+        return true;
+    }
+
+    private static String queryParam(HttpServerExchange exchange, String name, String defaultValue) {
+        Deque<String> values = exchange.getQueryParameters().get(name);
+        if (values == null || values.isEmpty()) {
+            return defaultValue;
+        }
+        return values.getFirst();
+    }
+
+    private static void sendJson(HttpServerExchange exchange, int statusCode, String json) {
+        exchange.setStatusCode(statusCode);
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+        exchange.getResponseSender().send(json);
+    }
+
+    public Set<String> getSubscribedObjectIds() {
+        return subscribedObjectIds;
+    }
+
+    public int getNumberOfOpenStreams() {
+        return openStreams.size();
+    }
+
+    public long getNumberOfLogins() {
+        return numberOfLogins.get();
+    }
+
+    public long getNumberOfRequests() {
+        return numberOfRequests.get();
+    }
+
+    public long getNumberOfTrendSamplesServed() {
+        return numberOfTrendSamplesServed.get();
+    }
+
+    public long getNumberOfStreamsOpened() {
+        return numberOfStreamsOpened.get();
+    }
+
+    public long getNumberOfEventsSent() {
+        return numberOfEventsSent.get();
+    }
+
+    @Override
+    public String toString() {
+        return "MetasysApiStandInServer{" +
+                "port=" + port +
+                ", logins=" + numberOfLogins +
+                ", requests=" + numberOfRequests +
+                ", trendSamplesServed=" + numberOfTrendSamplesServed +
+                ", streamsOpened=" + numberOfStreamsOpened +
+                ", eventsSent=" + numberOfEventsSent +
+                ", subscribedObjects=" + subscribedObjectIds.size() +
+                '}';
+    }
+
+    /**
+     * Run the stand-in for a full application benchmark, with sd.api.prod=true and sd.api.url=http://localhost:1080/api/v4/
+     * <p>
+     * Arguments: [port] [numberOfObjects] [eventsPerSecond]
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 1080;
+        int objects = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        double eventsPerSecond = args.length > 2 ? Double.parseDouble(args[2]) : 100;
+        MetasysApiStandInServer server = new MetasysApiStandInServer(port)
+                .withObjects(objects)
+                .withEventsPerSecond(eventsPerSecond)
+                .start();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        System.out.println("MetasysApiStandInServer is running on " + server.getApiUrl());
+        while (true) {
+            Thread.sleep(60_000);
+            log.info("{}", server);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package no.cantara.realestate.metasys.cloudconnector.automationserver;
+
+import no.cantara.realestate.metasys.cloudconnector.automationserver.streampoc.ServerSentEvent;
+import no.cantara.realestate.metasys.cloudconnector.automationserver.streampoc.ServerSentEventParser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetasysApiStandInServerTest {
+
+    private MetasysApiStandInServer server;
+    private HttpClient httpClient;
+
+    @BeforeEach
+    void setUp() {
+        server = new MetasysApiStandInServer()
+                .withSettings(new SdSimulatorSettings().withRequestsPerSecond(1000).withMaxSamplesPerResponse(1000))
+                .withObjects(10)
+                .withEventsPerSecond(100)
+                .start();
+        httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    void loginAndFetchTrendSamples() throws Exception {
+        HttpResponse<String> login = httpClient.send(HttpRequest.newBuilder(URI.create(server.getApiUrl() + "login"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\":\"testuser\",\"password\":\"testpass\"}"))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, login.statusCode());
+        assertTrue(login.body().contains("accessToken"));
+
+        HttpResponse<String> unauthorized = httpClient.send(HttpRequest.newBuilder(URI.create(server.getApiUrl() + "objects/trend-1/trendedAttributes/presentValue/samples"))
+                .GET().build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(401, unauthorized.statusCode());
+
+        String startTime = Instant.now().minusSeconds(3600).toString();
+        HttpResponse<String> samples = httpClient.send(HttpRequest.newBuilder(URI.create(server.getApiUrl()
+                        + "objects/trend-1/trendedAttributes/presentValue/samples?startTime=" + startTime + "&page=1&pageSize=5"))
+                .header("Authorization", "Bearer token")
+                .GET().build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, samples.statusCode());
+        MetasysTrendSampleResult result = TrendSamplesMapper.mapFromJson(samples.body());
+        assertEquals(5, result.getItems().size());
+        assertNotNull(result.getNext());
+        assertEquals(5, server.getNumberOfTrendSamplesServed());
+    }
+
+    @Test
+    void streamEmitsHelloAndValueUpdates() throws Exception {
+        HttpResponse<InputStream> stream = httpClient.send(HttpRequest.newBuilder(URI.create(server.getApiUrl() + "stream"))
+                .header("Authorization", "Bearer token")
+                .GET().build(), HttpResponse.BodyHandlers.ofInputStream());
+        assertEquals(200, stream.statusCode());
+
+        List<ServerSentEvent> events = new ArrayList<>();
+        ServerSentEventParser parser = new ServerSentEventParser();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream.body(), StandardCharsets.UTF_8))) {
+            String line;
+            while (events.size() < 11 && (line = reader.readLine()) != null) {
+                ServerSentEvent event = parser.parseLine(line);
+                if (event != null) {
+                    events.add(event);
+                }
+            }
+        }
+        assertEquals("hello", events.get(0).getEvent());
+        assertEquals("object.values.update", events.get(10).getEvent());
+        assertTrue(events.get(10).getData().contains("presentValue"));
+        assertTrue(server.getNumberOfEventsSent() >= 10);
+    }
+}
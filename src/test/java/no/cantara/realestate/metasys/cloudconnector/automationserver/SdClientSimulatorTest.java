@@ -3,8 +3,16 @@ package no.cantara.realestate.metasys.cloudconnector.automationserver;
 import io.github.resilience4j.ratelimiter.RateLimiter;
 import no.cantara.realestate.cloudconnector.RealestateCloudconnectorException;
 import no.cantara.realestate.cloudconnector.StatusType;
+import no.cantara.realestate.automationserver.TrendNotFoundException;
 import org.junit.jupiter.api.Test;
 
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
@@ -34,4 +42,80 @@ class SdClientSimulatorTest {
         assertTrue( exception.getMessage().contains("RateLimit exceeded"));
         assertEquals(StatusType.RETRY_MAY_FIX_ISSUE, exception.getStatusType());
     }
-}
\ No newline at end of file
+
+    @Test
+    void trendSamplesAreDeterministicAndBounded() throws Exception {
+        RateLimiter dummyLimiter = mock(RateLimiter.class);
+        when(dummyLimiter.acquirePermission()).thenReturn(true);
+        Instant now = Instant.parse("2024-01-10T12:00:00Z");
+        SdSimulatorSettings settings = new SdSimulatorSettings()
+                .withSampleIntervalSeconds(300)
+                .withMaxHistorySeconds(3600)
+                .withMaxSamplesPerResponse(5);
+        SdClientSimulator simulator = new SdClientSimulator(settings, List.of(), dummyLimiter, Clock.fixed(now, ZoneOffset.UTC));
+
+        Set<MetasysTrendSample> first = simulator.findTrendSamplesByDate("trend-1", -1, 0, now.minusSeconds(7200));
+        Set<MetasysTrendSample> second = simulator.findTrendSamplesByDate("trend-1", -1, 0, now.minusSeconds(7200));
+        assertEquals(5, first.size());
+        assertEquals(new ArrayList<>(first).toString(), new ArrayList<>(second).toString());
+        Instant previous = now.minusSeconds(3600);
+        for (MetasysTrendSample trendSample : first) {
+            assertTrue(trendSample.getObservedAt().isAfter(previous));
+            previous = trendSample.getObservedAt();
+        }
+
+        Set<MetasysTrendSample> all = simulator.generateTrendSamples("trend-1", 100, 0, now.minusSeconds(7200), now);
+        assertEquals(5, all.size());
+        Set<MetasysTrendSample> recent = new SdClientSimulator(new SdSimulatorSettings().withMaxHistorySeconds(3600), List.of(), dummyLimiter, Clock.fixed(now, ZoneOffset.UTC))
+                .generateTrendSamples("trend-1", 100, 0, now.minusSeconds(7200), now);
+        assertEquals(12, recent.size());
+        assertEquals(10, simulator.getNumberOfTrendSamplesReceived());
+    }
+
+    @Test
+    void sampleOnChunkBoundaryIsReturnedOnce() throws Exception {
+        RateLimiter dummyLimiter = mock(RateLimiter.class);
+        when(dummyLimiter.acquirePermission()).thenReturn(true);
+        Instant now = Instant.parse("2024-01-10T12:00:00Z");
+        SdClientSimulator simulator = new SdClientSimulator(new SdSimulatorSettings().withSampleIntervalSeconds(300)
+                .withMaxHistorySeconds(86400), List.of(), dummyLimiter, Clock.fixed(now, ZoneOffset.UTC));
+        List<MetasysTrendSample> samples = new ArrayList<>(simulator.generateTrendSamples("trend-1", 100, 0, now.minusSeconds(3600), now));
+        Instant boundary = samples.get(5).getObservedAt();
+
+        List<MetasysTrendSample> older = new ArrayList<>(simulator.findTrendSamplesBetween("trend-1", boundary.minusSeconds(600), boundary));
+        List<MetasysTrendSample> newer = new ArrayList<>(simulator.findTrendSamplesBetween("trend-1", boundary, boundary.plusSeconds(600)));
+        assertEquals(2, older.size());
+        assertEquals(boundary.minusSeconds(300), older.get(1).getObservedAt());
+        assertEquals(2, newer.size());
+        assertEquals(boundary, newer.get(0).getObservedAt());
+        assertEquals(boundary.plusSeconds(300), newer.get(1).getObservedAt());
+    }
+
+    @Test
+    void syntheticSensorsAreStable() {
+        SdClientSimulator simulator = new SdClientSimulator(new SdSimulatorSettings().withSyntheticSensors(3), List.of());
+        assertEquals(3, simulator.getSensorIds().size());
+        assertEquals("Sensor-simulated-2", simulator.getSyntheticSensorIds().get(2).getId());
+        assertEquals(SdClientSimulator.syntheticSensorIds(3).get(1).getMetasysObjectId(), simulator.getSyntheticSensorIds().get(1).getMetasysObjectId());
+    }
+
+    @Test
+    void injectedFailures() {
+        RateLimiter dummyLimiter = mock(RateLimiter.class);
+        when(dummyLimiter.acquirePermission()).thenReturn(true);
+        Instant inBurst = Instant.parse("2024-01-10T12:00:05Z");
+        SdSimulatorSettings settings = new SdSimulatorSettings().withServerErrorBursts(60, 10);
+        SdClientSimulator bursting = new SdClientSimulator(settings, List.of(), dummyLimiter, Clock.fixed(inBurst, ZoneOffset.UTC));
+        MetasysApiException serverError = assertThrows(MetasysApiException.class, () -> bursting.findTrendSamplesByDate("trend-1", 10, 0, inBurst.minusSeconds(600)));
+        assertEquals(500, serverError.getStatusCode());
+        assertFalse(bursting.isInServerErrorBurst(inBurst.plusSeconds(10)));
+
+        SdClientSimulator rateLimited = new SdClientSimulator(new SdSimulatorSettings().withRateLimitedRatio(1), List.of(), dummyLimiter, Clock.systemUTC());
+        MetasysApiException tooManyRequests = assertThrows(MetasysApiException.class, () -> rateLimited.findTrendSamplesByDate("trend-1", 10, 0, Instant.now().minusSeconds(600)));
+        assertEquals(429, tooManyRequests.getStatusCode());
+
+        SdClientSimulator notFound = new SdClientSimulator(new SdSimulatorSettings().withNotFoundRatio(1), List.of(), dummyLimiter, Clock.systemUTC());
+        assertThrows(TrendNotFoundException.class, () -> notFound.findTrendSamplesByDate("trend-1", 10, 0, Instant.now().minusSeconds(600)));
+        assertEquals(1, notFound.getNumberOfInjectedFailures());
+    }
+}
@@ -0,0 +1,46 @@
+package no.cantara.realestate.metasys.cloudconnector.automationserver.streampoc;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServerSentEventParserTest {
+
+    @Test
+    void eventIsCompletedByBlankLine() {
+        ServerSentEventParser parser = new ServerSentEventParser();
+        assertNull(parser.parseLine("event:object.values.update"));
+        assertNull(parser.parseLine("data:{\"item\":{\"presentValue\":408}}"));
+        assertNull(parser.parseLine("id:4859b514-da6e-4182-8757-20187b0f107b:12"));
+        ServerSentEvent event = parser.parseLine("");
+        assertNotNull(event);
+        assertEquals("object.values.update", event.getEvent());
+        assertEquals("{\"item\":{\"presentValue\":408}}", event.getData());
+        assertEquals("4859b514-da6e-4182-8757-20187b0f107b:12", event.getId());
+        assertNull(parser.parseLine(""));
+    }
+
+    @Test
+    void multipleDataLinesAreJoined() {
+        ServerSentEventParser parser = new ServerSentEventParser();
+        parser.parseLine("data:first");
+        parser.parseLine("data:second");
+        parser.parseLine("retry:5000");
+        ServerSentEvent event = parser.parseLine("");
+        assertEquals("first\nsecond", event.getData());
+        assertEquals(5000, event.getRetry());
+    }
+
+    @Test
+    void finishReturnsEventWithoutBlankLine() {
+        ServerSentEventParser parser = new ServerSentEventParser();
+        parser.parseLine(":heartbeat comment");
+        assertNull(parser.parseLine(""));
+        parser.parseLine("event:hello");
+        parser.parseLine("data:subscription-id");
+        ServerSentEvent event = parser.finish();
+        assertEquals("hello", event.getEvent());
+        assertEquals("subscription-id", event.getData());
+        assertNull(parser.finish());
+    }
+}
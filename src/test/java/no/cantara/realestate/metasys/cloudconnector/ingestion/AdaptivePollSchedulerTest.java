@@ -0,0 +1,178 @@
+package no.cantara.realestate.metasys.cloudconnector.ingestion;
+
+import no.cantara.realestate.sensors.SensorId;
+import no.cantara.realestate.sensors.metasys.MetasysSensorId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptivePollSchedulerTest {
+
+    private static final long MINUTE = 60_000;
+    private final Instant now = Instant.parse("2025-01-01T10:00:00Z");
+    private AdaptivePollScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = new AdaptivePollScheduler(10 * MINUTE, MINUTE, 24 * 60 * MINUTE, 30_000, 60_000, 1000);
+    }
+
+    @Test
+    void firstDueTimesAreSpreadOverOneInterval() {
+        List<SensorId> sensorIds = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            MetasysSensorId sensorId = new MetasysSensorId("Sensor-" + i, "objectId-" + i);
+            sensorIds.add(sensorId);
+            scheduler.register(sensorId, null, now);
+        }
+        int[] duePerMinute = new int[10];
+        for (SensorId sensorId : sensorIds) {
+            long millisFromNow = scheduler.getDueAt(sensorId.getId()).toEpochMilli() - now.toEpochMilli();
+            assertTrue(millisFromNow >= 0 && millisFromNow < 10 * MINUTE);
+            duePerMinute[(int) (millisFromNow / MINUTE)]++;
+        }
+        for (int due : duePerMinute) {
+            assertTrue(due > 20 && due < 100, "Expected about 60 sensors due per minute, got " + due);
+        }
+    }
+
+    @Test
+    void csvIntervalIsUsedUntilAnIntervalIsLearned() {
+        MetasysSensorId sensorId = new MetasysSensorId("Sensor-1", "objectId-1");
+        scheduler.register(sensorId, null, now);
+        assertEquals(10 * MINUTE, scheduler.getIntervalMillis("Sensor-1"));
+        scheduler.setInterval("Sensor-1", "15m");
+        assertEquals(15 * MINUTE, scheduler.getIntervalMillis("Sensor-1"));
+
+        scheduler.recordSamples(sensorId, List.of(now.minusSeconds(120), now.minusSeconds(60)), now);
+        assertEquals(MINUTE, scheduler.getIntervalMillis("Sensor-1"));
+        scheduler.setInterval("Sensor-1", "15m");
+        assertEquals(MINUTE, scheduler.getIntervalMillis("Sensor-1"));
+    }
+
+    @Test
+    void dueJustAfterNextSampleIsExpected() {
+        MetasysSensorId sensorId = new MetasysSensorId("Sensor-1", "objectId-1");
+        scheduler.register(sensorId, null, now);
+        Instant last = now.minusSeconds(30);
+        scheduler.recordSamples(sensorId, List.of(last.minusSeconds(600), last.minusSeconds(300), last), now);
+
+        assertEquals(5 * MINUTE, scheduler.getIntervalMillis("Sensor-1"));
+        long dueAt = scheduler.getDueAt("Sensor-1").toEpochMilli();
+        long expectedAt = last.plusSeconds(300).toEpochMilli();
+        assertTrue(dueAt >= expectedAt + 30_000 && dueAt < expectedAt + 90_000);
+    }
+
+    @Test
+    void dailySensorIsNotPolledEveryCycle() {
+        MetasysSensorId sensorId = new MetasysSensorId("Sensor-daily", "objectId-daily");
+        scheduler.register(sensorId, null, now);
+        scheduler.recordSamples(sensorId, List.of(now.minusSeconds(86400 + 60), now.minusSeconds(60)), now);
+
+        assertEquals(24 * 60 * MINUTE, scheduler.getIntervalMillis("Sensor-daily"));
+        assertTrue(scheduler.getDueAt("Sensor-daily").isAfter(now.plusSeconds(86400 - 120)));
+        assertTrue(scheduler.pollDue(now.plusSeconds(3600)).isEmpty());
+    }
+
+    @Test
+    void notFoundBacksOffExponentially() {
+        MetasysSensorId sensorId = new MetasysSensorId("Sensor-404", "objectId-404");
+        scheduler.register(sensorId, null, now);
+        scheduler.recordNotFound(sensorId, now);
+        long first = scheduler.getDueAt("Sensor-404").toEpochMilli() - now.toEpochMilli();
+        scheduler.recordNotFound(sensorId, now);
+        long second = scheduler.getDueAt("Sensor-404").toEpochMilli() - now.toEpochMilli();
+        scheduler.recordNotFound(sensorId, now);
+        long third = scheduler.getDueAt("Sensor-404").toEpochMilli() - now.toEpochMilli();
+
+        assertTrue(first >= 10 * MINUTE && first < 11 * MINUTE);
+        assertTrue(second >= 20 * MINUTE && second < 21 * MINUTE);
+        assertTrue(third >= 40 * MINUTE && third < 41 * MINUTE);
+
+        for (int i = 0; i < 20; i++) {
+            scheduler.recordNotFound(sensorId, now);
+        }
+        long capped = scheduler.getDueAt("Sensor-404").toEpochMilli() - now.toEpochMilli();
+        assertTrue(capped >= 24 * 60 * MINUTE && capped < 24 * 60 * MINUTE + MINUTE);
+    }
+
+    @Test
+    void pollDueHandsOutEachSensorOnceAndAtMostMaxPerPoll() {
+        AdaptivePollScheduler limited = new AdaptivePollScheduler(10 * MINUTE, MINUTE, 24 * 60 * MINUTE, 30_000, 60_000, 5);
+        for (int i = 0; i < 20; i++) {
+            limited.register(new MetasysSensorId("Sensor-" + i, "objectId-" + i), null, now);
+        }
+        Instant later = now.plusSeconds(3600);
+        Set<String> polled = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            List<SensorId> due = limited.pollDue(later);
+            assertEquals(5, due.size());
+            due.forEach(sensorId -> assertTrue(polled.add(sensorId.getId())));
+        }
+        assertTrue(limited.pollDue(later).isEmpty());
+        assertEquals(0, limited.getNumberOfDueSensors(later));
+    }
+
+    @Test
+    void removedSensorIsNotPolled() {
+        MetasysSensorId sensorId = new MetasysSensorId("Sensor-1", "objectId-1");
+        scheduler.register(sensorId, null, now);
+        scheduler.remove(sensorId);
+        scheduler.recordFailure(sensorId, now);
+
+        assertTrue(scheduler.pollDue(now.plusSeconds(86400)).isEmpty());
+        assertEquals(0, scheduler.getNumberOfSensors());
+    }
+
+    @Test
+    void requeuePutsBackOnlySensorsNotRecorded() {
+        MetasysSensorId recorded = new MetasysSensorId("Sensor-1", "objectId-1");
+        MetasysSensorId notReached = new MetasysSensorId("Sensor-2", "objectId-2");
+        scheduler.register(recorded, null, now);
+        scheduler.register(notReached, null, now);
+        Instant later = now.plusSeconds(3600);
+        assertEquals(2, scheduler.pollDue(later).size());
+        assertNull(scheduler.getDueAt("Sensor-2"));
+
+        scheduler.recordNoSamples(recorded, later);
+        Instant recordedDueAt = scheduler.getDueAt("Sensor-1");
+        scheduler.requeue(recorded, later);
+        scheduler.requeue(notReached, later);
+        assertEquals(recordedDueAt, scheduler.getDueAt("Sensor-1"));
+        long retryMillis = scheduler.getDueAt("Sensor-2").toEpochMilli() - later.toEpochMilli();
+        assertTrue(retryMillis >= 10 * MINUTE && retryMillis < 11 * MINUTE);
+    }
+
+    @Test
+    void rescheduledSensorIsHandedOutOnceAndStaleEntriesAreDropped() {
+        List<MetasysSensorId> sensorIds = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            MetasysSensorId sensorId = new MetasysSensorId("Sensor-" + i, "objectId-" + i);
+            sensorIds.add(sensorId);
+            scheduler.register(sensorId, null, now);
+        }
+        // Stream coverage defers the sensors again and again, without them falling due
+        for (int round = 1; round <= 50; round++) {
+            for (MetasysSensorId sensorId : sensorIds) {
+                scheduler.defer(sensorId, now.plusSeconds(round * 60L));
+            }
+        }
+        assertTrue(scheduler.getNumberOfQueueEntries() <= 2 * sensorIds.size() + 64);
+        scheduler.remove(sensorIds.get(0));
+
+        Instant later = now.plusSeconds(7200);
+        assertEquals(99, scheduler.getNumberOfDueSensors(later));
+        Set<String> polled = new HashSet<>();
+        scheduler.pollDue(later).forEach(sensorId -> assertTrue(polled.add(sensorId.getId())));
+        assertEquals(99, polled.size());
+        assertFalse(scheduler.hasDueSensors(later));
+        assertEquals(0, scheduler.getNumberOfQueueEntries());
+    }
+}
@@ -0,0 +1,148 @@
+package no.cantara.realestate.metasys.cloudconnector.ingestion;
+
+import no.cantara.realestate.sensors.metasys.MetasysSensorId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BackfillSchedulerTest {
+
+    private static final long MINUTE = 60_000L;
+    private static final long HOUR = 60 * MINUTE;
+    private final Instant now = Instant.parse("2024-01-01T12:00:00Z");
+    private final MetasysSensorId sensor1 = new MetasysSensorId("Sensor-1", "objectId-1");
+    private final MetasysSensorId sensor2 = new MetasysSensorId("Sensor-2", "objectId-2");
+    @TempDir
+    Path statusDirectory;
+
+    @Test
+    void noGapWithinThreshold() {
+        BackfillScheduler scheduler = new BackfillScheduler(30 * MINUTE, HOUR, 24 * HOUR, 1000, 3);
+        Instant lastUpdatedAt = now.minusSeconds(20 * 60);
+        assertEquals(lastUpdatedAt, scheduler.liveStartFor(sensor1, lastUpdatedAt, now));
+        assertNull(scheduler.liveStartFor(sensor1, null, now));
+        assertEquals(0, scheduler.getNumberOfPendingChunks());
+        assertNull(scheduler.nextChunk());
+    }
+
+    @Test
+    void gapIsSplitIntoChunksNewestFirst() {
+        BackfillScheduler scheduler = new BackfillScheduler(30 * MINUTE, HOUR, 24 * HOUR, 1000, 3);
+        Instant liveStart = scheduler.liveStartFor(sensor1, now.minusMillis(3 * HOUR), now);
+        assertEquals(now.minusMillis(30 * MINUTE), liveStart);
+        scheduler.liveStartFor(sensor2, now.minusMillis(HOUR), now);
+
+        // Sensor-1 from 09:00 to 11:30 in three chunks, Sensor-2 from 11:00 to 11:30
+        assertEquals(4, scheduler.getNumberOfPendingChunks());
+        assertEquals(2, scheduler.getNumberOfSensorsBackfilling());
+        List<String> order = new ArrayList<>();
+        BackfillScheduler.Chunk chunk;
+        while ((chunk = scheduler.nextChunk()) != null) {
+            order.add(chunk.getSensorId().getId() + " " + chunk.getFrom() + " " + chunk.getTo());
+            assertTrue(scheduler.chunkFetched(chunk, 10));
+        }
+        assertEquals(List.of(
+                "Sensor-1 2024-01-01T11:00:00Z 2024-01-01T11:30:00Z",
+                "Sensor-2 2024-01-01T11:00:00Z 2024-01-01T11:30:00Z",
+                "Sensor-1 2024-01-01T10:00:00Z 2024-01-01T11:00:00Z",
+                "Sensor-1 2024-01-01T09:00:00Z 2024-01-01T10:00:00Z"), order);
+
+        BackfillScheduler.Progress progress = scheduler.getProgress("Sensor-1");
+        assertTrue(progress.isDone());
+        assertEquals(3, progress.getChunksDone());
+        assertEquals(30, progress.getSamples());
+        assertEquals(40, scheduler.getNumberOfBackfilledSamples());
+        assertEquals(0, scheduler.getNumberOfSensorsBackfilling());
+    }
+
+    @Test
+    void gapIsQueuedOnceAndCutAtMaxGap() {
+        BackfillScheduler scheduler = new BackfillScheduler(30 * MINUTE, HOUR, 2 * HOUR, 1000, 3);
+        Instant lastUpdatedAt = now.minusMillis(48 * HOUR);
+        scheduler.liveStartFor(sensor1, lastUpdatedAt, now);
+        assertEquals(2, scheduler.getNumberOfPendingChunks());
+        assertEquals(now.minusMillis(150 * MINUTE), scheduler.getProgress("Sensor-1").getGapFrom());
+
+        // Live polling failed, last updated did not move. Only the time since the previous poll is added.
+        scheduler.liveStartFor(sensor1, lastUpdatedAt, now.plusSeconds(600));
+        assertEquals(3, scheduler.getNumberOfPendingChunks());
+        BackfillScheduler.Chunk newest = scheduler.nextChunk();
+        assertEquals(now.minusMillis(30 * MINUTE), newest.getFrom());
+        assertEquals(now.minusMillis(20 * MINUTE), newest.getTo());
+    }
+
+    @Test
+    void fullPageIsSplitAndFailedChunkIsRetried() {
+        BackfillScheduler scheduler = new BackfillScheduler(30 * MINUTE, HOUR, 24 * HOUR, 100, 2);
+        scheduler.liveStartFor(sensor1, now.minusMillis(90 * MINUTE), now);
+        BackfillScheduler.Chunk chunk = scheduler.nextChunk();
+        assertFalse(scheduler.chunkFetched(chunk, 100));
+        assertEquals(2, scheduler.getNumberOfPendingChunks());
+        assertEquals(now.minusMillis(60 * MINUTE), scheduler.nextChunk().getFrom());
+
+        BackfillScheduler.Chunk failing = scheduler.nextChunk();
+        scheduler.chunkFailed(failing, "Timeout");
+        assertSame(failing, scheduler.nextChunk());
+        scheduler.chunkFailed(failing, "Timeout");
+        assertNull(scheduler.nextChunk());
+        assertEquals(1, scheduler.getNumberOfAbandonedChunks());
+        assertEquals("Timeout", scheduler.getProgress("Sensor-1").getLastError());
+    }
+
+    @Test
+    void removedSensorIsNotBackfilled() {
+        BackfillScheduler scheduler = new BackfillScheduler(30 * MINUTE, HOUR, 24 * HOUR, 1000, 3);
+        scheduler.liveStartFor(sensor1, now.minusMillis(3 * HOUR), now);
+        scheduler.liveStartFor(sensor2, now.minusMillis(HOUR), now);
+        scheduler.remove(sensor1);
+        assertEquals("Sensor-2", scheduler.nextChunk().getSensorId().getId());
+        assertNull(scheduler.nextChunk());
+        assertNull(scheduler.getProgress("Sensor-1"));
+    }
+
+    @Test
+    void gapsNotFilledAreResumedAfterRestart() throws Exception {
+        Path gapsFile = statusDirectory.resolve("trends_backfill_gaps.csv");
+        BackfillScheduler scheduler = new BackfillScheduler(30 * MINUTE, HOUR, 24 * HOUR, 1000, 3);
+        scheduler.readGaps(gapsFile);
+        scheduler.liveStartFor(sensor1, now.minusMillis(3 * HOUR), now);
+        // 11:00 to 11:30 is filled, 10:00 to 11:00 is being fetched when the agent stops
+        assertTrue(scheduler.chunkFetched(scheduler.nextChunk(), 10));
+        assertEquals(now.minusMillis(2 * HOUR), scheduler.nextChunk().getFrom());
+        scheduler.persistGaps();
+        assertEquals(List.of("sensorId,fromAt,toAt", "Sensor-1,2024-01-01T09:00:00Z,2024-01-01T11:00:00Z"), Files.readAllLines(gapsFile));
+
+        // Last updated was persisted after live polling, ten minutes before the restart
+        BackfillScheduler restarted = new BackfillScheduler(30 * MINUTE, HOUR, 24 * HOUR, 1000, 3);
+        restarted.readGaps(gapsFile);
+        restarted.persistGaps();
+        assertEquals(2, Files.readAllLines(gapsFile).size());
+        Instant restartedAt = now.plusMillis(10 * MINUTE);
+        assertEquals(restartedAt, restarted.liveStartFor(sensor1, restartedAt, restartedAt));
+        assertEquals(2, restarted.getNumberOfPendingChunks());
+        assertEquals(now.minusMillis(3 * HOUR), restarted.getProgress("Sensor-1").getGapFrom());
+        assertEquals(now.minusMillis(2 * HOUR), restarted.nextChunk().getFrom());
+        assertEquals(now.minusMillis(3 * HOUR), restarted.nextChunk().getFrom());
+        assertNull(restarted.nextChunk());
+    }
+
+    @Test
+    void restoredGapsOfRemovedSensorAreDropped() throws Exception {
+        Path gapsFile = statusDirectory.resolve("trends_backfill_gaps.csv");
+        Files.writeString(gapsFile, "sensorId,fromAt,toAt\nSensor-1,2024-01-01T09:00:00Z,2024-01-01T11:00:00Z\n");
+        BackfillScheduler scheduler = new BackfillScheduler(30 * MINUTE, HOUR, 24 * HOUR, 1000, 3);
+        scheduler.readGaps(gapsFile);
+        scheduler.remove(sensor1);
+        scheduler.persistGaps();
+        assertEquals(List.of("sensorId,fromAt,toAt"), Files.readAllLines(gapsFile));
+        assertNull(scheduler.liveStartFor(sensor1, null, now));
+        assertEquals(0, scheduler.getNumberOfPendingChunks());
+    }
+}
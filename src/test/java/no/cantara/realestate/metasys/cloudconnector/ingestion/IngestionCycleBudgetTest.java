@@ -0,0 +1,116 @@
+package no.cantara.realestate.metasys.cloudconnector.ingestion;
+
+import no.cantara.realestate.sensors.SensorId;
+import no.cantara.realestate.sensors.metasys.MetasysSensorId;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngestionCycleBudgetTest {
+
+    private final MutableClock clock = new MutableClock();
+
+    @Test
+    void sensorsNotReachedGoFirstInNextCycle() {
+        IngestionCycleBudget budget = new IngestionCycleBudget(10_000, 0, 0, clock);
+        List<SensorId> sensors = sensors(5);
+
+        IngestionCycleBudget.Cycle cycle = budget.start(sensors);
+        assertEquals(sensors, cycle.getSensors());
+        List<SensorId> reached = new ArrayList<>();
+        for (SensorId sensorId : cycle.getSensors()) {
+            if (cycle.isOverBudget()) {
+                break;
+            }
+            reached.add(sensorId);
+            clock.advance(4_000);
+        }
+        assertEquals(3, reached.size());
+        cycle.finish(sensors.subList(3, 5));
+        assertEquals(2, budget.getNumberOfCarriedOver());
+        assertEquals(1, budget.getNumberOfOverruns());
+        assertEquals(2_000, budget.getLastOverrunMillis());
+
+        IngestionCycleBudget.Cycle next = budget.start(sensors);
+        assertEquals(List.of(sensors.get(3), sensors.get(4), sensors.get(0), sensors.get(1), sensors.get(2)), next.getSensors());
+        assertEquals(0, budget.getNumberOfCarriedOver());
+        next.finish(List.of());
+        assertEquals(0, budget.getLastOverrunMillis());
+    }
+
+    @Test
+    void carriedOverSensorNoLongerSubscribedIsDropped() {
+        IngestionCycleBudget budget = new IngestionCycleBudget(10_000, 0, 0, clock);
+        List<SensorId> sensors = sensors(3);
+        budget.start(sensors).finish(List.of(sensors.get(2)));
+
+        IngestionCycleBudget.Cycle next = budget.start(sensors.subList(0, 2));
+        assertEquals(sensors.subList(0, 2), next.getSensors());
+    }
+
+    @Test
+    void checkpointEveryNSensorsOrTSeconds() {
+        IngestionCycleBudget budget = new IngestionCycleBudget(0, 3, 30_000, clock);
+        IngestionCycleBudget.Cycle cycle = budget.start(sensors(10));
+        assertFalse(cycle.sensorDone());
+        assertFalse(cycle.sensorDone());
+        assertTrue(cycle.sensorDone());
+        assertFalse(cycle.sensorDone());
+        clock.advance(30_000);
+        assertTrue(cycle.sensorDone());
+        assertEquals(2, budget.getNumberOfCheckpoints());
+    }
+
+    @Test
+    void noBudgetIsNeverOverBudget() {
+        IngestionCycleBudget budget = new IngestionCycleBudget(0, 100, 30_000, clock);
+        IngestionCycleBudget.Cycle cycle = budget.start(sensors(2));
+        clock.advance(3_600_000);
+        assertFalse(cycle.isOverBudget());
+        cycle.finish(List.of());
+        assertEquals(0, budget.getNumberOfOverruns());
+    }
+
+    private static List<SensorId> sensors(int count) {
+        List<SensorId> sensors = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            sensors.add(new MetasysSensorId("Sensor-" + i, "objectId-" + i));
+        }
+        return sensors;
+    }
+
+    private static class MutableClock extends Clock {
+        private long millis = Instant.parse("2025-01-01T10:00:00Z").toEpochMilli();
+
+        void advance(long deltaMillis) {
+            millis += deltaMillis;
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
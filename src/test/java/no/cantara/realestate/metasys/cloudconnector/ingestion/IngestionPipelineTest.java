@@ -0,0 +1,138 @@
+package no.cantara.realestate.metasys.cloudconnector.ingestion;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngestionPipelineTest {
+
+    private IngestionPipeline<Integer, List<Integer>, List<String>> pipeline;
+
+    @AfterEach
+    void tearDown() {
+        if (pipeline != null) {
+            pipeline.close();
+        }
+    }
+
+    @Test
+    void everyInputIsPublishedWithItsItemsInOrder() throws Exception {
+        pipeline = new IngestionPipeline<>("test", 4, 2, 2, 8);
+        List<Integer> inputs = range(200);
+        List<List<String>> published = Collections.synchronizedList(new ArrayList<>());
+
+        pipeline.run(inputs, input -> List.of(input, input + 1, input + 2),
+                fetched -> fetched.stream().map(String::valueOf).toList(), published::add);
+
+        assertEquals(200, published.size());
+        assertEquals(200, pipeline.getNumberOfPublished());
+        for (List<String> items : published) {
+            int first = Integer.parseInt(items.get(0));
+            assertEquals(List.of(String.valueOf(first), String.valueOf(first + 1), String.valueOf(first + 2)), items);
+        }
+        assertEquals(0, pipeline.getFetchedQueueDepth());
+        assertEquals(0, pipeline.getEnrichedQueueDepth());
+    }
+
+    @Test
+    void slowPublishThrottlesFetching() throws Exception {
+        pipeline = new IngestionPipeline<>("test", 2, 1, 1, 2);
+        AtomicInteger fetched = new AtomicInteger();
+        CountDownLatch releasePublish = new CountDownLatch(1);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread runner = new Thread(() -> {
+            try {
+                pipeline.run(range(100), input -> {
+                    fetched.incrementAndGet();
+                    return List.of(input);
+                }, items -> List.of(String.valueOf(items.get(0))), items -> {
+                    try {
+                        releasePublish.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            } catch (Exception e) {
+                failure.set(e);
+            }
+        });
+        runner.setDaemon(true);
+        runner.start();
+
+        try {
+            Thread.sleep(500);
+            // Two queues of 2, and one item held by each of the 2 fetch, 1 enrich and 1 publish threads
+            assertTrue(fetched.get() <= 8, "Fetching should wait for publish. Fetched: " + fetched.get());
+        } finally {
+            releasePublish.countDown();
+        }
+        runner.join(TimeUnit.SECONDS.toMillis(10));
+        assertNull(failure.get());
+        assertTrue(pipeline.getBackpressureMillis() > 0);
+        assertEquals(100, fetched.get());
+        assertEquals(100, pipeline.getNumberOfPublished());
+    }
+
+    @Test
+    void fetchFailureStopsRunAfterPublishingWhatWasFetched() throws Exception {
+        pipeline = new IngestionPipeline<>("test", 1, 1, 1, 8);
+        List<List<String>> published = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger fetchAttempts = new AtomicInteger();
+
+        IllegalStateException thrown = assertThrows(IllegalStateException.class, () -> pipeline.run(range(20), input -> {
+            fetchAttempts.incrementAndGet();
+            if (input == 5) {
+                throw new IllegalStateException("Logon failed");
+            }
+            return List.of(input);
+        }, items -> List.of(String.valueOf(items.get(0))), published::add));
+
+        assertEquals("Logon failed", thrown.getMessage());
+        assertEquals(6, fetchAttempts.get());
+        assertEquals(5, published.size());
+    }
+
+    @Test
+    void enrichFailureIsCountedAndRunContinues() throws Exception {
+        pipeline = new IngestionPipeline<>("test", 2, 2, 1, 8);
+        List<List<String>> published = Collections.synchronizedList(new ArrayList<>());
+
+        pipeline.run(range(10), List::of, items -> {
+            if (items.get(0) == 3) {
+                throw new IllegalArgumentException("Unable to map");
+            }
+            return List.of(String.valueOf(items.get(0)));
+        }, published::add);
+
+        assertEquals(9, published.size());
+        assertEquals(1, pipeline.getNumberOfStageFailures());
+    }
+
+    @Test
+    void fetchReturningNullSkipsInput() throws Exception {
+        pipeline = new IngestionPipeline<>("test", 2, 1, 1, 8);
+        List<List<String>> published = Collections.synchronizedList(new ArrayList<>());
+
+        pipeline.run(range(10), input -> input % 2 == 0 ? List.of(input) : null,
+                items -> List.of(String.valueOf(items.get(0))), published::add);
+
+        assertEquals(5, published.size());
+    }
+
+    private static List<Integer> range(int size) {
+        List<Integer> inputs = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            inputs.add(i);
+        }
+        return inputs;
+    }
+}
@@ -530,12 +530,60 @@ class MetasysTrendsIngestionServiceTest {
         assertEquals(0, ingestionService.getSubscriptionsCount());
     }
 
+    @Test
+    void gapSinceLastUpdatedIsBackfilledWithoutMovingLastUpdated() throws URISyntaxException {
+        // Arrange
+        MetasysSensorId sensorId = createTestSensorId("sensor1", "metasysObject1234");
+        ingestionService.addSubscription(sensorId);
+        BackfillScheduler backfillScheduler = new BackfillScheduler(30 * 60_000L, 60 * 60_000L, 24 * 60 * 60_000L, 1000, 3);
+        ingestionService.setBackfillScheduler(backfillScheduler);
+
+        Instant lastUpdatedAt = Instant.now().minus(2, ChronoUnit.HOURS);
+        when(trendsLastUpdatedService.getLastUpdatedAt(sensorId)).thenReturn(lastUpdatedAt);
+        // One sample every 10 minutes from the time asked for until now
+        when(metasysApiClient.findTrendSamplesByDate(eq("metasysObject1234"), eq(-1), eq(-1), any(Instant.class)))
+                .thenAnswer(invocation -> createTrendSamplesSince(invocation.getArgument(3), 10));
+
+        // Act
+        ingestionService.ingestTrends();
+
+        // Assert live polling starts at the gap threshold, and the 90 minutes before are queued in two chunks
+        ArgumentCaptor<Instant> fromCaptor = ArgumentCaptor.forClass(Instant.class);
+        verify(metasysApiClient).findTrendSamplesByDate(eq("metasysObject1234"), eq(-1), eq(-1), fromCaptor.capture());
+        assertTrue(fromCaptor.getValue().isAfter(lastUpdatedAt.plus(89, ChronoUnit.MINUTES)));
+        assertEquals(2, backfillScheduler.getNumberOfPendingChunks());
+        clearInvocations(trendsLastUpdatedService, observationListener);
+
+        assertTrue(ingestionService.backfillNext());
+        assertTrue(ingestionService.backfillNext());
+        assertFalse(ingestionService.backfillNext());
+
+        // 6 samples in the chunk of an hour, 3 in the chunk of 30 minutes
+        verify(observationListener, times(9)).observedValue(any(ObservedTrendedValue.class));
+        verify(trendsLastUpdatedService, never()).setLastUpdatedAt(any(), any());
+        BackfillScheduler.Progress progress = backfillScheduler.getProgress("sensor1");
+        assertTrue(progress.isDone());
+        assertEquals(9, progress.getSamples());
+    }
+
     // Helper methods
     private MetasysSensorId createTestSensorId(String sensorId, String metasysObjectId) {
         MetasysSensorId mockSensorId = new MetasysSensorId(sensorId, metasysObjectId);
         return mockSensorId;
     }
 
+    private Set<TrendSample> createTrendSamplesSince(Instant from, int intervalMinutes) {
+        Set<TrendSample> samples = new LinkedHashSet<>();
+        Instant now = Instant.now();
+        for (Instant observedAt = from; observedAt.isBefore(now); observedAt = observedAt.plus(intervalMinutes, ChronoUnit.MINUTES)) {
+            TrendSample sample = new TrendSample();
+            sample.setValue(samples.size());
+            sample.setObservedAt(observedAt);
+            samples.add(sample);
+        }
+        return samples;
+    }
+
     private Set<TrendSample> createMockTrendSamples(int count) {
         Set<TrendSample> samples = new LinkedHashSet<>();
         for (int i = 0; i < count; i++) {
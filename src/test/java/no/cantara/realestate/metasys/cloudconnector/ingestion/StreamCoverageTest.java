@@ -0,0 +1,89 @@
+package no.cantara.realestate.metasys.cloudconnector.ingestion;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamCoverageTest {
+
+    private final MutableClock clock = new MutableClock();
+
+    @Test
+    void sensorWithRecentStreamUpdateIsCovered() {
+        StreamCoverage coverage = new StreamCoverage(900_000, clock);
+        coverage.setStreamOpen(() -> true);
+        coverage.recordStreamUpdate("Sensor-1", clock.instant());
+
+        assertTrue(coverage.isCovered("Sensor-1", true));
+        assertFalse(coverage.isCovered("Sensor-2", true));
+        assertEquals(1, coverage.getNumberOfCoveredSensors());
+        assertEquals(1, coverage.getNumberOfSuppressedPolls());
+        assertEquals(clock.instant().plusSeconds(900), coverage.getCoveredUntil("Sensor-1"));
+    }
+
+    @Test
+    void quietSensorFallsBackToPolling() {
+        StreamCoverage coverage = new StreamCoverage(900_000, clock);
+        coverage.setStreamOpen(() -> true);
+        Instant lastUpdate = clock.instant();
+        coverage.recordStreamUpdate("Sensor-1", lastUpdate);
+
+        clock.advance(900_000);
+        assertFalse(coverage.isCovered("Sensor-1", true));
+        assertEquals(0, coverage.getNumberOfCoveredSensors());
+        assertEquals(lastUpdate, coverage.getLastStreamUpdate("Sensor-1"));
+    }
+
+    @Test
+    void closedStreamCoversNothing() {
+        StreamCoverage coverage = new StreamCoverage(900_000, clock);
+        coverage.setStreamOpen(() -> false);
+        coverage.recordStreamUpdate("Sensor-1", clock.instant());
+
+        assertFalse(coverage.isCovered("Sensor-1", coverage.isStreamOpen()));
+        assertEquals(0, coverage.getNumberOfCoveredSensors());
+        assertEquals(0, coverage.getNumberOfSuppressedPolls());
+    }
+
+    @Test
+    void olderStreamUpdateDoesNotMoveLastUpdateBack() {
+        StreamCoverage coverage = new StreamCoverage(900_000, clock);
+        Instant latest = clock.instant();
+        coverage.recordStreamUpdate("Sensor-1", latest);
+        coverage.recordStreamUpdate("Sensor-1", latest.minusSeconds(60));
+        assertEquals(latest, coverage.getLastStreamUpdate("Sensor-1"));
+    }
+
+    private static class MutableClock extends Clock {
+        private long millis = Instant.parse("2025-01-01T10:00:00Z").toEpochMilli();
+
+        void advance(long deltaMillis) {
+            millis += deltaMillis;
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package no.cantara.realestate.metasys.cloudconnector.metrics;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BufferedMetricsDistributionClientTest {
+
+    @Mock
+    private MetasysMetricsDistributionClient delegate;
+
+    private BufferedMetricsDistributionClient metricsClient;
+
+    @BeforeEach
+    void setUp() {
+        metricsClient = new BufferedMetricsDistributionClient(delegate);
+    }
+
+    @Test
+    void countersAreSummedUntilFlush() {
+        for (int i = 0; i < 1000; i++) {
+            metricsClient.sendValue("metasys_streamvalues_received", 1);
+        }
+        verifyNoInteractions(delegate);
+
+        metricsClient.flushMetrics();
+        verify(delegate).sendValue("metasys_streamvalues_received", 1000L);
+
+        metricsClient.flushMetrics();
+        verifyNoMoreInteractions(delegate);
+    }
+
+    @Test
+    void gaugesSendLastValue() {
+        metricsClient.sendDoubleValue("ratio", 0.1);
+        metricsClient.sendDoubleValue("ratio", 0.3);
+        metricsClient.flushMetrics();
+        verify(delegate).sendDoubleValue("ratio", 0.3);
+
+        metricsClient.flushMetrics();
+        verify(delegate, times(1)).sendDoubleValue(eq("ratio"), anyDouble());
+    }
+
+    @Test
+    void histogramSendsPercentiles() {
+        for (int i = 1; i <= 100; i++) {
+            metricsClient.recordValue("latency", i);
+        }
+        metricsClient.flushMetrics();
+        verify(delegate).sendValue("latency_count", 100L);
+        verify(delegate).sendDoubleValue("latency_mean", 50.5);
+        verify(delegate).sendValue("latency_max", 100L);
+        verify(delegate).sendValue(eq("latency_p50"), anyLong());
+        verify(delegate).sendValue(eq("latency_p99"), anyLong());
+
+        metricsClient.recordValue("latency", 7);
+        metricsClient.flushMetrics();
+        verify(delegate).sendValue("latency_count", 1L);
+        verify(delegate).sendValue("latency_max", 7L);
+    }
+
+    @Test
+    void closeDbFlushesAndClosesDelegate() {
+        metricsClient.start(60);
+        metricsClient.sendValue("sensors.added", 3);
+        metricsClient.closeDb();
+        verify(delegate).sendValue("sensors.added", 3L);
+        verify(delegate).closeDb();
+    }
+
+    @Test
+    void histogramPercentileIsWithinBucketPrecision() {
+        MetricHistogram histogram = new MetricHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        MetricHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1000, snapshot.getMax());
+        assertEquals(500, snapshot.getPercentile(50), 500 * 0.125);
+        assertEquals(990, snapshot.getPercentile(99), 990 * 0.125);
+        assertEquals(1000, histogram.getCount());
+    }
+}
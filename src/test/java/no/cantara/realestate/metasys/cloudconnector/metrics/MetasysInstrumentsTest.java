@@ -0,0 +1,112 @@
+package no.cantara.realestate.metasys.cloudconnector.metrics;
+
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.metrics.InstrumentType;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.export.CollectionRegistration;
+import io.opentelemetry.sdk.metrics.export.MetricReader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetasysInstrumentsTest {
+
+    private CollectingMetricReader metricReader;
+    private SdkMeterProvider meterProvider;
+    private MetasysInstruments instruments;
+
+    @BeforeEach
+    void setUp() {
+        metricReader = new CollectingMetricReader();
+        meterProvider = SdkMeterProvider.builder().registerMetricReader(metricReader).build();
+        instruments = new MetasysInstruments(meterProvider.get("test"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        meterProvider.close();
+    }
+
+    @Test
+    void httpLatencyIsRecordedPerOperationAndStatus() {
+        long started = System.nanoTime();
+        instruments.recordHttpRequest("MetasysApiClient", "findTrendSamplesByDate", 200, started);
+        instruments.recordHttpRequest("MetasysApiClient", "findTrendSamplesByDate", 404, started);
+        instruments.recordHttpRequest("MetasysApiClient", "login", 200, started);
+
+        MetricData httpDuration = collect().get("metasys.http.client.duration");
+        assertNotNull(httpDuration);
+        assertEquals(3, httpDuration.getHistogramData().getPoints().size());
+    }
+
+    @Test
+    void streamEventsAndLagAreRecorded() {
+        instruments.streamEventReceived("object.values.update");
+        instruments.streamEventReceived("object.values.update");
+        instruments.streamEventReceived("hello");
+        instruments.recordObservationLag(MetasysInstruments.PATH_STREAM, Instant.now().minusSeconds(2));
+        instruments.recordObservationLag(MetasysInstruments.PATH_TREND, null);
+
+        Map<String, MetricData> metrics = collect();
+        long events = metrics.get("metasys.stream.events").getLongSumData().getPoints().stream()
+                .mapToLong(point -> point.getValue()).sum();
+        assertEquals(3, events);
+        MetricData lag = metrics.get("metasys.observation.lag");
+        assertEquals(1, lag.getHistogramData().getPoints().size());
+        assertTrue(lag.getHistogramData().getPoints().iterator().next().getMin() >= 2000);
+    }
+
+    @Test
+    void queueDepthIsReadOnCollect() {
+        ArrayBlockingQueue<String> queue = new ArrayBlockingQueue<>(10);
+        instruments.registerQueueDepth("test.queue", queue::size);
+        queue.add("a");
+        queue.add("b");
+
+        MetricData depth = collect().get("metasys.queue.depth");
+        assertEquals(2, depth.getLongGaugeData().getPoints().iterator().next().getValue());
+    }
+
+    private Map<String, MetricData> collect() {
+        return metricReader.collect().stream().collect(Collectors.toMap(MetricData::getName, Function.identity()));
+    }
+
+    static class CollectingMetricReader implements MetricReader {
+        private CollectionRegistration registration;
+
+        @Override
+        public void register(CollectionRegistration registration) {
+            this.registration = registration;
+        }
+
+        Collection<MetricData> collect() {
+            return registration.collectAllMetrics();
+        }
+
+        @Override
+        public CompletableResultCode forceFlush() {
+            return CompletableResultCode.ofSuccess();
+        }
+
+        @Override
+        public CompletableResultCode shutdown() {
+            return CompletableResultCode.ofSuccess();
+        }
+
+        @Override
+        public AggregationTemporality getAggregationTemporality(InstrumentType instrumentType) {
+            return AggregationTemporality.CUMULATIVE;
+        }
+    }
+}
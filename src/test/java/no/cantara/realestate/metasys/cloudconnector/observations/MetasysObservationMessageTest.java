@@ -9,7 +9,10 @@ import no.cantara.realestate.rec.RecTags;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.math.BigDecimal;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -45,4 +48,13 @@ class MetasysObservationMessageTest {
         assertEquals(tfm, message.getTfm());
 
     }
+
+    @Test
+    void valueIsRoundedUpToTwoDecimals() {
+        assertEquals(new BigDecimal("21.13"), MetasysObservationMessage.round(new BigDecimal("21.121")));
+        assertEquals(new BigDecimal("21.50"), MetasysObservationMessage.round(new BigDecimal("21.5")));
+        BigDecimal twoDecimals = new BigDecimal("21.12");
+        assertSame(twoDecimals, MetasysObservationMessage.round(twoDecimals));
+        assertEquals(408, MetasysObservationMessage.round(408));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,65 @@
+package no.cantara.realestate.metasys.cloudconnector.observations;
+
+import no.cantara.realestate.metasys.cloudconnector.automationserver.stream.ObservedValueNumber;
+import no.cantara.realestate.rec.RecTags;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ObservationTemplatesTest {
+
+    @Test
+    void messageFromTemplateHasTheRecTagsOfTheSensor() {
+        RecTags recTags = recTags("Sensor-1", "RT");
+        ObservedValueNumber observedValue = new ObservedValueNumber("objectId-1", 21.5, "itemReference");
+        observedValue.setObservedAt(Instant.parse("2023-05-24T00:15:00Z"));
+
+        MetasysObservationMessage fromTemplate = new MetasysObservationMessage(observedValue, new ObservationTemplates().get(recTags));
+
+        assertEquals("Sensor-1", fromTemplate.getSensorId());
+        assertEquals("+511=564.01001-RT601", fromTemplate.getTfm());
+        assertEquals("511", fromTemplate.getBuilding());
+        assertEquals("RT", fromTemplate.getSensorType());
+        assertEquals("celsius", fromTemplate.getMeasurementUnit());
+        assertEquals(21.5, fromTemplate.getValue());
+        assertEquals(Instant.parse("2023-05-24T00:15:00Z"), fromTemplate.getObservationTime());
+    }
+
+    @Test
+    void templateIsResolvedOncePerRecTags() {
+        ObservationTemplates templates = new ObservationTemplates();
+        RecTags recTags = recTags("Sensor-1", "co2");
+        ObservationTemplate registered = templates.register(recTags);
+
+        assertSame(registered, templates.get(recTags));
+        assertEquals("ppm", registered.getMeasurementUnit());
+
+        // A reload gives new RecTags for the sensor
+        RecTags reloaded = recTags("Sensor-1", "temp");
+        ObservationTemplate rebuilt = templates.get(reloaded);
+        assertNotSame(registered, rebuilt);
+        assertEquals("celsius", rebuilt.getMeasurementUnit());
+        assertSame(rebuilt, templates.find("Sensor-1"));
+        assertEquals(1, templates.size());
+
+        templates.remove("Sensor-1");
+        assertNull(templates.find("Sensor-1"));
+    }
+
+    @Test
+    void noMeasurementUnitWithoutSensorType() {
+        ObservationTemplate template = ObservationTemplate.from(recTags("Sensor-1", null));
+        assertNull(template.getMeasurementUnit());
+    }
+
+    private static RecTags recTags(String twinId, String sensorType) {
+        RecTags recTags = new RecTags(twinId);
+        recTags.setTfm("+511=564.01001-RT601");
+        recTags.setBuilding("511");
+        recTags.setFloor("01");
+        recTags.setSensorType(sensorType);
+        return recTags;
+    }
+}
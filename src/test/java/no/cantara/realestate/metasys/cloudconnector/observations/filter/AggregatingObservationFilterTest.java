@@ -0,0 +1,189 @@
+package no.cantara.realestate.metasys.cloudconnector.observations.filter;
+
+import no.cantara.config.ApplicationProperties;
+import no.cantara.realestate.metasys.cloudconnector.observations.CompactObservation;
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorIndex;
+import no.cantara.realestate.observations.ObservationListener;
+import no.cantara.realestate.observations.ObservedValue;
+import no.cantara.realestate.sensors.metasys.MetasysSensorId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class AggregatingObservationFilterTest {
+
+    @Mock
+    private ObservationListener observationListener;
+
+    private AggregatingObservationFilter filter;
+    private ObservationFilterChain chain;
+    private final MetasysSensorId energySensor = new MetasysSensorId("energy-1", "objectId-energy-1");
+    private final MetasysSensorId tempSensor = new MetasysSensorId("temp-1", "objectId-temp-1");
+    private final MetasysSensorId presenceSensor = new MetasysSensorId("presence-1", "objectId-presence-1");
+    private final Instant start = Instant.parse("2024-01-01T10:00:00Z");
+
+    @BeforeEach
+    void setUp() {
+        ApplicationProperties config = ApplicationProperties.builder()
+                .property("filter.aggregation.sensorType.energy.windowSeconds", "60")
+                .property("filter.aggregation.sensorType.energy.function", "max")
+                .property("filter.aggregation.graceSeconds", "30")
+                .property("filter.aggregation.useCsvInterval", "true")
+                .build();
+        filter = AggregatingObservationFilter.fromConfig(config, new SensorIndex());
+        filter.registerSensor("energy-1", "energy", null);
+        filter.registerSensor("temp-1", "temp", null);
+        chain = new ObservationFilterChain(observationListener);
+        chain.addFilter(filter);
+    }
+
+    @Test
+    void samplesAreAggregatedAndEmittedWhenWindowCloses() {
+        for (int i = 0; i < 6; i++) {
+            chain.observedValue(new ObservedValue(energySensor, i, start.plusSeconds(i * 10)));
+        }
+        verify(observationListener, never()).observedValue(any());
+
+        chain.observedValue(new ObservedValue(energySensor, 100, start.plusSeconds(61)));
+
+        ArgumentCaptor<ObservedValue> captor = ArgumentCaptor.forClass(ObservedValue.class);
+        verify(observationListener).observedValue(captor.capture());
+        AggregatedObservedValue aggregate = (AggregatedObservedValue) captor.getValue();
+        assertEquals(5.0, aggregate.getValue().doubleValue());
+        assertEquals(0.0, aggregate.getMin());
+        assertEquals(2.5, aggregate.getAverage());
+        assertEquals(6, aggregate.getCount());
+        assertEquals(start, aggregate.getWindowStart());
+        assertEquals(start.plusSeconds(60), aggregate.getObservedAt());
+        assertEquals(1, filter.getNumberOfOpenWindows());
+    }
+
+    @Test
+    void backfilledSamplesArePassedWithoutTouchingOpenWindow() {
+        chain.observedValue(new ObservedValue(energySensor, 7, start.plusSeconds(3600)));
+        CompactObservation backfilled = new CompactObservation().set(energySensor, start.toEpochMilli(), 1, CompactObservation.BACKFILL);
+        assertTrue(filter.accept(backfilled));
+        assertEquals(1, filter.getNumberOfSamplesIn());
+        assertEquals(0, filter.getNumberOfLateSamples());
+
+        chain.observedValue(new ObservedValue(energySensor, 100, start.plusSeconds(3661)));
+        ArgumentCaptor<ObservedValue> captor = ArgumentCaptor.forClass(ObservedValue.class);
+        verify(observationListener).observedValue(captor.capture());
+        AggregatedObservedValue aggregate = (AggregatedObservedValue) captor.getValue();
+        assertEquals(7.0, aggregate.getValue().doubleValue());
+        assertEquals(1, aggregate.getCount());
+    }
+
+    @Test
+    void sensorsWithoutWindowArePassedUnchanged() {
+        ObservedValue observedValue = new ObservedValue(tempSensor, 21.5, start);
+        chain.observedValue(observedValue);
+        verify(observationListener).observedValue(observedValue);
+    }
+
+    @Test
+    void flushClosesWindowsAfterGrace() {
+        chain.observedValue(new ObservedValue(energySensor, 1, start.plusSeconds(5)));
+        assertEquals(0, filter.flush(start.plusSeconds(89)));
+        assertEquals(1, filter.flush(start.plusSeconds(90)));
+        verify(observationListener).observedValue(any(AggregatedObservedValue.class));
+        assertEquals(0, filter.getNumberOfOpenWindows());
+    }
+
+    @Test
+    void lateSamplesArePassedUnchanged() {
+        chain.observedValue(new ObservedValue(energySensor, 1, start.plusSeconds(65)));
+        ObservedValue late = new ObservedValue(energySensor, 2, start.plusSeconds(5));
+        chain.observedValue(late);
+        verify(observationListener).observedValue(late);
+        assertEquals(1, filter.getNumberOfLateSamples());
+    }
+
+    @Test
+    void intervalFromCsvOverridesSensorType() {
+        filter.registerSensor("energy-1", "energy", "PT2M");
+        chain.observedValue(new ObservedValue(energySensor, 1, start));
+        chain.observedValue(new ObservedValue(energySensor, 2, start.plusSeconds(90)));
+        verify(observationListener, never()).observedValue(any());
+        chain.observedValue(new ObservedValue(energySensor, 3, start.plusSeconds(120)));
+        verify(observationListener).observedValue(any(AggregatedObservedValue.class));
+    }
+
+    @Test
+    void intervalFromCsvIsIgnoredByDefault() {
+        ApplicationProperties config = ApplicationProperties.builder()
+                .property("filter.aggregation.sensorType.energy.windowSeconds", "60")
+                .build();
+        AggregatingObservationFilter defaultFilter = AggregatingObservationFilter.fromConfig(config, new SensorIndex());
+        defaultFilter.registerSensor("energy-1", "energy", "PT2M");
+        defaultFilter.registerSensor("temp-1", "temp", "PT2M");
+        ObservationFilterChain defaultChain = new ObservationFilterChain(observationListener);
+        defaultChain.addFilter(defaultFilter);
+        defaultChain.observedValue(new ObservedValue(energySensor, 1, start));
+        defaultChain.observedValue(new ObservedValue(energySensor, 2, start.plusSeconds(90)));
+        verify(observationListener).observedValue(any(AggregatedObservedValue.class));
+        ObservedValue temp = new ObservedValue(tempSensor, 21.5, start);
+        defaultChain.observedValue(temp);
+        verify(observationListener).observedValue(temp);
+    }
+
+    @Test
+    void trueFalseSensorsAreNotAggregated() {
+        ApplicationProperties config = ApplicationProperties.builder()
+                .property("filter.aggregation.windowSeconds", "60")
+                .property("filter.aggregation.sensorType.tilstedevarelse.windowSeconds", "60")
+                .build();
+        AggregatingObservationFilter defaultFilter = AggregatingObservationFilter.fromConfig(config, new SensorIndex());
+        defaultFilter.registerSensor("presence-1", "tilstedevarelse", null);
+        defaultFilter.registerSensor("temp-1", "temp", null);
+        assertTrue(defaultFilter.accept(new ObservedValue(presenceSensor, 1, start)));
+        assertTrue(defaultFilter.accept(new CompactObservation().set(tempSensor, start.toEpochMilli(), 1, CompactObservation.BOOLEAN)));
+        assertFalse(defaultFilter.accept(new ObservedValue(tempSensor, 21.5, start)));
+        assertEquals(1, defaultFilter.getNumberOfSamplesIn());
+    }
+
+    @Test
+    void unknownSensorsAndTrueFalseValuesArePassedOnTheObservedValuePath() {
+        ApplicationProperties config = ApplicationProperties.builder()
+                .property("filter.aggregation.windowSeconds", "60")
+                .build();
+        SensorIndex sensorIndex = new SensorIndex();
+        AggregatingObservationFilter defaultFilter = AggregatingObservationFilter.fromConfig(config, sensorIndex);
+        defaultFilter.registerSensor("presence-1", "tilstedevarelse", null);
+
+        MetasysSensorId unknownSensor = new MetasysSensorId("unknown-1", "objectId-unknown-1");
+        assertTrue(defaultFilter.accept(new ObservedValue(unknownSensor, 21.5, start)));
+        assertEquals(-1, sensorIndex.find("unknown-1"));
+        assertTrue(defaultFilter.accept(new ObservedValue(presenceSensor, 1, start)));
+        assertTrue(defaultFilter.accept(new ObservedValue(presenceSensor, 0, start.plusSeconds(10))));
+        assertEquals(0, defaultFilter.getNumberOfSamplesIn());
+        assertEquals(0, defaultFilter.getNumberOfOpenWindows());
+    }
+
+    @Test
+    void closeFlushesOpenWindows() {
+        chain.observedValue(new ObservedValue(energySensor, 1, start));
+        chain.stop();
+        verify(observationListener).observedValue(any(AggregatedObservedValue.class));
+    }
+
+    @Test
+    void parseIntervalSeconds() {
+        assertEquals(900, AggregatingObservationFilter.parseIntervalSeconds("900"));
+        assertEquals(900, AggregatingObservationFilter.parseIntervalSeconds("15min"));
+        assertEquals(60, AggregatingObservationFilter.parseIntervalSeconds("1m"));
+        assertEquals(3600, AggregatingObservationFilter.parseIntervalSeconds("1h"));
+        assertEquals(900, AggregatingObservationFilter.parseIntervalSeconds("PT15M"));
+        assertEquals(-1, AggregatingObservationFilter.parseIntervalSeconds(""));
+        assertEquals(-1, AggregatingObservationFilter.parseIntervalSeconds("often"));
+    }
+}
@@ -0,0 +1,146 @@
+package no.cantara.realestate.metasys.cloudconnector.observations.filter;
+
+import no.cantara.config.ApplicationProperties;
+import no.cantara.realestate.metasys.cloudconnector.metrics.MetasysMetricsDistributionClient;
+import no.cantara.realestate.metasys.cloudconnector.observations.CompactObservation;
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorIndex;
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorType;
+import no.cantara.realestate.observations.ObservationListener;
+import no.cantara.realestate.observations.ObservedValue;
+import no.cantara.realestate.sensors.metasys.MetasysSensorId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class DeadbandObservationFilterTest {
+
+    @Mock
+    private ObservationListener observationListener;
+    @Mock
+    private MetasysMetricsDistributionClient metricsClient;
+
+    private DeadbandObservationFilter filter;
+    private final MetasysSensorId tempSensor = new MetasysSensorId("temp-1", "objectId-temp-1");
+    private final MetasysSensorId presenceSensor = new MetasysSensorId("presence-1", "objectId-presence-1");
+    private final Instant start = Instant.parse("2024-01-01T10:00:00Z");
+
+    @BeforeEach
+    void setUp() {
+        ApplicationProperties config = ApplicationProperties.builder()
+                .property("filter.deadband.maxSilenceSeconds", "900")
+                .property("filter.deadband.sensorType.temp.absolute", "0.5")
+                .build();
+        filter = DeadbandObservationFilter.fromConfig(config, new SensorIndex());
+        filter.registerSensor("temp-1", "temp", "celsius");
+        filter.registerSensor("presence-1", "tilstedevarelse", null);
+    }
+
+    @Test
+    void firstValueIsAlwaysPassed() {
+        assertTrue(filter.accept(observed(tempSensor, 21.0, start)));
+    }
+
+    @Test
+    void smallChangesWithinDeadbandAreSuppressed() {
+        assertTrue(filter.accept(observed(tempSensor, 21.0, start)));
+        assertFalse(filter.accept(observed(tempSensor, 21.2, start.plusSeconds(60))));
+        assertFalse(filter.accept(observed(tempSensor, 21.5, start.plusSeconds(120))));
+        assertTrue(filter.accept(observed(tempSensor, 21.6, start.plusSeconds(180))));
+        // Deadband is relative to the last passed value, not the last observed value
+        assertFalse(filter.accept(observed(tempSensor, 21.2, start.plusSeconds(240))));
+        assertEquals(2, filter.getNumberOfPassed());
+        assertEquals(3, filter.getNumberOfSuppressed());
+        assertEquals(0.6, filter.getSuppressionRatio(), 0.0001);
+        assertEquals(0.6, filter.getSuppressionRatio(SensorType.temp), 0.0001);
+    }
+
+    @Test
+    void heartbeatIsPassedAfterMaxSilence() {
+        assertTrue(filter.accept(observed(tempSensor, 21.0, start)));
+        assertFalse(filter.accept(observed(tempSensor, 21.0, start.plusSeconds(899))));
+        assertTrue(filter.accept(observed(tempSensor, 21.0, start.plusSeconds(900))));
+        assertFalse(filter.accept(observed(tempSensor, 21.0, start.plusSeconds(901))));
+    }
+
+    @Test
+    void backfilledObservationsDoNotMoveLastValue() {
+        assertTrue(filter.accept(observed(tempSensor, 21.0, start)));
+        CompactObservation backfilled = new CompactObservation().set(tempSensor, start.minusSeconds(3600).toEpochMilli(), 25.0, CompactObservation.BACKFILL);
+        assertTrue(filter.accept(backfilled));
+        assertFalse(filter.accept(observed(tempSensor, 21.2, start.plusSeconds(60))));
+        assertEquals(1, filter.getNumberOfPassed());
+    }
+
+    @Test
+    void trueFalseSensorsArePassedOnChangeOnly() {
+        assertTrue(filter.accept(observed(presenceSensor, 0, start)));
+        assertFalse(filter.accept(observed(presenceSensor, 0, start.plusSeconds(10))));
+        assertTrue(filter.accept(observed(presenceSensor, 1, start.plusSeconds(20))));
+        assertTrue(filter.accept(observed(presenceSensor, 0, start.plusSeconds(30))));
+    }
+
+    @Test
+    void unregisteredSensorIsPassedThrough() {
+        MetasysSensorId unknownSensor = new MetasysSensorId("unknown-1", "objectId-unknown-1");
+        assertTrue(filter.accept(observed(unknownSensor, 10.0, start)));
+        assertTrue(filter.accept(observed(unknownSensor, 10.0, start.plusSeconds(60))));
+        assertEquals(0, filter.getNumberOfPassed() + filter.getNumberOfSuppressed());
+    }
+
+    @Test
+    void observationsWithoutValueArePassed() {
+        assertTrue(filter.accept(new ObservedValue(tempSensor, null, start)));
+        assertTrue(filter.accept(null));
+    }
+
+    @Test
+    void chainDeliversOnlyAcceptedObservations() {
+        ObservationFilterChain chain = new ObservationFilterChain(observationListener);
+        chain.addFilter(filter);
+        ObservedValue first = observed(tempSensor, 21.0, start);
+        ObservedValue second = observed(tempSensor, 21.1, start.plusSeconds(60));
+        chain.observedValue(first);
+        chain.observedValue(second);
+        verify(observationListener).observedValue(first);
+        verify(observationListener, never()).observedValue(second);
+    }
+
+    @Test
+    void reportMetrics() {
+        filter.accept(observed(tempSensor, 21.0, start));
+        filter.accept(observed(tempSensor, 21.0, start.plusSeconds(60)));
+        filter.reportMetrics(metricsClient);
+        verify(metricsClient).sendValue(DeadbandObservationFilter.METRIC_NAME_SUPPRESSED, 1L);
+        verify(metricsClient).sendDoubleValue(eq(DeadbandObservationFilter.METRIC_NAME_SUPPRESSION_RATIO), eq(0.5));
+        verify(metricsClient).sendDoubleValue(eq(DeadbandObservationFilter.METRIC_NAME_SUPPRESSION_RATIO + "_temp"), anyDouble());
+    }
+
+    @Test
+    void reportMetricsPerSensorTypeSinceLastReport() {
+        filter.accept(observed(tempSensor, 21.0, start));
+        filter.accept(observed(tempSensor, 21.0, start.plusSeconds(60)));
+        filter.reportMetrics(metricsClient);
+        verify(metricsClient).sendDoubleValue(DeadbandObservationFilter.METRIC_NAME_SUPPRESSION_RATIO + "_temp", 0.5);
+
+        filter.accept(observed(tempSensor, 22.0, start.plusSeconds(120)));
+        filter.reportMetrics(metricsClient);
+        verify(metricsClient).sendDoubleValue(DeadbandObservationFilter.METRIC_NAME_SUPPRESSION_RATIO + "_temp", 0.0);
+
+        filter.reportMetrics(metricsClient);
+        verify(metricsClient, times(2)).sendDoubleValue(eq(DeadbandObservationFilter.METRIC_NAME_SUPPRESSION_RATIO + "_temp"), anyDouble());
+    }
+
+    private ObservedValue observed(MetasysSensorId sensorId, Number value, Instant observedAt) {
+        return new ObservedValue(sensorId, value, observedAt);
+    }
+}
@@ -0,0 +1,123 @@
+package no.cantara.realestate.metasys.cloudconnector.observations.filter;
+
+import no.cantara.realestate.metasys.cloudconnector.observations.CompactObservation;
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorIndex;
+import no.cantara.realestate.observations.ObservedTrendedValue;
+import no.cantara.realestate.observations.ObservedValue;
+import no.cantara.realestate.sensors.metasys.MetasysSensorId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeduplicatingObservationFilterTest {
+
+    private DeduplicatingObservationFilter filter;
+    private final MetasysSensorId tempSensor = new MetasysSensorId("temp-1", "objectId-temp-1");
+    private final MetasysSensorId co2Sensor = new MetasysSensorId("co2-1", "objectId-co2-1");
+    private final Instant start = Instant.parse("2024-01-01T10:00:00Z");
+
+    @BeforeEach
+    void setUp() {
+        filter = new DeduplicatingObservationFilter(new SensorIndex(), 30_000);
+    }
+
+    @Test
+    void trendSampleAfterStreamValueIsDuplicate() {
+        assertTrue(filter.accept(streamValue(tempSensor, 21.5, start.plusSeconds(4))));
+        assertFalse(filter.accept(trendValue(tempSensor, 21.5, start)));
+        assertEquals(1, filter.getNumberOfDuplicatesFromTrend());
+        assertEquals(0, filter.getNumberOfDuplicatesFromStream());
+    }
+
+    @Test
+    void streamValueAfterTrendSampleIsDuplicate() {
+        assertTrue(filter.accept(trendValue(tempSensor, 21.3, start)));
+        // Stream value parsed as float
+        assertFalse(filter.accept(streamValue(tempSensor, 21.3f, start.plusSeconds(10))));
+        assertEquals(1, filter.getNumberOfDuplicatesFromStream());
+    }
+
+    @Test
+    void sampleAtStartTimeOfOverlappingRequestIsDuplicate() {
+        assertTrue(filter.accept(trendValue(tempSensor, 21.0, start)));
+        assertTrue(filter.accept(trendValue(tempSensor, 21.2, start.plusSeconds(600))));
+        assertFalse(filter.accept(trendValue(tempSensor, 21.2, start.plusSeconds(600))));
+        assertTrue(filter.accept(trendValue(tempSensor, 21.4, start.plusSeconds(1200))));
+    }
+
+    @Test
+    void sameValueLaterOrOnOtherSensorIsNotDuplicate() {
+        assertTrue(filter.accept(trendValue(tempSensor, 21.0, start)));
+        assertTrue(filter.accept(trendValue(tempSensor, 21.0, start.plusSeconds(600))));
+        assertTrue(filter.accept(trendValue(co2Sensor, 21.0, start)));
+        assertTrue(filter.accept(trendValue(tempSensor, 21.1, start.plusSeconds(605))));
+        assertEquals(0, filter.getNumberOfDuplicates());
+        assertEquals(0d, filter.getHitRatio());
+    }
+
+    @Test
+    void smallChangeOnLargeMeterIsNotDuplicate() {
+        MetasysSensorId energyMeter = new MetasysSensorId("energy-1", "objectId-energy-1");
+        assertTrue(filter.accept(trendValue(energyMeter, 1.2e7, start)));
+        assertTrue(filter.accept(trendValue(energyMeter, 1.2e7 + 0.5, start.plusSeconds(10))));
+        assertTrue(filter.accept(streamValue(energyMeter, 1.2e7 + 1.0, start.plusSeconds(15))));
+        assertEquals(0, filter.getNumberOfDuplicates());
+    }
+
+    @Test
+    void trendBatchAfterTenStreamValuesIsAllDuplicates() {
+        // One minute point, stream values received a few seconds after sampling, trend polled after ten minutes
+        for (int i = 0; i < 10; i++) {
+            assertTrue(filter.accept(streamValue(tempSensor, 21.0 + i / 10d, start.plusSeconds(i * 60 + 4))));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertFalse(filter.accept(trendValue(tempSensor, 21.0 + i / 10d, start.plusSeconds(i * 60))));
+        }
+        assertEquals(10, filter.getNumberOfDuplicatesFromTrend());
+        assertEquals(10, filter.getNumberOfPassed());
+    }
+
+    @Test
+    void valuesOlderThanWindowAreForgotten() {
+        DeduplicatingObservationFilter shortWindow = new DeduplicatingObservationFilter(new SensorIndex(), 30_000, 600_000);
+        assertTrue(shortWindow.accept(trendValue(tempSensor, 20.0, start)));
+        assertTrue(shortWindow.accept(trendValue(tempSensor, 21.0, start.plusSeconds(700))));
+        // Older than the window, so passed and not remembered
+        assertTrue(shortWindow.accept(trendValue(tempSensor, 20.0, start)));
+        assertTrue(shortWindow.accept(trendValue(tempSensor, 20.0, start)));
+        assertFalse(shortWindow.accept(streamValue(tempSensor, 21.0, start.plusSeconds(710))));
+        assertEquals(1d / 5, shortWindow.getHitRatio(), 0.0001);
+    }
+
+    @Test
+    void removedSensorStartsOverWithNoRecentValues() {
+        assertTrue(filter.accept(trendValue(tempSensor, 21.5, start)));
+        filter.removeSensor("temp-1");
+        filter.removeSensor("unknown-sensor");
+        assertTrue(filter.accept(streamValue(tempSensor, 21.5, start.plusSeconds(4))));
+        assertEquals(0, filter.getNumberOfDuplicates());
+    }
+
+    @Test
+    void backfilledObservationsAreNotRemembered() {
+        CompactObservation backfilled = new CompactObservation().set(tempSensor, start.toEpochMilli(), 20.0,
+                (short) (CompactObservation.TREND | CompactObservation.BACKFILL));
+        assertTrue(filter.accept(backfilled));
+        assertTrue(filter.accept(backfilled));
+        assertTrue(filter.accept(trendValue(tempSensor, 20.0, start)));
+        assertEquals(0, filter.getNumberOfDuplicates());
+    }
+
+    private static ObservedValue trendValue(MetasysSensorId sensorId, Number value, Instant observedAt) {
+        ObservedValue observedValue = new ObservedTrendedValue(sensorId, value);
+        observedValue.setObservedAt(observedAt);
+        return observedValue;
+    }
+
+    private static ObservedValue streamValue(MetasysSensorId sensorId, Number value, Instant observedAt) {
+        return new ObservedValue(sensorId, value, observedAt);
+    }
+}
@@ -0,0 +1,103 @@
+package no.cantara.realestate.metasys.cloudconnector.observations.filter;
+
+import no.cantara.realestate.metasys.cloudconnector.automationserver.stream.ObservedValueNumber;
+import no.cantara.realestate.metasys.cloudconnector.observations.CompactObservation;
+import no.cantara.realestate.metasys.cloudconnector.observations.MetasysObservationMessage;
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorIndex;
+import no.cantara.realestate.observations.ObservationListener;
+import no.cantara.realestate.observations.ObservedTrendedValue;
+import no.cantara.realestate.observations.ObservedValue;
+import no.cantara.realestate.rec.RecTags;
+import no.cantara.realestate.sensors.metasys.MetasysSensorId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ObservationFilterChainTest {
+
+    @Mock
+    private ObservationListener observationListener;
+
+    private final SensorIndex sensorIndex = new SensorIndex();
+    private DeduplicatingObservationFilter dedupFilter;
+    private ObservationFilterChain chain;
+    private final MetasysSensorId tempSensor = new MetasysSensorId("temp-1", "objectId-temp-1");
+    private final MetasysSensorId presenceSensor = new MetasysSensorId("presence-1", "objectId-presence-1");
+    private final Instant start = Instant.parse("2024-01-01T10:00:00Z");
+
+    @BeforeEach
+    void setUp() {
+        dedupFilter = new DeduplicatingObservationFilter(sensorIndex, 30_000);
+        chain = new ObservationFilterChain(observationListener);
+        chain.setSensorIndex(sensorIndex);
+        chain.addFilter(dedupFilter);
+    }
+
+    @Test
+    void compactObservationIsBoxedWhenPassedOn() {
+        CompactObservation observation = new CompactObservation();
+        chain.observed(observation.set(tempSensor, start.toEpochMilli(), 21.5, CompactObservation.TREND));
+
+        ArgumentCaptor<ObservedValue> captor = ArgumentCaptor.forClass(ObservedValue.class);
+        verify(observationListener).observedValue(captor.capture());
+        ObservedValue observedValue = captor.getValue();
+        assertInstanceOf(ObservedTrendedValue.class, observedValue);
+        assertEquals(tempSensor, observedValue.getSensorId());
+        assertEquals(21.5, observedValue.getValue());
+        assertEquals(start, observedValue.getObservedAt());
+    }
+
+    @Test
+    void trendValueKeepsItsTypeAndIsRoundedInMessage() {
+        CompactObservation observation = new CompactObservation();
+        chain.observed(observation.set(tempSensor, start, new BigDecimal("21.456789"), CompactObservation.TREND));
+        chain.observed(observation.set(presenceSensor, start, 1, (short) 0));
+
+        ArgumentCaptor<ObservedValue> captor = ArgumentCaptor.forClass(ObservedValue.class);
+        verify(observationListener, times(2)).observedValue(captor.capture());
+        Number trendValue = captor.getAllValues().get(0).getValue();
+        assertEquals(new BigDecimal("21.456789"), trendValue);
+        MetasysObservationMessage message = new MetasysObservationMessage(new ObservedValueNumber("objectId-temp-1", trendValue, null), new RecTags("temp-1"));
+        assertEquals(new BigDecimal("21.46"), message.getValue());
+        assertEquals(Integer.valueOf(1), captor.getAllValues().get(1).getValue());
+    }
+
+    @Test
+    void droppedCompactObservationIsNeverBoxed() {
+        CompactObservation observation = new CompactObservation();
+        chain.observed(observation.set(tempSensor, start.toEpochMilli(), 21.5, (short) 0));
+        ObservedValue first = observation.toObservedValue();
+
+        // Reused for the next observation, a duplicate from the trend log
+        chain.observed(observation.set(tempSensor, start.plusSeconds(5).toEpochMilli(), 21.5, CompactObservation.TREND));
+
+        verify(observationListener, times(1)).observedValue(any());
+        assertEquals(1, dedupFilter.getNumberOfDuplicatesFromTrend());
+        assertEquals(0, sensorIndex.slotOf("temp-1"));
+        assertNotSame(first, observation.toObservedValue());
+    }
+
+    @Test
+    void booleanAndMissingValues() {
+        CompactObservation observation = new CompactObservation();
+        ObservedValue closed = observation.set(tempSensor, start.toEpochMilli(), 1, CompactObservation.BOOLEAN).toObservedValue();
+        assertEquals(1, closed.getValue());
+
+        ObservedValue noValue = observation.set(tempSensor, null, (Number) null, CompactObservation.TREND).toObservedValue();
+        assertNull(noValue.getValue());
+        assertFalse(observation.hasValue());
+        // Observations without a value pass every filter
+        chain.observed(observation);
+        verify(observationListener).observedValue(noValue);
+    }
+}
@@ -0,0 +1,159 @@
+package no.cantara.realestate.metasys.cloudconnector.outage;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * TCP proxy in front of the Metasys stand-in, failing connections the way the network does.
+ * <ul>
+ *     <li>PASS - forward to the stand-in</li>
+ *     <li>REFUSE - close new connections at once, as when the host name does not resolve or the host is unreachable</li>
+ *     <li>BLACKHOLE - accept new connections, but never answer, so the client runs into its timeouts</li>
+ * </ul>
+ * Changing mode closes all open connections, so pooled keep-alive connections do not bypass the fault.
+ */
+public class FaultInjectingProxy implements AutoCloseable {
+    private static final Logger log = getLogger(FaultInjectingProxy.class);
+
+    public enum Mode {
+        PASS, REFUSE, BLACKHOLE
+    }
+
+    private final ServerSocket serverSocket;
+    private final int targetPort;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "FaultInjectingProxy");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+    private volatile Mode mode = Mode.PASS;
+    private volatile boolean running = true;
+
+    public FaultInjectingProxy(int targetPort) throws IOException {
+        this.targetPort = targetPort;
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress("localhost", 0));
+        executor.submit(this::acceptConnections);
+        log.info("FaultInjectingProxy listening on port {}, forwarding to {}", getPort(), targetPort);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(Mode mode) {
+        log.info("FaultInjectingProxy mode {} -> {}", this.mode, mode);
+        this.mode = mode;
+        dropConnections();
+    }
+
+    /**
+     * Close all open connections, in both directions.
+     */
+    public void dropConnections() {
+        for (Socket socket : openSockets) {
+            closeQuietly(socket);
+        }
+        openSockets.clear();
+    }
+
+    private void acceptConnections() {
+        while (running) {
+            try {
+                Socket client = serverSocket.accept();
+                switch (mode) {
+                    case REFUSE -> closeQuietly(client);
+                    case BLACKHOLE -> {
+                        openSockets.add(client);
+                        executor.submit(() -> discard(client));
+                    }
+                    case PASS -> forward(client);
+                }
+            } catch (IOException e) {
+                if (running) {
+                    log.debug("Failed to accept connection. Reason: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void forward(Socket client) {
+        try {
+            Socket target = new Socket("localhost", targetPort);
+            openSockets.add(client);
+            openSockets.add(target);
+            executor.submit(() -> pump(client, target));
+            executor.submit(() -> pump(target, client));
+        } catch (IOException e) {
+            log.debug("Failed to connect to target port {}. Reason: {}", targetPort, e.getMessage());
+            closeQuietly(client);
+        }
+    }
+
+    private void pump(Socket from, Socket to) {
+        byte[] buffer = new byte[8192];
+        try (InputStream in = from.getInputStream(); OutputStream out = to.getOutputStream()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                out.flush();
+            }
+        } catch (IOException e) {
+            log.trace("Connection closed. Reason: {}", e.getMessage());
+        } finally {
+            closeQuietly(from);
+            closeQuietly(to);
+        }
+    }
+
+    private void discard(Socket client) {
+        byte[] buffer = new byte[8192];
+        try (InputStream in = client.getInputStream()) {
+            while (in.read(buffer) != -1) {
+                // Never answer
+            }
+        } catch (IOException e) {
+            log.trace("Blackholed connection closed. Reason: {}", e.getMessage());
+        } finally {
+            closeQuietly(client);
+        }
+    }
+
+    private void closeQuietly(Socket socket) {
+        openSockets.remove(socket);
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.trace("Failed to close socket. Reason: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        dropConnections();
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            log.trace("Failed to close server socket. Reason: {}", e.getMessage());
+        }
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,384 @@
+package no.cantara.realestate.metasys.cloudconnector.outage;
+
+import no.cantara.config.ApplicationProperties;
+import no.cantara.realestate.cloudconnector.audit.AuditTrail;
+import no.cantara.realestate.cloudconnector.notifications.NotificationService;
+import no.cantara.realestate.cloudconnector.sensorid.InMemorySensorIdRepository;
+import no.cantara.realestate.metasys.cloudconnector.automationserver.MetasysApiStandInServer;
+import no.cantara.realestate.metasys.cloudconnector.automationserver.MetasysClient;
+import no.cantara.realestate.metasys.cloudconnector.automationserver.MetasysTrendSample;
+import no.cantara.realestate.metasys.cloudconnector.automationserver.SdClientSimulator;
+import no.cantara.realestate.metasys.cloudconnector.automationserver.SdSimulatorSettings;
+import no.cantara.realestate.metasys.cloudconnector.automationserver.stream.MetasysStreamClient;
+import no.cantara.realestate.metasys.cloudconnector.automationserver.streampoc.ServerSentEvent;
+import no.cantara.realestate.metasys.cloudconnector.ingestion.MetasysTrendsIngestionService;
+import no.cantara.realestate.metasys.cloudconnector.ingestion.StreamPocClient;
+import no.cantara.realestate.metasys.cloudconnector.metrics.MetricsDistributionServiceStub;
+import no.cantara.realestate.metasys.cloudconnector.trends.InMemoryTrendsLastUpdatedService;
+import no.cantara.realestate.observations.ConfigMessage;
+import no.cantara.realestate.observations.ConfigValue;
+import no.cantara.realestate.observations.ObservationListener;
+import no.cantara.realestate.observations.ObservedTrendedValue;
+import no.cantara.realestate.observations.ObservedValue;
+import no.cantara.realestate.plugins.notifications.NotificationListener;
+import no.cantara.realestate.rec.RecRepository;
+import no.cantara.realestate.sensors.SensorId;
+import no.cantara.realestate.sensors.metasys.MetasysSensorId;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.mockito.Mockito.mock;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Run OutageScenarios against the real MetasysClient, MetasysStreamClient, MetasysTrendsIngestionService and
+ * StreamPocClient, talking to a MetasysApiStandInServer through a FaultInjectingProxy.
+ * <p>
+ * The stream is opened and subscribed once per scenario, the way MetasysCloudconnectorApplication does it.
+ * Reconnecting is left to the agent, so a scenario where the stream never comes back reports it as not recovered.
+ * <p>
+ * MetasysClient and MetasysStreamClient are singletons, so there can only be one runner per JVM.
+ */
+public class OutageReplayRunner implements AutoCloseable {
+    private static final Logger log = getLogger(OutageReplayRunner.class);
+    static final int NUMBER_OF_SENSORS = 20;
+    static final long SAMPLE_INTERVAL_SECONDS = 5;
+    static final long POLL_INTERVAL_SECONDS = 5;
+    static final double STREAM_EVENTS_PER_SECOND = 20;
+    static final long SLOW_DOWNSTREAM_MILLIS = 250;
+    private static final long MONITOR_INTERVAL_MILLIS = 100;
+
+    private final MetasysApiStandInServer standIn;
+    private final FaultInjectingProxy proxy;
+    private final RecordingNotificationService notifications = new RecordingNotificationService();
+    private final MetasysClient metasysClient;
+    private final MetasysStreamClient streamClient;
+    private final List<MetasysSensorId> sensorIds = SdClientSimulator.syntheticSensorIds(NUMBER_OF_SENSORS);
+
+    public OutageReplayRunner() throws IOException {
+        standIn = new MetasysApiStandInServer()
+                .withSettings(new SdSimulatorSettings()
+                        .withSampleIntervalSeconds(SAMPLE_INTERVAL_SECONDS)
+                        .withRequestsPerSecond(10_000))
+                .withEventsPerSecond(STREAM_EVENTS_PER_SECOND)
+                .withHeartbeatSeconds(5)
+                .start();
+        proxy = new FaultInjectingProxy(standIn.getPort());
+        URI apiUri = URI.create("http://localhost:" + proxy.getPort() + MetasysApiStandInServer.API_PATH + "/");
+        metasysClient = MetasysClient.getInstance("outage", "replay", apiUri, notifications);
+        streamClient = MetasysStreamClient.getInstance("outage", "replay", apiUri, notifications);
+        if (!apiUri.equals(metasysClient.getApiUri()) || !apiUri.equals(streamClient.getApiUri())) {
+            throw new IllegalStateException("MetasysClient or MetasysStreamClient was initialized by another test, " +
+                    "not using " + apiUri + ". Run the outage replay suite in a JVM of its own.");
+        }
+    }
+
+    public OutageReport run(OutageScenario scenario) throws InterruptedException {
+        log.info("Starting {}", scenario);
+        OutageReport report = new OutageReport(scenario);
+        standIn.clearFaults();
+        proxy.setMode(FaultInjectingProxy.Mode.PASS);
+        notifications.reset();
+        RecordingObservationListener listener = new RecordingObservationListener();
+        System.gc();
+        report.baselineHeapBytes = usedHeap();
+
+        Instant startedAt = Instant.now();
+        Map<MetasysSensorId, Instant> lastUpdated = new HashMap<>();
+        InMemorySensorIdRepository sensorIdRepository = new InMemorySensorIdRepository();
+        for (MetasysSensorId sensorId : sensorIds) {
+            lastUpdated.put(sensorId, startedAt);
+            sensorIdRepository.add(sensorId);
+        }
+        AuditTrail auditTrail = mock(AuditTrail.class);
+        MetricsDistributionServiceStub metricsClient = new MetricsDistributionServiceStub("outage_replay");
+        MetasysTrendsIngestionService ingestionService = new MetasysTrendsIngestionService(mock(ApplicationProperties.class),
+                listener, mock(NotificationListener.class), metasysClient, new InMemoryTrendsLastUpdatedService(lastUpdated),
+                auditTrail, metricsClient);
+        ingestionService.addSubscriptions(List.copyOf(sensorIds));
+
+        StreamPocClient streamPocClient = new StreamPocClient(streamClient, sensorIdRepository, mock(RecRepository.class),
+                listener, metricsClient, auditTrail);
+        Instant streamOpenedAt = openStream(streamPocClient);
+
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+        Monitor monitor = new Monitor(streamPocClient);
+        scheduler.scheduleWithFixedDelay(() -> ingestTrends(ingestionService), 0, POLL_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        scheduler.scheduleAtFixedRate(monitor, 0, MONITOR_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        try {
+            Thread.sleep(scenario.getWarmup().toMillis());
+
+            Instant faultStartedAt = Instant.now();
+            monitor.faultStartedAt = faultStartedAt;
+            injectFault(scenario.getFault(), listener);
+            long outageEndsAt = System.currentTimeMillis() + scenario.getOutage().toMillis();
+            while (System.currentTimeMillis() < outageEndsAt) {
+                Thread.sleep(1000);
+                if (scenario.getFault() == OutageScenario.Fault.STREAM_DROP) {
+                    standIn.dropStreams();
+                }
+            }
+            clearFault(listener);
+            Instant faultEndedAt = Instant.now();
+            listener.markRecovery(faultEndedAt);
+
+            Thread.sleep(scenario.getRecovery().toMillis());
+            Instant endedAt = Instant.now();
+
+            report.timeToDetect = monitor.detectedAt.get() == null ? null : Duration.between(faultStartedAt, monitor.detectedAt.get());
+            report.detectedBy = monitor.detectedBy;
+            report.timeToRecover = timeToRecover(scenario.getFault(), listener, faultEndedAt);
+            countTrendSamples(report, listener, startedAt, endedAt.minusSeconds(POLL_INTERVAL_SECONDS + SAMPLE_INTERVAL_SECONDS));
+            report.streamObservationsExpected = (long) (Duration.between(streamOpenedAt, endedAt).toMillis() / 1000d * STREAM_EVENTS_PER_SECOND);
+            report.streamObservationsReceived = listener.streamObservations.get();
+            report.streamObservationsLost = Math.max(0, report.streamObservationsExpected - report.streamObservationsReceived);
+            report.peakHeapBytes = monitor.peakHeapBytes;
+            report.streamEventQueueDepth = streamPocClient.eventQueue.size();
+            report.alarmsSent = notifications.alarms.get();
+            report.warningsSent = notifications.warnings.get();
+        } finally {
+            scheduler.shutdownNow();
+            scheduler.awaitTermination(60, TimeUnit.SECONDS);
+            clearFault(listener);
+            standIn.dropStreams();
+            streamPocClient.close();
+        }
+        log.info("Finished {}", report);
+        return report;
+    }
+
+    private Instant openStream(StreamPocClient streamPocClient) throws InterruptedException {
+        streamPocClient.createStream(streamPocClient);
+        ServerSentEvent event = streamPocClient.eventQueue.poll(10, TimeUnit.SECONDS);
+        String subscriptionId = streamPocClient.getSubscriptionId();
+        if (event == null || subscriptionId == null) {
+            throw new IllegalStateException("Stream did not open. First event: " + event);
+        }
+        streamPocClient.subscribeToStream(subscriptionId.replace("\"", ""), sensorIds);
+        return Instant.now();
+    }
+
+    private void ingestTrends(MetasysTrendsIngestionService ingestionService) {
+        try {
+            ingestionService.ingestTrends();
+        } catch (Exception e) {
+            log.info("ingestTrends failed. Reason: {}", e.getMessage());
+        }
+    }
+
+    private void injectFault(OutageScenario.Fault fault, RecordingObservationListener listener) {
+        log.info("Inject {}", fault);
+        switch (fault) {
+            case DNS_FAILURE -> proxy.setMode(FaultInjectingProxy.Mode.REFUSE);
+            case TIMEOUT -> proxy.setMode(FaultInjectingProxy.Mode.BLACKHOLE);
+            case SERVER_ERROR_STORM -> standIn.failAllRequestsWith(503);
+            case STREAM_DROP -> standIn.dropStreams();
+            case SLOW_DOWNSTREAM -> listener.delayMillis = SLOW_DOWNSTREAM_MILLIS;
+        }
+    }
+
+    private void clearFault(RecordingObservationListener listener) {
+        if (proxy.getMode() != FaultInjectingProxy.Mode.PASS) {
+            proxy.setMode(FaultInjectingProxy.Mode.PASS);
+        }
+        standIn.clearFaults();
+        listener.delayMillis = 0;
+    }
+
+    static Duration timeToRecover(OutageScenario.Fault fault, RecordingObservationListener listener, Instant faultEndedAt) {
+        Instant recoveredAt = faultEndedAt;
+        if (fault.isAffectsTrends()) {
+            Instant trendsRecoveredAt = listener.trendsRecoveredAt.get();
+            if (trendsRecoveredAt == null) {
+                return null;
+            }
+            recoveredAt = trendsRecoveredAt.isAfter(recoveredAt) ? trendsRecoveredAt : recoveredAt;
+        }
+        if (fault.isAffectsStream()) {
+            Instant streamRecoveredAt = listener.streamRecoveredAt.get();
+            if (streamRecoveredAt == null) {
+                return null;
+            }
+            recoveredAt = streamRecoveredAt.isAfter(recoveredAt) ? streamRecoveredAt : recoveredAt;
+        }
+        return Duration.between(faultEndedAt, recoveredAt);
+    }
+
+    /**
+     * Compare the trend samples delivered downstream with the samples the stand-in had available.
+     */
+    private void countTrendSamples(OutageReport report, RecordingObservationListener listener, Instant after, Instant until) {
+        for (MetasysSensorId sensorId : sensorIds) {
+            Set<MetasysTrendSample> available = standIn.availableTrendSamples(sensorId.getMetasysObjectId(), after, until);
+            Map<Instant, AtomicInteger> delivered = listener.trendDeliveries.getOrDefault(sensorId.getMetasysObjectId(), new ConcurrentHashMap<>());
+            for (MetasysTrendSample sample : available) {
+                report.trendSamplesExpected++;
+                AtomicInteger count = delivered.get(sample.getObservedAt());
+                if (count == null) {
+                    report.trendSamplesLost++;
+                } else {
+                    report.trendSamplesDelivered++;
+                    report.trendSamplesDuplicated += count.get() - 1;
+                }
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Override
+    public void close() {
+        proxy.close();
+        standIn.stop();
+    }
+
+    /**
+     * Samples heap usage, and looks for the first sign that the agent has noticed the fault.
+     */
+    private class Monitor implements Runnable {
+        private final StreamPocClient streamPocClient;
+        private final AtomicReference<Instant> detectedAt = new AtomicReference<>();
+        private volatile Instant faultStartedAt;
+        private volatile String detectedBy;
+        private volatile long peakHeapBytes;
+
+        Monitor(StreamPocClient streamPocClient) {
+            this.streamPocClient = streamPocClient;
+        }
+
+        @Override
+        public void run() {
+            peakHeapBytes = Math.max(peakHeapBytes, usedHeap());
+            if (faultStartedAt == null || detectedAt.get() != null) {
+                return;
+            }
+            String signal = null;
+            if (notifications.firstNotificationAt.get() != null) {
+                signal = "notification";
+            } else if (!metasysClient.isApiAvailable()) {
+                signal = "MetasysClient.apiAvailable";
+            } else if (!metasysClient.isHealthy()) {
+                signal = "MetasysClient.healthy";
+            } else if (!streamPocClient.isStreamOpen()) {
+                signal = "StreamPocClient.streamOpen";
+            }
+            if (signal != null && detectedAt.compareAndSet(null, Instant.now())) {
+                detectedBy = signal;
+                log.info("Fault detected by {}", signal);
+            }
+        }
+    }
+
+    /**
+     * Counts trend samples per objectId and observedAt, and stream observations. Optionally slow.
+     */
+    static class RecordingObservationListener implements ObservationListener {
+        final Map<String, Map<Instant, AtomicInteger>> trendDeliveries = new ConcurrentHashMap<>();
+        final AtomicLong streamObservations = new AtomicLong();
+        final AtomicReference<Instant> trendsRecoveredAt = new AtomicReference<>();
+        final AtomicReference<Instant> streamRecoveredAt = new AtomicReference<>();
+        private volatile Instant recoveryMark;
+        private volatile Instant lastMessageObserved;
+        volatile long delayMillis = 0;
+
+        void markRecovery(Instant faultEndedAt) {
+            recoveryMark = faultEndedAt;
+        }
+
+        @Override
+        public void observedValue(ObservedValue observedValue) {
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            Instant now = Instant.now();
+            lastMessageObserved = now;
+            boolean afterFault = recoveryMark != null && now.isAfter(recoveryMark);
+            if (observedValue instanceof ObservedTrendedValue) {
+                SensorId sensorId = observedValue.getSensorId();
+                String objectId = sensorId instanceof MetasysSensorId metasysSensorId ? metasysSensorId.getMetasysObjectId() : sensorId.getId();
+                trendDeliveries.computeIfAbsent(objectId, key -> new ConcurrentHashMap<>())
+                        .computeIfAbsent(observedValue.getObservedAt(), key -> new AtomicInteger())
+                        .incrementAndGet();
+                if (afterFault) {
+                    trendsRecoveredAt.compareAndSet(null, now);
+                }
+            } else {
+                streamObservations.incrementAndGet();
+                if (afterFault) {
+                    streamRecoveredAt.compareAndSet(null, now);
+                }
+            }
+        }
+
+        @Override
+        public void observedConfigValue(ConfigValue configValue) {
+            lastMessageObserved = Instant.now();
+        }
+
+        @Override
+        public void observedConfigMessage(ConfigMessage configMessage) {
+            lastMessageObserved = Instant.now();
+        }
+
+        @Override
+        public Instant getWhenLastMessageObserved() {
+            return lastMessageObserved;
+        }
+    }
+
+    static class RecordingNotificationService implements NotificationService {
+        final AtomicLong alarms = new AtomicLong();
+        final AtomicLong warnings = new AtomicLong();
+        final AtomicReference<Instant> firstNotificationAt = new AtomicReference<>();
+
+        void reset() {
+            alarms.set(0);
+            warnings.set(0);
+            firstNotificationAt.set(null);
+        }
+
+        @Override
+        public boolean sendWarning(String service, String warningMessage) {
+            log.info("Warning from {}: {}", service, warningMessage);
+            warnings.incrementAndGet();
+            firstNotificationAt.compareAndSet(null, Instant.now());
+            return true;
+        }
+
+        @Override
+        public boolean sendAlarm(String service, String alarmMessage) {
+            log.info("Alarm from {}: {}", service, alarmMessage);
+            alarms.incrementAndGet();
+            firstNotificationAt.compareAndSet(null, Instant.now());
+            return true;
+        }
+
+        @Override
+        public boolean clearService(String service) {
+            log.info("Cleared {}", service);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package no.cantara.realestate.metasys.cloudconnector.outage;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Replay the outage scenarios and write a report to target/outage-replay-report.txt
+ * Takes about seven minutes, so it only runs when asked for:
+ * mvn test -Dtest=OutageReplaySuiteTest -Doutage.replay=true
+ */
+@EnabledIfSystemProperty(named = "outage.replay", matches = "true")
+class OutageReplaySuiteTest {
+
+    private static final Path REPORT_FILE = Path.of("target", "outage-replay-report.txt");
+    private static OutageReplayRunner runner;
+
+    @BeforeAll
+    static void beforeAll() throws IOException {
+        runner = new OutageReplayRunner();
+    }
+
+    @AfterAll
+    static void afterAll() {
+        if (runner != null) {
+            runner.close();
+        }
+    }
+
+    @Test
+    void replayOutages() throws Exception {
+        List<OutageReport> reports = new ArrayList<>();
+        for (OutageScenario scenario : OutageScenario.defaults()) {
+            reports.add(runner.run(scenario));
+        }
+
+        List<String> lines = new ArrayList<>();
+        lines.add(OutageReport.tableHeader());
+        reports.forEach(report -> lines.add(report.toTableRow()));
+        Files.createDirectories(REPORT_FILE.getParent());
+        Files.write(REPORT_FILE, lines);
+        lines.forEach(System.out::println);
+
+        for (OutageReport report : reports) {
+            assertNotNull(report.getScenario());
+            assertTrue(report.getTrendSamplesExpected() > 0, "No trend samples available in " + report.getScenario().getName());
+            assertTrue(report.getTrendSamplesDelivered() + report.getTrendSamplesLost() == report.getTrendSamplesExpected());
+            assertTrue(report.getPeakHeapBytes() > 0);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package no.cantara.realestate.metasys.cloudconnector.outage;
+
+import java.time.Duration;
+
+/**
+ * Result of one OutageScenario. timeToDetect and timeToRecover are null when the agent did not detect or
+ * did not recover within the scenario.
+ */
+public class OutageReport {
+    private final OutageScenario scenario;
+    Duration timeToDetect;
+    String detectedBy;
+    Duration timeToRecover;
+    long trendSamplesExpected;
+    long trendSamplesDelivered;
+    long trendSamplesLost;
+    long trendSamplesDuplicated;
+    long streamObservationsExpected;
+    long streamObservationsReceived;
+    long streamObservationsLost;
+    long baselineHeapBytes;
+    long peakHeapBytes;
+    long streamEventQueueDepth;
+    long alarmsSent;
+    long warningsSent;
+
+    OutageReport(OutageScenario scenario) {
+        this.scenario = scenario;
+    }
+
+    public OutageScenario getScenario() {
+        return scenario;
+    }
+
+    public Duration getTimeToDetect() {
+        return timeToDetect;
+    }
+
+    public String getDetectedBy() {
+        return detectedBy;
+    }
+
+    public Duration getTimeToRecover() {
+        return timeToRecover;
+    }
+
+    public boolean isRecovered() {
+        return timeToRecover != null;
+    }
+
+    public long getTrendSamplesExpected() {
+        return trendSamplesExpected;
+    }
+
+    public long getTrendSamplesDelivered() {
+        return trendSamplesDelivered;
+    }
+
+    public long getTrendSamplesLost() {
+        return trendSamplesLost;
+    }
+
+    public long getTrendSamplesDuplicated() {
+        return trendSamplesDuplicated;
+    }
+
+    public long getStreamObservationsExpected() {
+        return streamObservationsExpected;
+    }
+
+    public long getStreamObservationsReceived() {
+        return streamObservationsReceived;
+    }
+
+    public long getStreamObservationsLost() {
+        return streamObservationsLost;
+    }
+
+    public long getBaselineHeapBytes() {
+        return baselineHeapBytes;
+    }
+
+    public long getPeakHeapBytes() {
+        return peakHeapBytes;
+    }
+
+    public long getStreamEventQueueDepth() {
+        return streamEventQueueDepth;
+    }
+
+    public long getAlarmsSent() {
+        return alarmsSent;
+    }
+
+    public long getWarningsSent() {
+        return warningsSent;
+    }
+
+    public static String tableHeader() {
+        return String.format("%-20s %10s %-24s %10s %9s %9s %9s %9s %9s %9s %9s %9s %8s %7s",
+                "scenario", "detect_s", "detected_by", "recover_s", "trend_exp", "trend_got", "trend_lost", "trend_dup",
+                "strm_exp", "strm_got", "strm_lost", "peak_mb", "queue", "alarms");
+    }
+
+    public String toTableRow() {
+        return String.format("%-20s %10s %-24s %10s %9d %9d %9d %9d %9d %9d %9d %9d %8d %7d",
+                scenario.getName(), seconds(timeToDetect), detectedBy == null ? "-" : detectedBy, seconds(timeToRecover),
+                trendSamplesExpected, trendSamplesDelivered, trendSamplesLost, trendSamplesDuplicated,
+                streamObservationsExpected, streamObservationsReceived, streamObservationsLost,
+                peakHeapBytes / (1024 * 1024), streamEventQueueDepth, alarmsSent);
+    }
+
+    private static String seconds(Duration duration) {
+        return duration == null ? "never" : String.format("%.1f", duration.toMillis() / 1000d);
+    }
+
+    @Override
+    public String toString() {
+        return "OutageReport{" +
+                "scenario=" + scenario.getName() +
+                ", timeToDetect=" + timeToDetect +
+                ", detectedBy='" + detectedBy + '\'' +
+                ", timeToRecover=" + timeToRecover +
+                ", trendSamplesExpected=" + trendSamplesExpected +
+                ", trendSamplesDelivered=" + trendSamplesDelivered +
+                ", trendSamplesLost=" + trendSamplesLost +
+                ", trendSamplesDuplicated=" + trendSamplesDuplicated +
+                ", streamObservationsExpected=" + streamObservationsExpected +
+                ", streamObservationsReceived=" + streamObservationsReceived +
+                ", streamObservationsLost=" + streamObservationsLost +
+                ", baselineHeapBytes=" + baselineHeapBytes +
+                ", peakHeapBytes=" + peakHeapBytes +
+                ", streamEventQueueDepth=" + streamEventQueueDepth +
+                ", alarmsSent=" + alarmsSent +
+                ", warningsSent=" + warningsSent +
+                '}';
+    }
+}
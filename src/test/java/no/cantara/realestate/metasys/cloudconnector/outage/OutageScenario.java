@@ -0,0 +1,113 @@
+package no.cantara.realestate.metasys.cloudconnector.outage;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * One fault, injected after a warmup period and cleared after the outage period. The recovery period is the time
+ * the agent is given to recover before the scenario ends.
+ */
+public class OutageScenario {
+
+    public enum Fault {
+        /**
+         * Connections to Metasys fail before any http response. Host name lookup failures look like this to the agent.
+         */
+        DNS_FAILURE(true, true),
+        /**
+         * Metasys accepts connections, but never answers.
+         */
+        TIMEOUT(true, true),
+        /**
+         * Metasys answers 503 to every request.
+         */
+        SERVER_ERROR_STORM(true, true),
+        /**
+         * Metasys closes the stream, and keeps closing new streams during the outage.
+         */
+        STREAM_DROP(false, true),
+        /**
+         * The downstream ObservationListener takes a long time for every observation.
+         */
+        SLOW_DOWNSTREAM(true, true);
+
+        private final boolean affectsTrends;
+        private final boolean affectsStream;
+
+        Fault(boolean affectsTrends, boolean affectsStream) {
+            this.affectsTrends = affectsTrends;
+            this.affectsStream = affectsStream;
+        }
+
+        public boolean isAffectsTrends() {
+            return affectsTrends;
+        }
+
+        public boolean isAffectsStream() {
+            return affectsStream;
+        }
+    }
+
+    private final String name;
+    private final Fault fault;
+    private final Duration warmup;
+    private final Duration outage;
+    private final Duration recovery;
+
+    public OutageScenario(String name, Fault fault, Duration warmup, Duration outage, Duration recovery) {
+        this.name = name;
+        this.fault = fault;
+        this.warmup = warmup;
+        this.outage = outage;
+        this.recovery = recovery;
+    }
+
+    public static OutageScenario of(Fault fault, Duration outage, Duration recovery) {
+        return new OutageScenario(fault.name().toLowerCase(), fault, Duration.ofSeconds(10), outage, recovery);
+    }
+
+    /**
+     * The faults from the network outage retrospect. Recovery after a timeout is given room for the 30 seconds
+     * request timeout in MetasysClient.
+     */
+    public static List<OutageScenario> defaults() {
+        return List.of(
+                of(Fault.DNS_FAILURE, Duration.ofSeconds(20), Duration.ofSeconds(40)),
+                of(Fault.TIMEOUT, Duration.ofSeconds(20), Duration.ofSeconds(70)),
+                of(Fault.SERVER_ERROR_STORM, Duration.ofSeconds(20), Duration.ofSeconds(40)),
+                of(Fault.STREAM_DROP, Duration.ofSeconds(20), Duration.ofSeconds(40)),
+                of(Fault.SLOW_DOWNSTREAM, Duration.ofSeconds(20), Duration.ofSeconds(40))
+        );
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Fault getFault() {
+        return fault;
+    }
+
+    public Duration getWarmup() {
+        return warmup;
+    }
+
+    public Duration getOutage() {
+        return outage;
+    }
+
+    public Duration getRecovery() {
+        return recovery;
+    }
+
+    @Override
+    public String toString() {
+        return "OutageScenario{" +
+                "name='" + name + '\'' +
+                ", fault=" + fault +
+                ", warmup=" + warmup +
+                ", outage=" + outage +
+                ", recovery=" + recovery +
+                '}';
+    }
+}
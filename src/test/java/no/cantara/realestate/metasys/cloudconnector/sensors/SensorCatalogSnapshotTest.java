@@ -0,0 +1,101 @@
+package no.cantara.realestate.metasys.cloudconnector.sensors;
+
+import no.cantara.realestate.rec.RecTags;
+import no.cantara.realestate.sensors.metasys.MetasysSensorId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SensorCatalogSnapshotTest {
+
+    private static final String HEADER = "RecId,Tfm,MetasysObjectReference,MetasysObjectId,Name,Description,RealEstate,Building,Section,Floor,ServesRoom,PlacementRoom,SensorType,MeasurementUnit,Interval";
+
+    @TempDir
+    Path tempDirectory;
+
+    @Test
+    void restartWithUnchangedFilesParsesNothing() throws IOException {
+        Path importDirectory = importDirectory();
+        writeFile(importDirectory, "MetasysA.csv",
+                "Sensor-1,+511=564.01001-RT601,anObjectReference,objectId-1,RT601,,511,511,,01,51101001,51101001,temp,celsius,PT15M",
+                "Sensor-2,+511=564.01001-RB601,,objectId-2,RB601,,511,511,,01,51101001,51101001,temp,celsius,");
+        writeFile(importDirectory, "MetasysB.csv", "Sensor-3,+511=564.01001-RY601,,objectId-3,RY601,,511,512,,02,51201001,51201001,co2,ppm,");
+        SensorCatalogSnapshot snapshot = new SensorCatalogSnapshot(tempDirectory.resolve("status/sensor_catalog.bin"));
+        SensorCatalog firstStart = new SensorCatalog(importDirectory.toString(), "Metasys");
+        assertEquals(0, firstStart.restore(snapshot));
+        assertEquals(2, firstStart.reload().getFilesParsed());
+        firstStart.save(snapshot);
+
+        SensorCatalog restart = new SensorCatalog(importDirectory.toString(), "Metasys");
+        assertEquals(2, restart.restore(snapshot));
+        SensorCatalog.Changes changes = restart.reload();
+
+        assertEquals(0, changes.getFilesParsed());
+        assertEquals(2, changes.getFilesUnchanged());
+        assertEquals(3, changes.getAdded().size());
+        SensorCatalog.Entry restored = restart.find("Sensor-1");
+        MetasysSensorId sensorId = restored.getSensorId();
+        assertEquals("objectId-1", sensorId.getMetasysObjectId());
+        assertEquals("anObjectReference", sensorId.getIdentifier(MetasysSensorId.METASYS_OBJECT_REFERENCE));
+        assertEquals("PT15M", restored.getInterval());
+        RecTags recTags = restored.getRecTags();
+        assertEquals("Sensor-1", recTags.getTwinId());
+        assertEquals("Metasys", recTags.getSensorSystem());
+        assertEquals("+511=564.01001-RT601", recTags.getTfm());
+        assertEquals("511", recTags.getBuilding());
+        assertEquals("temp", recTags.getSensorType());
+        assertEquals("celsius", recTags.getMeasurementUnit());
+        assertEquals("", recTags.getSection());
+        // Values shared by several sensors are kept once
+        assertSame(recTags.getSensorType(), restart.find("Sensor-2").getRecTags().getSensorType());
+        assertNull(restart.find("Sensor-2").getInterval());
+    }
+
+    @Test
+    void changedFileIsParsedAgain() throws IOException {
+        Path importDirectory = importDirectory();
+        writeFile(importDirectory, "MetasysA.csv", "Sensor-1,,,objectId-1,,,,,,,,,temp,celsius,");
+        writeFile(importDirectory, "MetasysB.csv", "Sensor-2,,,objectId-2,,,,,,,,,temp,celsius,");
+        SensorCatalogSnapshot snapshot = new SensorCatalogSnapshot(tempDirectory.resolve("sensor_catalog.bin"));
+        SensorCatalog firstStart = new SensorCatalog(importDirectory.toString(), "Metasys");
+        firstStart.reload();
+        firstStart.save(snapshot);
+
+        writeFile(importDirectory, "MetasysB.csv", "Sensor-2,,,objectId-2b,,,,,,,,,temp,celsius,");
+        SensorCatalog restart = new SensorCatalog(importDirectory.toString(), "Metasys");
+        restart.restore(snapshot);
+        SensorCatalog.Changes changes = restart.reload();
+
+        assertEquals(1, changes.getFilesParsed());
+        assertEquals(2, changes.getAdded().size());
+        assertEquals("objectId-2b", restart.find("Sensor-2").getSensorId().getMetasysObjectId());
+    }
+
+    @Test
+    void unreadableSnapshotIsIgnored() throws IOException {
+        Path importDirectory = importDirectory();
+        writeFile(importDirectory, "MetasysA.csv", "Sensor-1,,,objectId-1,,,,,,,,,temp,celsius,");
+        Path file = tempDirectory.resolve("sensor_catalog.bin");
+        Files.write(file, new byte[]{0x4D, 0x53, 0x43, 0x53, 0, 0, 0, 1, 0x7F});
+        SensorCatalog catalog = new SensorCatalog(importDirectory.toString(), "Metasys");
+
+        assertEquals(0, catalog.restore(new SensorCatalogSnapshot(file)));
+        SensorCatalog.Changes changes = catalog.reload();
+        assertEquals(1, changes.getFilesParsed());
+        assertEquals(1, changes.getAdded().size());
+    }
+
+    private Path importDirectory() throws IOException {
+        return Files.createDirectories(tempDirectory.resolve("import-data"));
+    }
+
+    private static void writeFile(Path directory, String name, String... rows) throws IOException {
+        Files.write(directory.resolve(name), List.of(HEADER + "\n" + String.join("\n", rows)));
+    }
+}
@@ -0,0 +1,131 @@
+package no.cantara.realestate.metasys.cloudconnector.sensors;
+
+import no.cantara.realestate.rec.RecTags;
+import no.cantara.realestate.sensors.SensorId;
+import no.cantara.realestate.sensors.metasys.MetasysSensorId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SensorCatalogTest {
+
+    private static final String HEADER = "DigitalTwinId,MetasysObjectId,RecId,Interval";
+
+    @TempDir
+    Path importDirectory;
+
+    @Test
+    void firstReloadFindsAllSensorsAdded() throws IOException {
+        writeFile("MetasysA.csv", "Sensor-1,objectId-1,Sensor-1,60", "Sensor-2,objectId-2,,");
+        SensorCatalog catalog = new SensorCatalog(importDirectory.toString(), "Metasys");
+
+        SensorCatalog.Changes changes = catalog.reload();
+        assertEquals(2, changes.getAdded().size());
+        assertTrue(changes.getRemoved().isEmpty());
+        assertTrue(changes.getModified().isEmpty());
+        assertEquals(2, catalog.size());
+        assertEquals("60", catalog.find("Sensor-1").getInterval());
+        assertNotNull(catalog.find("Sensor-1").getRecTags());
+        assertNull(catalog.find("Sensor-2").getRecTags());
+    }
+
+    @Test
+    void unchangedFileIsNotParsedAgain() throws IOException {
+        writeFile("MetasysA.csv", "Sensor-1,objectId-1,Sensor-1,60");
+        writeFile("MetasysB.csv", "Sensor-2,objectId-2,Sensor-2,60");
+        writeFile("Other.csv", "Sensor-3,objectId-3,Sensor-3,60");
+        SensorCatalog catalog = new SensorCatalog(importDirectory.toString(), "Metasys");
+        assertEquals(2, catalog.reload().getFilesParsed());
+
+        writeFile("MetasysB.csv", "Sensor-2,objectId-2,Sensor-2,60", "Sensor-4,objectId-4,Sensor-4,60");
+        SensorCatalog.Changes changes = catalog.reload();
+        assertEquals(1, changes.getFilesParsed());
+        assertEquals(1, changes.getFilesUnchanged());
+        assertEquals(1, changes.getAdded().size());
+        assertEquals("Sensor-4", changes.getAdded().get(0).getTwinId());
+
+        changes = catalog.reload();
+        assertTrue(changes.isEmpty());
+        assertEquals(0, changes.getFilesParsed());
+    }
+
+    @Test
+    void addedRemovedAndModifiedRows() throws IOException {
+        writeFile("MetasysA.csv", "Sensor-1,objectId-1,Sensor-1,60", "Sensor-2,objectId-2,Sensor-2,60",
+                "Sensor-3,objectId-3,Sensor-3,60");
+        SensorCatalog catalog = new SensorCatalog(importDirectory.toString(), "Metasys");
+        catalog.reload();
+
+        writeFile("MetasysA.csv", "Sensor-1,objectId-1,Sensor-1,60", "Sensor-3,objectId-3b,Sensor-3,60",
+                "Sensor-5,objectId-5,Sensor-5,60");
+        SensorCatalog.Changes changes = catalog.reload();
+        assertEquals(List.of("Sensor-5"), twinIds(changes.getAdded()));
+        assertEquals(List.of("Sensor-2"), twinIds(changes.getRemoved()));
+        assertEquals(List.of("Sensor-3"), twinIds(changes.getModified()));
+        assertEquals("objectId-3", changes.getPrevious("Sensor-3").getSensorId().getMetasysObjectId());
+        assertEquals("objectId-3b", catalog.find("Sensor-3").getSensorId().getMetasysObjectId());
+        assertNull(changes.getPrevious("Sensor-1"));
+    }
+
+    @Test
+    void sensorsOfDeletedFileAreRemoved() throws IOException {
+        writeFile("MetasysA.csv", "Sensor-1,objectId-1,Sensor-1,60");
+        Path fileB = writeFile("MetasysB.csv", "Sensor-2,objectId-2,Sensor-2,60");
+        SensorCatalog catalog = new SensorCatalog(importDirectory.toString(), "Metasys");
+        catalog.reload();
+
+        Files.delete(fileB);
+        SensorCatalog.Changes changes = catalog.reload();
+        assertEquals(List.of("Sensor-2"), twinIds(changes.getRemoved()));
+        assertEquals(0, changes.getFilesParsed());
+        assertEquals(1, catalog.size());
+    }
+
+    @Test
+    void sensorMovedBetweenFilesIsNotRemoved() throws IOException {
+        writeFile("MetasysA.csv", "Sensor-1,objectId-1,Sensor-1,60", "Sensor-2,objectId-2,Sensor-2,60");
+        writeFile("MetasysB.csv", "Sensor-3,objectId-3,Sensor-3,60");
+        SensorCatalog catalog = new SensorCatalog(importDirectory.toString(), "Metasys");
+        catalog.reload();
+
+        writeFile("MetasysA.csv", "Sensor-1,objectId-1,Sensor-1,60");
+        writeFile("MetasysB.csv", "Sensor-3,objectId-3,Sensor-3,60", "Sensor-2,objectId-2,Sensor-2,60");
+        assertTrue(catalog.reload().isEmpty());
+        assertEquals(3, catalog.size());
+    }
+
+    @Test
+    void recTagsAreJoinedToSensorsById() throws IOException {
+        writeFile("MetasysA.csv", "Sensor-1,objectId-1,Sensor-1,60", "Sensor-2,objectId-2,,", "Sensor-3,objectId-3,Sensor-3,");
+        SensorCatalog catalog = new SensorCatalog(importDirectory.toString(), "Metasys");
+        List<SensorCatalog.Entry> entries = catalog.reload().getAdded();
+
+        List<SensorId> subscribed = List.of(new MetasysSensorId("Sensor-1", "objectId-1"), new MetasysSensorId("Sensor-2", "objectId-2"));
+        Map<String, RecTags> joined = new LinkedHashMap<>();
+        SensorCatalog.joinRecTags(subscribed, entries, (sensorId, recTags) -> joined.put(sensorId.getId(), recTags));
+
+        assertEquals(List.of("Sensor-1"), List.copyOf(joined.keySet()));
+        assertEquals("Sensor-1", joined.get("Sensor-1").getTwinId());
+        assertEquals(Map.of("Sensor-1", "60"), SensorCatalog.intervalsOf(entries));
+    }
+
+    private Path writeFile(String name, String... rows) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(HEADER);
+        lines.addAll(List.of(rows));
+        return Files.write(importDirectory.resolve(name), lines);
+    }
+
+    private static List<String> twinIds(List<SensorCatalog.Entry> entries) {
+        return entries.stream().map(SensorCatalog.Entry::getTwinId).toList();
+    }
+}
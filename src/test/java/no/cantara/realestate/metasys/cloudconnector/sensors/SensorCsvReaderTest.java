@@ -0,0 +1,107 @@
+package no.cantara.realestate.metasys.cloudconnector.sensors;
+
+import no.cantara.realestate.metasys.cloudconnector.utils.CanonicalStrings;
+import no.cantara.realestate.rec.RecTags;
+import no.cantara.realestate.sensors.metasys.MetasysSensorId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SensorCsvReaderTest {
+
+    @TempDir
+    Path importDirectory;
+
+    @Test
+    void rowsAreReadByColumnName() {
+        SensorCsvReader reader = new SensorCsvReader();
+        List<SensorCatalog.Entry> entries = reader.read(Path.of("./src/test/resources/test-import-data/MetasysRecImported.csv"));
+
+        assertEquals(2, entries.size());
+        SensorCatalog.Entry entry = entries.get(1);
+        assertEquals("Sensor-9f5f0d65-5dab-495a-93b4-123456", entry.getTwinId());
+        assertEquals("d1d75efd-0652-5dd4-bc5c-72bba7b33ff2", entry.getSensorId().getMetasysObjectId());
+        assertEquals("anObjectReference", entry.getSensorId().getIdentifier(MetasysSensorId.METASYS_OBJECT_REFERENCE));
+        assertNotNull(entry.getRecTags());
+        assertNull(entry.getInterval());
+        assertEquals(2, reader.getLastRowsRead());
+    }
+
+    @Test
+    void quotedFieldsAndSemicolonSeparator() {
+        assertArrayEquals(new String[]{"a", "b,c", "say \"hi\"", ""}, SensorCsvReader.split("a,\"b,c\",\"say \"\"hi\"\"\",", ','));
+        assertArrayEquals(new String[]{"a", "b,c"}, SensorCsvReader.split("a;b,c", ';'));
+    }
+
+    @Test
+    void headerWithSemicolonAndByteOrderMark() throws IOException {
+        Path file = importDirectory.resolve("MetasysSemicolon.csv");
+        Files.writeString(file, "\uFEFFDigitalTwinId;MetasysObjectId;RecId;Interval\nTwin-1;objectId-1;Rec-1; PT15M \n\n;objectId-2;;\n");
+
+        List<SensorCatalog.Entry> entries = new SensorCsvReader().read(file);
+
+        assertEquals(1, entries.size(), "Row without DigitalTwinId and RecId is skipped");
+        assertEquals("Twin-1", entries.get(0).getTwinId());
+        assertEquals("objectId-1", entries.get(0).getSensorId().getMetasysObjectId());
+        assertEquals("PT15M", entries.get(0).getInterval());
+    }
+
+    @Test
+    void chunksAreParsedInParallelAndKeepRowOrder() throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (int f = 0; f < 3; f++) {
+            List<String> lines = new ArrayList<>();
+            lines.add("RecId,MetasysObjectId");
+            for (int i = 0; i < 1000; i++) {
+                lines.add("Sensor-" + f + "-" + i + ",objectId-" + i);
+            }
+            files.add(Files.write(importDirectory.resolve("Metasys" + f + ".csv"), lines));
+        }
+        SensorCsvReader reader = new SensorCsvReader(4, 7);
+
+        Map<Path, List<SensorCatalog.Entry>> entriesPerFile = reader.readAll(files);
+
+        assertEquals(files, new ArrayList<>(entriesPerFile.keySet()));
+        for (int f = 0; f < 3; f++) {
+            List<SensorCatalog.Entry> entries = entriesPerFile.get(files.get(f));
+            assertEquals(1000, entries.size());
+            for (int i = 0; i < 1000; i++) {
+                assertEquals("Sensor-" + f + "-" + i, entries.get(i).getTwinId());
+            }
+        }
+        assertEquals(3000, reader.getLastRowsRead());
+        assertTrue(reader.getLastRowsPerSecond() > 0);
+    }
+
+    @Test
+    void repeatedColumnsShareOneInstance() throws IOException {
+        Path file = Files.write(importDirectory.resolve("MetasysA.csv"), List.of(
+                "RecId,MetasysObjectId,Building,Floor,SensorType,MeasurementUnit,Interval",
+                "Sensor-1,objectId-1,511,01,temp,celsius,PT15M",
+                "Sensor-2,objectId-2,511,01,temp,celsius,PT15M"));
+        List<SensorCatalog.Entry> entries = new SensorCsvReader(1, 10, new CanonicalStrings(64)).read(file);
+
+        RecTags first = entries.get(0).getRecTags();
+        RecTags second = entries.get(1).getRecTags();
+        assertSame(first.getBuilding(), second.getBuilding());
+        assertSame(first.getFloor(), second.getFloor());
+        assertSame(first.getSensorType(), second.getSensorType());
+        assertSame(first.getMeasurementUnit(), second.getMeasurementUnit());
+        assertSame(entries.get(0).getInterval(), entries.get(1).getInterval());
+        assertEquals("celsius", second.getMeasurementUnit());
+    }
+
+    @Test
+    void missingFileGivesNoRows() {
+        List<SensorCatalog.Entry> entries = new SensorCsvReader().read(importDirectory.resolve("MetasysMissing.csv"));
+        assertTrue(entries.isEmpty());
+    }
+}
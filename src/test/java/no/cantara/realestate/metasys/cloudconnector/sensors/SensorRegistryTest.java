@@ -0,0 +1,86 @@
+package no.cantara.realestate.metasys.cloudconnector.sensors;
+
+import no.cantara.realestate.sensors.SensorId;
+import no.cantara.realestate.sensors.metasys.MetasysSensorId;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SensorRegistryTest {
+
+    @Test
+    void duplicateSensorIdIsRegisteredOnce() {
+        SensorRegistry registry = new SensorRegistry();
+        assertTrue(registry.add(new MetasysSensorId("Sensor-1", "objectId-1")));
+        assertFalse(registry.add(new MetasysSensorId("Sensor-1", "objectId-1")));
+        List<SensorId> added = registry.addAll(List.of(new MetasysSensorId("Sensor-1", "objectId-1"),
+                new MetasysSensorId("Sensor-2", "objectId-2"), new MetasysSensorId("Sensor-2", "objectId-2")));
+        assertEquals(1, added.size());
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    void findBySensorIdAndMetasysObjectId() {
+        SensorRegistry registry = new SensorRegistry();
+        MetasysSensorId first = new MetasysSensorId("Sensor-1", "objectId-1");
+        MetasysSensorId sharesObject = new MetasysSensorId("Sensor-1b", "objectId-1");
+        registry.addAll(List.of(first, sharesObject, new MetasysSensorId("Sensor-2", "objectId-2")));
+
+        assertSame(first, registry.findBySensorId("Sensor-1"));
+        assertEquals(List.of(first, sharesObject), registry.findByMetasysObjectId("objectId-1"));
+        assertTrue(registry.findByMetasysObjectId("objectId-unknown").isEmpty());
+        assertTrue(registry.contains("Sensor-2"));
+    }
+
+    @Test
+    void snapshotIsNotChangedByLaterBatches() {
+        SensorRegistry registry = new SensorRegistry();
+        registry.addAll(sensors(0, 3));
+        List<SensorId> snapshot = registry.snapshot();
+
+        registry.addAll(sensors(3, 5));
+        List<SensorId> removed = registry.removeAll(sensors(0, 2));
+
+        assertEquals(3, snapshot.size());
+        assertEquals(2, removed.size());
+        assertEquals(List.of("Sensor-2", "Sensor-3", "Sensor-4"), registry.snapshot().stream().map(SensorId::getId).toList());
+        assertNull(registry.findBySensorId("Sensor-0"));
+        assertTrue(registry.findByMetasysObjectId("objectId-1").isEmpty());
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.add(new MetasysSensorId("Sensor-9", "objectId-9")));
+    }
+
+    @Test
+    void reloadOfLargeCatalogAddsOnlyNewSensors() {
+        SensorRegistry registry = new SensorRegistry();
+        registry.addAll(sensors(0, 50_000));
+
+        List<SensorId> added = registry.addAll(sensors(0, 50_100));
+
+        assertEquals(100, added.size());
+        assertEquals("Sensor-50000", added.get(0).getId());
+        assertEquals(50_100, registry.size());
+    }
+
+    @Test
+    void updateReplacesSensorWithNewMetasysObjectId() {
+        SensorRegistry registry = new SensorRegistry();
+        registry.addAll(sensors(0, 3));
+
+        registry.update(List.of(new MetasysSensorId("Sensor-1", "objectId-1")), List.of(new MetasysSensorId("Sensor-1", "objectId-1b")));
+
+        assertEquals(3, registry.size());
+        assertTrue(registry.findByMetasysObjectId("objectId-1").isEmpty());
+        assertEquals("Sensor-1", registry.findByMetasysObjectId("objectId-1b").get(0).getId());
+    }
+
+    private static List<SensorId> sensors(int from, int to) {
+        List<SensorId> sensors = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            sensors.add(new MetasysSensorId("Sensor-" + i, "objectId-" + i));
+        }
+        return sensors;
+    }
+}
@@ -0,0 +1,146 @@
+package no.cantara.realestate.metasys.cloudconnector.sharding;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardMembershipTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final MutableClock clock = new MutableClock();
+
+    @Test
+    void everySensorHasExactlyOneOwnerAndLoadIsEven() throws Exception {
+        List<ShardMembership> instances = startInstances("agent-a", "agent-b", "agent-c");
+        for (ShardMembership instance : instances) {
+            instance.refreshMembers();
+            assertEquals(Set.of("agent-a", "agent-b", "agent-c"), instance.getMembers());
+        }
+
+        Map<String, Integer> ownedBy = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            String sensorId = "Sensor-" + i;
+            int owners = 0;
+            for (ShardMembership instance : instances) {
+                if (instance.isOwner(sensorId)) {
+                    owners++;
+                    ownedBy.merge(instance.getInstanceId(), 1, Integer::sum);
+                }
+            }
+            assertEquals(1, owners, sensorId);
+        }
+        for (int owned : ownedBy.values()) {
+            assertTrue(owned > 850 && owned < 1150, "Expected about 1000 sensors per instance, got " + ownedBy);
+        }
+    }
+
+    @Test
+    void sensorsOfExpiredInstanceMoveAndOthersStay() throws Exception {
+        List<ShardMembership> instances = startInstances("agent-a", "agent-b", "agent-c");
+        ShardMembership a = instances.get(0);
+        ShardMembership b = instances.get(1);
+        a.refreshMembers();
+        Map<String, String> ownerBefore = owners(List.of(a, b, instances.get(2)));
+
+        clock.advance(20_000);
+        a.renewLease();
+        b.renewLease();
+        clock.advance(20_000);
+        a.heartbeat();
+        b.heartbeat();
+        assertEquals(Set.of("agent-a", "agent-b"), a.getMembers());
+        assertEquals(2, a.getMembershipChanges());
+
+        Map<String, String> ownerAfter = owners(List.of(a, b));
+        for (Map.Entry<String, String> entry : ownerBefore.entrySet()) {
+            if (!entry.getValue().equals("agent-c")) {
+                assertEquals(entry.getValue(), ownerAfter.get(entry.getKey()), "Sensor should not move " + entry.getKey());
+            }
+            assertNotNull(ownerAfter.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    void closeRemovesLease() throws Exception {
+        ShardMembership a = startInstances("agent-a").get(0);
+        assertTrue(Files.exists(tempDir.resolve("agent-a" + ShardMembership.LEASE_SUFFIX)));
+        a.close();
+        assertFalse(Files.exists(tempDir.resolve("agent-a" + ShardMembership.LEASE_SUFFIX)));
+    }
+
+    @Test
+    void singleInstanceOwnsEverything() {
+        ShardMembership alone = new ShardMembership(tempDir, "agent-a", 10_000, 35_000, clock);
+        assertTrue(alone.isOwner("Sensor-1"));
+        assertTrue(alone.isOwner("Sensor-2"));
+    }
+
+    private List<ShardMembership> startInstances(String... instanceIds) throws Exception {
+        List<ShardMembership> instances = new ArrayList<>();
+        for (String instanceId : instanceIds) {
+            ShardMembership instance = new ShardMembership(tempDir, instanceId, 10_000, 35_000, clock);
+            instance.renewLease();
+            instances.add(instance);
+        }
+        for (ShardMembership instance : instances) {
+            instance.refreshMembers();
+        }
+        return instances;
+    }
+
+    private Map<String, String> owners(List<ShardMembership> instances) {
+        Map<String, String> owners = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            String sensorId = "Sensor-" + i;
+            for (ShardMembership instance : instances) {
+                if (instance.isOwner(sensorId)) {
+                    owners.put(sensorId, instance.getInstanceId());
+                }
+            }
+        }
+        return owners;
+    }
+
+    private static class MutableClock extends Clock {
+        private long millis = Instant.parse("2025-01-01T10:00:00Z").toEpochMilli();
+
+        void advance(long deltaMillis) {
+            millis += deltaMillis;
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
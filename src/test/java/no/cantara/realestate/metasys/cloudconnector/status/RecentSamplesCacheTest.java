@@ -0,0 +1,119 @@
+package no.cantara.realestate.metasys.cloudconnector.status;
+
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorIndex;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecentSamplesCacheTest {
+
+    private static final long HOUR = 3600_000L;
+    private final Instant start = Instant.parse("2024-01-01T10:00:00Z");
+
+    @Test
+    void samplesAreDecodedAsWritten() {
+        CompressedSampleBlock block = new CompressedSampleBlock(1000);
+        Random random = new Random(42);
+        List<long[]> written = new ArrayList<>();
+        long time = start.toEpochMilli();
+        double value = 21.5;
+        for (int i = 0; i < 1000; i++) {
+            // Regular intervals, jitter, late samples and large jumps
+            switch (i % 7) {
+                case 0 -> time += 600_000;
+                case 1 -> time += random.nextInt(5000);
+                case 2 -> time -= random.nextInt(900_000);
+                case 3 -> time += 40L * 24 * HOUR;
+                default -> time += 1000;
+            }
+            switch (i % 5) {
+                case 0 -> value += 0.1;
+                case 1 -> value = random.nextDouble() * 1e6;
+                case 2 -> value = -value;
+                case 3 -> value = i % 10 == 3 ? Double.NaN : 0;
+                default -> { }
+            }
+            block.add(time, value);
+            written.add(new long[]{time, Double.doubleToRawLongBits(value)});
+        }
+        block.trim();
+
+        List<long[]> read = new ArrayList<>();
+        block.forEach((observedAtMillis, v) -> read.add(new long[]{observedAtMillis, Double.doubleToRawLongBits(v)}));
+        assertEquals(written.size(), read.size());
+        for (int i = 0; i < written.size(); i++) {
+            assertArrayEquals(written.get(i), read.get(i), "sample " + i);
+        }
+    }
+
+    @Test
+    void regularSamplesAreCompressed() {
+        CompressedSampleBlock block = new CompressedSampleBlock(128);
+        long time = start.toEpochMilli();
+        for (int i = 0; i < 128; i++) {
+            block.add(time + i * 600_000L, 21.0 + (i % 4) * 0.5);
+        }
+        block.trim();
+        // 16 bytes per sample uncompressed
+        assertTrue(block.bytes() - CompressedSampleBlock.OVERHEAD_BYTES < 128 * 4, "bytes: " + block.bytes());
+    }
+
+    @Test
+    void latestAndRange() {
+        RecentSamplesCache cache = new RecentSamplesCache(new SensorIndex(), 4, 8, 24 * HOUR, Long.MAX_VALUE);
+        for (int i = 0; i < 10; i++) {
+            cache.record("Sensor-1", start.plusSeconds(i * 60).toEpochMilli(), i);
+        }
+        // A trend sample arriving after newer stream values
+        cache.record("Sensor-1", start.plusSeconds(30).toEpochMilli(), 100);
+
+        RecentSamplesCache.Sample latest = cache.latest("Sensor-1");
+        assertEquals(start.plusSeconds(540), latest.getObservedAt());
+        assertEquals(9, latest.getValue());
+        assertNull(cache.latest("Sensor-2"));
+
+        List<RecentSamplesCache.Sample> range = cache.range("Sensor-1", start, start.plusSeconds(120));
+        assertEquals(3, range.size());
+        assertEquals(0, range.get(0).getValue());
+        assertEquals(100, range.get(1).getValue());
+        assertEquals(1, range.get(2).getValue());
+        assertTrue(cache.range("Sensor-2", start, start.plusSeconds(120)).isEmpty());
+        assertEquals(11, cache.getNumberOfSamples());
+    }
+
+    @Test
+    void oldestBlocksAreDroppedByCountAndRetention() {
+        RecentSamplesCache cache = new RecentSamplesCache(new SensorIndex(), 10, 3, HOUR, Long.MAX_VALUE);
+        for (int i = 0; i < 100; i++) {
+            cache.record("Sensor-1", start.plusSeconds(i).toEpochMilli(), i);
+        }
+        // Three blocks of 10, the last one full
+        assertEquals(30, cache.getNumberOfSamples());
+        assertEquals(70, cache.range("Sensor-1", start, start.plusSeconds(100)).get(0).getValue());
+
+        cache.record("Sensor-1", start.plusSeconds(100).plusMillis(2 * HOUR).toEpochMilli(), 1);
+        assertEquals(1, cache.getNumberOfSamples());
+    }
+
+    @Test
+    void memoryBudgetIsKept() {
+        long budget = 20_000;
+        RecentSamplesCache cache = new RecentSamplesCache(new SensorIndex(), 16, 100, 24 * HOUR, budget);
+        Random random = new Random(1);
+        for (int i = 0; i < 20_000; i++) {
+            cache.record("Sensor-" + (i % 10), start.toEpochMilli() + i * 1000L, random.nextDouble());
+        }
+        assertTrue(cache.getMemoryBytes() <= budget, "memory: " + cache.getMemoryBytes());
+        assertTrue(cache.getNumberOfEvictedBlocks() > 0);
+        // The newest samples of every sensor are kept
+        for (int s = 0; s < 10; s++) {
+            assertEquals(start.toEpochMilli() + (19_990 + s) * 1000L, cache.latest("Sensor-" + s).getObservedAtMillis());
+            assertFalse(cache.range("Sensor-" + s, start.plusSeconds(19_900), start.plusSeconds(20_000)).isEmpty());
+        }
+    }
+}
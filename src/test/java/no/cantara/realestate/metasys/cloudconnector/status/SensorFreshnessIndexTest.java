@@ -0,0 +1,112 @@
+package no.cantara.realestate.metasys.cloudconnector.status;
+
+import no.cantara.realestate.metasys.cloudconnector.observations.filter.FreshnessObservationFilter;
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorIndex;
+import no.cantara.realestate.metasys.cloudconnector.sensors.SensorType;
+import no.cantara.realestate.observations.ObservedTrendedValue;
+import no.cantara.realestate.observations.ObservedValue;
+import no.cantara.realestate.sensors.metasys.MetasysSensorId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SensorFreshnessIndexTest {
+
+    private SensorFreshnessIndex freshnessIndex;
+    private Instant now;
+
+    @BeforeEach
+    void setUp() {
+        freshnessIndex = new SensorFreshnessIndex(new SensorIndex());
+        now = Instant.now();
+        freshnessIndex.registerSensor("fresh-temp", "B1", "temp");
+        freshnessIndex.registerSensor("stale-temp", "B1", "temp");
+        freshnessIndex.registerSensor("never-co2", "B2", "co2");
+        freshnessIndex.recordObserved("fresh-temp", now.minusSeconds(60), SensorFreshnessIndex.SOURCE_STREAM);
+        freshnessIndex.recordObserved("stale-temp", now.minusSeconds(7200), SensorFreshnessIndex.SOURCE_TREND);
+    }
+
+    @Test
+    void staleCountsByBuildingAndSensorType() {
+        SensorFreshnessIndex.StaleCounts counts = freshnessIndex.countStale(new SensorFreshnessIndex.Query(3600, null, null, false), now);
+        assertEquals(3, counts.getTotal());
+        assertEquals(2, counts.getStale());
+        assertEquals(1L, counts.getStaleByBuilding().get("B1"));
+        assertEquals(1L, counts.getStaleByBuilding().get("B2"));
+        assertEquals(1L, counts.getStaleBySensorType().get("temp"));
+        assertEquals(1L, counts.getStaleBySensorType().get("co2"));
+    }
+
+    @Test
+    void findStaleOnlyFilteredOnBuilding() {
+        List<SensorFreshness> stale = freshnessIndex.find(new SensorFreshnessIndex.Query(3600, "B1", null, true), now, 0, 10);
+        assertEquals(1, stale.size());
+        assertEquals("stale-temp", stale.get(0).getTwinId());
+        assertEquals("trend", stale.get(0).getLastSource());
+        assertEquals(SensorType.temp, stale.get(0).getSensorType());
+    }
+
+    @Test
+    void findIsPaginated() {
+        for (int i = 0; i < 2500; i++) {
+            freshnessIndex.registerSensor("sensor-" + i, "B3", "temp");
+        }
+        SensorFreshnessIndex.Query query = new SensorFreshnessIndex.Query(3600, "B3", null, false);
+        assertEquals(1000, freshnessIndex.find(query, now, 0, 1000).size());
+        List<SensorFreshness> lastPage = freshnessIndex.find(query, now, 2, 1000);
+        assertEquals(500, lastPage.size());
+        assertEquals("sensor-2000", lastPage.get(0).getTwinId());
+        assertTrue(freshnessIndex.find(query, now, 3, 1000).isEmpty());
+    }
+
+    @Test
+    void consecutiveFailuresAreResetOnSuccess() {
+        freshnessIndex.recordFailure("stale-temp", "TrendNotFound");
+        freshnessIndex.recordFailure("stale-temp", "TrendNotFound");
+        SensorFreshness freshness = freshnessIndex.getFreshness("stale-temp");
+        assertEquals(2, freshness.getConsecutiveFailures());
+        assertEquals("TrendNotFound", freshness.getLastError());
+        assertNotNull(freshness.getLastFailedAt());
+
+        freshnessIndex.recordSuccess("stale-temp");
+        assertEquals(0, freshnessIndex.getFreshness("stale-temp").getConsecutiveFailures());
+        assertEquals("TrendNotFound", freshnessIndex.getFreshness("stale-temp").getLastError());
+    }
+
+    @Test
+    void filterRecordsSourceAndKeepsLatestObservedAt() {
+        FreshnessObservationFilter filter = new FreshnessObservationFilter(freshnessIndex);
+        MetasysSensorId sensorId = new MetasysSensorId("fresh-temp", "metasysObjectId");
+        ObservedValue trended = new ObservedTrendedValue(sensorId, 21.5);
+        trended.setObservedAt(now.minusSeconds(600));
+        assertTrue(filter.accept(trended));
+
+        SensorFreshness freshness = freshnessIndex.getFreshness("fresh-temp");
+        assertEquals("trend", freshness.getLastSource());
+        assertEquals(now.minusSeconds(60).toEpochMilli(), freshness.getLastObservedAt().toEpochMilli());
+        assertNull(freshnessIndex.getFreshness("unknown-sensor"));
+    }
+
+    @Test
+    void removedSensorIsNotCountedAsStale() {
+        freshnessIndex.recordFailure("never-co2", "TrendNotFound");
+        freshnessIndex.remove("never-co2");
+        freshnessIndex.remove("unknown-sensor");
+
+        SensorFreshnessIndex.StaleCounts counts = freshnessIndex.countStale(new SensorFreshnessIndex.Query(3600, null, null, false), now);
+        assertEquals(2, counts.getTotal());
+        assertEquals(1, counts.getStale());
+        assertNull(counts.getStaleByBuilding().get("B2"));
+        assertNull(freshnessIndex.getFreshness("never-co2"));
+        assertEquals(2, freshnessIndex.getNumberOfSensors());
+
+        // Added again, the sensor starts over without the old failures
+        freshnessIndex.registerSensor("never-co2", "B2", "co2");
+        assertEquals(0, freshnessIndex.getFreshness("never-co2").getConsecutiveFailures());
+        assertEquals(2, freshnessIndex.countStale(new SensorFreshnessIndex.Query(3600, null, null, false), now).getStale());
+    }
+}
@@ -0,0 +1,46 @@
+package no.cantara.realestate.metasys.cloudconnector.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CanonicalStringsTest {
+
+    @Test
+    void equalStringsGiveTheFirstInstance() {
+        CanonicalStrings strings = new CanonicalStrings(16);
+        String first = new String("celsius");
+        String second = new String("celsius");
+
+        assertSame(first, strings.canonical(first));
+        assertSame(first, strings.canonical(second));
+        assertEquals(1, strings.getHits());
+        assertEquals(1, strings.getMisses());
+    }
+
+    @Test
+    void capacityIsBounded() {
+        CanonicalStrings strings = new CanonicalStrings(100);
+        assertEquals(128, strings.getCapacity());
+        for (int i = 0; i < 10_000; i++) {
+            String value = "Sensor-" + i;
+            assertEquals(value, strings.canonical(value));
+        }
+        assertEquals(128, strings.getCapacity());
+    }
+
+    @Test
+    void nullLongStringsAndZeroCapacityArePassedThrough() {
+        assertNull(new CanonicalStrings(16).canonical(null));
+
+        CanonicalStrings strings = new CanonicalStrings(16);
+        String longValue = "x".repeat(CanonicalStrings.MAX_LENGTH + 1);
+        strings.canonical(longValue);
+        assertNotSame(longValue, strings.canonical(new String(longValue)));
+
+        CanonicalStrings none = new CanonicalStrings(0);
+        String value = new String("ppm");
+        none.canonical("ppm");
+        assertSame(value, none.canonical(value));
+    }
+}